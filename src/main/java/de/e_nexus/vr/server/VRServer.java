@@ -8,29 +8,67 @@ package de.e_nexus.vr.server;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.management.ManagementFactory;
 import java.lang.management.OperatingSystemMXBean;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.rmi.ConnectIOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import de.e_nexus.vr.server.codes.Client2ServerCode;
+import de.e_nexus.vr.server.codes.SessionCapability;
+import de.e_nexus.vr.server.dispatch.Lane;
+import de.e_nexus.vr.server.dispatch.VRDispatcher;
+import de.e_nexus.vr.server.dispatch.WorkerPoolDispatcher;
 import de.e_nexus.vr.server.listeners.interaction.HelmetAndControllerInfo;
+import de.e_nexus.vr.server.mesh.EncodedMesh;
+import de.e_nexus.vr.server.mesh.EncodedMeshCache;
 import de.e_nexus.vr.server.mesh.Mesh;
-import de.e_nexus.vr.server.mesh.MeshOutputStream;
+import de.e_nexus.vr.server.mesh.MeshInstance;
+import de.e_nexus.vr.server.mesh.MeshLod;
+import de.e_nexus.vr.server.mesh.MeshLodBuilder;
+import de.e_nexus.vr.server.mesh.MeshPreload;
+import de.e_nexus.vr.server.mesh.Transform;
 import de.e_nexus.vr.server.mesh.Vector;
 import de.e_nexus.vr.server.mesh.tex.MeshTextureInfoInputStream;
 import de.e_nexus.vr.server.mesh.tex.MeshTexturesOutputStream;
+import de.e_nexus.vr.server.mesh.tex.TextureRegistry;
+import de.e_nexus.vr.server.net.OutboundStream;
+import de.e_nexus.vr.server.net.PayloadCompression;
+import de.e_nexus.vr.server.net.RequestDecoder;
+import de.e_nexus.vr.server.net.SharedMemoryLink;
+import de.e_nexus.vr.server.net.TcpTransport;
+import de.e_nexus.vr.server.net.UnixDomainTransport;
+import de.e_nexus.vr.server.net.VRConnection;
+import de.e_nexus.vr.server.net.VRConnectionEngine;
+import de.e_nexus.vr.server.net.VRDatagramHandler;
+import de.e_nexus.vr.server.net.VRReplyHandler;
+import de.e_nexus.vr.server.net.VRRequestHandler;
+import de.e_nexus.vr.server.net.VRTransport;
 import de.e_nexus.vr.server.util.NumberTools;
 
 /**
@@ -48,6 +86,12 @@ public class VRServer extends ServerSocket {
 	 * The default transportation charset.
 	 */
 	private static final Charset LATIN1;
+
+	/**
+	 * The distance in meter the helmet must move before the levels of detail of
+	 * a session are chosen again.
+	 */
+	private static final float LEVEL_UPDATE_DISTANCE = 0.25f;
 	static {
 		LATIN1 = Charset.forName("latin1");
 	}
@@ -58,6 +102,63 @@ public class VRServer extends ServerSocket {
 	 */
 	private final VRSessionStorage sessionStorage = new VRSessionStorage();
 
+	/**
+	 * The meshes encoded for all sessions.
+	 */
+	private final EncodedMeshCache meshCache = new EncodedMeshCache();
+
+	/**
+	 * The compression of the payloads of sessions that accepted
+	 * {@link SessionCapability#COMPRESSED_PAYLOADS}.
+	 */
+	private final PayloadCompression payloadCompression = new PayloadCompression();
+
+	/**
+	 * The current transform of every moved mesh, by the identity of the mesh.
+	 */
+	private final Map<Mesh<?>, Transform> meshTransforms = Collections.synchronizedMap(new IdentityHashMap<Mesh<?>, Transform>());
+
+	/**
+	 * The instances of every instanced mesh, by the identity of the mesh.
+	 * Guarded by the {@link #sessionStorage}.
+	 */
+	private final Map<Mesh<?>, Set<MeshInstance>> meshInstances = new IdentityHashMap<Mesh<?>, Set<MeshInstance>>();
+
+	/**
+	 * The levels of detail of meshes, by the identity of the mesh.
+	 */
+	private final Map<Mesh<?>, MeshLod> meshLods = Collections.synchronizedMap(new IdentityHashMap<Mesh<?>, MeshLod>());
+
+	/**
+	 * The mesh of every level of detail, by the identity of the level. The meshes
+	 * themselves are not contained.
+	 */
+	private final Map<Mesh<?>, Mesh<?>> lodMeshes = Collections.synchronizedMap(new IdentityHashMap<Mesh<?>, Mesh<?>>());
+
+	/**
+	 * The pool preparing added meshes in background, bounded to half of the
+	 * processors so the connections are served meanwhile.
+	 */
+	private final ForkJoinPool preloadPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), new ForkJoinWorkerThreadFactory() {
+		public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("VR-Server preload " + thread.getPoolIndex());
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		}
+	}, null, false);
+
+	/**
+	 * The textures of all sessions by their content, hashed in the
+	 * {@link #preloadPool} unless preloaded.
+	 */
+	private final TextureRegistry textureRegistry = new TextureRegistry(preloadPool);
+
+	/**
+	 * The engine that multiplexes all connections.
+	 */
+	private final VRConnectionEngine engine;
+
 	/**
 	 * The worker thread to accept requests.
 	 */
@@ -68,19 +169,25 @@ public class VRServer extends ServerSocket {
 			setPriority(MAX_PRIORITY);
 		}
 
-		private boolean running = true;
+		private volatile boolean running = true;
+
+		/**
+		 * Close the connections without waiting for them to become idle, set by
+		 * {@link VRServer#close()}.
+		 */
+		private volatile boolean immediately;
 
 		public void run() {
-			try {
-				setSoTimeout(50);
-			} catch (SocketException e) {
-				e.printStackTrace();
-			}
 			while (running) {
 				cycle();
 			}
 			try {
-				VRServer.super.close();
+				engine.stopAccepting();
+				while (!immediately && engine.hasOpenConnections()) {
+					engine.closeIdleConnections();
+					cycle();
+				}
+				engine.close();
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
@@ -117,12 +224,315 @@ public class VRServer extends ServerSocket {
 	 * 
 	 */
 	public VRServer(int port, String threadGroupName) throws IOException {
-		super(port);
+		this(port, threadGroupName, null);
+	}
+
+	/**
+	 * Constructs a vr-server having a specific dispatcher for the opcode
+	 * handlers.
+	 * 
+	 * @param port            The port to listen to.
+	 * @param threadGroupName The threadgroupname, <code>null</code> if no
+	 *                        threadgroup should be used.
+	 * @param dispatcher      The dispatcher executing the opcode handlers of the
+	 *                        {@link Lane#BULK bulk lane}, <code>null</code> for a
+	 *                        {@link WorkerPoolDispatcher#createDefault(String, ThreadGroup)
+	 *                        default worker pool}.
+	 * @throws IOException If and only if the port is already in use.
+	 */
+	public VRServer(int port, String threadGroupName, VRDispatcher dispatcher) throws IOException {
+		this(new TcpTransport(port), threadGroupName, dispatcher);
+	}
+
+	/**
+	 * Constructs a vr-server accepting the VR clients on a specific transport,
+	 * like a {@link UnixDomainTransport Unix domain socket} for a VR client
+	 * running on the same machine.
+	 * 
+	 * @param transport       The transport, never <code>null</code>.
+	 * @param threadGroupName The threadgroupname, <code>null</code> if no
+	 *                        threadgroup should be used.
+	 * @param dispatcher      The dispatcher executing the opcode handlers of the
+	 *                        {@link Lane#BULK bulk lane}, <code>null</code> for a
+	 *                        {@link WorkerPoolDispatcher#createDefault(String, ThreadGroup)
+	 *                        default worker pool}.
+	 * @throws IOException If and only if the address is already in use.
+	 */
+	public VRServer(VRTransport transport, String threadGroupName, VRDispatcher dispatcher) throws IOException {
 		if (threadGroupName != null) {
 			group = new ThreadGroup(threadGroupName);
 		} else {
 			group = null;
 		}
+		if (dispatcher == null) {
+			dispatcher = WorkerPoolDispatcher.createDefault("VR-Server worker", group);
+		}
+		VRDispatcher poseDispatcher = WorkerPoolDispatcher.createPoseLane("VR-Server pose lane", group);
+		try {
+			engine = new VRConnectionEngine(transport, new RequestHandler(), dispatcher, poseDispatcher);
+		} catch (IOException e) {
+			dispatcher.shutdown();
+			poseDispatcher.shutdown();
+			throw e;
+		}
+		SocketAddress local = engine.getLocalAddress();
+		this.port = local instanceof InetSocketAddress ? ((InetSocketAddress) local).getPort() : -1;
+		this.datagramPose = port != -1 && openDatagramChannel();
+	}
+
+	/**
+	 * Opens the UDP port having the same number as the TCP port for
+	 * {@link SessionCapability#DATAGRAM_POSE pose datagrams}.
+	 * 
+	 * @return <code>true</code> if the port is open, <code>false</code> if the
+	 *         clients must send their poses using TCP.
+	 */
+	private boolean openDatagramChannel() {
+		DatagramChannel channel = null;
+		try {
+			channel = DatagramChannel.open();
+			channel.bind(new InetSocketAddress(port));
+			engine.addDatagramChannel(channel, new PoseDatagramHandler());
+			return true;
+		} catch (IOException e) {
+			LOG.warning("UDP port " + port + " not available, poses are only accepted using TCP: " + e.getMessage());
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e1) {
+					LOG.warning(e1.getMessage());
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Is the UDP port for {@link SessionCapability#DATAGRAM_POSE pose datagrams}
+	 * open?
+	 */
+	private final boolean datagramPose;
+
+	/**
+	 * The number of pose datagrams dropped so far.
+	 */
+	private final AtomicLong droppedDatagrams = new AtomicLong();
+
+	/**
+	 * Returns the number of {@link SessionCapability#DATAGRAM_POSE pose
+	 * datagrams} dropped so far: malformed datagrams, datagrams of unknown
+	 * sessions or of sessions without the capability and datagrams older than
+	 * another datagram of the session.
+	 * 
+	 * @return The number of datagrams, never negative.
+	 */
+	public long getDroppedDatagrams() {
+		return droppedDatagrams.get();
+	}
+
+	/**
+	 * The port the server is listening to, <code>-1</code> if the transport has
+	 * no ports.
+	 */
+	private final int port;
+
+	/**
+	 * Returns the port the server is listening to.
+	 * 
+	 * @return The local port, <code>-1</code> if the transport has no ports.
+	 */
+	@Override
+	public int getLocalPort() {
+		return port;
+	}
+
+	/**
+	 * Returns the address the server is listening to.
+	 * 
+	 * @return The local address, <code>null</code> if the transport has no
+	 *         sockets.
+	 */
+	@Override
+	public InetAddress getInetAddress() {
+		ServerSocket socket = engine.getServerSocket();
+		return socket == null ? null : socket.getInetAddress();
+	}
+
+	@Override
+	public SocketAddress getLocalSocketAddress() {
+		ServerSocket socket = engine.getServerSocket();
+		return socket == null ? null : socket.getLocalSocketAddress();
+	}
+
+	/**
+	 * The server is bound by the constructor.
+	 * 
+	 * @return Always <code>true</code>.
+	 */
+	@Override
+	public boolean isBound() {
+		return true;
+	}
+
+	/**
+	 * Returns wherever the server stopped accepting VR clients.
+	 * 
+	 * @return <code>true</code> if the server has been {@link #stop() stopped}
+	 *         or closed, <code>false</code> otherwise.
+	 */
+	@Override
+	public boolean isClosed() {
+		return !engine.isAccepting();
+	}
+
+	/**
+	 * The server is bound by the constructor and cannot be bound again.
+	 * 
+	 * @throws SocketException Always.
+	 */
+	@Override
+	public void bind(SocketAddress endpoint, int backlog) throws IOException {
+		throw new SocketException("Already bound");
+	}
+
+	/**
+	 * The connections are accepted by the {@link VRConnectionEngine} of the
+	 * server, use {@link #start()} instead.
+	 * 
+	 * @throws SocketException Always.
+	 */
+	@Override
+	public Socket accept() throws IOException {
+		throw new SocketException("The connections are accepted by the server itself, use start() instead.");
+	}
+
+	@Override
+	public synchronized void setSoTimeout(int timeout) throws SocketException {
+		ServerSocket socket = engine.getServerSocket();
+		if (socket == null) {
+			super.setSoTimeout(timeout);
+		} else {
+			socket.setSoTimeout(timeout);
+		}
+	}
+
+	@Override
+	public synchronized int getSoTimeout() throws IOException {
+		ServerSocket socket = engine.getServerSocket();
+		return socket == null ? super.getSoTimeout() : socket.getSoTimeout();
+	}
+
+	@Override
+	public void setReuseAddress(boolean on) throws SocketException {
+		ServerSocket socket = engine.getServerSocket();
+		if (socket == null) {
+			super.setReuseAddress(on);
+		} else {
+			socket.setReuseAddress(on);
+		}
+	}
+
+	@Override
+	public boolean getReuseAddress() throws SocketException {
+		ServerSocket socket = engine.getServerSocket();
+		return socket == null ? super.getReuseAddress() : socket.getReuseAddress();
+	}
+
+	@Override
+	public synchronized void setReceiveBufferSize(int size) throws SocketException {
+		ServerSocket socket = engine.getServerSocket();
+		if (socket == null) {
+			super.setReceiveBufferSize(size);
+		} else {
+			socket.setReceiveBufferSize(size);
+		}
+	}
+
+	@Override
+	public synchronized int getReceiveBufferSize() throws SocketException {
+		ServerSocket socket = engine.getServerSocket();
+		return socket == null ? super.getReceiveBufferSize() : socket.getReceiveBufferSize();
+	}
+
+	@Override
+	public String toString() {
+		return "VRServer[" + engine.getTransport() + "]";
+	}
+
+	/**
+	 * Returns the transport the VR clients are accepted on.
+	 * 
+	 * @return The transport, never <code>null</code>.
+	 */
+	public VRTransport getTransport() {
+		return engine.getTransport();
+	}
+
+	/**
+	 * Returns the dispatcher executing the opcode handlers of the
+	 * {@link Lane#BULK bulk lane}. Its {@link VRDispatcher#getMetrics() metrics}
+	 * help to size the pool.
+	 * 
+	 * @return The dispatcher, never <code>null</code>.
+	 */
+	public VRDispatcher getDispatcher() {
+		return engine.getDispatcher(Lane.BULK);
+	}
+
+	/**
+	 * Returns the dispatcher executing the opcode handlers of a lane.
+	 * 
+	 * @param lane The lane, never <code>null</code>.
+	 * @return The dispatcher, never <code>null</code>.
+	 */
+	public VRDispatcher getDispatcher(Lane lane) {
+		return engine.getDispatcher(lane);
+	}
+
+	/**
+	 * Serves a VR client on the same machine using a memory-mapped file instead
+	 * of a socket. The client {@link SharedMemoryLink#open(Path) maps} the file
+	 * and sends the same requests as on a socket, usually starting with
+	 * {@link Client2ServerCode#CREATE_PERSISTENT_SESSION}. A link serves one
+	 * connection.
+	 * 
+	 * @param file     The file to create, an existing file is overwritten.
+	 * @param capacity The number of bytes buffered in each direction, a power of
+	 *                 two of at least 4096.
+	 * @return The link, never <code>null</code>.
+	 * @throws IOException If the file could not be mapped.
+	 */
+	public SharedMemoryLink openSharedMemoryLink(Path file, int capacity) throws IOException {
+		SharedMemoryLink link = SharedMemoryLink.create(file, capacity);
+		engine.addSharedMemoryLink(link, group);
+		return link;
+	}
+
+	/**
+	 * Closes the server immediately without waiting for working connections. A
+	 * started server is stopped and its connections are closed, the call returns
+	 * when the worker thread is done. Use {@link #stop()} to let the working
+	 * connections finish.
+	 * 
+	 * @throws IOException If the server socket could not be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		ConnectionWorker worker = T;
+		if (worker != null) {
+			worker.immediately = true;
+			worker.running = false;
+			if (worker != Thread.currentThread()) {
+				try {
+					worker.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		preloadPool.shutdown();
+		engine.close();
+		super.close();
 	}
 
 	/**
@@ -144,7 +554,8 @@ public class VRServer extends ServerSocket {
 	 * message.
 	 * <p>
 	 * Working connections are not be canceled and are proceesed until the client
-	 * terminates the connection.
+	 * terminates the connection. Persistent connections are closed as soon as they
+	 * are idle.
 	 */
 	public void stop() {
 		T.running = false;
@@ -169,192 +580,294 @@ public class VRServer extends ServerSocket {
 	 */
 	protected void cycle() {
 		try {
-			Socket s = accept();
-			InputStream in = s.getInputStream();
-			OutputStream out = s.getOutputStream();
-			int read = in.read();
-			if (read == -1) {
-				// log("Closed unexpectedly " + in.available());
-			} else {
-				Client2ServerCode code = Client2ServerCode.values()[read];
-				switch (code) {
-				case CREATE_SESSION:
-					StringBuilder sb = new StringBuilder();
-					listeners.getTitle(sb);
-					outLenString(out, sb.toString());
-
-					InetSocketAddress remoteSocketAddress = (InetSocketAddress) s.getRemoteSocketAddress();
-					VRSession session = VRSession.registerNewSession(remoteSocketAddress.getAddress(), getSessionStorage());
-					outLenString(out, session.getUuid().toString());
-					listeners.notifyConnected(true);
-					break;
-
-				case SEND_HELMET_AND_CONTROLLER_INFO: {
-					float helmetX = NumberTools.readByteArrayBigEndianFloat(in);
-					float helmetY = NumberTools.readByteArrayBigEndianFloat(in);
-					float helmetZ = NumberTools.readByteArrayBigEndianFloat(in);
-					float helmetAngleX = NumberTools.readByteArrayBigEndianFloat(in);
-					float helmetAngleY = NumberTools.readByteArrayBigEndianFloat(in);
-					float helmetAngleZ = NumberTools.readByteArrayBigEndianFloat(in);
-					float lhX = NumberTools.readByteArrayBigEndianFloat(in);
-					float lhY = NumberTools.readByteArrayBigEndianFloat(in);
-					float lhZ = NumberTools.readByteArrayBigEndianFloat(in);
-					float lhrX = NumberTools.readByteArrayBigEndianFloat(in);
-					float lhrY = NumberTools.readByteArrayBigEndianFloat(in);
-					float lhrZ = NumberTools.readByteArrayBigEndianFloat(in);
-
-					float rhX = NumberTools.readByteArrayBigEndianFloat(in);
-					float rhY = NumberTools.readByteArrayBigEndianFloat(in);
-					float rhZ = NumberTools.readByteArrayBigEndianFloat(in);
-					float rhrX = NumberTools.readByteArrayBigEndianFloat(in);
-					float rhrY = NumberTools.readByteArrayBigEndianFloat(in);
-					float rhrZ = NumberTools.readByteArrayBigEndianFloat(in);
-					int lcs = in.read();
-					int rcs = in.read();
-					float ltx = NumberTools.readByteArrayBigEndianFloat(in);
-					float lty = NumberTools.readByteArrayBigEndianFloat(in);
-					float rtx = NumberTools.readByteArrayBigEndianFloat(in);
-					float rty = NumberTools.readByteArrayBigEndianFloat(in);
-					HelmetAndControllerInfo haci = new HelmetAndControllerInfo(helmetX, helmetY, helmetZ, helmetAngleX, helmetAngleY, helmetAngleZ, lhX, lhY, lhZ, lhrX, lhrY, lhrZ, rhX, rhY, rhZ,
-							rhrX, rhrY, rhrZ, (byte) lcs, (byte) rcs, ltx, lty, rtx, rty);
-					listeners.notifyInteraction(haci);
-					break;
-				}
-				case GET_INCOMING_MESH: {
-					int uuidsize = in.read();
-					String possibleSessionId = "";
-					for (int i = 0; i < uuidsize; i++) {
-						int c = in.read();
-						if (c == -1) {
-							throw new ConnectIOException("Stream closed while reading the length of uuid in order to ask for incomming meshes.");
-						}
-						char cr = (char) c;
-						possibleSessionId += cr;
-					}
+			engine.cycle(50);
+		} catch (Exception e) {
+			notifyExceptionInCycle(e);
+		}
+	}
 
-					UUID designatedUUID = UUID.fromString(possibleSessionId);
-					InetSocketAddress remoteSockAddr = (InetSocketAddress) s.getRemoteSocketAddress();
-					VRSession vrSession = sessionStorage.getByIpAndSession(designatedUUID, remoteSockAddr);
-					Set<Mesh> meshesToSend = vrSession.getMeshesToSend();
-					int count = Math.min(meshesToSend.size(), 100);
-					out.write(count);
-					out.flush();
-					Iterator<Mesh> iterator = meshesToSend.iterator();
-					for (int i = 0; i < count; i++) {
-						Mesh mesh = iterator.next();
-						iterator.remove();
-						ByteArrayOutputStream buff = new ByteArrayOutputStream();
-						MeshOutputStream mos = new MeshOutputStream(buff);
-						mos.writeMesh(mesh);
-						mos.flush();
-						// dumpToConsole(buff);
-						outLenString(out, buff.size() + "");
-						out.write(buff.toByteArray());
-						out.flush();
-						MeshTexturesOutputStream tos = new MeshTexturesOutputStream(out);
-						tos.writeTextures(mesh);
-						tos.flush();
-						MeshTextureInfoInputStream mtis = new MeshTextureInfoInputStream(in);
-						mtis.readTextureIndexes(mesh, vrSession);
+	/**
+	 * Handles the {@link SessionCapability#DATAGRAM_POSE pose datagrams}. A
+	 * datagram is only accepted from the address of a session having the
+	 * capability and only if it is newer than every datagram of the session
+	 * received before.
+	 */
+	private class PoseDatagramHandler implements VRDatagramHandler {
 
-					}
-					out.flush();
-					break;
+		/**
+		 * The session id, the sequence number and the pose.
+		 */
+		private static final int DATAGRAM_LENGTH = 16 + 4 + RequestDecoder.HELMET_AND_CONTROLLER_INFO_LENGTH;
+
+		public void handleDatagram(InetSocketAddress sender, ByteBuffer datagram) throws IOException {
+			if (datagram.remaining() != DATAGRAM_LENGTH) {
+				LOG.fine("Datagram of " + datagram.remaining() + " bytes from " + sender + " ignored.");
+				droppedDatagrams.incrementAndGet();
+				return;
+			}
+			UUID uuid = RequestDecoder.readBinaryUUID(datagram);
+			int sequence = datagram.getInt();
+			VRSession session = sessionStorage.getByIpAndSession(uuid, sender);
+			if (session == null) {
+				LOG.fine("Datagram from " + sender + " for unknown session " + uuid + " ignored.");
+				droppedDatagrams.incrementAndGet();
+				return;
+			}
+			if (!session.hasCapability(SessionCapability.DATAGRAM_POSE)) {
+				LOG.fine("Datagram from " + sender + " for session " + uuid + " without " + SessionCapability.DATAGRAM_POSE + " ignored.");
+				droppedDatagrams.incrementAndGet();
+				return;
+			}
+			if (!session.acceptPoseSequence(sequence)) {
+				droppedDatagrams.incrementAndGet();
+				return;
+			}
+			HelmetAndControllerInfo haci = RequestDecoder.readHelmetAndControllerInfo(datagram);
+			moveHelmet(session, haci);
+			listeners.notifyInteraction(haci);
+		}
+	}
+
+	/**
+	 * Handles the complete requests of all connections.
+	 */
+	private class RequestHandler implements VRRequestHandler {
+
+		public void handleRequest(VRConnection connection, Client2ServerCode code, ByteBuffer in, OutboundStream out) throws IOException {
+			switch (code) {
+			case CREATE_SESSION:
+				createSession(connection, out);
+				break;
+
+			case CREATE_PERSISTENT_SESSION: {
+				int requested = in.getInt();
+				VRSession session = createSession(connection, out);
+				int accepted = requested & SessionCapability.supported();
+				if (!datagramPose) {
+					accepted &= ~SessionCapability.DATAGRAM_POSE.bit();
 				}
-				case GET_REMOVE_MESH: {
-					int uuidsize = in.read();
-					String possibleSessionId = "";
-					for (int i = 0; i < uuidsize; i++) {
-						int c = in.read();
-						if (c == -1) {
-							throw new ConnectIOException("Stream closed while reading the length of uuid in order to ask for meshes to remove.");
-						}
-						char cr = (char) c;
-						possibleSessionId += cr;
-					}
+				session.setCapabilities(accepted);
+				out.writeLittleEndian(accepted);
+				connection.persist(session);
+				break;
+			}
 
-					UUID designatedUUID = UUID.fromString(possibleSessionId);
-					InetSocketAddress remoteSockAddr = (InetSocketAddress) s.getRemoteSocketAddress();
-					VRSession vrSession = sessionStorage.getByIpAndSession(designatedUUID, remoteSockAddr);
-					Set<Integer> toRemove = vrSession.removeMeshesMarkedForRemoval();
-					int count = Math.min(toRemove.size(), 100);
-					out.write(count);
-					out.flush();
-					Iterator<Integer> iterator = toRemove.iterator();
-					for (int i = 0; i < count; i++) {
-						Integer clientMeshIdToRemove = iterator.next();
-						byte[] byteArrayLittleEndian = NumberTools.toByteArrayLittleEndian(clientMeshIdToRemove);
-						out.write(byteArrayLittleEndian);
-						out.flush();
+			case SEND_HELMET_AND_CONTROLLER_INFO: {
+				HelmetAndControllerInfo haci = RequestDecoder.readHelmetAndControllerInfo(in);
+				VRSession vrSession = connection.getSession();
+				if (vrSession != null) {
+					moveHelmet(vrSession, haci);
+				}
+				listeners.notifyInteraction(haci);
+				break;
+			}
+			case GET_INCOMING_MESH: {
+				VRSession vrSession = requireSession(in, connection, "ask for incomming meshes");
+				Set<Mesh> meshesToSend = vrSession.getMeshesToSend();
+				int count;
+				synchronized (meshesToSend) {
+					count = Math.min(meshesToSend.size(), 100);
+				}
+				out.write(count);
+				sendIncomingMesh(connection, vrSession, count, out);
+				break;
+			}
+			case GET_REMOVE_MESH: {
+				VRSession vrSession = requireSession(in, connection, "ask for meshes to remove");
+				Set<Integer> toRemove = vrSession.removeMeshesMarkedForRemoval();
+				int count = Math.min(toRemove.size(), 100);
+				out.write(count);
+				Iterator<Integer> iterator = toRemove.iterator();
+				for (int i = 0; i < count; i++) {
+					out.writeLittleEndian(iterator.next());
+				}
+				break;
+			}
+			case GET_MESH_TRANSFORMS: {
+				VRSession vrSession = requireSession(in, connection, "ask for moved meshes");
+				Map<Integer, Transform> moved = new LinkedHashMap<Integer, Transform>();
+				for (Entry<Integer, Mesh<?>> entry : vrSession.takeMeshesToTransform(100).entrySet()) {
+					Transform transform = meshTransforms.get(getLodMesh(entry.getValue()));
+					if (transform != null) {
+						moved.put(entry.getKey(), transform);
 					}
-					break;
 				}
-				case SEND_KEYBOARD_CHANGES: {
-					int uuidsize = in.read();
-					String possibleSessionId = "";
-					for (int i = 0; i < uuidsize; i++) {
-						int c = in.read();
-						if (c == -1) {
-							throw new ConnectIOException("Stream closed while reading the length of uuid in order to notify keyboard changes.");
+				out.write(moved.size());
+				for (Entry<Integer, Transform> entry : moved.entrySet()) {
+					out.writeLittleEndian(entry.getKey());
+					entry.getValue().writeTo(out);
+				}
+				break;
+			}
+			case GET_INSTANCE_CHANGES: {
+				VRSession vrSession = requireSession(in, connection, "ask for changed instances");
+				Set<Integer> removed = vrSession.takeInstancesToRemove(100);
+				Map<MeshInstance, Integer> changed = vrSession.takeInstancesToSend(100 - removed.size());
+				out.write(removed.size() + changed.size());
+				for (Integer instanceId : removed) {
+					out.writeLittleEndian(instanceId);
+					out.writeLittleEndian(-1);
+				}
+				for (Entry<MeshInstance, Integer> entry : changed.entrySet()) {
+					out.writeLittleEndian(entry.getKey().getId());
+					out.writeLittleEndian(entry.getValue());
+					entry.getKey().getTransform().writeTo(out);
+				}
+				break;
+			}
+			case SEND_KEYBOARD_CHANGES: {
+				VRSession vrSession = readSession(in, connection);
+				// read count of new keys pressed down
+				int countNewPressed = in.get() & 0xFF;
+				// read all the 0-255 values
+				byte[] newDown = new byte[countNewPressed];
+				in.get(newDown);
+				// read count of new keys released
+				int countNewReleased = in.get() & 0xFF;
+				// read all keys released
+				byte[] newReleased = new byte[countNewReleased];
+				in.get(newReleased);
+				if (vrSession != null) {
+					// remember the current timestamp for ordering the changes.
+					long incomming = System.currentTimeMillis();
+					Thread notifyKeys = new Thread(group, new Runnable() {
+						@Override
+						public void run() {
+							getListeners().notifyKeyboardChange(newDown, newReleased, incomming);
 						}
-						char cr = (char) c;
-						possibleSessionId += cr;
-					}
+					}, "Non-blocking Keyboard change handler");
+					notifyKeys.start();
+				}
+				break;
+			}
+			default: {
+				LOG.severe("Illegal code incomming: " + code + " maybe not yet implemented.");
+			}
+			}
+		}
 
-					UUID designatedUUID = UUID.fromString(possibleSessionId);
-					InetSocketAddress remoteSockAddr = (InetSocketAddress) s.getRemoteSocketAddress();
-					VRSession vrSession = sessionStorage.getByIpAndSession(designatedUUID, remoteSockAddr);
-					if (vrSession != null) {
-						// read count of new keys pressed down
-						int countNewPressed = in.read();
-						if (countNewPressed == -1) {
-							throw new ConnectIOException("Stream closed while reading how many keys are pressed down on the keyboard.");
-						}
-						// read all the 0-255 values
-						byte[] newDown = new byte[countNewPressed];
-						for (int i = 0; i < countNewPressed; i++) {
-							int keyDown = in.read();
-							if (keyDown == -1) {
-								throw new ConnectIOException("Stream closed while reading the " + i + "(out of " + countNewPressed + ") key that is newly pressed down on the keyboard.");
-							}
-							newDown[i] = (byte) (((byte) keyDown) & 0xFF);
+		public void handle(Throwable e) {
+			notifyExceptionInCycle(e);
+		}
+	}
 
-						}
-						// read count of new keys released
-						int countNewReleased = in.read();
-						if (countNewReleased == -1) {
-							throw new ConnectIOException("Stream closed while reading how many keys are released on the keyboard.");
-						}
-						// read all keys released
-						byte[] newReleased = new byte[countNewReleased];
-						for (int i = 0; i < countNewReleased; i++) {
-							int keyUp = in.read();
-							if (keyUp == -1) {
-								throw new ConnectIOException("Stream closed while reading the " + i + "(out of " + countNewPressed + ") key that is newly released on the keyboard.");
+	/**
+	 * Creates a new session for the VR client and sends the title and the
+	 * session id.
+	 * 
+	 * @param connection The connection of the client.
+	 * @param out        The response to the client.
+	 * @return The new session, never <code>null</code>.
+	 * @throws IOException If the response could not be written.
+	 */
+	private VRSession createSession(VRConnection connection, OutboundStream out) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		listeners.getTitle(sb);
+		outLenString(out, sb.toString());
+
+		InetSocketAddress remoteSocketAddress = connection.getRemoteInetSocketAddress();
+		VRSession session = VRSession.registerNewSession(remoteSocketAddress.getAddress(), getSessionStorage());
+		outLenString(out, session.getUuid().toString());
+		listeners.notifyConnected(true);
+		return session;
+	}
+
+	/**
+	 * Sends the next mesh of a {@link Client2ServerCode#GET_INCOMING_MESH} and
+	 * waits for the VR client to report the ids of the mesh and its textures.
+	 * 
+	 * @param connection The connection of the client.
+	 * @param vrSession  The session of the client.
+	 * @param meshesLeft The number of meshes left to send.
+	 * @param out        The response to the client.
+	 * @throws IOException If the mesh could not be written.
+	 */
+	private void sendIncomingMesh(final VRConnection connection, final VRSession vrSession, final int meshesLeft, OutboundStream out) throws IOException {
+		if (meshesLeft == 0) {
+			return;
+		}
+		final Mesh mesh;
+		Set<Mesh> meshesToSend = vrSession.getMeshesToSend();
+		synchronized (meshesToSend) {
+			Iterator<Mesh> iterator = meshesToSend.iterator();
+			if (!iterator.hasNext()) {
+				throw new ConnectIOException("The meshes to send have been removed meanwhile.");
+			}
+			mesh = iterator.next();
+			iterator.remove();
+		}
+		PayloadCompression compression = vrSession.hasCapability(SessionCapability.COMPRESSED_PAYLOADS) ? payloadCompression : null;
+		EncodedMesh encoded = meshCache.get(mesh, vrSession.hasCapability(SessionCapability.COMPACT_MESHES), compression);
+		outLenString(out, encoded.size() + "");
+		encoded.writeTo(out);
+		MeshTexturesOutputStream tos = new MeshTexturesOutputStream(out, compression, textureRegistry);
+		tos.writeTextures(mesh, vrSession);
+		connection.expectReply(MeshTextureInfoInputStream.REPLY_LENGTH, new VRReplyHandler() {
+			public void handleReply(ByteBuffer in, OutboundStream out) throws IOException {
+				MeshTextureInfoInputStream.readTextureIndexes(in, mesh, vrSession, textureRegistry);
+				Mesh<?> lodMesh = getLodMesh(mesh);
+				if (meshLods.containsKey(lodMesh) && vrSession.levelArrived(lodMesh, mesh)) {
+					synchronized (sessionStorage) {
+						Set<MeshInstance> instances = meshInstances.get(lodMesh);
+						if (instances != null) {
+							for (MeshInstance instance : instances) {
+								vrSession.markSendInstance(instance);
 							}
-							newReleased[i] = (byte) (((byte) keyUp) & 0xFF);
 						}
-						// remember the current timestamp for ordering the changes.
-						long incomming = System.currentTimeMillis();
-						Thread notifyKeys = new Thread(group, new Runnable() {
-							@Override
-							public void run() {
-								getListeners().notifyKeyboardChange(newDown, newReleased, incomming);
-							}
-						}, "Non-blocking Keyboard change handler");
-						notifyKeys.start();
 					}
-					break;
-				}
-				default: {
-					LOG.severe("Illegal code incomming: " + read + " maybe not yet implemented.");
 				}
+				if (meshTransforms.containsKey(lodMesh)) {
+					vrSession.markTransformMesh(mesh);
 				}
+				sendIncomingMesh(connection, vrSession, meshesLeft - 1, out);
 			}
-			s.close();
-		} catch (Exception e) {
-			notifyExceptionInCycle(e);
+		});
+	}
+
+	/**
+	 * Reads the session id the VR client sends in front of session-scoped
+	 * requests. A persistent connection that accepted
+	 * {@link SessionCapability#IMPLICIT_SESSION} may send an empty id, the
+	 * {@link SessionCapability#BINARY_SESSION_ID binary id} is recognized by its
+	 * length of 16 bytes.
+	 * 
+	 * @param in         The request.
+	 * @param connection The connection of the client.
+	 * @return The session or <code>null</code> if the session is unknown.
+	 * @throws IOException If the session id could not be read.
+	 */
+	private VRSession readSession(ByteBuffer in, VRConnection connection) throws IOException {
+		int uuidsize = in.get() & 0xFF;
+		VRSession connectionSession = connection.getSession();
+		if (uuidsize == 0 && connectionSession != null && connectionSession.hasCapability(SessionCapability.IMPLICIT_SESSION)) {
+			return connectionSession;
+		}
+		UUID designatedUUID;
+		if (uuidsize == 16) {
+			designatedUUID = RequestDecoder.readBinaryUUID(in);
+		} else {
+			designatedUUID = UUID.fromString(RequestDecoder.readLatin1(in, uuidsize));
 		}
+		InetSocketAddress remoteSockAddr = connection.getRemoteInetSocketAddress();
+		return sessionStorage.getByIpAndSession(designatedUUID, remoteSockAddr);
+	}
+
+	/**
+	 * Reads the session id the VR client sends in front of session-scoped
+	 * requests that require a known session.
+	 * 
+	 * @param in         The request.
+	 * @param connection The connection of the client.
+	 * @param purpose    What the client likes to do, for the error message.
+	 * @return The session, never <code>null</code>.
+	 * @throws IOException If the session is unknown.
+	 */
+	private VRSession requireSession(ByteBuffer in, VRConnection connection, String purpose) throws IOException {
+		VRSession vrSession = readSession(in, connection);
+		if (vrSession == null) {
+			throw new ConnectIOException("Unknown session of " + connection.getRemoteSocketAddress() + " in order to " + purpose + ".");
+		}
+		return vrSession;
 	}
 
 	/**
@@ -393,7 +906,13 @@ public class VRServer extends ServerSocket {
 		return listeners;
 	}
 
-	public void addMesh(Mesh meshToAdd) {
+	/**
+	 * Publishes a mesh to all sessions. The mesh is encoded when a VR client asks
+	 * for it, see {@link #addMeshPreloaded(Mesh)}.
+	 * 
+	 * @param meshToAdd The mesh, never <code>null</code>.
+	 */
+	public void addMesh(Mesh<?> meshToAdd) {
 		synchronized (sessionStorage) {
 			for (VRSession vrSession : sessionStorage) {
 				vrSession.markAddMesh(meshToAdd);
@@ -402,6 +921,143 @@ public class VRServer extends ServerSocket {
 		}
 	}
 
+	/**
+	 * Publishes a mesh to all sessions and {@link #preload(Mesh) preloads} it in
+	 * background.
+	 * 
+	 * @param meshToAdd The mesh, never <code>null</code>.
+	 * @return The preload of the mesh, done when the mesh and its textures are
+	 *         ready to be sent.
+	 */
+	public Future<Mesh<?>> addMeshPreloaded(Mesh<?> meshToAdd) {
+		addMesh(meshToAdd);
+		return preload(meshToAdd);
+	}
+
+	/**
+	 * Encodes a mesh and decodes its textures in background, so the mesh is
+	 * ready when a VR client asks for it. A VR client asking meanwhile waits for
+	 * the running preload instead of repeating it.
+	 * 
+	 * @param mesh The mesh, never <code>null</code>.
+	 * @return The preload, done when the mesh and its textures are ready to be
+	 *         sent. Fails if the mesh or a texture could not be prepared.
+	 */
+	public Future<Mesh<?>> preload(Mesh<?> mesh) {
+		return preloadPool.submit(new MeshPreload(mesh, meshCache, textureRegistry, payloadCompression));
+	}
+
+	/**
+	 * Builds the {@link MeshLod#DEFAULT_RATIOS default levels of detail} of a
+	 * mesh in background and {@link #setLod(Mesh, MeshLod) shows} them. The mesh
+	 * must be {@link #addMesh(Mesh) added} as well and must not be changed while
+	 * the levels are built.
+	 * 
+	 * @param mesh The mesh, never <code>null</code>.
+	 * @return The levels, done when the levels are shown.
+	 */
+	public Future<MeshLod> addLod(final Mesh<?> mesh) {
+		return preloadPool.submit(new RecursiveTask<MeshLod>() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected MeshLod compute() {
+				MeshLod lod = new MeshLodBuilder(mesh).invoke();
+				setLod(mesh, lod);
+				return lod;
+			}
+		});
+	}
+
+	/**
+	 * Shows the levels of detail of a mesh. Every session is sent the level for
+	 * the distance of its helmet to the mesh, the level changes while the helmet
+	 * or the mesh moves. The instances of the mesh show the same level as the
+	 * mesh.
+	 * 
+	 * @param mesh The mesh, never <code>null</code>.
+	 * @param lod  The levels, the first level must be the mesh.
+	 */
+	public void setLod(Mesh<?> mesh, MeshLod lod) {
+		if (lod.getLevel(0) != mesh) {
+			throw new IllegalArgumentException("The first level must be the mesh itself.");
+		}
+		for (int i = 1; i < lod.size(); i++) {
+			lodMeshes.put(lod.getLevel(i), mesh);
+			preload(lod.getLevel(i));
+		}
+		meshLods.put(mesh, lod);
+		synchronized (sessionStorage) {
+			for (VRSession vrSession : sessionStorage) {
+				updateLevel(vrSession, mesh, lod);
+			}
+		}
+	}
+
+	/**
+	 * Returns the levels of detail of a mesh.
+	 * 
+	 * @param mesh The mesh, never <code>null</code>.
+	 * @return The levels or <code>null</code> if the mesh has none.
+	 */
+	public MeshLod getLod(Mesh<?> mesh) {
+		return meshLods.get(mesh);
+	}
+
+	/**
+	 * Returns the mesh a level of detail belongs to.
+	 * 
+	 * @param level The level or any other mesh, never <code>null</code>.
+	 * @return The mesh of the level or the mesh itself if it is no level.
+	 */
+	private Mesh<?> getLodMesh(Mesh<?> level) {
+		Mesh<?> mesh = lodMeshes.get(level);
+		return mesh == null ? level : mesh;
+	}
+
+	/**
+	 * Records the position of the helmet of a session and chooses the levels of
+	 * detail again if the helmet moved far enough.
+	 * 
+	 * @param vrSession The session, never <code>null</code>.
+	 * @param haci      The pose the client sent, never <code>null</code>.
+	 */
+	private void moveHelmet(VRSession vrSession, HelmetAndControllerInfo haci) {
+		Vector helmet = new Vector(haci.getHelmetRight(), haci.getHelmetUp(), haci.getHelmetForward());
+		if (meshLods.isEmpty() || !vrSession.moveHelmet(helmet, LEVEL_UPDATE_DISTANCE)) {
+			return;
+		}
+		Map<Mesh<?>, MeshLod> lods;
+		synchronized (meshLods) {
+			lods = new LinkedHashMap<Mesh<?>, MeshLod>(meshLods);
+		}
+		for (Entry<Mesh<?>, MeshLod> entry : lods.entrySet()) {
+			updateLevel(vrSession, entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Shows the level of detail of a mesh for the distance of the helmet of a
+	 * session. A session without a pose keeps the level shown.
+	 * 
+	 * @param vrSession The session, never <code>null</code>.
+	 * @param mesh      The mesh, never <code>null</code>.
+	 * @param lod       The levels of the mesh, never <code>null</code>.
+	 */
+	private void updateLevel(VRSession vrSession, Mesh<?> mesh, MeshLod lod) {
+		Vector helmet = vrSession.getHelmet();
+		if (helmet == null) {
+			return;
+		}
+		int shown = lod.indexOf(vrSession.getShownLevel(mesh));
+		float distance = lod.distance(getTransform(mesh), helmet.getX(), helmet.getY(), helmet.getZ());
+		int level = lod.level(distance, shown);
+		if (level != shown) {
+			vrSession.showLevel(mesh, lod.getLevel(level));
+		}
+	}
+
 	/**
 	 * Returns the session-storages.
 	 * <p>
@@ -414,11 +1070,184 @@ public class VRServer extends ServerSocket {
 		return sessionStorage;
 	}
 
+	/**
+	 * Returns the cache of the encoded meshes, shared by all sessions.
+	 * 
+	 * @return The cache, never <code>null</code>.
+	 */
+	public EncodedMeshCache getEncodedMeshCache() {
+		return meshCache;
+	}
+
+	/**
+	 * Returns the compression of the payloads, the level, the threshold and the
+	 * statistics per stream.
+	 * 
+	 * @return The compression, never <code>null</code>.
+	 */
+	public PayloadCompression getPayloadCompression() {
+		return payloadCompression;
+	}
+
+	/**
+	 * Returns the registry that finds textures of equal content, shared by all
+	 * sessions.
+	 * 
+	 * @return The registry, never <code>null</code>.
+	 */
+	public TextureRegistry getTextureRegistry() {
+		return textureRegistry;
+	}
+
+	/**
+	 * Moves, rotates or scales a mesh the VR clients already have, without
+	 * sending its vectors again. Every client receives the newest transform of
+	 * the mesh by {@link Client2ServerCode#GET_MESH_TRANSFORMS}, a client that
+	 * receives the mesh later receives the transform after the mesh.
+	 * 
+	 * @param mesh      The mesh, never <code>null</code>.
+	 * @param transform The transform relative to the vectors of the mesh, never
+	 *                  <code>null</code>.
+	 */
+	public void transformMesh(Mesh<?> mesh, Transform transform) {
+		meshTransforms.put(mesh, transform);
+		MeshLod lod = meshLods.get(mesh);
+		synchronized (sessionStorage) {
+			for (VRSession vrSession : sessionStorage) {
+				if (lod == null) {
+					if (vrSession.hasMesh(mesh)) {
+						vrSession.markTransformMesh(mesh);
+					}
+					continue;
+				}
+				for (int i = 0; i < lod.size(); i++) {
+					if (vrSession.hasMesh(lod.getLevel(i))) {
+						vrSession.markTransformMesh(lod.getLevel(i));
+					}
+				}
+				updateLevel(vrSession, mesh, lod);
+			}
+		}
+	}
+
+	/**
+	 * Returns the current transform of a mesh.
+	 * 
+	 * @param mesh The mesh, never <code>null</code>.
+	 * @return The transform, {@link Transform#IDENTITY} if the mesh has not been
+	 *         transformed.
+	 */
+	public Transform getTransform(Mesh<?> mesh) {
+		Transform transform = meshTransforms.get(mesh);
+		return transform == null ? Transform.IDENTITY : transform;
+	}
+
+	/**
+	 * Shows a mesh again at another place. The VR clients draw the vectors of
+	 * the mesh they already have, only the id of the mesh and the transform are
+	 * sent by {@link Client2ServerCode#GET_INSTANCE_CHANGES}. The mesh itself
+	 * must be {@link #addMesh(Mesh) added} as well.
+	 * 
+	 * @param mesh      The mesh, never <code>null</code>.
+	 * @param transform The placement relative to the vectors of the mesh, never
+	 *                  <code>null</code>.
+	 * @return The instance, never <code>null</code>.
+	 */
+	public MeshInstance addInstance(Mesh<?> mesh, Transform transform) {
+		MeshInstance instance = new MeshInstance(mesh, transform);
+		synchronized (sessionStorage) {
+			Set<MeshInstance> instances = meshInstances.get(mesh);
+			if (instances == null) {
+				instances = new LinkedHashSet<MeshInstance>();
+				meshInstances.put(mesh, instances);
+			}
+			instances.add(instance);
+			for (VRSession vrSession : sessionStorage) {
+				vrSession.markSendInstance(instance);
+			}
+			sessionStorage.addPublishInstanceToNewSessions(instance);
+		}
+		return instance;
+	}
+
+	/**
+	 * Moves an instance.
+	 * 
+	 * @param instance  The instance, never <code>null</code>.
+	 * @param transform The new placement relative to the vectors of the mesh,
+	 *                  never <code>null</code>.
+	 */
+	public void transformInstance(MeshInstance instance, Transform transform) {
+		instance.setTransform(transform);
+		synchronized (sessionStorage) {
+			Set<MeshInstance> instances = meshInstances.get(instance.getMesh());
+			if (instances == null || !instances.contains(instance)) {
+				return;
+			}
+			for (VRSession vrSession : sessionStorage) {
+				vrSession.markSendInstance(instance);
+			}
+		}
+	}
+
+	/**
+	 * Removes an instance from the VR clients.
+	 * 
+	 * @param instance The instance, never <code>null</code>.
+	 */
+	public void removeInstance(MeshInstance instance) {
+		synchronized (sessionStorage) {
+			Set<MeshInstance> instances = meshInstances.get(instance.getMesh());
+			if (instances == null || !instances.remove(instance)) {
+				return;
+			}
+			if (instances.isEmpty()) {
+				meshInstances.remove(instance.getMesh());
+			}
+			forgetInstance(instance);
+		}
+	}
+
+	/**
+	 * Removes an instance from every session, must be called holding the lock of
+	 * the {@link #sessionStorage}.
+	 * 
+	 * @param instance The instance, never <code>null</code>.
+	 */
+	private void forgetInstance(MeshInstance instance) {
+		sessionStorage.removePublishInstanceToNewSessions(instance);
+		for (VRSession vrSession : sessionStorage) {
+			vrSession.markRemoveInstance(instance);
+		}
+	}
+
 	public void removeMesh(Mesh<? extends Vector> meshToRemove) {
 		sessionStorage.removePublishMeshToNewSessions(meshToRemove);
+		meshCache.invalidate(meshToRemove);
+		meshTransforms.remove(meshToRemove);
+		MeshLod lod = meshLods.remove(meshToRemove);
+		if (lod != null) {
+			for (int i = 1; i < lod.size(); i++) {
+				lodMeshes.remove(lod.getLevel(i));
+				meshCache.invalidate(lod.getLevel(i));
+			}
+		}
 		synchronized (sessionStorage) {
+			Set<MeshInstance> instances = meshInstances.remove(meshToRemove);
+			if (instances != null) {
+				for (MeshInstance instance : instances) {
+					forgetInstance(instance);
+				}
+			}
 			for (VRSession vrSession : sessionStorage) {
 				vrSession.markRemoveMesh(meshToRemove);
+				if (lod != null) {
+					for (int i = 1; i < lod.size(); i++) {
+						vrSession.unmarkAddMesh(lod.getLevel(i));
+						vrSession.markRemoveMesh(lod.getLevel(i));
+					}
+					vrSession.forgetLevels(meshToRemove);
+				}
 			}
 		}
 	}
@@ -11,15 +11,17 @@ import java.io.Serializable;
 import java.net.InetAddress;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
 
+import de.e_nexus.vr.server.codes.SessionCapability;
 import de.e_nexus.vr.server.mesh.Mesh;
+import de.e_nexus.vr.server.mesh.MeshInstance;
 import de.e_nexus.vr.server.mesh.Vector;
 import de.e_nexus.vr.server.mesh.tex.Texture;
 
@@ -33,49 +35,213 @@ public final class VRSession implements Serializable {
 	 */
 	private static final long serialVersionUID = 4661234677575908030L;
 	private final InetAddress remoteAddr;
-	private final Map<Integer, Mesh> clientMeshIds = new LinkedHashMap<>(0);
+	private final Map<Integer, Mesh<?>> clientMeshIds = new LinkedHashMap<>(0);
 	private final Set<Integer> clientMeshIdsToRemove = new LinkedHashSet<>(clientMeshIds.size());
 	private final Set<Mesh> clientMeshsToAdd = new LinkedHashSet<>(0);
+
+	/**
+	 * The meshes of the client whose transform changed since the client asked
+	 * the last time.
+	 */
+	private final Set<Mesh<?>> clientMeshsToTransform = new LinkedHashSet<>(0);
+
+	/**
+	 * The instances the client has. Guards the other fields of the instances.
+	 */
+	private final Set<MeshInstance> clientInstances = Collections.newSetFromMap(new IdentityHashMap<MeshInstance, Boolean>(0));
+
+	/**
+	 * The instances that are new or changed since the client asked the last
+	 * time.
+	 */
+	private final Set<MeshInstance> clientInstancesToSend = new LinkedHashSet<>(0);
+
+	/**
+	 * The ids of the instances the client must remove.
+	 */
+	private final Set<Integer> clientInstanceIdsToRemove = new LinkedHashSet<>(0);
+
+	/**
+	 * The id of every mesh the client has, by the identity of the mesh. The
+	 * reverse of {@link #clientMeshIds}, guarded by its lock.
+	 */
+	private final Map<Mesh<?>, Integer> meshIds = new IdentityHashMap<>(0);
+
+	/**
+	 * The further ids of meshes the client has more than once, usually empty.
+	 * Guarded by the lock of {@link #clientMeshIds}.
+	 */
+	private final Map<Mesh<?>, Set<Integer>> moreMeshIds = new IdentityHashMap<>(0);
 	private final Map<Integer, Texture> clientTextureIds = new LinkedHashMap<>(0);
+
+	/**
+	 * The image id of every texture the client has, by the identity of the
+	 * texture.
+	 */
+	private final Map<Texture, Integer> textureImageIds = new IdentityHashMap<>(0);
+
+	/**
+	 * The level of detail shown instead of a mesh, by the identity of the mesh.
+	 * Meshes without an entry are shown themselves. Guards {@link #retiredLevels}.
+	 */
+	private final Map<Mesh<?>, Mesh<?>> shownLevels = new IdentityHashMap<>(0);
+
+	/**
+	 * The levels of a mesh the client still has but must remove as soon as the
+	 * shown level arrived.
+	 */
+	private final Map<Mesh<?>, Set<Mesh<?>>> retiredLevels = new IdentityHashMap<>(0);
 	private UUID uuid;
 
+	/**
+	 * The {@link SessionCapability capabilities} negotiated with the client.
+	 */
+	private volatile int capabilities;
+
+	/**
+	 * The sequence number of the newest pose datagram, only valid if
+	 * {@link #poseSequenceKnown} is set.
+	 */
+	private int poseSequence;
+
+	private boolean poseSequenceKnown;
+
+	/**
+	 * The number of pose datagrams dropped because they came too late.
+	 */
+	private long latePoseDatagrams;
+
+	/**
+	 * The position of the helmet the levels of detail were chosen for,
+	 * <code>null</code> before the first pose.
+	 */
+	private Vector levelHelmet;
+
 	private VRSession(InetAddress remoteAddr, UUID uuid) {
 		this.remoteAddr = remoteAddr;
 		this.uuid = uuid;
 	}
 
+	/**
+	 * Registers the id the client created for a mesh.
+	 * 
+	 * @param clientMeshId The id of the mesh in the client.
+	 * @param mesh         The mesh, never <code>null</code>.
+	 */
 	public void registerMesh(int clientMeshId, Mesh<?> mesh) {
-		clientMeshIds.put(clientMeshId, mesh);
+		Integer id = clientMeshId;
+		synchronized (clientMeshIds) {
+			if (clientMeshIds.get(id) == mesh) {
+				return;
+			}
+			unregisterMesh(id);
+			clientMeshIds.put(id, mesh);
+			Integer first = meshIds.get(mesh);
+			if (first == null) {
+				meshIds.put(mesh, id);
+			} else {
+				Set<Integer> more = moreMeshIds.get(mesh);
+				if (more == null) {
+					more = new LinkedHashSet<>(1);
+					moreMeshIds.put(mesh, more);
+				}
+				more.add(id);
+			}
+		}
 	}
 
-	public boolean hasMesh(Mesh mesh) {
-		return clientMeshIds.containsValue(mesh);
+	/**
+	 * Forgets a mesh id of the client, must be called holding the lock of
+	 * {@link #clientMeshIds}.
+	 * 
+	 * @param clientMeshId The id of the mesh in the client.
+	 */
+	private void unregisterMesh(Integer clientMeshId) {
+		Mesh<?> mesh = clientMeshIds.remove(clientMeshId);
+		if (mesh == null) {
+			return;
+		}
+		Set<Integer> more = moreMeshIds.get(mesh);
+		if (clientMeshId.equals(meshIds.get(mesh))) {
+			if (more == null) {
+				meshIds.remove(mesh);
+				return;
+			}
+			Iterator<Integer> iterator = more.iterator();
+			meshIds.put(mesh, iterator.next());
+			iterator.remove();
+		} else if (more != null) {
+			more.remove(clientMeshId);
+		}
+		if (more != null && more.isEmpty()) {
+			moreMeshIds.remove(mesh);
+		}
 	}
 
-	public void registerTexture(int clientTextureId, Texture texture) {
-		clientTextureIds.put(clientTextureId, texture);
+	public boolean hasMesh(Mesh<?> mesh) {
+		synchronized (clientMeshIds) {
+			return meshIds.containsKey(mesh);
+		}
 	}
 
-	public boolean hasTexture(Texture texture) {
-		return clientTextureIds.containsValue(texture);
+	/**
+	 * Registers the image the client created for a texture. A texture object is
+	 * shared by all sessions, every client has its own image ids.
+	 * 
+	 * @param clientTextureId The image id in the client.
+	 * @param texture         The texture, never <code>null</code>.
+	 */
+	public synchronized void registerTexture(int clientTextureId, Texture texture) {
+		Texture previous = clientTextureIds.put(clientTextureId, texture);
+		if (previous != null && previous != texture) {
+			// the client reuses the id for another image, forget the old one and
+			// the textures of equal pixels
+			textureImageIds.values().removeAll(Collections.singleton(clientTextureId));
+		}
+		textureImageIds.put(texture, clientTextureId);
 	}
 
-	public Integer getMeshId(Mesh mesh) {
-		for (Entry<Integer, Mesh> entry : clientMeshIds.entrySet()) {
-			if (entry.getValue() == mesh) {
-				return entry.getKey();
-			}
+	/**
+	 * Registers the image of a texture for another texture of the same pixels,
+	 * so the other texture is not sent to the client.
+	 * 
+	 * @param texture The texture of the same pixels, never <code>null</code>.
+	 * @param equal   The texture the client has an image of, never
+	 *                <code>null</code>.
+	 */
+	public synchronized void registerEqualTexture(Texture texture, Texture equal) {
+		Integer imageId = textureImageIds.get(equal);
+		if (imageId != null) {
+			textureImageIds.put(texture, imageId);
 		}
-		return null;
 	}
 
-	public Integer getTexureId(Texture texture) {
-		for (Entry<Integer, Texture> entry : clientTextureIds.entrySet()) {
-			if (entry.getValue() == texture) {
-				return entry.getKey();
-			}
+	public synchronized boolean hasTexture(Texture texture) {
+		return textureImageIds.containsKey(texture);
+	}
+
+	/**
+	 * Returns the id the client has for a mesh.
+	 * 
+	 * @param mesh The mesh, never <code>null</code>.
+	 * @return The first id of the mesh or <code>null</code> if the client does not
+	 *         have the mesh.
+	 */
+	public Integer getMeshId(Mesh<?> mesh) {
+		synchronized (clientMeshIds) {
+			return meshIds.get(mesh);
 		}
-		return null;
+	}
+
+	/**
+	 * Returns the image id the client has for a texture.
+	 * 
+	 * @param texture The texture, never <code>null</code>.
+	 * @return The image id or <code>null</code> if the texture must be sent to
+	 *         the client.
+	 */
+	public synchronized Integer getTexureId(Texture texture) {
+		return textureImageIds.get(texture);
 	}
 
 	public static VRSession registerNewSession(InetAddress remoteAddr, VRSessionStorage storage) {
@@ -94,14 +260,208 @@ public final class VRSession implements Serializable {
 		return uuid;
 	}
 
+	/**
+	 * Sets the capabilities the server accepted for this session.
+	 * 
+	 * @param capabilities The bitmask of {@link SessionCapability capabilities}.
+	 */
+	public void setCapabilities(int capabilities) {
+		this.capabilities = capabilities;
+	}
+
+	/**
+	 * Returns wherever the client and the server agreed on a capability.
+	 * 
+	 * @param capability The capability, never <code>null</code>.
+	 * @return <code>true</code> if the capability is used, <code>false</code>
+	 *         otherwise.
+	 */
+	public boolean hasCapability(SessionCapability capability) {
+		return capability.isSet(capabilities);
+	}
+
+	/**
+	 * Checks the sequence number of a pose datagram. A datagram that is not newer
+	 * than the newest datagram received so far is obsolete. The comparison
+	 * respects the overflow of the sequence number.
+	 * 
+	 * @param sequence The sequence number of the datagram.
+	 * @return <code>true</code> if the datagram is the newest,
+	 *         <code>false</code> if it must be dropped.
+	 */
+	public synchronized boolean acceptPoseSequence(int sequence) {
+		if (poseSequenceKnown && sequence - poseSequence <= 0) {
+			latePoseDatagrams++;
+			return false;
+		}
+		poseSequence = sequence;
+		poseSequenceKnown = true;
+		return true;
+	}
+
+	/**
+	 * Records the position of the helmet. The levels of detail must be chosen
+	 * again if the helmet moved far enough since they were chosen the last time.
+	 * 
+	 * @param helmet      The position of the helmet, never <code>null</code>.
+	 * @param minDistance The distance in meter the helmet must have moved.
+	 * @return <code>true</code> if the levels must be chosen again,
+	 *         <code>false</code> otherwise.
+	 */
+	public synchronized boolean moveHelmet(Vector helmet, float minDistance) {
+		if (levelHelmet != null) {
+			float dx = helmet.getX() - levelHelmet.getX();
+			float dy = helmet.getY() - levelHelmet.getY();
+			float dz = helmet.getZ() - levelHelmet.getZ();
+			if (dx * dx + dy * dy + dz * dz < minDistance * minDistance) {
+				return false;
+			}
+		}
+		levelHelmet = helmet;
+		return true;
+	}
+
+	/**
+	 * Returns the position of the helmet the levels of detail are chosen for.
+	 * 
+	 * @return The position or <code>null</code> if the client sent no pose yet.
+	 */
+	public synchronized Vector getHelmet() {
+		return levelHelmet;
+	}
+
+	/**
+	 * Returns the level of detail shown instead of a mesh.
+	 * 
+	 * @param mesh The mesh, never <code>null</code>.
+	 * @return The level or the mesh itself, never <code>null</code>.
+	 */
+	public Mesh<?> getShownLevel(Mesh<?> mesh) {
+		synchronized (shownLevels) {
+			Mesh<?> level = shownLevels.get(mesh);
+			return level == null ? mesh : level;
+		}
+	}
+
+	/**
+	 * Shows another level of detail instead of a mesh. The new level is sent to
+	 * the client, the level shown so far is kept until the new level arrived,
+	 * see {@link #levelArrived(Mesh, Mesh)}. A level not sent yet is not sent
+	 * anymore.
+	 * 
+	 * @param mesh  The mesh, never <code>null</code>.
+	 * @param level The level to show, the mesh itself for the full detail.
+	 */
+	public void showLevel(Mesh<?> mesh, Mesh<?> level) {
+		synchronized (shownLevels) {
+			Mesh<?> shown = getShownLevel(mesh);
+			if (shown == level) {
+				return;
+			}
+			if (level == mesh) {
+				shownLevels.remove(mesh);
+			} else {
+				shownLevels.put(mesh, level);
+			}
+			Set<Mesh<?>> retired = retiredLevels.get(mesh);
+			if (retired == null) {
+				retired = Collections.newSetFromMap(new IdentityHashMap<Mesh<?>, Boolean>(2));
+				retiredLevels.put(mesh, retired);
+			}
+			if (hasMesh(shown)) {
+				retired.add(shown);
+			} else {
+				unmarkAddMesh(shown);
+			}
+			retired.remove(level);
+			if (hasMesh(level)) {
+				removeRetiredLevels(mesh, level);
+			} else {
+				markAddMesh(level);
+			}
+			if (retired.isEmpty()) {
+				retiredLevels.remove(mesh);
+			}
+		}
+	}
+
+	/**
+	 * Called after the client registered a level of detail. The levels the
+	 * client does not need anymore are marked for removal.
+	 * 
+	 * @param mesh  The mesh, never <code>null</code>.
+	 * @param level The level the client registered.
+	 * @return <code>true</code> if the level is shown now and the instances of
+	 *         the mesh must be sent again, <code>false</code> otherwise.
+	 */
+	public boolean levelArrived(Mesh<?> mesh, Mesh<?> level) {
+		synchronized (shownLevels) {
+			Mesh<?> shown = getShownLevel(mesh);
+			if (shown == level) {
+				removeRetiredLevels(mesh, level);
+				return true;
+			}
+			if (hasMesh(shown)) {
+				markRemoveMesh(level);
+			} else {
+				Set<Mesh<?>> retired = retiredLevels.get(mesh);
+				if (retired == null) {
+					retired = Collections.newSetFromMap(new IdentityHashMap<Mesh<?>, Boolean>(2));
+					retiredLevels.put(mesh, retired);
+				}
+				retired.add(level);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Marks the retired levels of a mesh for removal, must be called holding the
+	 * lock of {@link #shownLevels}.
+	 * 
+	 * @param mesh  The mesh.
+	 * @param shown The level shown.
+	 */
+	private void removeRetiredLevels(Mesh<?> mesh, Mesh<?> shown) {
+		Set<Mesh<?>> retired = retiredLevels.remove(mesh);
+		if (retired != null) {
+			for (Mesh<?> level : retired) {
+				if (level != shown) {
+					markRemoveMesh(level);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forgets the levels of detail of a mesh, for example if the mesh is
+	 * removed.
+	 * 
+	 * @param mesh The mesh, never <code>null</code>.
+	 */
+	public void forgetLevels(Mesh<?> mesh) {
+		synchronized (shownLevels) {
+			shownLevels.remove(mesh);
+			retiredLevels.remove(mesh);
+		}
+	}
+
+	/**
+	 * Returns the number of pose datagrams dropped because a newer one has
+	 * already been received.
+	 * 
+	 * @return The number of dropped datagrams, never negative.
+	 */
+	public synchronized long getLatePoseDatagrams() {
+		return latePoseDatagrams;
+	}
+
 	public Set<Integer> removeMeshesMarkedForRemoval() {
 		synchronized (clientMeshIds) {
 			synchronized (clientMeshIdsToRemove) {
 				Set<Integer> unmodifiableSet = new LinkedHashSet<Integer>(clientMeshIdsToRemove);
-				Iterator<Integer> removeIdsIterator = clientMeshIdsToRemove.iterator();
-				while (removeIdsIterator.hasNext()) {
-					Integer toRemoveId = (Integer) removeIdsIterator.next();
-					clientMeshIds.remove(toRemoveId);
+				for (Integer toRemoveId : clientMeshIdsToRemove) {
+					unregisterMesh(toRemoveId);
 				}
 				clientMeshIdsToRemove.clear();
 				return Collections.unmodifiableSet(unmodifiableSet);
@@ -110,21 +470,147 @@ public final class VRSession implements Serializable {
 	}
 
 	public void markRemoveMesh(Mesh<? extends Vector> meshToRemoveFromClient) {
-		synchronized (clientMeshIdsToRemove) {
-			for (Integer clientMeshId : clientMeshIds.keySet()) {
-				if (clientMeshIds.get(clientMeshId) == meshToRemoveFromClient) {
-					clientMeshIdsToRemove.add(clientMeshId);
+		synchronized (clientMeshIds) {
+			synchronized (clientMeshIdsToRemove) {
+				Integer clientMeshId = meshIds.get(meshToRemoveFromClient);
+				if (clientMeshId == null) {
+					return;
 				}
+				clientMeshIdsToRemove.add(clientMeshId);
+				Set<Integer> more = moreMeshIds.get(meshToRemoveFromClient);
+				if (more != null) {
+					clientMeshIdsToRemove.addAll(more);
+				}
+			}
+		}
+		synchronized (clientMeshsToTransform) {
+			clientMeshsToTransform.remove(meshToRemoveFromClient);
+		}
+	}
+
+	/**
+	 * Remembers that the transform of a mesh must be sent to the client. A mesh
+	 * moved several times before the client asks is sent once.
+	 * 
+	 * @param mesh The mesh, never <code>null</code>.
+	 */
+	public void markTransformMesh(Mesh<?> mesh) {
+		synchronized (clientMeshsToTransform) {
+			clientMeshsToTransform.add(mesh);
+		}
+	}
+
+	/**
+	 * Remembers that an instance is new or has been moved. An instance changed
+	 * several times before the client asks is sent once.
+	 * 
+	 * @param instance The instance, never <code>null</code>.
+	 */
+	public void markSendInstance(MeshInstance instance) {
+		synchronized (clientInstances) {
+			clientInstancesToSend.add(instance);
+		}
+	}
+
+	/**
+	 * Remembers that the client must remove an instance, if it has the instance.
+	 * 
+	 * @param instance The instance, never <code>null</code>.
+	 */
+	public void markRemoveInstance(MeshInstance instance) {
+		synchronized (clientInstances) {
+			clientInstancesToSend.remove(instance);
+			if (clientInstances.remove(instance)) {
+				clientInstanceIdsToRemove.add(instance.getId());
 			}
 		}
 	}
 
+	/**
+	 * Takes the ids of the instances the client must remove.
+	 * 
+	 * @param max The maximum number of ids to take.
+	 * @return The ids, never <code>null</code>.
+	 */
+	public Set<Integer> takeInstancesToRemove(int max) {
+		Set<Integer> taken = new LinkedHashSet<>();
+		synchronized (clientInstances) {
+			Iterator<Integer> iterator = clientInstanceIdsToRemove.iterator();
+			while (iterator.hasNext() && taken.size() < max) {
+				taken.add(iterator.next());
+				iterator.remove();
+			}
+		}
+		return taken;
+	}
+
+	/**
+	 * Takes the instances that must be sent to the client. An instance of a mesh
+	 * the client does not have yet stays until the client has the mesh.
+	 * 
+	 * @param max The maximum number of instances to take.
+	 * @return The instances and the id of their mesh in the client, never
+	 *         <code>null</code>.
+	 */
+	public Map<MeshInstance, Integer> takeInstancesToSend(int max) {
+		Map<MeshInstance, Integer> taken = new LinkedHashMap<>();
+		synchronized (clientInstances) {
+			Iterator<MeshInstance> iterator = clientInstancesToSend.iterator();
+			while (iterator.hasNext() && taken.size() < max) {
+				MeshInstance instance = iterator.next();
+				Integer clientMeshId = getMeshId(getShownLevel(instance.getMesh()));
+				if (clientMeshId != null) {
+					iterator.remove();
+					clientInstances.add(instance);
+					taken.put(instance, clientMeshId);
+				}
+			}
+		}
+		return taken;
+	}
+
+	/**
+	 * Takes the meshes whose transform must be sent to the client. Meshes the
+	 * client does not have anymore are dropped.
+	 * 
+	 * @param max The maximum number of meshes to take.
+	 * @return The meshes by their id in the client, never <code>null</code>.
+	 */
+	public Map<Integer, Mesh<?>> takeMeshesToTransform(int max) {
+		Map<Integer, Mesh<?>> taken = new LinkedHashMap<>();
+		synchronized (clientMeshsToTransform) {
+			Iterator<Mesh<?>> iterator = clientMeshsToTransform.iterator();
+			while (iterator.hasNext() && taken.size() < max) {
+				Mesh<?> mesh = iterator.next();
+				iterator.remove();
+				Integer clientMeshId = getMeshId(mesh);
+				if (clientMeshId != null) {
+					taken.put(clientMeshId, mesh);
+				}
+			}
+		}
+		return taken;
+	}
+
 	public void markAddMesh(Mesh meshToAdd) {
 		synchronized (clientMeshsToAdd) {
 			clientMeshsToAdd.add(meshToAdd);
 		}
 	}
 
+	/**
+	 * Removes a mesh from the meshes to send, if the client did not get it yet.
+	 * 
+	 * @param mesh The mesh, never <code>null</code>.
+	 * @return <code>true</code> if the mesh was to be sent, <code>false</code>
+	 *         otherwise.
+	 */
+	public boolean unmarkAddMesh(Mesh<?> mesh) {
+		synchronized (clientMeshsToAdd) {
+			return clientMeshsToAdd.remove(mesh);
+		}
+	}
+
 	public Set<Mesh> getMeshesToSend() {
 		return clientMeshsToAdd;
 	}
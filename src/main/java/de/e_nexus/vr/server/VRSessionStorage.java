@@ -7,13 +7,26 @@
 package de.e_nexus.vr.server;
 
 import java.net.InetSocketAddress;
+import java.util.Collection;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 import de.e_nexus.vr.server.mesh.Mesh;
+import de.e_nexus.vr.server.mesh.MeshInstance;
 
+/**
+ * All sessions of the server. The sessions are indexed by their id, a session
+ * is found without iterating the sessions.
+ * <p>
+ * Every method changing the sessions keeps the index up to date, including
+ * the iterators and the sub lists.
+ */
 public class VRSessionStorage extends Vector<VRSession> {
 
 	/**
@@ -21,6 +34,11 @@ public class VRSessionStorage extends Vector<VRSession> {
 	 */
 	private static final long serialVersionUID = -7839143919320148454L;
 
+	/**
+	 * The sessions by their id.
+	 */
+	private final Map<UUID, VRSession> index = new ConcurrentHashMap<UUID, VRSession>();
+
 	private final Set<UUID> usedUUIDs = new LinkedHashSet<>(1);
 
 	public UUID newUUID() {
@@ -36,20 +54,204 @@ public class VRSessionStorage extends Vector<VRSession> {
 		}
 	}
 
-	@Override
-	public boolean add(VRSession newSession) {
+	/**
+	 * Prepares a session that joins the storage: it gets every published mesh
+	 * and instance and is indexed by its id.
+	 * 
+	 * @param newSession The session, <code>null</code> is ignored.
+	 */
+	private void welcome(VRSession newSession) {
+		if (newSession == null) {
+			return;
+		}
 		for (Mesh mesh : meshesAllExistingMeshesKnow) {
 			newSession.markAddMesh(mesh);
 		}
+		for (MeshInstance instance : instancesAllExistingSessionsKnow) {
+			newSession.markSendInstance(instance);
+		}
+		index.put(newSession.getUuid(), newSession);
+	}
+
+	/**
+	 * Removes a session from the index unless it is still stored.
+	 * 
+	 * @param session The session that has been removed, <code>null</code> is
+	 *                ignored.
+	 */
+	private void forget(Object session) {
+		if (session instanceof VRSession && !contains(session)) {
+			index.remove(((VRSession) session).getUuid(), session);
+		}
+	}
+
+	@Override
+	public synchronized boolean add(VRSession newSession) {
+		welcome(newSession);
 		return super.add(newSession);
 	}
 
-	public VRSession getByIpAndSession(UUID uid, InetSocketAddress ip) {
-		for (VRSession s : this) {
-			if (s.isThisSession(ip.getAddress(), uid)) {
-				return s;
+	@Override
+	public synchronized void addElement(VRSession newSession) {
+		welcome(newSession);
+		super.addElement(newSession);
+	}
+
+	@Override
+	public void add(int position, VRSession newSession) {
+		insertElementAt(newSession, position);
+	}
+
+	@Override
+	public synchronized void insertElementAt(VRSession newSession, int position) {
+		super.insertElementAt(newSession, position);
+		welcome(newSession);
+	}
+
+	@Override
+	public synchronized boolean addAll(Collection<? extends VRSession> sessions) {
+		for (VRSession newSession : sessions) {
+			welcome(newSession);
+		}
+		return super.addAll(sessions);
+	}
+
+	@Override
+	public synchronized boolean addAll(int position, Collection<? extends VRSession> sessions) {
+		boolean changed = super.addAll(position, sessions);
+		for (VRSession newSession : sessions) {
+			welcome(newSession);
+		}
+		return changed;
+	}
+
+	@Override
+	public synchronized VRSession set(int position, VRSession newSession) {
+		VRSession replaced = super.set(position, newSession);
+		welcome(newSession);
+		forget(replaced);
+		return replaced;
+	}
+
+	@Override
+	public synchronized void setElementAt(VRSession newSession, int position) {
+		VRSession replaced = get(position);
+		super.setElementAt(newSession, position);
+		welcome(newSession);
+		forget(replaced);
+	}
+
+	@Override
+	public synchronized void replaceAll(UnaryOperator<VRSession> operator) {
+		for (int i = 0; i < size(); i++) {
+			set(i, operator.apply(get(i)));
+		}
+	}
+
+	@Override
+	public boolean remove(Object session) {
+		return removeElement(session);
+	}
+
+	@Override
+	public synchronized boolean removeElement(Object session) {
+		if (!super.removeElement(session)) {
+			return false;
+		}
+		forget(session);
+		return true;
+	}
+
+	@Override
+	public synchronized VRSession remove(int position) {
+		VRSession removed = super.remove(position);
+		forget(removed);
+		return removed;
+	}
+
+	@Override
+	public synchronized void removeElementAt(int position) {
+		VRSession removed = get(position);
+		super.removeElementAt(position);
+		forget(removed);
+	}
+
+	@Override
+	public synchronized boolean removeIf(Predicate<? super VRSession> filter) {
+		boolean removed = false;
+		for (int i = size() - 1; i >= 0; i--) {
+			if (filter.test(get(i))) {
+				remove(i);
+				removed = true;
 			}
 		}
+		return removed;
+	}
+
+	@Override
+	public synchronized boolean removeAll(Collection<?> sessions) {
+		boolean removed = false;
+		for (int i = size() - 1; i >= 0; i--) {
+			if (sessions.contains(get(i))) {
+				remove(i);
+				removed = true;
+			}
+		}
+		return removed;
+	}
+
+	@Override
+	public synchronized boolean retainAll(Collection<?> sessions) {
+		boolean removed = false;
+		for (int i = size() - 1; i >= 0; i--) {
+			if (!sessions.contains(get(i))) {
+				remove(i);
+				removed = true;
+			}
+		}
+		return removed;
+	}
+
+	@Override
+	protected synchronized void removeRange(int fromIndex, int toIndex) {
+		for (int i = toIndex - 1; i >= fromIndex; i--) {
+			remove(i);
+		}
+	}
+
+	@Override
+	public synchronized void setSize(int newSize) {
+		while (size() > newSize) {
+			remove(size() - 1);
+		}
+		super.setSize(newSize);
+	}
+
+	@Override
+	public synchronized void removeAllElements() {
+		super.removeAllElements();
+		index.clear();
+	}
+
+	@Override
+	public synchronized void clear() {
+		super.clear();
+		index.clear();
+	}
+
+	/**
+	 * Finds the session of a VR client.
+	 * 
+	 * @param uid The id of the session, never <code>null</code>.
+	 * @param ip  The address of the client, never <code>null</code>.
+	 * @return The session or <code>null</code> if no session has the id or the
+	 *         session belongs to another address.
+	 */
+	public VRSession getByIpAndSession(UUID uid, InetSocketAddress ip) {
+		VRSession s = index.get(uid);
+		if (s != null && s.isThisSession(ip.getAddress(), uid)) {
+			return s;
+		}
 		return null;
 	}
 
@@ -62,4 +264,14 @@ public class VRSessionStorage extends Vector<VRSession> {
 	public void removePublishMeshToNewSessions(Mesh meshToRemove) {
 		meshesAllExistingMeshesKnow.remove(meshToRemove);
 	}
+
+	private final Set<MeshInstance> instancesAllExistingSessionsKnow = new LinkedHashSet<MeshInstance>(0);
+
+	public void addPublishInstanceToNewSessions(MeshInstance instanceToAdd) {
+		instancesAllExistingSessionsKnow.add(instanceToAdd);
+	}
+
+	public void removePublishInstanceToNewSessions(MeshInstance instanceToRemove) {
+		instancesAllExistingSessionsKnow.remove(instanceToRemove);
+	}
 }
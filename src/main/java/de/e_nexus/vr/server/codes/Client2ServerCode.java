@@ -37,5 +37,50 @@ public enum Client2ServerCode {
 	 * no button is pressed but that the pressing or releasing has not changed
 	 * meanwhile.
 	 */
-	SEND_KEYBOARD_CHANGES
+	SEND_KEYBOARD_CHANGES,
+
+	/**
+	 * Like {@link #CREATE_SESSION} but the connection stays open. The client sends
+	 * the {@link SessionCapability capabilities} it likes to use as four bytes
+	 * (little endian). The server answers the title, the unique identifier and the
+	 * capabilities it accepts (four bytes, little endian).
+	 * <p>
+	 * After that every request is sent as frame: four bytes (little endian)
+	 * telling the length of the frame followed by the code and the payload of the
+	 * request. Every response that is not empty is sent as a frame in the same
+	 * format. Requests may be pipelined, the responses are sent in the order of
+	 * the requests.
+	 */
+	CREATE_PERSISTENT_SESSION,
+
+	/**
+	 * Only on persistent connections: the frame carries the answer the server
+	 * waits for in a conversation, like the texture ids after a mesh of
+	 * {@link #GET_INCOMING_MESH}.
+	 */
+	CONTINUE,
+
+	/**
+	 * The client requests from the server if there are meshes on the client that
+	 * have been moved on the server. The server answers the number of moved
+	 * meshes (one byte, at most 100) followed by the id of every mesh in the
+	 * client (four bytes, little endian) and its new
+	 * {@link de.e_nexus.vr.server.mesh.Transform transform}. The client applies
+	 * the transform to the vectors of the mesh it already has, replacing the
+	 * previous transform.
+	 */
+	GET_MESH_TRANSFORMS,
+
+	/**
+	 * The client requests from the server the changed
+	 * {@link de.e_nexus.vr.server.mesh.MeshInstance instances} of meshes. The
+	 * server answers the number of changes (one byte, at most 100) followed by
+	 * the changes. Every change starts with the id of the instance and the id of
+	 * the mesh in the client (four bytes each, little endian). If the id of the
+	 * mesh is <code>-1</code> the instance is removed, otherwise the
+	 * {@link de.e_nexus.vr.server.mesh.Transform transform} of the instance
+	 * follows and the client draws the mesh again at that place, replacing the
+	 * previous placement of the instance. Removing a mesh removes its instances.
+	 */
+	GET_INSTANCE_CHANGES
 }
@@ -0,0 +1,89 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.codes;
+
+/**
+ * The optional features a VR client and the server agree on using
+ * {@link Client2ServerCode#CREATE_PERSISTENT_SESSION}. Every capability is one
+ * bit, the bit number is the ordinal.
+ */
+public enum SessionCapability {
+	/**
+	 * Session-scoped requests on the persistent connection may send an empty
+	 * session id (length <code>0</code>). The session the connection has been
+	 * created for is used then.
+	 */
+	IMPLICIT_SESSION,
+
+	/**
+	 * The client streams {@link Client2ServerCode#SEND_HELMET_AND_CONTROLLER_INFO
+	 * poses} as UDP datagrams to the port having the same number as the TCP port
+	 * of the server. A datagram consists of the 16 bytes of the session id (most
+	 * significant byte first), a 4-byte little-endian sequence number and the
+	 * payload of {@link Client2ServerCode#SEND_HELMET_AND_CONTROLLER_INFO}
+	 * without the code. The server only accepts this capability if the UDP port
+	 * is available.
+	 */
+	DATAGRAM_POSE,
+
+	/**
+	 * Session-scoped requests may send the session id as its 16 raw bytes (most
+	 * significant byte first, length <code>16</code>) instead of its 36 latin1
+	 * characters. The server finds the session without parsing the id. The
+	 * string form remains valid.
+	 */
+	BINARY_SESSION_ID,
+
+	/**
+	 * The encoded meshes of {@link Client2ServerCode#GET_INCOMING_MESH} and the
+	 * pixels of new textures are sent as blocks that may be compressed by zlib,
+	 * see {@link de.e_nexus.vr.server.net.PayloadCompression}. The size sent in
+	 * front of the mesh is the size of the block.
+	 */
+	COMPRESSED_PAYLOADS,
+
+	/**
+	 * The meshes of {@link Client2ServerCode#GET_INCOMING_MESH} are sent in the
+	 * compact encoding: quantized positions, octahedral normals, 16-bit texture
+	 * coordinates and 16-bit indices where possible. The attribute descriptors
+	 * of the mesh tell the types, see
+	 * {@link de.e_nexus.vr.server.mesh.CompactMeshOutputStream}.
+	 */
+	COMPACT_MESHES;
+
+	/**
+	 * Returns the bit of the capability.
+	 * 
+	 * @return The bitmask having exactly one bit set.
+	 */
+	public int bit() {
+		return 1 << ordinal();
+	}
+
+	/**
+	 * Returns wherever the capability is part of the flags.
+	 * 
+	 * @param flags The flags as sent over the wire.
+	 * @return <code>true</code> if the bit is set, <code>false</code> otherwise.
+	 */
+	public boolean isSet(int flags) {
+		return (flags & bit()) != 0;
+	}
+
+	/**
+	 * Returns the flags of all capabilities known by the server.
+	 * 
+	 * @return The bitmask of all capabilities.
+	 */
+	public static int supported() {
+		int flags = 0;
+		for (SessionCapability c : values()) {
+			flags |= c.bit();
+		}
+		return flags;
+	}
+}
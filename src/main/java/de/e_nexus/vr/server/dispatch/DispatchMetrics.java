@@ -0,0 +1,108 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.dispatch;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts what a {@link VRDispatcher} did. Use it to size the pool under load:
+ * a growing queue depth means the workers are too few, rejections mean the
+ * queue is too short.
+ */
+public class DispatchMetrics {
+
+	private final AtomicLong dispatched = new AtomicLong();
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	private final AtomicLong completed = new AtomicLong();
+
+	private final AtomicLong maxQueueDepth = new AtomicLong();
+
+	private final BlockingQueue<?> queue;
+
+	/**
+	 * Creates metrics.
+	 * 
+	 * @param queue The queue of the pool, <code>null</code> if the dispatcher has
+	 *              no queue.
+	 */
+	public DispatchMetrics(BlockingQueue<?> queue) {
+		this.queue = queue;
+	}
+
+	void countDispatched() {
+		dispatched.incrementAndGet();
+		int depth = getQueueDepth();
+		long max;
+		while (depth > (max = maxQueueDepth.get())) {
+			if (maxQueueDepth.compareAndSet(max, depth)) {
+				break;
+			}
+		}
+	}
+
+	void countRejected() {
+		rejected.incrementAndGet();
+	}
+
+	void countCompleted() {
+		completed.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of tasks waiting for a worker right now.
+	 * 
+	 * @return The queue depth, never negative.
+	 */
+	public int getQueueDepth() {
+		return queue == null ? 0 : queue.size();
+	}
+
+	/**
+	 * Returns the highest queue depth seen after a task has been accepted.
+	 * 
+	 * @return The maximum queue depth, never negative.
+	 */
+	public long getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	/**
+	 * Returns the number of tasks accepted.
+	 * 
+	 * @return The number of accepted tasks.
+	 */
+	public long getDispatched() {
+		return dispatched.get();
+	}
+
+	/**
+	 * Returns the number of tasks rejected because the queue was full.
+	 * 
+	 * @return The number of rejections.
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Returns the number of tasks executed.
+	 * 
+	 * @return The number of executed tasks.
+	 */
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + "[dispatched=" + getDispatched() + ", completed=" + getCompleted() + ", rejected=" + getRejected() + ", queueDepth=" + getQueueDepth()
+				+ ", maxQueueDepth=" + getMaxQueueDepth() + "]";
+	}
+}
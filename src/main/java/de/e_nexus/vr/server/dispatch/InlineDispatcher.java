@@ -0,0 +1,33 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.dispatch;
+
+/**
+ * Executes every task immediately in the thread that dispatches it, usually
+ * the selector thread. Never rejects a task.
+ */
+public class InlineDispatcher implements VRDispatcher {
+
+	private final DispatchMetrics metrics = new DispatchMetrics(null);
+
+	public boolean dispatch(Runnable task) {
+		metrics.countDispatched();
+		try {
+			task.run();
+		} finally {
+			metrics.countCompleted();
+		}
+		return true;
+	}
+
+	public DispatchMetrics getMetrics() {
+		return metrics;
+	}
+
+	public void shutdown() {
+	}
+}
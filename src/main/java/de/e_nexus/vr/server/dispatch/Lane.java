@@ -0,0 +1,46 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.dispatch;
+
+import de.e_nexus.vr.server.codes.Client2ServerCode;
+
+/**
+ * The lanes requests are executed in. Every lane has its own
+ * {@link VRDispatcher}, so a multi-megabyte mesh never delays the position of
+ * the helmet.
+ */
+public enum Lane {
+	/**
+	 * Small requests of the helmet, the controllers and the keyboard. They have
+	 * no response and are executed by a dedicated thread of the highest
+	 * priority. On persistent connections they overtake requests that are still
+	 * in progress.
+	 */
+	POSE,
+
+	/**
+	 * Everything else, like meshes and textures. Executed by a pool of lower
+	 * priority.
+	 */
+	BULK;
+
+	/**
+	 * Returns the lane of a request.
+	 * 
+	 * @param code The code of the request, never <code>null</code>.
+	 * @return The lane, never <code>null</code>.
+	 */
+	public static Lane of(Client2ServerCode code) {
+		switch (code) {
+		case SEND_HELMET_AND_CONTROLLER_INFO:
+		case SEND_KEYBOARD_CHANGES:
+			return POSE;
+		default:
+			return BULK;
+		}
+	}
+}
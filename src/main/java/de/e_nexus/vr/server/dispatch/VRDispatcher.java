@@ -0,0 +1,39 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.dispatch;
+
+/**
+ * Decides what thread executes the opcode handlers.
+ * <p>
+ * The selector thread only collects complete requests and hands them to the
+ * dispatcher. The requests of one connection are never dispatched
+ * concurrently, so a handler does not need to care about the order of the
+ * requests of its client.
+ */
+public interface VRDispatcher {
+
+	/**
+	 * Executes the task now or later.
+	 * 
+	 * @param task The task, never <code>null</code>.
+	 * @return <code>true</code> if the task is accepted, <code>false</code> if
+	 *         the dispatcher is overloaded and rejects the task.
+	 */
+	boolean dispatch(Runnable task);
+
+	/**
+	 * Returns the metrics of the dispatcher.
+	 * 
+	 * @return The live metrics, never <code>null</code>.
+	 */
+	DispatchMetrics getMetrics();
+
+	/**
+	 * Stops the dispatcher. Tasks already accepted are executed.
+	 */
+	void shutdown();
+}
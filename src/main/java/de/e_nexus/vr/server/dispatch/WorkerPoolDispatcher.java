@@ -0,0 +1,156 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.dispatch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes the tasks on a bounded pool of workers having a bounded queue. If
+ * the queue is full, the task is rejected instead of blocking the selector
+ * thread.
+ * <p>
+ * The {@link #createDefault(String, ThreadGroup) default pool} has platform
+ * threads of a priority below normal, so the {@link Lane#POSE pose lane} wins
+ * the processor whenever both are busy. On a JDK having virtual threads a
+ * {@link #createVirtual(String) pool of virtual threads} serves more blocking
+ * handlers at once but can not lower their priority.
+ */
+public class WorkerPoolDispatcher implements VRDispatcher {
+
+	private final ThreadPoolExecutor executor;
+
+	private final DispatchMetrics metrics;
+
+	/**
+	 * Creates a pool.
+	 * 
+	 * @param workers       The number of workers, must be positive.
+	 * @param queueCapacity The number of tasks allowed to wait for a worker, must
+	 *                      be positive.
+	 * @param threadFactory The factory of the workers, never <code>null</code>.
+	 */
+	public WorkerPoolDispatcher(int workers, int queueCapacity, ThreadFactory threadFactory) {
+		BlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(queueCapacity);
+		executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS, queue, threadFactory, new ThreadPoolExecutor.AbortPolicy()) {
+			@Override
+			protected void afterExecute(Runnable r, Throwable t) {
+				metrics.countCompleted();
+			}
+		};
+		executor.allowCoreThreadTimeOut(true);
+		metrics = new DispatchMetrics(queue);
+	}
+
+	/**
+	 * The number of virtual workers of {@link #createVirtual(String)}.
+	 */
+	private static final int VIRTUAL_WORKERS = 256;
+
+	/**
+	 * Creates a pool having a platform thread per processor and a queue of 1024
+	 * tasks. The threads have a priority below normal.
+	 * 
+	 * @param name  The name of the pool, never <code>null</code>.
+	 * @param group The group of the threads, <code>null</code> if no threadgroup
+	 *              should be used.
+	 * @return The pool, never <code>null</code>.
+	 */
+	public static WorkerPoolDispatcher createDefault(String name, ThreadGroup group) {
+		int workers = Runtime.getRuntime().availableProcessors();
+		return new WorkerPoolDispatcher(workers, 1024, platformThreads(name, group, Thread.NORM_PRIORITY - 1));
+	}
+
+	/**
+	 * Creates a pool of 256 virtual threads and a queue of 1024 tasks. A handler
+	 * waiting for a file or a remote texture occupies no processor, so the pool
+	 * is not limited to the number of processors.
+	 * <p>
+	 * Virtual threads always have the normal priority. The handlers of the bulk
+	 * lane compete with the {@link Lane#POSE pose lane} on equal terms, use the
+	 * {@link #createDefault(String, ThreadGroup) default pool} if poses must not
+	 * wait for a busy processor.
+	 * 
+	 * @param name The name of the pool, never <code>null</code>.
+	 * @return The pool or <code>null</code> if the JDK has no virtual threads.
+	 */
+	public static WorkerPoolDispatcher createVirtual(String name) {
+		ThreadFactory factory = VirtualThreads.factory(name);
+		if (factory == null) {
+			return null;
+		}
+		return new WorkerPoolDispatcher(VIRTUAL_WORKERS, 1024, factory);
+	}
+
+	/**
+	 * Creates the dispatcher of the {@link Lane#POSE pose lane}: one dedicated
+	 * platform thread of the highest priority and a queue of 256 tasks.
+	 * 
+	 * @param name  The name of the thread, never <code>null</code>.
+	 * @param group The group of the thread, <code>null</code> if no threadgroup
+	 *              should be used.
+	 * @return The dispatcher, never <code>null</code>.
+	 */
+	public static WorkerPoolDispatcher createPoseLane(String name, ThreadGroup group) {
+		return new WorkerPoolDispatcher(1, 256, platformThreads(name, group, Thread.MAX_PRIORITY));
+	}
+
+	/**
+	 * Creates a factory of daemon platform threads.
+	 * 
+	 * @param name     The prefix of the names of the threads.
+	 * @param group    The group, <code>null</code> if no threadgroup should be
+	 *                 used.
+	 * @param priority The priority of the threads.
+	 * @return The factory, never <code>null</code>.
+	 */
+	public static ThreadFactory platformThreads(final String name, final ThreadGroup group, final int priority) {
+		return new ThreadFactory() {
+			private final AtomicInteger number = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(group, r, name + " " + number.incrementAndGet());
+				t.setDaemon(true);
+				t.setPriority(priority);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * Returns wherever {@link #createVirtual(String)} is able to create a pool.
+	 * 
+	 * @return <code>true</code> if the JDK supports virtual threads.
+	 */
+	public static boolean isVirtualThreadsAvailable() {
+		return VirtualThreads.factory("probe") != null;
+	}
+
+	public boolean dispatch(Runnable task) {
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			metrics.countRejected();
+			return false;
+		}
+		metrics.countDispatched();
+		return true;
+	}
+
+	public DispatchMetrics getMetrics() {
+		return metrics;
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,290 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a {@link Mesh} in the compact encoding, about half the size of the
+ * {@link MeshOutputStream}. The header is the same, the attribute descriptors
+ * tell the client how to decode the vertices:
+ * <ul>
+ * <li><code>position</code>: {@link #USHORT} with three components, followed
+ * by six floats, the minimum and the extent of the bounding box of the mesh. A
+ * component <code>n</code> decodes as <code>min + n / 65535 * extent</code>.
+ * The position is padded to 8 bytes.</li>
+ * <li><code>normals</code>: {@link #OCTAHEDRAL} with two components, the unit
+ * normal projected onto the octahedron, as signed shorts normalized by
+ * 32767.</li>
+ * <li><code>uv</code>: {@link #USHORT} with two components normalized by
+ * 65535, or {@link #FLOAT} if any texture coordinate is outside of
+ * <code>[0, 1]</code>.</li>
+ * <li><code>index</code>: {@link #USHORT} if the mesh has at most 65535
+ * vertices, {@link #UINT} otherwise. No short index is <code>0xFFFF</code>,
+ * the primitive restart index of the graphics APIs. The index descriptor is
+ * counted in the number of attributes.</li>
+ * </ul>
+ * Every attribute starts at a multiple of 4 bytes within the vertex. The
+ * offsets in the header point to the vertices and the indices.
+ * <p>
+ * Only clients that accepted
+ * {@link de.e_nexus.vr.server.codes.SessionCapability#COMPACT_MESHES} get
+ * this encoding.
+ */
+public class CompactMeshOutputStream<T extends Vector> extends MeshOutputStream<T> {
+
+	/**
+	 * The maximum number of vertices whose indices are written as unsigned
+	 * shorts.
+	 */
+	public static final int MAX_SHORT_INDEXED_VERTICES = 65535;
+
+	/**
+	 * The number of vertices or indices converted at once.
+	 */
+	private static final int BAND = 1024;
+
+	private static final String POSITION = "position" + (char) 0 + (char) 0 + (char) 0 + (char) 0;
+	private static final String NORMALS = "normals" + (char) 0;
+	private static final String UV = "uv" + (char) 0 + (char) 0;
+	private static final String INDEX = "index" + (char) 0 + (char) 0 + (char) 0;
+
+	/**
+	 * The layout of the encoding of one mesh.
+	 */
+	private static final class Layout {
+		boolean normals;
+		boolean uv;
+		boolean shortUv = true;
+		boolean shortIndices;
+		final float[] min = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY };
+		final float[] extent = new float[3];
+
+		/**
+		 * The number of floats of an interleaved vertex.
+		 */
+		int floats() {
+			return 3 + (normals ? 3 : 0) + (uv ? 2 : 0);
+		}
+
+		/**
+		 * The number of bytes of an encoded vertex.
+		 */
+		int stride() {
+			return 8 + (normals ? 4 : 0) + (uv ? (shortUv ? 4 : 8) : 0);
+		}
+
+		int attributes() {
+			return 2 + (normals ? 1 : 0) + (uv ? 1 : 0);
+		}
+
+		int descriptorSize() {
+			int size = 4 + POSITION.length() + 6 * 4 + 4 + INDEX.length();
+			if (normals) {
+				size += 4 + NORMALS.length();
+			}
+			if (uv) {
+				size += 4 + UV.length();
+			}
+			return size;
+		}
+	}
+
+	public CompactMeshOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	/**
+	 * Creates a stream that encodes the mesh directly into a buffer.
+	 * 
+	 * @param target The buffer in write-mode, must have space for
+	 *               {@link #encodedSize(Mesh)} bytes.
+	 */
+	public CompactMeshOutputStream(ByteBuffer target) {
+		super(target);
+	}
+
+	/**
+	 * Calculates the number of bytes {@link #writeMesh(Mesh)} writes.
+	 * 
+	 * @param m The mesh, never <code>null</code>.
+	 * @return The size of the encoded mesh in bytes.
+	 */
+	public static int encodedSize(Mesh<?> m) {
+		Layout layout = layout(m);
+		int size = 6 * UINT_SIZE + layout.descriptorSize() + m.vectors.size() * layout.stride();
+		return size + m.getTriangles().size() * 3 * (layout.shortIndices ? 2 : UINT_SIZE);
+	}
+
+	/**
+	 * Scans the vertices for the bounding box and the range of the texture
+	 * coordinates.
+	 */
+	private static Layout layout(Mesh<?> m) {
+		Layout layout = new Layout();
+		layout.normals = allHaveNormals(m);
+		layout.uv = isUv(m);
+		int vertices = m.vectors.size();
+		layout.shortIndices = vertices <= MAX_SHORT_INDEXED_VERTICES;
+		float[] max = { Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+		int floats = layout.floats();
+		float[] interleaved = new float[Math.min(vertices, BAND) * floats];
+		for (int first = 0; first < vertices; first += BAND) {
+			int count = Math.min(BAND, vertices - first);
+			interleave(m, first, count, layout.normals, layout.uv, interleaved);
+			for (int v = 0; v < count * floats; v += floats) {
+				for (int c = 0; c < 3; c++) {
+					layout.min[c] = Math.min(layout.min[c], interleaved[v + c]);
+					max[c] = Math.max(max[c], interleaved[v + c]);
+				}
+				if (layout.uv) {
+					float u = interleaved[v + floats - 2];
+					float w = interleaved[v + floats - 1];
+					if (!(u >= 0 && u <= 1 && w >= 0 && w <= 1)) {
+						layout.shortUv = false;
+					}
+				}
+			}
+		}
+		for (int c = 0; c < 3; c++) {
+			if (vertices == 0) {
+				layout.min[c] = 0;
+			} else {
+				layout.extent[c] = max[c] - layout.min[c];
+			}
+		}
+		return layout;
+	}
+
+	@Override
+	public void writeMesh(Mesh<T> m) throws IOException {
+		Layout layout = layout(m);
+		int vertices = m.vectors.size();
+		int indices = m.getTriangles().size() * 3;
+		int vertexOffset = 6 * UINT_SIZE + layout.descriptorSize();
+		writeLittleEndian(vertices);
+		writeLittleEndian(indices);
+		writeLittleEndian(layout.attributes());
+		writeLittleEndian(layout.stride());
+		writeLittleEndian(vertexOffset);
+		writeLittleEndian(vertexOffset + vertices * layout.stride());
+		writeVertexAttributeData(layout);
+		writeVertexData(m, layout);
+		writeIndexData(m, layout);
+	}
+
+	private void writeVertexAttributeData(Layout layout) throws IOException {
+		attr(USHORT, (byte) 3, (byte) 1, POSITION);
+		for (int c = 0; c < 3; c++) {
+			writeLittleEndian(layout.min[c]);
+		}
+		for (int c = 0; c < 3; c++) {
+			writeLittleEndian(layout.extent[c]);
+		}
+		if (layout.normals) {
+			attr(OCTAHEDRAL, (byte) 2, (byte) 1, NORMALS);
+		}
+		if (layout.uv) {
+			attr(layout.shortUv ? USHORT : FLOAT, (byte) 2, (byte) 1, UV);
+		}
+		attr(layout.shortIndices ? USHORT : UINT, (byte) 1, (byte) 0, INDEX);
+	}
+
+	private void writeVertexData(Mesh<T> m, Layout layout) throws IOException {
+		int vertices = m.vectors.size();
+		int floats = layout.floats();
+		int shorts = layout.stride() / 2;
+		int band = Math.min(vertices, BAND);
+		float[] interleaved = new float[band * floats];
+		short[] encoded = new short[band * shorts];
+		for (int first = 0; first < vertices; first += BAND) {
+			int count = Math.min(BAND, vertices - first);
+			interleave(m, first, count, layout.normals, layout.uv, interleaved);
+			int s = 0;
+			for (int v = 0; v < count * floats; v += floats) {
+				for (int c = 0; c < 3; c++) {
+					encoded[s++] = unorm(layout.extent[c] == 0 ? 0 : (interleaved[v + c] - layout.min[c]) / layout.extent[c]);
+				}
+				encoded[s++] = 0;
+				int f = v + 3;
+				if (layout.normals) {
+					octahedral(interleaved[f], interleaved[f + 1], interleaved[f + 2], encoded, s);
+					s += 2;
+					f += 3;
+				}
+				if (layout.uv) {
+					if (layout.shortUv) {
+						encoded[s++] = unorm(interleaved[f]);
+						encoded[s++] = unorm(interleaved[f + 1]);
+					} else {
+						for (int c = 0; c < 2; c++) {
+							int bits = Float.floatToIntBits(interleaved[f + c]);
+							encoded[s++] = (short) bits;
+							encoded[s++] = (short) (bits >>> 16);
+						}
+					}
+				}
+			}
+			writeLittleEndian(encoded, 0, s);
+		}
+	}
+
+	private void writeIndexData(Mesh<T> m, Layout layout) throws IOException {
+		TriangleIndices triangles = m.getTriangles();
+		int indices = triangles.size() * 3;
+		if (!layout.shortIndices) {
+			writeLittleEndian(triangles.array(), 0, indices);
+			return;
+		}
+		int[] source = triangles.array();
+		short[] encoded = new short[Math.min(indices, BAND)];
+		for (int first = 0; first < indices; first += BAND) {
+			int count = Math.min(BAND, indices - first);
+			for (int i = 0; i < count; i++) {
+				encoded[i] = (short) source[first + i];
+			}
+			writeLittleEndian(encoded, 0, count);
+		}
+	}
+
+	/**
+	 * Quantizes a value of <code>[0, 1]</code> into an unsigned short.
+	 */
+	private static short unorm(float value) {
+		return (short) Math.round(Math.max(0f, Math.min(1f, value)) * 65535f);
+	}
+
+	/**
+	 * Projects a normal onto the octahedron and unfolds the lower half into the
+	 * corners, the result are two signed shorts normalized by 32767.
+	 * 
+	 * @param x      The x of the normal, need not be normalized.
+	 * @param y      The y of the normal.
+	 * @param z      The z of the normal.
+	 * @param target The array to write the two shorts to.
+	 * @param offset The index of the first short.
+	 */
+	static void octahedral(float x, float y, float z, short[] target, int offset) {
+		float l1 = Math.abs(x) + Math.abs(y) + Math.abs(z);
+		float ox = 0;
+		float oy = 0;
+		if (l1 > 0) {
+			ox = x / l1;
+			oy = y / l1;
+			if (z < 0) {
+				float fx = (1 - Math.abs(oy)) * (ox >= 0 ? 1 : -1);
+				float fy = (1 - Math.abs(ox)) * (oy >= 0 ? 1 : -1);
+				ox = fx;
+				oy = fy;
+			}
+		}
+		target[offset] = (short) Math.round(Math.max(-1f, Math.min(1f, ox)) * 32767f);
+		target[offset + 1] = (short) Math.round(Math.max(-1f, Math.min(1f, oy)) * 32767f);
+	}
+}
@@ -0,0 +1,214 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import de.e_nexus.vr.server.net.OutboundStream;
+import de.e_nexus.vr.server.net.PayloadCompression;
+
+/**
+ * The payload of a {@link Mesh} as written by the {@link MeshOutputStream}. The
+ * payload is immutable, the same instance is sent to every VR client.
+ * <p>
+ * The payload is kept outside of the Java heap, either in a direct buffer or
+ * in a file mapped into memory. It is handed to the socket as it is and never
+ * copied while sending.
+ */
+public final class EncodedMesh {
+
+	/**
+	 * The size of the portions the payload is copied to other streams with.
+	 */
+	private static final int COPY_BUFFER_SIZE = 8192;
+
+	private final int version;
+
+	/**
+	 * The payload in read-mode, read-only.
+	 */
+	private final ByteBuffer payload;
+
+	private EncodedMesh(int version, ByteBuffer payload) {
+		this.version = version;
+		this.payload = payload.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Encodes a mesh into a direct buffer.
+	 * 
+	 * @param mesh The mesh, must not be changed while encoding, never
+	 *             <code>null</code>.
+	 * @return The encoded mesh, never <code>null</code>.
+	 * @throws IOException If the mesh could not be encoded.
+	 */
+	public static EncodedMesh encode(Mesh<?> mesh) throws IOException {
+		return encode(mesh, false);
+	}
+
+	/**
+	 * Encodes a mesh into a direct buffer.
+	 * 
+	 * @param mesh    The mesh, must not be changed while encoding, never
+	 *                <code>null</code>.
+	 * @param compact <code>true</code> for the encoding of the
+	 *                {@link CompactMeshOutputStream}.
+	 * @return The encoded mesh, never <code>null</code>.
+	 * @throws IOException If the mesh could not be encoded.
+	 */
+	public static EncodedMesh encode(Mesh<?> mesh, boolean compact) throws IOException {
+		int version = mesh.getVersion();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(encodedSize(mesh, compact));
+		write(mesh, compact, buffer);
+		return new EncodedMesh(version, buffer);
+	}
+
+	/**
+	 * Encodes a mesh into a file that is mapped into memory. The file is deleted
+	 * as soon as the operating system allows, the mapping remains valid.
+	 * 
+	 * @param mesh      The mesh, must not be changed while encoding, never
+	 *                  <code>null</code>.
+	 * @param directory The directory to create the file in, never
+	 *                  <code>null</code>.
+	 * @return The encoded mesh, never <code>null</code>.
+	 * @throws IOException If the file could not be created or mapped.
+	 */
+	public static EncodedMesh encode(Mesh<?> mesh, Path directory) throws IOException {
+		return encode(mesh, false, directory);
+	}
+
+	/**
+	 * Encodes a mesh into a file that is mapped into memory.
+	 * 
+	 * @param mesh      The mesh, must not be changed while encoding, never
+	 *                  <code>null</code>.
+	 * @param compact   <code>true</code> for the encoding of the
+	 *                  {@link CompactMeshOutputStream}.
+	 * @param directory The directory to create the file in, never
+	 *                  <code>null</code>.
+	 * @return The encoded mesh, never <code>null</code>.
+	 * @throws IOException If the file could not be created or mapped.
+	 * @see #encode(Mesh, Path)
+	 */
+	public static EncodedMesh encode(Mesh<?> mesh, boolean compact, Path directory) throws IOException {
+		int version = mesh.getVersion();
+		Path file = Files.createTempFile(directory, "mesh", ".vrm");
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			buffer = channel.map(MapMode.READ_WRITE, 0, encodedSize(mesh, compact));
+		} finally {
+			try {
+				Files.delete(file);
+			} catch (IOException e) {
+				file.toFile().deleteOnExit();
+			}
+		}
+		write(mesh, compact, buffer);
+		return new EncodedMesh(version, buffer);
+	}
+
+	/**
+	 * Calculates the number of bytes of the payload of a mesh.
+	 * 
+	 * @param mesh    The mesh, never <code>null</code>.
+	 * @param compact <code>true</code> for the encoding of the
+	 *                {@link CompactMeshOutputStream}.
+	 * @return The size in bytes.
+	 */
+	public static int encodedSize(Mesh<?> mesh, boolean compact) {
+		return compact ? CompactMeshOutputStream.encodedSize(mesh) : MeshOutputStream.encodedSize(mesh);
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static void write(Mesh mesh, boolean compact, ByteBuffer buffer) throws IOException {
+		if (compact) {
+			new CompactMeshOutputStream(buffer).writeMesh(mesh);
+		} else {
+			new MeshOutputStream(buffer).writeMesh(mesh);
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Compresses the payload into a block of the {@link PayloadCompression}.
+	 * 
+	 * @param compression The compression, never <code>null</code>.
+	 * @return The block as encoded mesh of the same version, never
+	 *         <code>null</code>.
+	 * @throws IOException If the payload could not be compressed.
+	 */
+	public EncodedMesh compress(PayloadCompression compression) throws IOException {
+		ByteBuffer block = compression.compress(PayloadCompression.Stream.MESH, payload);
+		ByteBuffer direct = ByteBuffer.allocateDirect(block.remaining());
+		direct.put(block);
+		direct.flip();
+		return new EncodedMesh(version, direct);
+	}
+
+	/**
+	 * Returns the {@link Mesh#getVersion() version} of the mesh that has been
+	 * encoded.
+	 * 
+	 * @return The version.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the number of bytes of the payload.
+	 * 
+	 * @return The size, never negative.
+	 */
+	public int size() {
+		return payload.limit();
+	}
+
+	/**
+	 * Returns the payload.
+	 * 
+	 * @return A read-only view of the payload in read-mode, never
+	 *         <code>null</code>.
+	 */
+	public ByteBuffer getPayload() {
+		return payload.duplicate();
+	}
+
+	/**
+	 * Appends the payload to a response without copying it.
+	 * 
+	 * @param out The response, never <code>null</code>.
+	 */
+	public void writeTo(OutboundStream out) {
+		out.writeShared(getPayload());
+	}
+
+	/**
+	 * Copies the payload to a stream.
+	 * 
+	 * @param out The stream to write to, never <code>null</code>.
+	 * @throws IOException If the stream is broken.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		ByteBuffer source = getPayload();
+		byte[] copy = new byte[Math.min(source.remaining(), COPY_BUFFER_SIZE)];
+		while (source.hasRemaining()) {
+			int n = Math.min(source.remaining(), copy.length);
+			source.get(copy, 0, n);
+			out.write(copy, 0, n);
+		}
+	}
+}
@@ -0,0 +1,328 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import de.e_nexus.vr.server.net.PayloadCompression;
+
+/**
+ * Keeps the {@link EncodedMesh encoded meshes}, so a mesh is encoded once and
+ * not once per VR client. An encoded mesh is valid as long as the
+ * {@link Mesh#getVersion() version} of the mesh does not change.
+ * <p>
+ * The cache is bounded by the number of bytes of the payloads. If the bound is
+ * exceeded the least recently used payloads are evicted. A payload larger than
+ * the bound is never kept.
+ * <p>
+ * The payloads are kept in direct memory. Large payloads may be kept in files
+ * mapped into memory instead, see {@link #setDirectory(Path)}.
+ * <p>
+ * The {@link PayloadCompression compressed} payload of a mesh is kept beside
+ * the raw payload, and so is the {@link CompactMeshOutputStream compact}
+ * encoding.
+ */
+public class EncodedMeshCache {
+
+	/**
+	 * The default bound of the cache, 64 MiB.
+	 */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * The size from which on payloads are kept in files if a
+	 * {@link #setDirectory(Path) directory} is set, 1 MiB.
+	 */
+	public static final int MAPPED_THRESHOLD = 1024 * 1024;
+
+	/**
+	 * Identifies one of the payloads of a mesh.
+	 */
+	private static final class Key {
+		private final Mesh<?> mesh;
+		private final boolean compact;
+		private final boolean compressed;
+
+		Key(Mesh<?> mesh, boolean compact, boolean compressed) {
+			this.mesh = mesh;
+			this.compact = compact;
+			this.compressed = compressed;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(mesh) * 4 + (compact ? 2 : 0) + (compressed ? 1 : 0);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return other.mesh == mesh && other.compact == compact && other.compressed == compressed;
+		}
+	}
+
+	/**
+	 * The encoded meshes in access-order.
+	 */
+	private final LinkedHashMap<Key, EncodedMesh> cache = new LinkedHashMap<Key, EncodedMesh>(16, 0.75f, true);
+
+	/**
+	 * The locks of the payloads that are encoded right now.
+	 */
+	private final Map<Key, Object> encoding = new HashMap<Key, Object>();
+
+	private volatile long maxBytes;
+
+	/**
+	 * The directory of the files of large payloads, <code>null</code> if all
+	 * payloads are kept in direct memory.
+	 */
+	private volatile Path directory;
+
+	private long bytes;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	/**
+	 * Creates a cache bounded by {@link #DEFAULT_MAX_BYTES}.
+	 */
+	public EncodedMeshCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Creates a cache.
+	 * 
+	 * @param maxBytes The maximum number of bytes of all payloads,
+	 *                 <code>0</code> disables the cache.
+	 */
+	public EncodedMeshCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the encoded mesh, encodes the mesh if it is not cached or has been
+	 * changed. If multiple VR clients ask for the same mesh at the same time the
+	 * mesh is encoded only once.
+	 * 
+	 * @param mesh The mesh, never <code>null</code>.
+	 * @return The encoded mesh, never <code>null</code>.
+	 * @throws IOException If the mesh could not be encoded.
+	 */
+	public EncodedMesh get(Mesh<?> mesh) throws IOException {
+		return get(mesh, null);
+	}
+
+	/**
+	 * Returns the encoded mesh, compressed for sessions that accepted
+	 * {@link de.e_nexus.vr.server.codes.SessionCapability#COMPRESSED_PAYLOADS}.
+	 * 
+	 * @param mesh        The mesh, never <code>null</code>.
+	 * @param compression The compression, <code>null</code> for the raw
+	 *                    payload.
+	 * @return The encoded mesh, never <code>null</code>.
+	 * @throws IOException If the mesh could not be encoded or compressed.
+	 */
+	public EncodedMesh get(Mesh<?> mesh, PayloadCompression compression) throws IOException {
+		return get(mesh, false, compression);
+	}
+
+	/**
+	 * Returns the encoded mesh, in the compact encoding for sessions that
+	 * accepted {@link de.e_nexus.vr.server.codes.SessionCapability#COMPACT_MESHES}.
+	 * 
+	 * @param mesh        The mesh, never <code>null</code>.
+	 * @param compact     <code>true</code> for the encoding of the
+	 *                    {@link CompactMeshOutputStream}.
+	 * @param compression The compression, <code>null</code> for the raw
+	 *                    payload.
+	 * @return The encoded mesh, never <code>null</code>.
+	 * @throws IOException If the mesh could not be encoded or compressed.
+	 */
+	public EncodedMesh get(Mesh<?> mesh, boolean compact, PayloadCompression compression) throws IOException {
+		Key key = new Key(mesh, compact, compression != null);
+		Object lock;
+		synchronized (this) {
+			EncodedMesh encoded = lookup(key);
+			if (encoded != null) {
+				hits++;
+				return encoded;
+			}
+			misses++;
+			lock = encoding.get(key);
+			if (lock == null) {
+				lock = new Object();
+				encoding.put(key, lock);
+			}
+		}
+		synchronized (lock) {
+			synchronized (this) {
+				EncodedMesh encoded = lookup(key);
+				if (encoded != null) {
+					return encoded;
+				}
+			}
+			EncodedMesh encoded = null;
+			try {
+				encoded = compression == null ? encode(mesh, compact) : get(mesh, compact, null).compress(compression);
+				return encoded;
+			} finally {
+				synchronized (this) {
+					encoding.remove(key);
+					if (encoded != null) {
+						store(key, encoded);
+					}
+				}
+			}
+		}
+	}
+
+	private EncodedMesh encode(Mesh<?> mesh, boolean compact) throws IOException {
+		Path directory = this.directory;
+		if (directory != null && EncodedMesh.encodedSize(mesh, compact) >= MAPPED_THRESHOLD) {
+			return EncodedMesh.encode(mesh, compact, directory);
+		}
+		return EncodedMesh.encode(mesh, compact);
+	}
+
+	private EncodedMesh lookup(Key key) {
+		EncodedMesh encoded = cache.get(key);
+		if (encoded == null) {
+			return null;
+		}
+		if (encoded.getVersion() != key.mesh.getVersion()) {
+			remove(key);
+			return null;
+		}
+		return encoded;
+	}
+
+	private void store(Key key, EncodedMesh encoded) {
+		if (encoded.getVersion() != key.mesh.getVersion() || encoded.size() > maxBytes) {
+			return;
+		}
+		remove(key);
+		cache.put(key, encoded);
+		bytes += encoded.size();
+		evict();
+	}
+
+	private void remove(Key key) {
+		EncodedMesh removed = cache.remove(key);
+		if (removed != null) {
+			bytes -= removed.size();
+		}
+	}
+
+	private void evict() {
+		Iterator<Entry<Key, EncodedMesh>> eldest = cache.entrySet().iterator();
+		while (bytes > maxBytes && eldest.hasNext()) {
+			bytes -= eldest.next().getValue().size();
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Forgets the encoded mesh, used if the mesh is no longer published.
+	 * 
+	 * @param mesh The mesh, never <code>null</code>.
+	 */
+	public synchronized void invalidate(Mesh<?> mesh) {
+		remove(new Key(mesh, false, false));
+		remove(new Key(mesh, false, true));
+		remove(new Key(mesh, true, false));
+		remove(new Key(mesh, true, true));
+	}
+
+	/**
+	 * Forgets all encoded meshes.
+	 */
+	public synchronized void clear() {
+		cache.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Changes the bound of the cache, evicts payloads if the cache is too large.
+	 * 
+	 * @param maxBytes The maximum number of bytes of all payloads,
+	 *                 <code>0</code> disables the cache.
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	/**
+	 * Keeps payloads of at least {@link #MAPPED_THRESHOLD} bytes in files mapped
+	 * into memory. The operating system may page them out.
+	 * 
+	 * @param directory The directory to create the files in, <code>null</code>
+	 *                  to keep all payloads in direct memory.
+	 */
+	public void setDirectory(Path directory) {
+		this.directory = directory;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns the number of bytes of all cached payloads.
+	 * 
+	 * @return The size, never negative.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns how often an encoded mesh was found in the cache.
+	 * 
+	 * @return The number of hits, never negative.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns how often a mesh was not cached or changed.
+	 * 
+	 * @return The number of misses, never negative.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns how many payloads have been evicted to stay in bound.
+	 * 
+	 * @return The number of evictions, never negative.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+}
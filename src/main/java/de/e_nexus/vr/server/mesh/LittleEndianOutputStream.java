@@ -8,32 +8,69 @@ package de.e_nexus.vr.server.mesh;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.logging.Logger;
-
-import de.e_nexus.vr.server.util.NumberTools;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * A adapter for little-endian output streams.
+ * <p>
+ * The values are encoded into a reusable buffer and written to the origin
+ * output stream in bulk, no value allocates memory. Call {@link #flush()} after
+ * the last value.
+ * <p>
+ * The values may also be encoded directly into a {@link ByteBuffer} that is
+ * large enough, for example a direct or a mapped buffer.
  */
-public abstract class LittleEndianOutputStream extends OutputStream {
+public class LittleEndianOutputStream extends OutputStream {
 
 	/**
-	 * The logger of the class.
+	 * The default size of the buffer.
 	 */
-	private final static Logger LOG = Logger.getLogger(LittleEndianOutputStream.class.getCanonicalName());
+	private static final int BUFFER_SIZE = 8192;
 
 	/**
-	 * The origin output stream.
+	 * The origin output stream, <code>null</code> if the values are encoded into
+	 * a target buffer.
 	 */
 	protected final OutputStream out;
 
+	/**
+	 * The encoded bytes not yet written to the origin output stream or the target
+	 * buffer.
+	 */
+	private final ByteBuffer buffer;
+
 	/**
 	 * Creates a new instance of the outputstream.
 	 * 
 	 * @param out The origin output stream.
 	 */
 	public LittleEndianOutputStream(OutputStream out) {
+		this(out, BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a new instance of the outputstream having a specific buffer size.
+	 * 
+	 * @param out        The origin output stream.
+	 * @param bufferSize The size of the buffer, at least 8 bytes.
+	 */
+	public LittleEndianOutputStream(OutputStream out, int bufferSize) {
 		this.out = out;
+		this.buffer = ByteBuffer.allocate(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Creates a new instance that encodes into a buffer. The byte order of the
+	 * buffer is set to little-endian.
+	 * 
+	 * @param target The buffer in write-mode, must have enough space for all
+	 *               values, never <code>null</code>.
+	 */
+	public LittleEndianOutputStream(ByteBuffer target) {
+		this.out = null;
+		this.buffer = target.order(ByteOrder.LITTLE_ENDIAN);
 	}
 
 	/**
@@ -44,7 +81,8 @@ public abstract class LittleEndianOutputStream extends OutputStream {
 	 *                     connection).
 	 */
 	public void writeLittleEndian(float i) throws IOException {
-		write(NumberTools.toByteArrayLittleEndian(i));
+		ensure(4);
+		buffer.putFloat(i);
 	}
 
 	/**
@@ -55,31 +93,142 @@ public abstract class LittleEndianOutputStream extends OutputStream {
 	 *                     connection).
 	 */
 	public void writeLittleEndian(int i) throws IOException {
-		LOG.finest("Write int " + i);
-		write(NumberTools.toByteArrayLittleEndian(i));
+		ensure(4);
+		buffer.putInt(i);
+	}
+
+	/**
+	 * Writes a short value in little endian bytes.
+	 * 
+	 * @param s The short value to write.
+	 * @throws IOException if an I/O exception occoured (i.e. opposite closed
+	 *                     connection).
+	 */
+	public void writeLittleEndian(short s) throws IOException {
+		ensure(2);
+		buffer.putShort(s);
+	}
+
+	/**
+	 * Writes float values in little endian.
+	 * 
+	 * @param values The values.
+	 * @param off    The index of the first value to write.
+	 * @param len    The number of values to write.
+	 * @throws IOException if an I/O exception occoured (i.e. opposite closed
+	 *                     connection).
+	 */
+	public void writeLittleEndian(float[] values, int off, int len) throws IOException {
+		while (len > 0) {
+			ensure(4);
+			int n = Math.min(len, buffer.remaining() / 4);
+			for (int end = off + n; off < end; off++) {
+				buffer.putFloat(values[off]);
+			}
+			len -= n;
+		}
+	}
+
+	/**
+	 * Writes short values in little endian.
+	 * 
+	 * @param values The values.
+	 * @param off    The index of the first value to write.
+	 * @param len    The number of values to write.
+	 * @throws IOException if an I/O exception occoured (i.e. opposite closed
+	 *                     connection).
+	 */
+	public void writeLittleEndian(short[] values, int off, int len) throws IOException {
+		while (len > 0) {
+			ensure(2);
+			int n = Math.min(len, buffer.remaining() / 2);
+			for (int end = off + n; off < end; off++) {
+				buffer.putShort(values[off]);
+			}
+			len -= n;
+		}
+	}
+
+	/**
+	 * Writes int values in little endian.
+	 * 
+	 * @param values The values.
+	 * @param off    The index of the first value to write.
+	 * @param len    The number of values to write.
+	 * @throws IOException if an I/O exception occoured (i.e. opposite closed
+	 *                     connection).
+	 */
+	public void writeLittleEndian(int[] values, int off, int len) throws IOException {
+		while (len > 0) {
+			ensure(4);
+			int n = Math.min(len, buffer.remaining() / 4);
+			for (int end = off + n; off < end; off++) {
+				buffer.putInt(values[off]);
+			}
+			len -= n;
+		}
+	}
+
+	/**
+	 * Makes room in the buffer.
+	 * 
+	 * @param bytes The number of bytes required.
+	 * @throws IOException If the buffer could not be written.
+	 */
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			if (out == null) {
+				throw new BufferOverflowException();
+			}
+			drain();
+		}
+	}
+
+	/**
+	 * Writes the buffer to the origin output stream.
+	 * 
+	 * @throws IOException If the origin output stream fails.
+	 */
+	private void drain() throws IOException {
+		if (out != null && buffer.position() > 0) {
+			out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+			buffer.clear();
+		}
 	}
 
 	public void write(int b) throws IOException {
-		out.write(b);
+		ensure(1);
+		buffer.put((byte) b);
 	}
 
 	public void write(byte[] b) throws IOException {
-		out.write(b);
+		write(b, 0, b.length);
 	}
 
 	public void write(byte[] b, int off, int len) throws IOException {
-		out.write(b, off, len);
-	}
-
-	public boolean equals(Object obj) {
-		return out.equals(obj);
+		if (len <= buffer.remaining() || out == null) {
+			buffer.put(b, off, len);
+			return;
+		}
+		drain();
+		if (len < buffer.capacity()) {
+			buffer.put(b, off, len);
+		} else {
+			out.write(b, off, len);
+		}
 	}
 
 	public void flush() throws IOException {
-		out.flush();
+		if (out != null) {
+			drain();
+			out.flush();
+		}
 	}
 
 	public void close() throws IOException {
-		out.close();
+		if (out != null) {
+			flush();
+			out.close();
+		}
 	}
 }
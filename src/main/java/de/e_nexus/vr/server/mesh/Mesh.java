@@ -7,15 +7,11 @@
 package de.e_nexus.vr.server.mesh;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.TreeSet;
 
 import de.e_nexus.vr.server.mesh.tex.TextureStage;
 import de.e_nexus.vr.server.mesh.tex.TexturesHolder;
@@ -64,17 +60,66 @@ public class Mesh<T extends Vector> extends TexturesHolder {
 	/**
 	 * The vectors representing the mesh.
 	 */
-	protected final List<T> vectors = new ArrayList<T>();
+	protected final List<T> vectors;
 
 	/**
-	 * The polygons in the mesh.
+	 * The store of the vertices, <code>null</code> if the {@link #vectors} are
+	 * stored as objects.
 	 */
-	protected final Set<Triangle> polygons = new LinkedHashSet<Triangle>();
+	private final PackedVertices packed;
+
+	/**
+	 * The indices of the vectors of the triangles in the mesh.
+	 */
+	protected final TriangleIndices triangles = new TriangleIndices();
+
+	/**
+	 * The polygons in the mesh, a view of the {@link #triangles}. A triangle
+	 * added to the view is appended to the triangles.
+	 */
+	protected final Set<Triangle> polygons = new TriangleSetView(triangles);
 
 	private static boolean STORE_CREATE_TRACE = System.getenv("storetrace") != null;
 
 	private StackTraceElement[] trace = STORE_CREATE_TRACE ? Thread.currentThread().getStackTrace() : null;
 
+	/**
+	 * The number of changes of the vectors and polygons, identifies the state of
+	 * an {@link EncodedMesh encoded} copy.
+	 */
+	private volatile int version;
+
+	/**
+	 * Creates a mesh storing every vector as object.
+	 */
+	public Mesh() {
+		this.vectors = new ArrayList<T>();
+		this.packed = null;
+	}
+
+	/**
+	 * Creates a mesh storing the vertices in arrays. The {@link #vectors} of the
+	 * mesh are converted from and to the store, the type of the vectors must
+	 * match the store: {@link UVVector} for a store having texture coordinates.
+	 * 
+	 * @param packed The store, never <code>null</code>. Vertices added to the
+	 *               store directly are vertices of the mesh.
+	 */
+	public Mesh(PackedVertices packed) {
+		this.vectors = new PackedVectorList<T>(packed);
+		this.packed = packed;
+	}
+
+	/**
+	 * Returns the store of the vertices.
+	 * 
+	 * @return The store or <code>null</code> if the vectors are stored as
+	 *         objects.
+	 */
+	public PackedVertices getPackedVertices() {
+		return packed;
+	}
+
 	/**
 	 * Add an 3 dimensional point (aka vector or vertex) to the Mesh.
 	 * <p>
@@ -86,6 +131,7 @@ public class Mesh<T extends Vector> extends TexturesHolder {
 	 */
 	public int addVector(T v) {
 		vectors.add(v);
+		markChanged();
 		return vectors.size() - 1;
 	}
 
@@ -103,8 +149,8 @@ public class Mesh<T extends Vector> extends TexturesHolder {
 		assert p1 <= vectors.size() || p1 >= 0 : "Vector p1 (" + p1 + ") out of range (0 - " + vectors.size() + ")!";
 		assert p2 <= vectors.size() || p2 >= 0 : "Vector p2 (" + p2 + ") out of range (0 - " + vectors.size() + ")!";
 		assert p3 <= vectors.size() || p3 >= 0 : "Vector p3 (" + p3 + ") out of range (0 - " + vectors.size() + ")!";
-		Triangle triangle = new Triangle(p1, p2, p3);
-		addTriangle(triangle);
+		triangles.add(p1, p2, p3);
+		markChanged();
 		return this;
 	}
 
@@ -114,7 +160,38 @@ public class Mesh<T extends Vector> extends TexturesHolder {
 	 * @param triangle The triangle to use.
 	 */
 	public void addTriangle(Triangle triangle) {
-		polygons.add(triangle);
+		triangles.add(triangle.indiceA, triangle.indiceB, triangle.indiceC);
+		markChanged();
+	}
+
+	/**
+	 * Returns the indices of the vectors of the triangles. Triangles added to
+	 * the indices directly are triangles of the mesh.
+	 * 
+	 * @return The indices, never <code>null</code>.
+	 */
+	public TriangleIndices getTriangles() {
+		return triangles;
+	}
+
+	/**
+	 * Tells that the vectors or polygons of the mesh have been changed. Encoded
+	 * copies of the mesh in the {@link EncodedMeshCache} become invalid. Must be
+	 * called by subclasses that change {@link #vectors} or {@link #triangles}
+	 * directly.
+	 */
+	public void markChanged() {
+		version++;
+	}
+
+	/**
+	 * Returns the version of the vectors and polygons, it changes every time the
+	 * mesh is {@link #markChanged() changed}.
+	 * 
+	 * @return The version.
+	 */
+	public int getVersion() {
+		return version + triangles.getVersion() + (packed == null ? 0 : packed.getVersion());
 	}
 
 	/**
@@ -173,9 +250,7 @@ public class Mesh<T extends Vector> extends TexturesHolder {
 		for (T t : vectors) {
 			m.addVector((T) t.cloneScaled(centerX, centerY, centerZ, factor));
 		}
-		for (Triangle triangle : polygons) {
-			m.addTriangle(triangle);
-		}
+		m.triangles.addAll(triangles);
 		for (TextureStage stage : textures.keySet()) {
 			m.setTexture(stage, textures.get(stage));
 		}
@@ -211,9 +286,7 @@ public class Mesh<T extends Vector> extends TexturesHolder {
 		for (T t : vectors) {
 			m.addVector((T) t.cloneMoved(rightMoveM, upwardMoveM, forwardMoveM));
 		}
-		for (Triangle triangle : polygons) {
-			m.addTriangle(triangle);
-		}
+		m.triangles.addAll(triangles);
 		for (TextureStage stage : textures.keySet()) {
 			m.setTexture(stage, textures.get(stage));
 		}
@@ -234,9 +307,7 @@ public class Mesh<T extends Vector> extends TexturesHolder {
 		for (T t : vectors) {
 			m.addVector((T) t.cloneRotateHorizontal(aroundPoint, rotateHorizontalRadians));
 		}
-		for (Triangle triangle : polygons) {
-			m.addTriangle(triangle);
-		}
+		m.triangles.addAll(triangles);
 		for (TextureStage stage : textures.keySet()) {
 			m.setTexture(stage, textures.get(stage));
 		}
@@ -267,9 +338,7 @@ public class Mesh<T extends Vector> extends TexturesHolder {
 		for (T t : vectors) {
 			m.addVector((T) t.cloneRotateClockwise(aroundPoint, rotateHorizontalRadians));
 		}
-		for (Triangle triangle : polygons) {
-			m.addTriangle(triangle);
-		}
+		m.triangles.addAll(triangles);
 		for (TextureStage stage : textures.keySet()) {
 			m.setTexture(stage, textures.get(stage));
 		}
@@ -381,43 +450,33 @@ public class Mesh<T extends Vector> extends TexturesHolder {
 		return trace;
 	}
 
+	/**
+	 * Sorts the triangles by the height of their vectors, the lowest triangle
+	 * first. Triangles of the same height keep their order.
+	 */
 	public void sort() {
-		Map<Triangle, Float> zPolygons = new LinkedHashMap<>();
-		for (Triangle triangle : polygons) {
-			T a = vectors.get(triangle.indiceA);
-			T b = vectors.get(triangle.indiceB);
-			T c = vectors.get(triangle.indiceC);
-			float currY = a.getY() + b.getY() + c.getY();
-			zPolygons.put(triangle, currY);
-		}
-
-		TreeSet<Entry<Triangle, Float>> sortedTriangles = new TreeSet<Map.Entry<Triangle, Float>>(new Comparator<Map.Entry<Triangle, Float>>() {
-
-			@Override
-			public int compare(Entry<Triangle, Float> front, Entry<Triangle, Float> behind) {
-				Float before = front.getValue();
-				Float after = behind.getValue();
-				int compareTo = before.compareTo(after);
-				if (compareTo == 0) {
-					return front.hashCode() - behind.hashCode();
-				}
-				return compareTo;
+		synchronized (triangles) {
+			int count = triangles.size();
+			final float[] heights = new float[count];
+			Integer[] order = new Integer[count];
+			for (int i = 0; i < count; i++) {
+				heights[i] = vectors.get(triangles.get(i, 0)).getY() + vectors.get(triangles.get(i, 1)).getY() + vectors.get(triangles.get(i, 2)).getY();
+				order[i] = i;
 			}
-		});
-		synchronized (polygons) {
-			sortedTriangles.addAll(zPolygons.entrySet());
-			this.polygons.clear();
-			int i = 0;
-			for (Entry<Triangle, Float> entry : sortedTriangles) {
-				Triangle key = entry.getKey();
-				T a = vectors.get(key.indiceA);
-				T b = vectors.get(key.indiceB);
-				T c = vectors.get(key.indiceC);
-				System.out.println(++i + "a:" + a + ",b:" + b + ",c:" + c + " - deepness = " + entry.getValue());
-
-				this.polygons.add(entry.getKey());
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer front, Integer behind) {
+					return Float.compare(heights[front], heights[behind]);
+				}
+			});
+			int[] sorted = new int[count * 3];
+			for (int i = 0; i < count; i++) {
+				for (int corner = 0; corner < 3; corner++) {
+					sorted[i * 3 + corner] = triangles.get(order[i], corner);
+				}
 			}
-
+			triangles.setAll(sorted);
+			markChanged();
 		}
 	}
 }
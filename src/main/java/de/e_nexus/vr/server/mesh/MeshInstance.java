@@ -0,0 +1,79 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Another placement of a mesh. The VR client receives the vectors of the mesh
+ * once and draws every instance of the mesh at the place of its
+ * {@link Transform}. An instance costs some dozen bytes, no matter how many
+ * vectors the mesh has.
+ * <p>
+ * Instances are created by
+ * {@link de.e_nexus.vr.server.VRServer#addInstance(Mesh, Transform)}. The mesh
+ * itself must be added to the server as well, it is shown at its own place.
+ */
+public final class MeshInstance {
+
+	/**
+	 * The id of the next instance.
+	 */
+	private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+	private final int id;
+
+	private final Mesh<?> mesh;
+
+	private volatile Transform transform;
+
+	/**
+	 * Creates an instance.
+	 * 
+	 * @param mesh      The mesh to show again, never <code>null</code>.
+	 * @param transform The placement relative to the vectors of the mesh, never
+	 *                  <code>null</code>.
+	 */
+	public MeshInstance(Mesh<?> mesh, Transform transform) {
+		this.id = NEXT_ID.getAndIncrement();
+		this.mesh = mesh;
+		this.transform = transform;
+	}
+
+	/**
+	 * Returns the id of the instance, unique in the server and used by the VR
+	 * clients.
+	 * 
+	 * @return The id, never negative.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	public Mesh<?> getMesh() {
+		return mesh;
+	}
+
+	public Transform getTransform() {
+		return transform;
+	}
+
+	/**
+	 * Changes the placement, does not tell the VR clients. Called by
+	 * {@link de.e_nexus.vr.server.VRServer#transformInstance(MeshInstance, Transform)}.
+	 * 
+	 * @param transform The placement, never <code>null</code>.
+	 */
+	public void setTransform(Transform transform) {
+		this.transform = transform;
+	}
+
+	@Override
+	public String toString() {
+		return "MeshInstance[" + id + " of " + mesh + ", " + transform + "]";
+	}
+}
@@ -0,0 +1,193 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import java.util.Arrays;
+
+/**
+ * The levels of detail of a mesh, the mesh itself first and simplified copies
+ * after, built by the {@link MeshLodBuilder}. Every level is shown from a
+ * distance of the helmet to the bounding sphere of the mesh on.
+ * <p>
+ * The levels are meshes of their own, the VR clients receive them like any
+ * other mesh. The server swaps the levels of a session while the helmet moves,
+ * see {@link de.e_nexus.vr.server.VRServer#setLod(Mesh, MeshLod)}.
+ */
+public final class MeshLod {
+
+	/**
+	 * The part of the triangles of every level by default: all, a half, a
+	 * quarter and a tenth.
+	 */
+	public static final float[] DEFAULT_RATIOS = { 1f, 0.5f, 0.25f, 0.1f };
+
+	/**
+	 * The distances in meter the levels of {@link #DEFAULT_RATIOS} are shown
+	 * from by default.
+	 */
+	public static final float[] DEFAULT_DISTANCES = { 0f, 4f, 12f, 30f };
+
+	/**
+	 * The part of a distance the helmet must pass a border further before the
+	 * level changes, so a helmet at the border does not swap the levels all the
+	 * time.
+	 */
+	public static final float HYSTERESIS = 0.1f;
+
+	private final Mesh<?>[] levels;
+
+	private final float[] distances;
+
+	private final float centerX;
+	private final float centerY;
+	private final float centerZ;
+	private final float radius;
+
+	/**
+	 * Creates the levels of a mesh.
+	 * 
+	 * @param levels    The levels, the mesh itself first, never
+	 *                  <code>null</code>.
+	 * @param distances The distance every level is shown from on, ascending,
+	 *                  the first is <code>0</code>.
+	 */
+	public MeshLod(Mesh<?>[] levels, float[] distances) {
+		if (levels.length == 0 || levels.length != distances.length) {
+			throw new IllegalArgumentException(levels.length + " levels for " + distances.length + " distances.");
+		}
+		for (int i = 1; i < distances.length; i++) {
+			if (!(distances[i] > distances[i - 1])) {
+				throw new IllegalArgumentException("The distances must ascend: " + Arrays.toString(distances));
+			}
+		}
+		this.levels = levels.clone();
+		this.distances = distances.clone();
+		this.distances[0] = 0;
+		Mesh<?> mesh = levels[0];
+		float[] min = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY };
+		float[] max = { Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+		int vertices = mesh.vectors.size();
+		float[] attributes = new float[vertices * MeshOptimizer.ATTRIBUTES];
+		MeshOptimizer.copyAttributes(mesh, 0, vertices, attributes);
+		for (int p = 0; p < attributes.length; p += MeshOptimizer.ATTRIBUTES) {
+			for (int c = 0; c < 3; c++) {
+				min[c] = Math.min(min[c], attributes[p + c]);
+				max[c] = Math.max(max[c], attributes[p + c]);
+			}
+		}
+		if (vertices == 0) {
+			centerX = centerY = centerZ = radius = 0;
+		} else {
+			centerX = (min[0] + max[0]) / 2;
+			centerY = (min[1] + max[1]) / 2;
+			centerZ = (min[2] + max[2]) / 2;
+			float dx = max[0] - centerX;
+			float dy = max[1] - centerY;
+			float dz = max[2] - centerZ;
+			radius = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+		}
+	}
+
+	/**
+	 * Returns the number of levels.
+	 * 
+	 * @return The number of levels, at least 1.
+	 */
+	public int size() {
+		return levels.length;
+	}
+
+	/**
+	 * Returns a level.
+	 * 
+	 * @param level The index of the level, <code>0</code> for the mesh itself.
+	 * @return The mesh of the level, never <code>null</code>.
+	 */
+	public Mesh<?> getLevel(int level) {
+		return levels[level];
+	}
+
+	/**
+	 * Returns the index of a level.
+	 * 
+	 * @param mesh The mesh of the level, never <code>null</code>.
+	 * @return The index or <code>-1</code> if the mesh is no level.
+	 */
+	public int indexOf(Mesh<?> mesh) {
+		for (int i = 0; i < levels.length; i++) {
+			if (levels[i] == mesh) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the distance a level is shown from on.
+	 * 
+	 * @param level The index of the level.
+	 * @return The distance in meter.
+	 */
+	public float getDistance(int level) {
+		return distances[level];
+	}
+
+	/**
+	 * Returns the level to show at a distance.
+	 * 
+	 * @param distance The distance of the helmet to the mesh in meter.
+	 * @return The index of the level.
+	 */
+	public int level(float distance) {
+		int level = 0;
+		while (level + 1 < distances.length && distance >= distances[level + 1]) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Returns the level to show at a distance, the shown level is kept until the
+	 * helmet passes the border by the {@link #HYSTERESIS}.
+	 * 
+	 * @param distance The distance of the helmet to the mesh in meter.
+	 * @param current  The index of the level shown, <code>-1</code> if none.
+	 * @return The index of the level.
+	 */
+	public int level(float distance, int current) {
+		int level = level(distance);
+		if (current < 0) {
+			return level;
+		}
+		if (level > current) {
+			return Math.max(current, level(distance / (1 + HYSTERESIS)));
+		}
+		if (level < current) {
+			return Math.min(current, level(distance * (1 + HYSTERESIS)));
+		}
+		return level;
+	}
+
+	/**
+	 * Calculates the distance of a point to the bounding sphere of the mesh.
+	 * 
+	 * @param transform The transform of the mesh, never <code>null</code>.
+	 * @param right     The position of the point.
+	 * @param up        The position of the point.
+	 * @param forward   The position of the point.
+	 * @return The distance in meter, <code>0</code> if the point is in the
+	 *         sphere.
+	 */
+	public float distance(Transform transform, float right, float up, float forward) {
+		Vector center = transform.apply(new Vector(centerX, centerY, centerZ));
+		float dx = right - center.getX();
+		float dy = up - center.getY();
+		float dz = forward - center.getZ();
+		float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz) - radius * transform.getScale();
+		return Math.max(0, distance);
+	}
+}
@@ -0,0 +1,75 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Builds the {@link MeshLod levels of detail} of a mesh. Every level is
+ * simplified from the mesh by its own {@link MeshSimplifier}, all levels in
+ * parallel.
+ */
+public class MeshLodBuilder extends RecursiveTask<MeshLod> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Mesh<?> mesh;
+
+	private final float[] ratios;
+
+	private final float[] distances;
+
+	/**
+	 * Creates the builder of the {@link MeshLod#DEFAULT_RATIOS default levels}.
+	 * 
+	 * @param mesh The mesh, must not be changed while building, never
+	 *             <code>null</code>.
+	 */
+	public MeshLodBuilder(Mesh<?> mesh) {
+		this(mesh, MeshLod.DEFAULT_RATIOS, MeshLod.DEFAULT_DISTANCES);
+	}
+
+	/**
+	 * Creates the builder of levels.
+	 * 
+	 * @param mesh      The mesh, must not be changed while building, never
+	 *                  <code>null</code>.
+	 * @param ratios    The part of the triangles of every level, the first level
+	 *                  is the mesh itself.
+	 * @param distances The distance every level is shown from on, ascending.
+	 */
+	public MeshLodBuilder(Mesh<?> mesh, float[] ratios, float[] distances) {
+		if (ratios.length != distances.length) {
+			throw new IllegalArgumentException(ratios.length + " ratios for " + distances.length + " distances.");
+		}
+		this.mesh = mesh;
+		this.ratios = ratios.clone();
+		this.distances = distances.clone();
+	}
+
+	@Override
+	protected MeshLod compute() {
+		List<ForkJoinTask<? extends Mesh<?>>> tasks = new ArrayList<ForkJoinTask<? extends Mesh<?>>>();
+		for (int i = 1; i < ratios.length; i++) {
+			tasks.add(simplifier(mesh, ratios[i]));
+		}
+		ForkJoinTask.invokeAll(tasks);
+		Mesh<?>[] levels = new Mesh<?>[ratios.length];
+		levels[0] = mesh;
+		for (int i = 1; i < ratios.length; i++) {
+			levels[i] = tasks.get(i - 1).join();
+		}
+		return new MeshLod(levels, distances);
+	}
+
+	private static <T extends Vector> MeshSimplifier<T> simplifier(Mesh<T> mesh, float ratio) {
+		return new MeshSimplifier<T>(mesh, ratio);
+	}
+}
@@ -0,0 +1,685 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Logger;
+
+/**
+ * Optimizes the vertices and triangles of a mesh in place, in two steps:
+ * <ol>
+ * <li>Welds vertices whose position, normal and texture coordinates differ by
+ * at most an epsilon, like the corners of adjacent faces created by
+ * {@link Mesh#addCube(float, float, float, float, float)}. The vertices are
+ * found by a spatial hash of cells a few epsilons wide. The vertices
+ * are compacted and the triangles remapped, triangles that collapse to a line
+ * are removed.</li>
+ * <li>Reorders the triangles for the post-transform vertex cache of the GPU,
+ * after Tom Forsyth's <i>Linear-Speed Vertex Cache Optimisation</i>.</li>
+ * </ol>
+ * The shape of the mesh is not changed. Large meshes are optimized in
+ * parallel: the vertices are compared in ranges and the triangles are
+ * reordered in batches of neighbouring triangles, each batch on its own. The
+ * {@link Report} tells the numbers before and after.
+ * <p>
+ * The optimizer is a task of the fork/join framework, it can be
+ * {@link java.util.concurrent.ForkJoinPool#invoke(ForkJoinTask) invoked} in a
+ * pool or {@link #invoke() directly}.
+ */
+public class MeshOptimizer extends RecursiveTask<MeshOptimizer.Report> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final static Logger LOG = Logger.getLogger(MeshOptimizer.class.getCanonicalName());
+
+	/**
+	 * The default epsilon, a hundredth of a millimeter.
+	 */
+	public static final float DEFAULT_EPSILON = 0.00001f;
+
+	/**
+	 * The number of vertices the reorder assumes in the cache of the GPU.
+	 */
+	public static final int CACHE_SIZE = 32;
+
+	/**
+	 * The number of vertices compared in one task.
+	 */
+	static final int VERTEX_RANGE = 16384;
+
+	/**
+	 * The number of triangles reordered in one task.
+	 */
+	static final int TRIANGLE_BATCH = 65536;
+
+	/**
+	 * The width of a cell of the spatial hash in epsilons.
+	 */
+	private static final int CELL_SIZE = 4;
+
+	/**
+	 * The part of a cell near its border, a little more than one epsilon.
+	 */
+	private static final double BORDER = 0.3;
+
+	/**
+	 * The number of values of a vertex compared: position, normal and texture
+	 * coordinates.
+	 */
+	static final int ATTRIBUTES = 8;
+
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRIANGLE_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2.0f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+
+	/**
+	 * The score of a vertex by its position in the cache.
+	 */
+	private static final float[] CACHE_SCORES = new float[CACHE_SIZE];
+
+	/**
+	 * The score of a vertex by its number of triangles not reordered yet.
+	 */
+	private static final float[] VALENCE_SCORES = new float[64];
+
+	static {
+		for (int i = 0; i < CACHE_SIZE; i++) {
+			CACHE_SCORES[i] = i < 3 ? LAST_TRIANGLE_SCORE : (float) Math.pow(1f - (i - 3) / (float) (CACHE_SIZE - 3), CACHE_DECAY_POWER);
+		}
+		for (int i = 1; i < VALENCE_SCORES.length; i++) {
+			VALENCE_SCORES[i] = VALENCE_BOOST_SCALE * (float) Math.pow(i, -VALENCE_BOOST_POWER);
+		}
+	}
+
+	/**
+	 * The numbers of a mesh before and after the optimization.
+	 */
+	public static final class Report {
+		private final int verticesBefore;
+		private final int verticesAfter;
+		private final int indicesBefore;
+		private final int indicesAfter;
+		private final float cacheMissesBefore;
+		private final float cacheMissesAfter;
+
+		Report(int verticesBefore, int verticesAfter, int indicesBefore, int indicesAfter, float cacheMissesBefore, float cacheMissesAfter) {
+			this.verticesBefore = verticesBefore;
+			this.verticesAfter = verticesAfter;
+			this.indicesBefore = indicesBefore;
+			this.indicesAfter = indicesAfter;
+			this.cacheMissesBefore = cacheMissesBefore;
+			this.cacheMissesAfter = cacheMissesAfter;
+		}
+
+		public int getVerticesBefore() {
+			return verticesBefore;
+		}
+
+		public int getVerticesAfter() {
+			return verticesAfter;
+		}
+
+		public int getIndicesBefore() {
+			return indicesBefore;
+		}
+
+		public int getIndicesAfter() {
+			return indicesAfter;
+		}
+
+		/**
+		 * Returns the average number of vertices transformed per triangle before
+		 * the optimization, for a cache of {@link MeshOptimizer#CACHE_SIZE}
+		 * vertices. The value is between 0.5 at best and 3 at worst.
+		 * 
+		 * @return The cache misses per triangle, 0 for a mesh without triangles.
+		 */
+		public float getCacheMissesBefore() {
+			return cacheMissesBefore;
+		}
+
+		/**
+		 * Returns the average number of vertices transformed per triangle after
+		 * the optimization.
+		 * 
+		 * @return The cache misses per triangle, 0 for a mesh without triangles.
+		 * @see #getCacheMissesBefore()
+		 */
+		public float getCacheMissesAfter() {
+			return cacheMissesAfter;
+		}
+
+		@Override
+		public String toString() {
+			return "vertices " + verticesBefore + " -> " + verticesAfter + ", indices " + indicesBefore + " -> " + indicesAfter + ", cache misses per triangle "
+					+ cacheMissesBefore + " -> " + cacheMissesAfter;
+		}
+	}
+
+	/**
+	 * A range of vertices or triangles to process in one task.
+	 */
+	private static abstract class Range {
+		abstract void run(int from, int to);
+	}
+
+	private final Mesh<?> mesh;
+
+	private final float epsilon;
+
+	/**
+	 * Creates the optimization of a mesh using the {@link #DEFAULT_EPSILON}.
+	 * 
+	 * @param mesh The mesh, never <code>null</code>.
+	 */
+	public MeshOptimizer(Mesh<?> mesh) {
+		this(mesh, DEFAULT_EPSILON);
+	}
+
+	/**
+	 * Creates the optimization of a mesh.
+	 * 
+	 * @param mesh    The mesh, never <code>null</code>.
+	 * @param epsilon The maximum difference of the values of two vertices that
+	 *                are welded, <code>0</code> to weld identical vertices only.
+	 */
+	public MeshOptimizer(Mesh<?> mesh, float epsilon) {
+		if (!(epsilon >= 0)) {
+			throw new IllegalArgumentException("The epsilon must not be negative but is " + epsilon + ".");
+		}
+		this.mesh = mesh;
+		this.epsilon = epsilon;
+	}
+
+	@Override
+	protected Report compute() {
+		TriangleIndices triangles = mesh.getTriangles();
+		synchronized (triangles) {
+			int vertices = mesh.vectors.size();
+			int[] indices = triangles.toArray();
+			float cacheMissesBefore = cacheMisses(indices, vertices);
+			float[] attributes = attributes(vertices);
+			int[] remap = new int[vertices];
+			int[] retained = new int[vertices];
+			int kept = weld(attributes, remap, retained);
+			int length = 0;
+			for (int i = 0; i < indices.length; i += 3) {
+				int a = remap[indices[i]];
+				int b = remap[indices[i + 1]];
+				int c = remap[indices[i + 2]];
+				if (a != b && b != c && a != c) {
+					indices[length++] = a;
+					indices[length++] = b;
+					indices[length++] = c;
+				}
+			}
+			int[] reordered = reorder(cluster(Arrays.copyOf(indices, length), attributes, retained));
+			triangles.clear();
+			triangles.addAll(reordered, 0, reordered.length / 3);
+			mesh.markChanged();
+			Report report = new Report(vertices, kept, indices.length, length, cacheMissesBefore, cacheMisses(reordered, kept));
+			LOG.fine("Optimized " + mesh + ": " + report);
+			return report;
+		}
+	}
+
+	/**
+	 * Copies the attributes of all vertices, {@link #ATTRIBUTES} values per
+	 * vertex.
+	 */
+	private float[] attributes(int vertices) {
+		final float[] attributes = new float[vertices * ATTRIBUTES];
+		forEach(vertices, VERTEX_RANGE, new Range() {
+			@Override
+			void run(int from, int to) {
+				copyAttributes(mesh, from, to, attributes);
+			}
+		});
+		return attributes;
+	}
+
+	/**
+	 * Welds the vertices and compacts the vertices of the mesh. A vertex is
+	 * compared to the vertices of its cell of the spatial hash, and to the
+	 * vertices of a neighbour cell only if it is near the border.
+	 * 
+	 * @param attributes The attributes of the vertices.
+	 * @param remap      The array to fill with the new index of every vertex.
+	 * @param kept       The array to fill with the old index of every vertex
+	 *                   kept.
+	 * @return The number of vertices kept.
+	 */
+	private int weld(final float[] attributes, int[] remap, int[] kept) {
+		final int vertices = remap.length;
+		int capacity = 2;
+		while (capacity < vertices * 2) {
+			capacity <<= 1;
+		}
+		final long[] keys = new long[capacity];
+		final int[] heads = new int[capacity];
+		Arrays.fill(heads, -1);
+		final int[] next = new int[vertices];
+		for (int i = 0; i < vertices; i++) {
+			int p = i * ATTRIBUTES;
+			long key = cell(coordinate(attributes[p]), coordinate(attributes[p + 1]), coordinate(attributes[p + 2]));
+			int slot = slot(keys, heads, key);
+			keys[slot] = key;
+			next[i] = heads[slot];
+			heads[slot] = i;
+		}
+		final int[] representatives = new int[vertices];
+		forEach(vertices, VERTEX_RANGE, new Range() {
+			@Override
+			void run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					int p = i * ATTRIBUTES;
+					long x = coordinate(attributes[p]);
+					long y = coordinate(attributes[p + 1]);
+					long z = coordinate(attributes[p + 2]);
+					int nx = neighbour(attributes[p], x);
+					int ny = neighbour(attributes[p + 1], y);
+					int nz = neighbour(attributes[p + 2], z);
+					int representative = i;
+					for (int dx = 0; dx <= Math.abs(nx); dx++) {
+						for (int dy = 0; dy <= Math.abs(ny); dy++) {
+							for (int dz = 0; dz <= Math.abs(nz); dz++) {
+								int head = heads[slot(keys, heads, cell(x + dx * nx, y + dy * ny, z + dz * nz))];
+								for (int j = head; j >= 0; j = next[j]) {
+									if (j < representative && matches(attributes, i, j)) {
+										representative = j;
+									}
+								}
+							}
+						}
+					}
+					representatives[i] = representative;
+				}
+			}
+		});
+		int count = 0;
+		for (int i = 0; i < vertices; i++) {
+			int representative = representatives[representatives[i]];
+			representatives[i] = representative;
+			if (representative == i) {
+				kept[count] = i;
+				remap[i] = count++;
+			} else {
+				remap[i] = remap[representative];
+			}
+		}
+		if (count < vertices) {
+			retain(mesh, kept, count);
+		}
+		return count;
+	}
+
+	/**
+	 * Copies the attributes of vertices, {@link #ATTRIBUTES} values per vertex:
+	 * position, normal and texture coordinates. Missing normals and texture
+	 * coordinates are <code>NaN</code>.
+	 * 
+	 * @param mesh   The mesh, never <code>null</code>.
+	 * @param from   The index of the first vertex.
+	 * @param to     The index after the last vertex.
+	 * @param target The array to fill, the values of a vertex at its index times
+	 *               {@link #ATTRIBUTES}.
+	 */
+	static void copyAttributes(Mesh<?> mesh, int from, int to, float[] target) {
+		PackedVertices packed = mesh.getPackedVertices();
+		if (packed != null) {
+			packed.attributes(from, to - from, target, from * ATTRIBUTES);
+			return;
+		}
+		int t = from * ATTRIBUTES;
+		for (int i = from; i < to; i++) {
+			Vector v = mesh.vectors.get(i);
+			target[t++] = v.x;
+			target[t++] = v.y;
+			target[t++] = v.z;
+			NormalVector nv = v instanceof NormalVector ? (NormalVector) v : null;
+			boolean normal = nv != null && nv.normalX != null && nv.normalY != null && nv.normalZ != null;
+			target[t++] = normal ? nv.normalX : Float.NaN;
+			target[t++] = normal ? nv.normalY : Float.NaN;
+			target[t++] = normal ? nv.normalZ : Float.NaN;
+			UVVector uv = v instanceof UVVector ? (UVVector) v : null;
+			target[t++] = uv != null ? uv.uvX : Float.NaN;
+			target[t++] = uv != null ? uv.uvY : Float.NaN;
+		}
+	}
+
+	/**
+	 * Returns the key of a cell of the spatial hash. Different cells may share a
+	 * key, the vertices are compared anyway.
+	 */
+	private static long cell(long x, long y, long z) {
+		return (x & 0x1FFFFF) << 42 | (y & 0x1FFFFF) << 21 | (z & 0x1FFFFF);
+	}
+
+	/**
+	 * Returns the slot of a cell in the open addressed table of the spatial
+	 * hash, or the free slot to put the cell into.
+	 */
+	private static int slot(long[] keys, int[] heads, long key) {
+		int mask = keys.length - 1;
+		int slot = (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+		while (heads[slot] >= 0 && keys[slot] != key) {
+			slot = slot + 1 & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Returns the cell of a coordinate. A cell is {@link #CELL_SIZE} epsilons
+	 * wide, without epsilon every value has its own cell.
+	 */
+	private long coordinate(float value) {
+		if (epsilon > 0) {
+			return (long) Math.floor(value / (epsilon * (double) CELL_SIZE));
+		}
+		return Float.floatToIntBits(value + 0f);
+	}
+
+	/**
+	 * Returns the direction of the neighbour cell a coordinate is near to.
+	 * 
+	 * @return <code>-1</code> or <code>1</code> if a value within epsilon may
+	 *         be in the previous or the next cell, <code>0</code> otherwise.
+	 */
+	private int neighbour(float value, long coordinate) {
+		if (epsilon > 0) {
+			double fraction = value / (epsilon * (double) CELL_SIZE) - coordinate;
+			if (fraction < BORDER) {
+				return -1;
+			}
+			if (fraction > 1 - BORDER) {
+				return 1;
+			}
+		}
+		return 0;
+	}
+
+	private boolean matches(float[] attributes, int a, int b) {
+		for (int i = 0; i < ATTRIBUTES; i++) {
+			float first = attributes[a * ATTRIBUTES + i];
+			float second = attributes[b * ATTRIBUTES + i];
+			if (Float.isNaN(first) || Float.isNaN(second)) {
+				if (Float.isNaN(first) != Float.isNaN(second)) {
+					return false;
+				}
+			} else if (Math.abs(first - second) > epsilon) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends Vector> void retain(Mesh<T> mesh, int[] kept, int count) {
+		PackedVertices packed = mesh.getPackedVertices();
+		if (packed != null) {
+			packed.retain(kept, count);
+			return;
+		}
+		Object[] vectors = new Object[count];
+		for (int i = 0; i < count; i++) {
+			vectors[i] = mesh.vectors.get(kept[i]);
+		}
+		mesh.vectors.clear();
+		for (Object v : vectors) {
+			mesh.vectors.add((T) v);
+		}
+	}
+
+	/**
+	 * Sorts the triangles of a large mesh along a Morton curve of their centers
+	 * in a cubic grid around the mesh, so every batch of the reorder is a compact part of the mesh.
+	 * 
+	 * @param indices    The indices, three per triangle, never
+	 *                   <code>null</code>.
+	 * @param attributes The attributes of the vertices before the weld.
+	 * @param kept       The index before the weld of every vertex.
+	 * @return The sorted indices, the given indices if they fit into one batch.
+	 */
+	private static int[] cluster(final int[] indices, final float[] attributes, final int[] kept) {
+		final int triangles = indices.length / 3;
+		if (triangles <= TRIANGLE_BATCH) {
+			return indices;
+		}
+		final float[] min = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY };
+		final float[] max = { Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+		for (int i = 0; i < indices.length; i++) {
+			int p = kept[indices[i]] * ATTRIBUTES;
+			for (int c = 0; c < 3; c++) {
+				min[c] = Math.min(min[c], attributes[p + c]);
+				max[c] = Math.max(max[c], attributes[p + c]);
+			}
+		}
+		float extent = 0;
+		for (int c = 0; c < 3; c++) {
+			extent = Math.max(extent, max[c] - min[c]);
+		}
+		final float factor = extent > 0 ? 1023 / extent : 0;
+		final long[] order = new long[triangles];
+		forEach(triangles, TRIANGLE_BATCH, new Range() {
+			@Override
+			void run(int from, int to) {
+				for (int t = from; t < to; t++) {
+					long morton = 0;
+					for (int c = 0; c < 3; c++) {
+						float center = 0;
+						for (int corner = 0; corner < 3; corner++) {
+							center += attributes[kept[indices[t * 3 + corner]] * ATTRIBUTES + c];
+						}
+						morton |= spread((int) ((center / 3 - min[c]) * factor)) << c;
+					}
+					order[t] = morton << 32 | t;
+				}
+			}
+		});
+		Arrays.parallelSort(order);
+		int[] sorted = new int[indices.length];
+		for (int i = 0; i < triangles; i++) {
+			System.arraycopy(indices, (int) order[i] * 3, sorted, i * 3, 3);
+		}
+		return sorted;
+	}
+
+	/**
+	 * Spreads the lower ten bits of a value to every third bit.
+	 */
+	private static long spread(int value) {
+		long bits = Math.max(0, Math.min(1023, value));
+		bits = (bits | bits << 16) & 0x030000FFL;
+		bits = (bits | bits << 8) & 0x0300F00FL;
+		bits = (bits | bits << 4) & 0x030C30C3L;
+		bits = (bits | bits << 2) & 0x09249249L;
+		return bits;
+	}
+
+	/**
+	 * Reorders the triangles for the vertex cache, in batches of
+	 * {@link #TRIANGLE_BATCH} triangles.
+	 * 
+	 * @param indices The indices, three per triangle, never <code>null</code>.
+	 * @return The reordered indices, never <code>null</code>.
+	 */
+	static int[] reorder(final int[] indices) {
+		final int[] reordered = new int[indices.length];
+		forEach(indices.length / 3, TRIANGLE_BATCH, new Range() {
+			@Override
+			void run(int from, int to) {
+				reorder(indices, from, to - from, reordered);
+			}
+		});
+		return reordered;
+	}
+
+	/**
+	 * Reorders a batch of triangles: the next triangle is always the one whose
+	 * vertices score best, vertices score for being in the simulated cache and
+	 * for having few triangles left.
+	 */
+	private static void reorder(int[] indices, int first, int count, int[] target) {
+		int[] corners = Arrays.copyOfRange(indices, first * 3, (first + count) * 3);
+		int[] unique = corners.clone();
+		Arrays.sort(unique);
+		int vertices = 0;
+		for (int i = 0; i < unique.length; i++) {
+			if (i == 0 || unique[i] != unique[i - 1]) {
+				unique[vertices++] = unique[i];
+			}
+		}
+		int[] live = new int[vertices];
+		for (int i = 0; i < corners.length; i++) {
+			corners[i] = Arrays.binarySearch(unique, 0, vertices, corners[i]);
+			live[corners[i]]++;
+		}
+		int[] offsets = new int[vertices + 1];
+		for (int v = 0; v < vertices; v++) {
+			offsets[v + 1] = offsets[v] + live[v];
+		}
+		int[] adjacency = new int[corners.length];
+		int[] fill = Arrays.copyOf(offsets, vertices);
+		for (int i = 0; i < corners.length; i++) {
+			adjacency[fill[corners[i]]++] = i / 3;
+		}
+		int[] cachePositions = new int[vertices];
+		Arrays.fill(cachePositions, -1);
+		float[] vertexScores = new float[vertices];
+		for (int v = 0; v < vertices; v++) {
+			vertexScores[v] = score(-1, live[v]);
+		}
+		float[] triangleScores = new float[count];
+		boolean[] emitted = new boolean[count];
+		int best = -1;
+		for (int t = 0; t < count; t++) {
+			triangleScores[t] = vertexScores[corners[t * 3]] + vertexScores[corners[t * 3 + 1]] + vertexScores[corners[t * 3 + 2]];
+			if (best < 0 || triangleScores[t] > triangleScores[best]) {
+				best = t;
+			}
+		}
+		int[] cache = new int[CACHE_SIZE + 3];
+		int[] grown = new int[CACHE_SIZE + 3];
+		int cached = 0;
+		int cursor = 0;
+		for (int emit = 0; emit < count; emit++) {
+			if (best < 0) {
+				while (emitted[cursor]) {
+					cursor++;
+				}
+				best = cursor;
+			}
+			System.arraycopy(indices, (first + best) * 3, target, (first + emit) * 3, 3);
+			emitted[best] = true;
+			int size = 0;
+			for (int c = 0; c < 3; c++) {
+				int v = corners[best * 3 + c];
+				int end = offsets[v] + live[v] - 1;
+				for (int a = offsets[v]; a <= end; a++) {
+					if (adjacency[a] == best) {
+						adjacency[a] = adjacency[end];
+						adjacency[end] = best;
+						break;
+					}
+				}
+				live[v]--;
+				grown[size++] = v;
+			}
+			for (int i = 0; i < cached; i++) {
+				int v = cache[i];
+				if (v != grown[0] && v != grown[1] && v != grown[2]) {
+					grown[size++] = v;
+				}
+			}
+			for (int i = 0; i < size; i++) {
+				int v = grown[i];
+				cachePositions[v] = i < CACHE_SIZE ? i : -1;
+				vertexScores[v] = score(cachePositions[v], live[v]);
+			}
+			best = -1;
+			for (int i = 0; i < size; i++) {
+				int v = grown[i];
+				for (int a = offsets[v]; a < offsets[v] + live[v]; a++) {
+					int t = adjacency[a];
+					triangleScores[t] = vertexScores[corners[t * 3]] + vertexScores[corners[t * 3 + 1]] + vertexScores[corners[t * 3 + 2]];
+					if (best < 0 || triangleScores[t] > triangleScores[best]) {
+						best = t;
+					}
+				}
+			}
+			int[] swap = cache;
+			cache = grown;
+			grown = swap;
+			cached = Math.min(size, CACHE_SIZE);
+		}
+	}
+
+	private static float score(int cachePosition, int liveTriangles) {
+		if (liveTriangles == 0) {
+			return -1;
+		}
+		float score = cachePosition < 0 ? 0 : CACHE_SCORES[cachePosition];
+		if (liveTriangles < VALENCE_SCORES.length) {
+			return score + VALENCE_SCORES[liveTriangles];
+		}
+		return score + VALENCE_BOOST_SCALE * (float) Math.pow(liveTriangles, -VALENCE_BOOST_POWER);
+	}
+
+	/**
+	 * Simulates a first-in-first-out cache of {@link #CACHE_SIZE} vertices.
+	 * 
+	 * @param indices  The indices, three per triangle, never <code>null</code>.
+	 * @param vertices The number of vertices.
+	 * @return The number of cache misses per triangle.
+	 */
+	static float cacheMisses(int[] indices, int vertices) {
+		if (indices.length == 0) {
+			return 0;
+		}
+		int[] timestamps = new int[vertices];
+		int timestamp = CACHE_SIZE + 1;
+		int misses = 0;
+		for (int index : indices) {
+			if (timestamp - timestamps[index] > CACHE_SIZE) {
+				timestamps[index] = timestamp++;
+				misses++;
+			}
+		}
+		return misses * 3f / indices.length;
+	}
+
+	/**
+	 * Runs a range in tasks of at most a number of elements, in the calling
+	 * thread if there is only one.
+	 */
+	private static void forEach(int count, int size, final Range range) {
+		if (count <= size) {
+			range.run(0, count);
+			return;
+		}
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+		for (int from = 0; from < count; from += size) {
+			final int start = from;
+			final int end = Math.min(count, from + size);
+			tasks.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					range.run(start, end);
+				}
+			});
+		}
+		ForkJoinTask.invokeAll(tasks);
+	}
+}
@@ -8,6 +8,7 @@ package de.e_nexus.vr.server.mesh;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -23,13 +24,74 @@ public class MeshOutputStream<T extends Vector> extends LittleEndianOutputStream
 		super(out);
 	}
 
+	/**
+	 * Creates a stream that encodes the mesh directly into a buffer.
+	 * 
+	 * @param target The buffer in write-mode, must have space for
+	 *               {@link #encodedSize(Mesh)} bytes.
+	 */
+	public MeshOutputStream(ByteBuffer target) {
+		super(target);
+	}
+
 	protected static final byte FLOAT = 0;
 	protected static final byte UINT = 1;
 	protected static final byte UINT_SIZE = 4;
 
-	public void writeMesh(Mesh<T> m) throws IOException {
-		boolean isUv = !m.vectors.isEmpty() && m.vectors.iterator().next() instanceof UVVector;
-		boolean allHaveNormals = true;
+	/**
+	 * Attribute type of signed 16-bit values.
+	 */
+	protected static final byte SHORT = 2;
+
+	/**
+	 * Attribute type of unsigned 16-bit values.
+	 */
+	protected static final byte USHORT = 3;
+
+	/**
+	 * Attribute type of unit vectors in octahedral encoding: two signed 16-bit
+	 * values, see {@link CompactMeshOutputStream}.
+	 */
+	protected static final byte OCTAHEDRAL = 4;
+
+	/**
+	 * The number of vertices of a {@link PackedVertices store} interleaved at
+	 * once.
+	 */
+	private static final int VERTEX_BAND = 1024;
+
+	/**
+	 * Calculates the number of bytes {@link #writeMesh(Mesh)} writes.
+	 * 
+	 * @param m The mesh, never <code>null</code>.
+	 * @return The size of the encoded mesh in bytes.
+	 */
+	public static int encodedSize(Mesh<?> m) {
+		boolean isUv = isUv(m);
+		boolean allHaveNormals = allHaveNormals(m);
+		int size = 6 * UINT_SIZE;
+		size += 4 + "position".length() + 4;
+		if (allHaveNormals) {
+			size += 4 + "normals".length() + 1;
+		}
+		if (isUv) {
+			size += 4 + "uv".length() + 2;
+		}
+		size += m.vectors.size() * calculateSingleVertexSize(isUv, allHaveNormals);
+		return size + m.getTriangles().size() * 3 * UINT_SIZE;
+	}
+
+	static boolean isUv(Mesh<?> m) {
+		if (m.getPackedVertices() != null) {
+			return m.getPackedVertices().hasUv() && m.getPackedVertices().size() > 0;
+		}
+		return !m.vectors.isEmpty() && m.vectors.iterator().next() instanceof UVVector;
+	}
+
+	static boolean allHaveNormals(Mesh<?> m) {
+		if (m.getPackedVertices() != null) {
+			return m.getPackedVertices().hasNormals();
+		}
 		for (Object v : m.vectors) {
 			if (v instanceof NormalVector) {
 				NormalVector normalVector = (NormalVector) v;
@@ -37,9 +99,14 @@ public class MeshOutputStream<T extends Vector> extends LittleEndianOutputStream
 					continue;
 				}
 			}
-			allHaveNormals = false;
-			break;
+			return false;
 		}
+		return true;
+	}
+
+	public void writeMesh(Mesh<T> m) throws IOException {
+		boolean isUv = isUv(m);
+		boolean allHaveNormals = allHaveNormals(m);
 		write1_CountVertices(m);
 		write2_CountIndices(m);
 		write3_NumberOfAttributes(m, allHaveNormals);
@@ -52,10 +119,17 @@ public class MeshOutputStream<T extends Vector> extends LittleEndianOutputStream
 	}
 
 	private void writeRawVertexData(Mesh<T> mesh, boolean isUv, boolean allHaveNormals) throws IOException {
+		PackedVertices packed = mesh.getPackedVertices();
+		if (packed != null) {
+			writePackedVertexData(packed, allHaveNormals);
+			return;
+		}
 		List<T> vectors = mesh.vectors;
+		LOG.fine("Write " + vectors.size() + " vectors of mesh " + mesh + ".");
+		if (!isUv) {
+			LOG.fine("No texture inforemations available for the vectors.");
+		}
 		for (T t : vectors) {
-			LOG.fine("Write a vector of mesh " + mesh + ".");
-			LOG.finest("Writing vector " + t.x + "x" + t.y + "x" + t.z + ".");
 			writeLittleEndian(t.x);
 			writeLittleEndian(t.y);
 			writeLittleEndian(t.z);
@@ -69,22 +143,71 @@ public class MeshOutputStream<T extends Vector> extends LittleEndianOutputStream
 
 			if (isUv) {
 				UVVector e = (UVVector) t;
-				LOG.finest("Write a texture coordinte " + e.uvX + "x" + e.uvY
-						+ " (factor from left border of image 'x' factor from upper border of image) of mesh " + mesh + ".");
 				writeLittleEndian(e.uvX);
 				writeLittleEndian(e.uvY);
-			} else {
-				LOG.fine("No texture inforemations available for this vector.");
 			}
 		}
 	}
 
-	private void writeIndexData(Mesh<T> m) throws IOException {
-		for (Triangle t : m.polygons) {
-			writeLittleEndian(t.indiceA);
-			writeLittleEndian(t.indiceB);
-			writeLittleEndian(t.indiceC);
+	/**
+	 * Copies the vertices of a store to the wire in bands, without creating
+	 * vectors.
+	 * 
+	 * @param packed         The store, never <code>null</code>.
+	 * @param allHaveNormals <code>true</code> to include the normals.
+	 * @throws IOException If the stream is broken.
+	 */
+	private void writePackedVertexData(PackedVertices packed, boolean allHaveNormals) throws IOException {
+		int band = Math.min(packed.size(), VERTEX_BAND);
+		float[] interleaved = new float[band * 8];
+		for (int first = 0; first < packed.size(); first += band) {
+			int count = Math.min(band, packed.size() - first);
+			writeLittleEndian(interleaved, 0, packed.interleave(first, count, allHaveNormals, interleaved));
+		}
+	}
+
+	/**
+	 * Interleaves vertices of a mesh: position, normal if requested and texture
+	 * coordinates if requested.
+	 * 
+	 * @param m       The mesh, never <code>null</code>.
+	 * @param first   The index of the first vertex.
+	 * @param count   The number of vertices.
+	 * @param normals <code>true</code> to include the normals, all vertices must
+	 *                have normals.
+	 * @param uv      <code>true</code> to include the texture coordinates, the
+	 *                mesh must have texture coordinates.
+	 * @param target  The array to fill, must have room for all values.
+	 * @return The number of values written to the target.
+	 */
+	static int interleave(Mesh<?> m, int first, int count, boolean normals, boolean uv, float[] target) {
+		if (m.getPackedVertices() != null) {
+			return m.getPackedVertices().interleave(first, count, normals, target);
+		}
+		int t = 0;
+		for (int i = first; i < first + count; i++) {
+			Vector v = m.vectors.get(i);
+			target[t++] = v.x;
+			target[t++] = v.y;
+			target[t++] = v.z;
+			if (normals) {
+				NormalVector nv = (NormalVector) v;
+				target[t++] = nv.normalX;
+				target[t++] = nv.normalY;
+				target[t++] = nv.normalZ;
+			}
+			if (uv) {
+				UVVector uvVector = (UVVector) v;
+				target[t++] = uvVector.uvX;
+				target[t++] = uvVector.uvY;
+			}
 		}
+		return t;
+	}
+
+	private void writeIndexData(Mesh<T> m) throws IOException {
+		TriangleIndices triangles = m.getTriangles();
+		writeLittleEndian(triangles.array(), 0, triangles.size() * 3);
 	}
 
 	private void writeVertexAttributeData(Mesh m, boolean isUv, boolean allHaveNormals) throws IOException {
@@ -98,7 +221,7 @@ public class MeshOutputStream<T extends Vector> extends LittleEndianOutputStream
 		}
 	}
 
-	private void attr(byte oneByteDataType, byte oneByteComponentCount, byte oneByteNormalizeFlag, String txt) throws IOException {
+	protected void attr(byte oneByteDataType, byte oneByteComponentCount, byte oneByteNormalizeFlag, String txt) throws IOException {
 		write(oneByteDataType);
 		write(oneByteComponentCount);
 		write(oneByteNormalizeFlag);
@@ -132,7 +255,7 @@ public class MeshOutputStream<T extends Vector> extends LittleEndianOutputStream
 		writeLittleEndian(calculateSingleVertexSize(isUv, allHaveNormals));
 	}
 
-	private int calculateSingleVertexSize(boolean isUv, boolean allHaveNormals) {
+	private static int calculateSingleVertexSize(boolean isUv, boolean allHaveNormals) {
 		int positionSize = 3 * 4;
 		int uvSize = 2 * 4;
 		int normalsSize = 3 * 4;
@@ -145,7 +268,7 @@ public class MeshOutputStream<T extends Vector> extends LittleEndianOutputStream
 	}
 
 	private void write2_CountIndices(Mesh m) throws IOException {
-		writeLittleEndian(m.polygons.size() * 3);
+		writeLittleEndian(m.getTriangles().size() * 3);
 	}
 
 	private void write1_CountVertices(Mesh m) throws IOException {
@@ -0,0 +1,126 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import de.e_nexus.vr.server.mesh.tex.Texture;
+import de.e_nexus.vr.server.mesh.tex.TextureRegistry;
+import de.e_nexus.vr.server.net.PayloadCompression;
+
+/**
+ * Prepares a mesh to be sent: encodes the mesh into the
+ * {@link EncodedMeshCache} and {@link Texture#preload() preloads} every
+ * texture. The pixels of every texture are hashed into the
+ * {@link TextureRegistry}. The mesh and the textures are prepared in parallel.
+ * <p>
+ * The mesh is encoded in every variant a session may ask for: the plain and
+ * the {@link CompactMeshOutputStream compact} encoding, each compressed as
+ * well if a {@link PayloadCompression} is given.
+ */
+public class MeshPreload extends RecursiveTask<Mesh<?>> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Mesh<?> mesh;
+
+	private final EncodedMeshCache meshCache;
+
+	private final TextureRegistry registry;
+
+	private final PayloadCompression compression;
+
+	/**
+	 * Creates the preload of a mesh.
+	 * 
+	 * @param mesh      The mesh, never <code>null</code>.
+	 * @param meshCache The cache to encode the mesh into, never
+	 *                  <code>null</code>.
+	 */
+	public MeshPreload(Mesh<?> mesh, EncodedMeshCache meshCache) {
+		this(mesh, meshCache, null);
+	}
+
+	/**
+	 * Creates the preload of a mesh that also hashes the textures.
+	 * 
+	 * @param mesh      The mesh, never <code>null</code>.
+	 * @param meshCache The cache to encode the mesh into, never
+	 *                  <code>null</code>.
+	 * @param registry  The registry to hash the textures into,
+	 *                  <code>null</code> if the textures are not hashed.
+	 */
+	public MeshPreload(Mesh<?> mesh, EncodedMeshCache meshCache, TextureRegistry registry) {
+		this(mesh, meshCache, registry, null);
+	}
+
+	/**
+	 * Creates the preload of a mesh that also hashes the textures and
+	 * compresses the encoded mesh.
+	 * 
+	 * @param mesh        The mesh, never <code>null</code>.
+	 * @param meshCache   The cache to encode the mesh into, never
+	 *                    <code>null</code>.
+	 * @param registry    The registry to hash the textures into,
+	 *                    <code>null</code> if the textures are not hashed.
+	 * @param compression The compression of the payloads, <code>null</code> if
+	 *                    the encoded mesh is not compressed.
+	 */
+	public MeshPreload(Mesh<?> mesh, EncodedMeshCache meshCache, TextureRegistry registry, PayloadCompression compression) {
+		this.mesh = mesh;
+		this.meshCache = meshCache;
+		this.registry = registry;
+		this.compression = compression;
+	}
+
+	@Override
+	protected Mesh<?> compute() {
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+		for (final boolean compact : new boolean[] { false, true }) {
+			tasks.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					try {
+						meshCache.get(mesh, compact, null);
+						if (compression != null) {
+							meshCache.get(mesh, compact, compression);
+						}
+					} catch (IOException e) {
+						throw new UncheckedIOException("The mesh " + mesh + " could not be encoded.", e);
+					}
+				}
+			});
+		}
+		for (final Texture texture : mesh.getTextures().values()) {
+			tasks.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					try {
+						texture.preload();
+						if (registry != null) {
+							registry.canonical(texture);
+						}
+					} catch (IOException e) {
+						throw new UncheckedIOException("The texture " + texture + " of mesh " + mesh + " could not be preloaded.", e);
+					}
+				}
+			});
+		}
+		invokeAll(tasks);
+		return mesh;
+	}
+}
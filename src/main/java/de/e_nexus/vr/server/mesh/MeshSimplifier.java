@@ -0,0 +1,368 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.RecursiveTask;
+
+import de.e_nexus.vr.server.mesh.tex.TextureStage;
+
+/**
+ * Simplifies a mesh by collapsing edges, the edge that changes the shape least
+ * first. The change is measured by quadric error metrics after Garland and
+ * Heckbert: every vertex sums up the squared distances to the planes of its
+ * triangles.
+ * <p>
+ * An edge collapses into one of its vertices, the vertex kept is not moved, so
+ * the normals and texture coordinates of the vertices kept are those of the
+ * mesh. Vertices on a border of the mesh and vertices sharing their position
+ * with another vertex, like on a seam of the texture coordinates, are never
+ * removed. A collapse that flips a triangle is skipped.
+ * <p>
+ * The mesh is not changed, the simplified mesh is a new mesh of the same kind
+ * referencing the same textures. Run {@link MeshOptimizer} before, otherwise
+ * duplicate vertices are kept like seams.
+ * 
+ * @param <T> The type of vectors of the mesh.
+ */
+public class MeshSimplifier<T extends Vector> extends RecursiveTask<Mesh<T>> {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int ATTRIBUTES = MeshOptimizer.ATTRIBUTES;
+
+	/**
+	 * The number of values of a quadric: the upper triangle of the symmetric
+	 * 4x4 matrix.
+	 */
+	private static final int QUADRIC = 10;
+
+	private final Mesh<T> mesh;
+
+	private final float ratio;
+
+	/**
+	 * Creates the simplification of a mesh.
+	 * 
+	 * @param mesh  The mesh, must not be changed while simplified, never
+	 *              <code>null</code>.
+	 * @param ratio The part of the triangles to keep, between <code>0</code>
+	 *              and <code>1</code>.
+	 */
+	public MeshSimplifier(Mesh<T> mesh, float ratio) {
+		if (!(ratio >= 0 && ratio <= 1)) {
+			throw new IllegalArgumentException("The ratio must be between 0 and 1 but is " + ratio + ".");
+		}
+		this.mesh = mesh;
+		this.ratio = ratio;
+	}
+
+	@Override
+	protected Mesh<T> compute() {
+		int vertices = mesh.vectors.size();
+		float[] attributes = new float[vertices * ATTRIBUTES];
+		MeshOptimizer.copyAttributes(mesh, 0, vertices, attributes);
+		int[] indices = mesh.getTriangles().toArray();
+		int target = (int) Math.ceil(indices.length / 3 * ratio);
+		boolean[] locked = locked(attributes, indices, vertices);
+		double[] quadrics = quadrics(attributes, indices, vertices);
+		int[] remap = new int[vertices];
+		for (int i = 0; i < vertices; i++) {
+			remap[i] = i;
+		}
+		while (indices.length / 3 > target) {
+			int collapses = collapse(attributes, indices, locked, quadrics, remap, indices.length / 3 - target);
+			if (collapses == 0) {
+				break;
+			}
+			indices = remove(indices, remap);
+		}
+		return create(indices);
+	}
+
+	/**
+	 * Finds the vertices that must not be removed: vertices on a border, on an
+	 * edge of more than two triangles and vertices sharing their position.
+	 */
+	private static boolean[] locked(float[] attributes, int[] indices, int vertices) {
+		boolean[] locked = new boolean[vertices];
+		Integer[] order = new Integer[vertices];
+		for (int i = 0; i < vertices; i++) {
+			order[i] = i;
+		}
+		final float[] positions = attributes;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				for (int c = 0; c < 3; c++) {
+					int compare = Float.compare(positions[a * ATTRIBUTES + c], positions[b * ATTRIBUTES + c]);
+					if (compare != 0) {
+						return compare;
+					}
+				}
+				return 0;
+			}
+		});
+		for (int i = 1; i < vertices; i++) {
+			int a = order[i - 1] * ATTRIBUTES;
+			int b = order[i] * ATTRIBUTES;
+			if (attributes[a] == attributes[b] && attributes[a + 1] == attributes[b + 1] && attributes[a + 2] == attributes[b + 2]) {
+				locked[order[i - 1]] = true;
+				locked[order[i]] = true;
+			}
+		}
+		long[] edges = new long[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			int a = indices[i];
+			int b = indices[i % 3 == 2 ? i - 2 : i + 1];
+			edges[i] = (long) Math.min(a, b) << 32 | Math.max(a, b);
+		}
+		Arrays.sort(edges);
+		for (int i = 0; i < edges.length;) {
+			int j = i;
+			while (j < edges.length && edges[j] == edges[i]) {
+				j++;
+			}
+			if (j - i != 2) {
+				locked[(int) (edges[i] >>> 32)] = true;
+				locked[(int) edges[i]] = true;
+			}
+			i = j;
+		}
+		return locked;
+	}
+
+	/**
+	 * Sums up the quadrics of the planes of the triangles of every vertex,
+	 * weighted by the area of the triangle.
+	 */
+	private static double[] quadrics(float[] attributes, int[] indices, int vertices) {
+		double[] quadrics = new double[vertices * QUADRIC];
+		double[] normal = new double[4];
+		for (int t = 0; t < indices.length; t += 3) {
+			double area = plane(attributes, indices[t], indices[t + 1], indices[t + 2], normal);
+			if (area == 0) {
+				continue;
+			}
+			double a = normal[0];
+			double b = normal[1];
+			double c = normal[2];
+			double d = normal[3];
+			for (int corner = 0; corner < 3; corner++) {
+				int q = indices[t + corner] * QUADRIC;
+				quadrics[q] += area * a * a;
+				quadrics[q + 1] += area * a * b;
+				quadrics[q + 2] += area * a * c;
+				quadrics[q + 3] += area * a * d;
+				quadrics[q + 4] += area * b * b;
+				quadrics[q + 5] += area * b * c;
+				quadrics[q + 6] += area * b * d;
+				quadrics[q + 7] += area * c * c;
+				quadrics[q + 8] += area * c * d;
+				quadrics[q + 9] += area * d * d;
+			}
+		}
+		return quadrics;
+	}
+
+	/**
+	 * Calculates the plane of a triangle.
+	 * 
+	 * @param target The array to fill with the unit normal and the distance of
+	 *               the plane.
+	 * @return The area of the triangle, <code>0</code> if the triangle is a line.
+	 */
+	private static double plane(float[] attributes, int a, int b, int c, double[] target) {
+		a *= ATTRIBUTES;
+		b *= ATTRIBUTES;
+		c *= ATTRIBUTES;
+		double ux = attributes[b] - attributes[a];
+		double uy = attributes[b + 1] - attributes[a + 1];
+		double uz = attributes[b + 2] - attributes[a + 2];
+		double vx = attributes[c] - attributes[a];
+		double vy = attributes[c + 1] - attributes[a + 1];
+		double vz = attributes[c + 2] - attributes[a + 2];
+		double nx = uy * vz - uz * vy;
+		double ny = uz * vx - ux * vz;
+		double nz = ux * vy - uy * vx;
+		double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if (length == 0) {
+			return 0;
+		}
+		target[0] = nx / length;
+		target[1] = ny / length;
+		target[2] = nz / length;
+		target[3] = -(target[0] * attributes[a] + target[1] * attributes[a + 1] + target[2] * attributes[a + 2]);
+		return length / 2;
+	}
+
+	/**
+	 * Returns the error of the sum of two quadrics at the position of a vertex.
+	 */
+	private static double error(double[] quadrics, int first, int second, float[] attributes, int vertex) {
+		int p = vertex * ATTRIBUTES;
+		double x = attributes[p];
+		double y = attributes[p + 1];
+		double z = attributes[p + 2];
+		return Math.max(0, error(quadrics, first, x, y, z) + error(quadrics, second, x, y, z));
+	}
+
+	private static double error(double[] quadrics, int vertex, double x, double y, double z) {
+		int q = vertex * QUADRIC;
+		return quadrics[q] * x * x + 2 * quadrics[q + 1] * x * y + 2 * quadrics[q + 2] * x * z + 2 * quadrics[q + 3] * x + quadrics[q + 4] * y * y + 2 * quadrics[q + 5] * y * z
+				+ 2 * quadrics[q + 6] * y + quadrics[q + 7] * z * z + 2 * quadrics[q + 8] * z + quadrics[q + 9];
+	}
+
+	/**
+	 * Collapses the cheapest edges, every vertex takes part in one collapse at
+	 * most.
+	 * 
+	 * @param remap The array to record the vertex every removed vertex collapsed
+	 *              into.
+	 * @param max   The maximum number of triangles to remove.
+	 * @return The number of collapses.
+	 */
+	private static int collapse(float[] attributes, int[] indices, boolean[] locked, double[] quadrics, int[] remap, int max) {
+		int vertices = locked.length;
+		int triangles = indices.length / 3;
+		int[] offsets = new int[vertices + 1];
+		for (int index : indices) {
+			offsets[index + 1]++;
+		}
+		for (int v = 0; v < vertices; v++) {
+			offsets[v + 1] += offsets[v];
+		}
+		int[] adjacency = new int[indices.length];
+		int[] fill = Arrays.copyOf(offsets, vertices);
+		for (int i = 0; i < indices.length; i++) {
+			adjacency[fill[indices[i]]++] = i / 3;
+		}
+		int[] from = new int[indices.length];
+		int[] to = new int[indices.length];
+		long[] order = new long[indices.length];
+		int edges = 0;
+		for (int i = 0; i < indices.length; i++) {
+			int a = indices[i];
+			int b = indices[i % 3 == 2 ? i - 2 : i + 1];
+			if (a > b || locked[a] && locked[b]) {
+				continue;
+			}
+			double ab = locked[a] ? Double.MAX_VALUE : error(quadrics, a, b, attributes, b);
+			double ba = locked[b] ? Double.MAX_VALUE : error(quadrics, a, b, attributes, a);
+			from[edges] = ab <= ba ? a : b;
+			to[edges] = ab <= ba ? b : a;
+			order[edges] = (long) Float.floatToIntBits((float) Math.min(ab, ba)) << 32 | edges;
+			edges++;
+		}
+		Arrays.sort(order, 0, edges);
+		boolean[] touched = new boolean[vertices];
+		double[] before = new double[4];
+		double[] after = new double[4];
+		int collapses = 0;
+		int removed = 0;
+		for (int e = 0; e < edges && removed < max; e++) {
+			int edge = (int) order[e];
+			int u = from[edge];
+			int v = to[edge];
+			if (touched[u] || touched[v]) {
+				continue;
+			}
+			int shared = 0;
+			boolean flips = false;
+			for (int a = offsets[u]; a < offsets[u + 1] && !flips; a++) {
+				int t = adjacency[a] * 3;
+				int i0 = indices[t];
+				int i1 = indices[t + 1];
+				int i2 = indices[t + 2];
+				if (i0 == v || i1 == v || i2 == v) {
+					shared++;
+					continue;
+				}
+				if (plane(attributes, i0, i1, i2, before) == 0) {
+					continue;
+				}
+				double area = plane(attributes, i0 == u ? v : i0, i1 == u ? v : i1, i2 == u ? v : i2, after);
+				flips = area == 0 || before[0] * after[0] + before[1] * after[1] + before[2] * after[2] < 0.2;
+			}
+			if (flips) {
+				continue;
+			}
+			remap[u] = v;
+			for (int i = 0; i < QUADRIC; i++) {
+				quadrics[v * QUADRIC + i] += quadrics[u * QUADRIC + i];
+			}
+			touch(u, indices, offsets, adjacency, touched);
+			touch(v, indices, offsets, adjacency, touched);
+			removed += shared;
+			collapses++;
+		}
+		return collapses;
+	}
+
+	/**
+	 * Marks a vertex and its neighbours as touched in this pass.
+	 */
+	private static void touch(int vertex, int[] indices, int[] offsets, int[] adjacency, boolean[] touched) {
+		for (int a = offsets[vertex]; a < offsets[vertex + 1]; a++) {
+			int t = adjacency[a] * 3;
+			touched[indices[t]] = true;
+			touched[indices[t + 1]] = true;
+			touched[indices[t + 2]] = true;
+		}
+	}
+
+	/**
+	 * Applies the collapses to the triangles and removes the triangles that
+	 * became lines.
+	 */
+	private static int[] remove(int[] indices, int[] remap) {
+		int length = 0;
+		int[] kept = new int[indices.length];
+		for (int t = 0; t < indices.length; t += 3) {
+			int a = resolve(remap, indices[t]);
+			int b = resolve(remap, indices[t + 1]);
+			int c = resolve(remap, indices[t + 2]);
+			if (a != b && b != c && a != c) {
+				kept[length++] = a;
+				kept[length++] = b;
+				kept[length++] = c;
+			}
+		}
+		return Arrays.copyOf(kept, length);
+	}
+
+	private static int resolve(int[] remap, int vertex) {
+		while (remap[vertex] != vertex) {
+			remap[vertex] = remap[remap[vertex]];
+			vertex = remap[vertex];
+		}
+		return vertex;
+	}
+
+	/**
+	 * Creates the simplified mesh containing the vertices that are still used.
+	 */
+	private Mesh<T> create(int[] indices) {
+		PackedVertices packed = mesh.getPackedVertices();
+		Mesh<T> simplified = packed == null ? new Mesh<T>() : new Mesh<T>(new PackedVertices(packed.hasUv()));
+		int[] created = new int[mesh.vectors.size()];
+		Arrays.fill(created, -1);
+		for (int i = 0; i < indices.length; i++) {
+			int vertex = indices[i];
+			if (created[vertex] < 0) {
+				created[vertex] = simplified.addVector(mesh.vectors.get(vertex));
+			}
+			indices[i] = created[vertex];
+		}
+		simplified.getTriangles().addAll(indices, 0, indices.length / 3);
+		for (TextureStage stage : mesh.getTextures().keySet()) {
+			simplified.setTexture(stage, mesh.getTextures().get(stage));
+		}
+		return simplified;
+	}
+}
@@ -0,0 +1,45 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import java.util.AbstractList;
+
+/**
+ * Shows the vertices of {@link PackedVertices} as list of vectors. Every
+ * vector returned is created on demand, every vector added is unpacked into
+ * the store.
+ *
+ * @param <T> The type of vectors of the mesh.
+ */
+class PackedVectorList<T extends Vector> extends AbstractList<T> {
+
+	private final PackedVertices store;
+
+	PackedVectorList(PackedVertices store) {
+		this.store = store;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T get(int index) {
+		return (T) store.get(index);
+	}
+
+	@Override
+	public void add(int index, T element) {
+		if (index != store.size()) {
+			throw new UnsupportedOperationException("Vertices can only be appended to a packed store.");
+		}
+		store.add(element);
+		modCount++;
+	}
+
+	@Override
+	public int size() {
+		return store.size();
+	}
+}
@@ -0,0 +1,419 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import java.util.Arrays;
+
+/**
+ * Stores the vertices of a mesh in arrays of primitives instead of one
+ * {@link Vector} object per vertex: the positions, the normals and the texture
+ * coordinates each in a growable <code>float[]</code>. A vertex costs 12 bytes,
+ * 24 bytes having normals and 32 bytes having normals and texture coordinates.
+ * <p>
+ * A {@link Mesh#Mesh(PackedVertices) mesh using the store} still accepts and
+ * returns vectors, they are converted. The {@link MeshOutputStream} copies the
+ * arrays to the wire without creating vectors.
+ * <p>
+ * The normals array is created with the first vertex having a normal. A vertex
+ * without normal has <code>NaN</code> normals.
+ */
+public class PackedVertices {
+
+	/**
+	 * The capacity of a new store if none is given.
+	 */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private final boolean uv;
+
+	private float[] positions;
+
+	/**
+	 * The normals, <code>null</code> until a vertex with normal is added.
+	 */
+	private float[] normals;
+
+	/**
+	 * The texture coordinates, <code>null</code> if the store has none.
+	 */
+	private float[] uvs;
+
+	private int size;
+
+	/**
+	 * The number of vertices having normals.
+	 */
+	private int normalCount;
+
+	/**
+	 * The number of changes, see {@link Mesh#getVersion()}.
+	 */
+	private int version;
+
+	/**
+	 * Creates an empty store.
+	 * 
+	 * @param uv <code>true</code> if every vertex has texture coordinates,
+	 *           <code>false</code> if no vertex has.
+	 */
+	public PackedVertices(boolean uv) {
+		this(uv, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty store having room for a number of vertices.
+	 * 
+	 * @param uv       <code>true</code> if every vertex has texture coordinates,
+	 *                 <code>false</code> if no vertex has.
+	 * @param capacity The number of vertices to reserve room for, never
+	 *                 negative.
+	 */
+	public PackedVertices(boolean uv, int capacity) {
+		this.uv = uv;
+		this.positions = new float[capacity * 3];
+		this.uvs = uv ? new float[capacity * 2] : null;
+	}
+
+	/**
+	 * Reserves room for a number of vertices.
+	 * 
+	 * @param capacity The number of vertices.
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity * 3 <= positions.length) {
+			return;
+		}
+		int grown = Math.max(capacity, positions.length / 3 + (positions.length / 6) + 1);
+		positions = Arrays.copyOf(positions, grown * 3);
+		if (normals != null) {
+			normals = grow(normals, grown * 3);
+		}
+		if (uvs != null) {
+			uvs = Arrays.copyOf(uvs, grown * 2);
+		}
+	}
+
+	private static float[] grow(float[] normals, int length) {
+		int old = normals.length;
+		float[] grown = Arrays.copyOf(normals, length);
+		Arrays.fill(grown, old, length, Float.NaN);
+		return grown;
+	}
+
+	/**
+	 * Releases the room not used by vertices.
+	 */
+	public void trimToSize() {
+		positions = Arrays.copyOf(positions, size * 3);
+		if (normals != null) {
+			normals = Arrays.copyOf(normals, size * 3);
+		}
+		if (uvs != null) {
+			uvs = Arrays.copyOf(uvs, size * 2);
+		}
+	}
+
+	/**
+	 * Adds a vertex without normal and texture coordinates.
+	 * 
+	 * @param right   Meter to the right.
+	 * @param up      Meter from the ground upwards.
+	 * @param forward Meter forward.
+	 * @return The index of the vertex.
+	 */
+	public int add(float right, float up, float forward) {
+		if (uv) {
+			throw new IllegalStateException("Every vertex of the store requires texture coordinates.");
+		}
+		return put(right, up, forward, Float.NaN, Float.NaN, Float.NaN, 0, 0);
+	}
+
+	/**
+	 * Adds a vertex having a normal.
+	 * 
+	 * @param right         Meter to the right.
+	 * @param up            Meter from the ground upwards.
+	 * @param forward       Meter forward.
+	 * @param normalRight   The normal to the right.
+	 * @param normalUp      The normal upwards.
+	 * @param normalForward The normal forward.
+	 * @return The index of the vertex.
+	 */
+	public int add(float right, float up, float forward, float normalRight, float normalUp, float normalForward) {
+		if (uv) {
+			throw new IllegalStateException("Every vertex of the store requires texture coordinates.");
+		}
+		return put(right, up, forward, normalRight, normalUp, normalForward, 0, 0);
+	}
+
+	/**
+	 * Adds a vertex having texture coordinates.
+	 * 
+	 * @param right         Meter to the right.
+	 * @param up            Meter from the ground upwards.
+	 * @param forward       Meter forward.
+	 * @param normalRight   The normal to the right, <code>NaN</code> if the
+	 *                      vertex has no normal.
+	 * @param normalUp      The normal upwards.
+	 * @param normalForward The normal forward.
+	 * @param uvX           The x-factor from the left of the texture, range of
+	 *                      0-1.
+	 * @param uvY           The y-factor from the top of the texture, range of
+	 *                      0-1.
+	 * @return The index of the vertex.
+	 */
+	public int add(float right, float up, float forward, float normalRight, float normalUp, float normalForward, float uvX, float uvY) {
+		if (!uv) {
+			throw new IllegalStateException("The store has no texture coordinates.");
+		}
+		return put(right, up, forward, normalRight, normalUp, normalForward, uvX, uvY);
+	}
+
+	private int put(float right, float up, float forward, float normalRight, float normalUp, float normalForward, float uvX, float uvY) {
+		ensureCapacity(size + 1);
+		int p = size * 3;
+		positions[p] = right;
+		positions[p + 1] = up;
+		positions[p + 2] = forward;
+		if (!Float.isNaN(normalRight)) {
+			if (normals == null) {
+				normals = grow(new float[0], positions.length);
+			}
+			normals[p] = normalRight;
+			normals[p + 1] = normalUp;
+			normals[p + 2] = normalForward;
+			normalCount++;
+		}
+		if (uv) {
+			uvs[size * 2] = uvX;
+			uvs[size * 2 + 1] = uvY;
+		}
+		version++;
+		return size++;
+	}
+
+	/**
+	 * Adds many vertices at once.
+	 * 
+	 * @param positions The positions, three values per vertex, never
+	 *                  <code>null</code>.
+	 * @param normals   The normals, three values per vertex, <code>null</code> if
+	 *                  the vertices have no normals.
+	 * @param uvs       The texture coordinates, two values per vertex, must be
+	 *                  given if and only if the store has texture coordinates.
+	 * @param offset    The index of the first vertex in the arrays.
+	 * @param count     The number of vertices to add.
+	 * @return The index of the first vertex added.
+	 */
+	public int addAll(float[] positions, float[] normals, float[] uvs, int offset, int count) {
+		if (uv != (uvs != null)) {
+			throw new IllegalArgumentException(uv ? "Every vertex of the store requires texture coordinates." : "The store has no texture coordinates.");
+		}
+		ensureCapacity(size + count);
+		int first = size;
+		System.arraycopy(positions, offset * 3, this.positions, first * 3, count * 3);
+		if (normals != null) {
+			if (this.normals == null) {
+				this.normals = grow(new float[0], this.positions.length);
+			}
+			System.arraycopy(normals, offset * 3, this.normals, first * 3, count * 3);
+			for (int i = 0; i < count; i++) {
+				if (!Float.isNaN(normals[(offset + i) * 3])) {
+					normalCount++;
+				}
+			}
+		}
+		if (uv) {
+			System.arraycopy(uvs, offset * 2, this.uvs, first * 2, count * 2);
+		}
+		size += count;
+		version++;
+		return first;
+	}
+
+	/**
+	 * Adds a vector, its normal and texture coordinates are kept.
+	 * 
+	 * @param v The vector, must be a {@link UVVector} if the store has texture
+	 *          coordinates.
+	 * @return The index of the vertex.
+	 */
+	public int add(Vector v) {
+		float normalRight = Float.NaN;
+		float normalUp = Float.NaN;
+		float normalForward = Float.NaN;
+		if (v instanceof NormalVector) {
+			NormalVector nv = (NormalVector) v;
+			if (nv.normalX != null && nv.normalY != null && nv.normalZ != null) {
+				normalRight = nv.normalX;
+				normalUp = nv.normalY;
+				normalForward = nv.normalZ;
+			}
+		}
+		if (v instanceof UVVector) {
+			UVVector uvVector = (UVVector) v;
+			return add(v.x, v.y, v.z, normalRight, normalUp, normalForward, uvVector.uvX, uvVector.uvY);
+		}
+		if (uv) {
+			throw new IllegalArgumentException("Every vertex of the store requires texture coordinates, " + v + " has none.");
+		}
+		return put(v.x, v.y, v.z, normalRight, normalUp, normalForward, 0, 0);
+	}
+
+	/**
+	 * Creates a vector of a vertex: a {@link UVVector} if the store has texture
+	 * coordinates, a {@link NormalVector} if the vertex has a normal, a
+	 * {@link Vector} otherwise.
+	 * 
+	 * @param index The index of the vertex.
+	 * @return A new vector, never <code>null</code>.
+	 */
+	public Vector get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + " of " + size + " vertices.");
+		}
+		int p = index * 3;
+		boolean hasNormal = normals != null && !Float.isNaN(normals[p]);
+		Float normalRight = hasNormal ? normals[p] : null;
+		Float normalUp = hasNormal ? normals[p + 1] : null;
+		Float normalForward = hasNormal ? normals[p + 2] : null;
+		if (uv) {
+			return new UVVector(positions[p], positions[p + 1], positions[p + 2], uvs[index * 2], uvs[index * 2 + 1], normalRight, normalUp, normalForward);
+		}
+		if (hasNormal) {
+			return new NormalVector(positions[p], positions[p + 1], positions[p + 2], normalRight, normalUp, normalForward);
+		}
+		return new Vector(positions[p], positions[p + 1], positions[p + 2]);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns wherever every vertex has texture coordinates.
+	 * 
+	 * @return <code>true</code> if the store has texture coordinates.
+	 */
+	public boolean hasUv() {
+		return uv;
+	}
+
+	/**
+	 * Returns wherever every vertex has a normal.
+	 * 
+	 * @return <code>true</code> if the store is not empty and all vertices have
+	 *         normals.
+	 */
+	public boolean hasNormals() {
+		return size > 0 && normalCount == size;
+	}
+
+	/**
+	 * Returns the number of changes.
+	 * 
+	 * @return The version.
+	 */
+	int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the number of bytes the arrays occupy in the heap, including the
+	 * room reserved for further vertices.
+	 * 
+	 * @return The number of bytes.
+	 */
+	public long getFootprint() {
+		long floats = positions.length + (normals == null ? 0 : normals.length) + (uvs == null ? 0 : uvs.length);
+		return floats * 4;
+	}
+
+	/**
+	 * Copies all attributes of vertices: position, normal and texture
+	 * coordinates, eight values per vertex. Missing normals and texture
+	 * coordinates are <code>NaN</code>.
+	 * 
+	 * @param first  The index of the first vertex.
+	 * @param count  The number of vertices.
+	 * @param target The array to fill, must have room for all values.
+	 * @param offset The index of the first value in the target.
+	 */
+	void attributes(int first, int count, float[] target, int offset) {
+		int t = offset;
+		for (int i = first; i < first + count; i++) {
+			int p = i * 3;
+			target[t++] = positions[p];
+			target[t++] = positions[p + 1];
+			target[t++] = positions[p + 2];
+			for (int c = 0; c < 3; c++) {
+				target[t++] = normals == null ? Float.NaN : normals[p + c];
+			}
+			target[t++] = uv ? uvs[i * 2] : Float.NaN;
+			target[t++] = uv ? uvs[i * 2 + 1] : Float.NaN;
+		}
+	}
+
+	/**
+	 * Keeps some vertices, in the given order, and removes all others.
+	 * 
+	 * @param kept  The indices of the vertices to keep, ascending.
+	 * @param count The number of vertices to keep.
+	 */
+	void retain(int[] kept, int count) {
+		normalCount = 0;
+		for (int i = 0; i < count; i++) {
+			int from = kept[i];
+			System.arraycopy(positions, from * 3, positions, i * 3, 3);
+			if (normals != null) {
+				System.arraycopy(normals, from * 3, normals, i * 3, 3);
+				if (!Float.isNaN(normals[i * 3])) {
+					normalCount++;
+				}
+			}
+			if (uv) {
+				System.arraycopy(uvs, from * 2, uvs, i * 2, 2);
+			}
+		}
+		if (normals != null) {
+			// vertices added later without normal keep NaN normals
+			Arrays.fill(normals, count * 3, size * 3, Float.NaN);
+		}
+		size = count;
+		version++;
+	}
+
+	/**
+	 * Interleaves vertices in the layout of the wire: position, normal if
+	 * requested and texture coordinates if the store has them.
+	 * 
+	 * @param first   The index of the first vertex.
+	 * @param count   The number of vertices.
+	 * @param normals <code>true</code> to include the normals.
+	 * @param target  The array to fill, must have room for all values.
+	 * @return The number of values written to the target.
+	 */
+	int interleave(int first, int count, boolean normals, float[] target) {
+		int t = 0;
+		for (int i = first; i < first + count; i++) {
+			int p = i * 3;
+			target[t++] = positions[p];
+			target[t++] = positions[p + 1];
+			target[t++] = positions[p + 2];
+			if (normals) {
+				target[t++] = this.normals[p];
+				target[t++] = this.normals[p + 1];
+				target[t++] = this.normals[p + 2];
+			}
+			if (uv) {
+				target[t++] = uvs[i * 2];
+				target[t++] = uvs[i * 2 + 1];
+			}
+		}
+		return t;
+	}
+}
@@ -0,0 +1,174 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import de.e_nexus.vr.server.net.OutboundStream;
+
+/**
+ * The placement of a mesh in the VR client: a uniform scale, followed by a
+ * rotation and a move. The rotation is a unit quaternion. The transform is
+ * applied by the client to the vectors of a mesh it already has, so moving a
+ * mesh does not send its vectors again.
+ * <p>
+ * On the wire a transform occupies {@link #ENCODED_LENGTH} bytes, eight floats
+ * in little-endian order: the move to the right, upwards and forward in meter,
+ * the x, y, z and w of the rotation and the scale.
+ */
+public final class Transform {
+
+	/**
+	 * The number of bytes a transform occupies on the wire.
+	 */
+	public static final int ENCODED_LENGTH = 8 * 4;
+
+	/**
+	 * The transform that does not change the mesh.
+	 */
+	public static final Transform IDENTITY = new Transform(0, 0, 0, 0, 0, 0, 1, 1);
+
+	private final float x;
+	private final float y;
+	private final float z;
+	private final float rotationX;
+	private final float rotationY;
+	private final float rotationZ;
+	private final float rotationW;
+	private final float scale;
+
+	/**
+	 * Creates a transform, the rotation is normalized.
+	 * 
+	 * @param right     The move to the right in meter.
+	 * @param up        The move upwards in meter.
+	 * @param forward   The move forward in meter.
+	 * @param rotationX The x of the rotation quaternion.
+	 * @param rotationY The y of the rotation quaternion.
+	 * @param rotationZ The z of the rotation quaternion.
+	 * @param rotationW The w of the rotation quaternion.
+	 * @param scale     The uniform scale, must be positive.
+	 */
+	public Transform(float right, float up, float forward, float rotationX, float rotationY, float rotationZ, float rotationW, float scale) {
+		if (!(scale > 0)) {
+			throw new IllegalArgumentException("The scale must be positive but is " + scale + ".");
+		}
+		double length = Math.sqrt(rotationX * rotationX + rotationY * rotationY + rotationZ * rotationZ + rotationW * rotationW);
+		if (!(length > 0)) {
+			throw new IllegalArgumentException("The rotation must not be zero.");
+		}
+		this.x = right;
+		this.y = up;
+		this.z = forward;
+		this.rotationX = (float) (rotationX / length);
+		this.rotationY = (float) (rotationY / length);
+		this.rotationZ = (float) (rotationZ / length);
+		this.rotationW = (float) (rotationW / length);
+		this.scale = scale;
+	}
+
+	/**
+	 * Creates a transform that moves only.
+	 * 
+	 * @param right   The move to the right in meter.
+	 * @param up      The move upwards in meter.
+	 * @param forward The move forward in meter.
+	 * @return The transform, never <code>null</code>.
+	 */
+	public static Transform moved(float right, float up, float forward) {
+		return new Transform(right, up, forward, 0, 0, 0, 1, 1);
+	}
+
+	/**
+	 * Creates a transform that rotates around an axis through the origin of the
+	 * mesh and then moves.
+	 * 
+	 * @param right   The move to the right in meter.
+	 * @param up      The move upwards in meter.
+	 * @param forward The move forward in meter.
+	 * @param axis    The axis to rotate around, must not be of length zero.
+	 * @param radians The angle to rotate, counterclockwise looking against the
+	 *                axis.
+	 * @return The transform, never <code>null</code>.
+	 */
+	public static Transform rotated(float right, float up, float forward, Vector axis, double radians) {
+		double length = Math.sqrt(axis.getX() * axis.getX() + axis.getY() * axis.getY() + axis.getZ() * axis.getZ());
+		double sin = Math.sin(radians / 2) / length;
+		return new Transform(right, up, forward, (float) (axis.getX() * sin), (float) (axis.getY() * sin), (float) (axis.getZ() * sin), (float) Math.cos(radians / 2), 1);
+	}
+
+	/**
+	 * Returns the transformed position of a point of the mesh.
+	 * 
+	 * @param v The point, never <code>null</code>.
+	 * @return The point as placed in the VR client, never <code>null</code>.
+	 */
+	public Vector apply(Vector v) {
+		float px = v.getX() * scale;
+		float py = v.getY() * scale;
+		float pz = v.getZ() * scale;
+		// v' = v + 2w(r x v) + 2(r x (r x v))
+		float cx = rotationY * pz - rotationZ * py;
+		float cy = rotationZ * px - rotationX * pz;
+		float cz = rotationX * py - rotationY * px;
+		float ccx = rotationY * cz - rotationZ * cy;
+		float ccy = rotationZ * cx - rotationX * cz;
+		float ccz = rotationX * cy - rotationY * cx;
+		return new Vector(x + px + 2 * (rotationW * cx + ccx), y + py + 2 * (rotationW * cy + ccy), z + pz + 2 * (rotationW * cz + ccz));
+	}
+
+	public float getX() {
+		return x;
+	}
+
+	public float getY() {
+		return y;
+	}
+
+	public float getZ() {
+		return z;
+	}
+
+	public float getRotationX() {
+		return rotationX;
+	}
+
+	public float getRotationY() {
+		return rotationY;
+	}
+
+	public float getRotationZ() {
+		return rotationZ;
+	}
+
+	public float getRotationW() {
+		return rotationW;
+	}
+
+	public float getScale() {
+		return scale;
+	}
+
+	/**
+	 * Writes the transform in the format of the wire.
+	 * 
+	 * @param out The response to the client, never <code>null</code>.
+	 */
+	public void writeTo(OutboundStream out) {
+		out.writeLittleEndian(x);
+		out.writeLittleEndian(y);
+		out.writeLittleEndian(z);
+		out.writeLittleEndian(rotationX);
+		out.writeLittleEndian(rotationY);
+		out.writeLittleEndian(rotationZ);
+		out.writeLittleEndian(rotationW);
+		out.writeLittleEndian(scale);
+	}
+
+	@Override
+	public String toString() {
+		return "Transform[pos=" + x + "x" + y + "x" + z + ",rot=" + rotationX + "x" + rotationY + "x" + rotationZ + "x" + rotationW + ",scale=" + scale + "]";
+	}
+}
@@ -38,6 +38,23 @@ public class Triangle {
 		return indiceC;
 	}
 
+	@Override
+	public int hashCode() {
+		return (indiceA * 31 + indiceB) * 31 + indiceC;
+	}
+
+	/**
+	 * Triangles are equal if they have the same indices in the same order.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Triangle)) {
+			return false;
+		}
+		Triangle other = (Triangle) obj;
+		return indiceA == other.indiceA && indiceB == other.indiceB && indiceC == other.indiceC;
+	}
+
 	@Override
 	public String toString() {
 		return super.toString() + "[" + indiceA + "," + indiceB + "," + indiceC + "]";
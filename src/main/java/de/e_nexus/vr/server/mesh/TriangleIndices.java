@@ -0,0 +1,245 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import java.util.Arrays;
+
+/**
+ * Stores the triangles of a mesh as one growable <code>int[]</code>, three
+ * indices of vectors per triangle in the order the triangles are added. A
+ * triangle costs 12 bytes instead of a {@link Triangle} object and an entry in
+ * a hash set.
+ * <p>
+ * {@link Triangle Triangles} are created on demand by {@link #get(int)}, the
+ * {@link MeshOutputStream} copies the array to the wire at once.
+ */
+public class TriangleIndices {
+
+	/**
+	 * The capacity of new indices if none is given.
+	 */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private int[] indices;
+
+	private int size;
+
+	/**
+	 * The number of changes, see {@link Mesh#getVersion()}.
+	 */
+	private int version;
+
+	/**
+	 * Creates empty indices.
+	 */
+	public TriangleIndices() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates empty indices having room for a number of triangles.
+	 * 
+	 * @param capacity The number of triangles, never negative.
+	 */
+	public TriangleIndices(int capacity) {
+		this.indices = new int[capacity * 3];
+	}
+
+	/**
+	 * Reserves room for a number of triangles.
+	 * 
+	 * @param capacity The number of triangles.
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity * 3 <= indices.length) {
+			return;
+		}
+		int current = indices.length / 3;
+		indices = Arrays.copyOf(indices, Math.max(capacity, current + (current >> 1) + 1) * 3);
+	}
+
+	/**
+	 * Releases the room not used by triangles.
+	 */
+	public void trimToSize() {
+		indices = Arrays.copyOf(indices, size * 3);
+	}
+
+	/**
+	 * Appends a triangle.
+	 * 
+	 * @param a The index of the first vector.
+	 * @param b The index of the second vector in counter-clockwise order.
+	 * @param c The index of the third vector in counter-clockwise order.
+	 * @return The index of the triangle.
+	 */
+	public int add(int a, int b, int c) {
+		assert a != b && b != c && a != c : "Different vector-indexes required!";
+		ensureCapacity(size + 1);
+		int p = size * 3;
+		indices[p] = a;
+		indices[p + 1] = b;
+		indices[p + 2] = c;
+		version++;
+		return size++;
+	}
+
+	/**
+	 * Appends many triangles at once.
+	 * 
+	 * @param source The indices of the vectors, three per triangle, never
+	 *               <code>null</code>.
+	 * @param offset The index of the first triangle in the source.
+	 * @param count  The number of triangles.
+	 * @return The index of the first triangle appended.
+	 */
+	public int addAll(int[] source, int offset, int count) {
+		ensureCapacity(size + count);
+		int first = size;
+		System.arraycopy(source, offset * 3, indices, first * 3, count * 3);
+		size += count;
+		version++;
+		return first;
+	}
+
+	/**
+	 * Appends all triangles of other indices.
+	 * 
+	 * @param other The indices, never <code>null</code>.
+	 * @return The index of the first triangle appended.
+	 */
+	public int addAll(TriangleIndices other) {
+		return addAll(other.indices, 0, other.size);
+	}
+
+	/**
+	 * Replaces the triangles by others of the same number.
+	 * 
+	 * @param source The indices of the vectors, three per triangle, at least
+	 *               {@link #size()} triangles.
+	 */
+	public void setAll(int[] source) {
+		System.arraycopy(source, 0, indices, 0, size * 3);
+		version++;
+	}
+
+	/**
+	 * Removes a triangle, the following triangles move forward.
+	 * 
+	 * @param triangle The index of the triangle.
+	 */
+	public void remove(int triangle) {
+		checkIndex(triangle);
+		int p = triangle * 3;
+		System.arraycopy(indices, p + 3, indices, p, (size - triangle - 1) * 3);
+		size--;
+		version++;
+	}
+
+	/**
+	 * Finds the first triangle of the given indices of vectors.
+	 * 
+	 * @param a The index of the first vector.
+	 * @param b The index of the second vector.
+	 * @param c The index of the third vector.
+	 * @return The index of the triangle or <code>-1</code> if there is none.
+	 */
+	public int indexOf(int a, int b, int c) {
+		for (int p = 0; p < size * 3; p += 3) {
+			if (indices[p] == a && indices[p + 1] == b && indices[p + 2] == c) {
+				return p / 3;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Removes all triangles, the room is kept.
+	 */
+	public void clear() {
+		size = 0;
+		version++;
+	}
+
+	/**
+	 * Creates a view of a triangle.
+	 * 
+	 * @param triangle The index of the triangle.
+	 * @return A new triangle, never <code>null</code>.
+	 */
+	public Triangle get(int triangle) {
+		checkIndex(triangle);
+		int p = triangle * 3;
+		return new Triangle(indices[p], indices[p + 1], indices[p + 2]);
+	}
+
+	/**
+	 * Returns one index of a vector of a triangle.
+	 * 
+	 * @param triangle The index of the triangle.
+	 * @param corner   The corner of the triangle, 0 to 2.
+	 * @return The index of the vector.
+	 */
+	public int get(int triangle, int corner) {
+		checkIndex(triangle);
+		return indices[triangle * 3 + corner];
+	}
+
+	private void checkIndex(int triangle) {
+		if (triangle < 0 || triangle >= size) {
+			throw new IndexOutOfBoundsException("Triangle " + triangle + " of " + size + " triangles.");
+		}
+	}
+
+	/**
+	 * Returns the number of triangles.
+	 * 
+	 * @return The number of triangles, never negative.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Copies the indices.
+	 * 
+	 * @return A new array of three indices per triangle, never
+	 *         <code>null</code>.
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(indices, size * 3);
+	}
+
+	/**
+	 * Returns the array holding the indices, only the first {@link #size()}
+	 * triangles are valid.
+	 * 
+	 * @return The array, not a copy.
+	 */
+	int[] array() {
+		return indices;
+	}
+
+	/**
+	 * Returns the number of changes.
+	 * 
+	 * @return The version.
+	 */
+	int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the number of bytes the array occupies in the heap, including the
+	 * room reserved for further triangles.
+	 * 
+	 * @return The number of bytes.
+	 */
+	public long getFootprint() {
+		return 16 + indices.length * 4L;
+	}
+}
@@ -0,0 +1,111 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Shows {@link TriangleIndices} as set of {@link Triangle triangles} in the
+ * order they are added. Every triangle returned is created on demand, every
+ * triangle added is appended to the indices unless a triangle of the same
+ * indices is in the set already.
+ * <p>
+ * Finding a triangle scans the indices. The indices themselves accept equal
+ * triangles, a triangle added twice through the mesh is shown twice.
+ */
+class TriangleSetView extends AbstractSet<Triangle> {
+
+	private final TriangleIndices indices;
+
+	TriangleSetView(TriangleIndices indices) {
+		this.indices = indices;
+	}
+
+	@Override
+	public Iterator<Triangle> iterator() {
+		return new Iterator<Triangle>() {
+			private int next;
+
+			private int last = -1;
+
+			private int expectedVersion = indices.getVersion();
+
+			public boolean hasNext() {
+				return next < indices.size();
+			}
+
+			public Triangle next() {
+				if (expectedVersion != indices.getVersion()) {
+					throw new ConcurrentModificationException();
+				}
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				last = next;
+				return indices.get(next++);
+			}
+
+			public void remove() {
+				if (last == -1) {
+					throw new IllegalStateException();
+				}
+				if (expectedVersion != indices.getVersion()) {
+					throw new ConcurrentModificationException();
+				}
+				indices.remove(last);
+				next = last;
+				last = -1;
+				expectedVersion = indices.getVersion();
+			}
+		};
+	}
+
+	@Override
+	public boolean add(Triangle triangle) {
+		if (indices.indexOf(triangle.indiceA, triangle.indiceB, triangle.indiceC) != -1) {
+			return false;
+		}
+		indices.add(triangle.indiceA, triangle.indiceB, triangle.indiceC);
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof Triangle)) {
+			return false;
+		}
+		Triangle triangle = (Triangle) o;
+		return indices.indexOf(triangle.indiceA, triangle.indiceB, triangle.indiceC) != -1;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (!(o instanceof Triangle)) {
+			return false;
+		}
+		Triangle triangle = (Triangle) o;
+		int index = indices.indexOf(triangle.indiceA, triangle.indiceB, triangle.indiceC);
+		if (index == -1) {
+			return false;
+		}
+		indices.remove(index);
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		indices.clear();
+	}
+
+	@Override
+	public int size() {
+		return indices.size();
+	}
+}
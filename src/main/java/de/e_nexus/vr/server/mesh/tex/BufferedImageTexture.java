@@ -7,6 +7,7 @@
 package de.e_nexus.vr.server.mesh.tex;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 
@@ -14,22 +15,45 @@ import java.net.URL;
  * Creates an image-texture out of a {@link BufferedImage}.
  * <p>
  * In contrast to {@link URLTexture} this class do not require a {@link URL} to
- * transport an image to the client. This class is thread-save. There is no
- * guarantee that the texture is available in the vr-client unless the id is
- * set.
+ * transport an image to the client. This class is thread-save. Every VR
+ * client has its own image of the texture, see
+ * {@link de.e_nexus.vr.server.VRSession#getTexureId(Texture)}.
  */
 public class BufferedImageTexture implements Texture {
 
 	private final BufferedImage image;
 
+	/**
+	 * The cache of the converted pixels, <code>null</code> if the image is
+	 * converted every time.
+	 */
+	private final DecodedTextureCache cache;
+
+	/**
+	 * The image of the texture for the cache.
+	 */
+	private final DecodedTextureCache.ImageSource source = new DecodedTextureCache.ImageSource() {
+		public BufferedImage read() {
+			return image;
+		}
+	};
+
 	public BufferedImageTexture(BufferedImage image) {
-		this.image = image;
+		this(image, null);
 	}
 
-	private Integer id;
-
-	public Integer getId() {
-		return id;
+	/**
+	 * Creates a texture whose converted pixels are kept in a cache. The texture
+	 * must be {@link DecodedTextureCache#invalidate(Texture) invalidated} if the
+	 * image is changed.
+	 * 
+	 * @param image The image, never <code>null</code>.
+	 * @param cache The cache, <code>null</code> to convert the image every time
+	 *              it is sent.
+	 */
+	public BufferedImageTexture(BufferedImage image, DecodedTextureCache cache) {
+		this.image = image;
+		this.cache = cache;
 	}
 
 	public int getWidth() {
@@ -41,10 +65,22 @@ public class BufferedImageTexture implements Texture {
 	}
 
 	public InputStream createDataStream() {
-		return new PixelOutputStream(image.getRaster(), image.getColorModel(), image.getWidth());
+		if (cache != null) {
+			try {
+				return cache.open(this, source);
+			} catch (IOException e) {
+				throw new RuntimeException("The image of " + this + " could not be converted!", e);
+			}
+		}
+		return new PixelOutputStream(image);
 	}
 
-	public void setId(int id) {
-		this.id = id;
+	/**
+	 * Converts the image into the cache, if any.
+	 */
+	public void preload() throws IOException {
+		if (cache != null) {
+			cache.get(this, source);
+		}
 	}
 }
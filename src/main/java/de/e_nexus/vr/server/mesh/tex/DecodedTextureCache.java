@@ -0,0 +1,342 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh.tex;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.e_nexus.vr.server.util.ByteBufferInputStream;
+
+/**
+ * Keeps the rgba pixels of decoded textures, so an image is decoded and
+ * converted once and not every time it is sent to a VR client.
+ * <p>
+ * The cache is bounded by the number of bytes of the pixels. If the bound is
+ * exceeded the least recently or the least frequently used textures are
+ * evicted, depending on the {@link Policy}. The pixels are kept on the Java
+ * heap or in direct memory.
+ * <p>
+ * A texture whose image changes must be {@link #invalidate(Texture)
+ * invalidated}.
+ */
+public class DecodedTextureCache {
+
+	/**
+	 * Decides which textures are evicted first.
+	 */
+	public enum Policy {
+		/**
+		 * Evicts the texture that has not been used for the longest time.
+		 */
+		LRU,
+
+		/**
+		 * Evicts the texture that has been used the least number of times. Ties
+		 * are broken by the time of the last use.
+		 */
+		LFU
+	}
+
+	/**
+	 * Provides the image of a texture to decode.
+	 */
+	public interface ImageSource {
+		/**
+		 * Reads the image.
+		 * 
+		 * @return The image, never <code>null</code>.
+		 * @throws IOException If the image could not be read.
+		 */
+		BufferedImage read() throws IOException;
+	}
+
+	/**
+	 * The default bound of the cache, 256 MiB.
+	 */
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	private static final DecodedTextureCache SHARED = new DecodedTextureCache(DEFAULT_MAX_BYTES, Policy.LRU, false);
+
+	/**
+	 * The pixels and the number of uses of a texture.
+	 */
+	private static final class Pixels {
+		private final ByteBuffer rgba;
+		private long uses;
+
+		Pixels(ByteBuffer rgba) {
+			this.rgba = rgba;
+		}
+	}
+
+	/**
+	 * The pixels by texture in access-order.
+	 */
+	private final LinkedHashMap<Texture, Pixels> cache = new LinkedHashMap<Texture, Pixels>(16, 0.75f, true);
+
+	/**
+	 * The locks of the textures that are decoded right now.
+	 */
+	private final Map<Texture, Object> decoding = new HashMap<Texture, Object>();
+
+	private final Policy policy;
+
+	private final boolean offHeap;
+
+	private volatile long maxBytes;
+
+	private long bytes;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	/**
+	 * Creates a cache.
+	 * 
+	 * @param maxBytes The maximum number of bytes of all pixels, <code>0</code>
+	 *                 disables the cache.
+	 * @param policy   The eviction policy, never <code>null</code>.
+	 * @param offHeap  <code>true</code> to keep the pixels in direct memory.
+	 */
+	public DecodedTextureCache(long maxBytes, Policy policy, boolean offHeap) {
+		this.maxBytes = maxBytes;
+		this.policy = policy;
+		this.offHeap = offHeap;
+	}
+
+	/**
+	 * Returns a cache the textures of an application may share. No texture uses
+	 * the cache unless it is given to the texture. The cache is bounded by
+	 * {@link #DEFAULT_MAX_BYTES}, see {@link #setMaxBytes(long)}.
+	 * 
+	 * @return The shared cache, never <code>null</code>.
+	 */
+	public static DecodedTextureCache getShared() {
+		return SHARED;
+	}
+
+	/**
+	 * Returns a stream of the rgba pixels of a texture, decodes the image if the
+	 * pixels are not cached. If the pixels of the same texture are requested at
+	 * the same time the image is decoded only once.
+	 * 
+	 * @param texture The texture, never <code>null</code>.
+	 * @param source  The image of the texture.
+	 * @return The stream of <code>4*width*height</code> bytes, never
+	 *         <code>null</code>.
+	 * @throws IOException If the image could not be read.
+	 */
+	public InputStream open(Texture texture, ImageSource source) throws IOException {
+		return new ByteBufferInputStream(get(texture, source));
+	}
+
+	/**
+	 * Returns the rgba pixels of a texture, decodes the image if the pixels are
+	 * not cached.
+	 * 
+	 * @param texture The texture, never <code>null</code>.
+	 * @param source  The image of the texture.
+	 * @return The pixels in read-mode, read-only, never <code>null</code>.
+	 * @throws IOException If the image could not be read.
+	 */
+	public ByteBuffer get(Texture texture, ImageSource source) throws IOException {
+		Object lock;
+		synchronized (this) {
+			ByteBuffer rgba = lookup(texture);
+			if (rgba != null) {
+				hits++;
+				return rgba;
+			}
+			misses++;
+			lock = decoding.get(texture);
+			if (lock == null) {
+				lock = new Object();
+				decoding.put(texture, lock);
+			}
+		}
+		synchronized (lock) {
+			synchronized (this) {
+				ByteBuffer rgba = lookup(texture);
+				if (rgba != null) {
+					return rgba;
+				}
+			}
+			ByteBuffer rgba = null;
+			try {
+				rgba = decode(source.read());
+				return rgba.duplicate();
+			} finally {
+				synchronized (this) {
+					decoding.remove(texture);
+					if (rgba != null) {
+						store(texture, rgba);
+					}
+				}
+			}
+		}
+	}
+
+	private ByteBuffer decode(BufferedImage image) {
+		byte[] pixels = PixelOutputStream.toRGBA(image);
+		if (!offHeap) {
+			return ByteBuffer.wrap(pixels).asReadOnlyBuffer();
+		}
+		ByteBuffer direct = ByteBuffer.allocateDirect(pixels.length);
+		direct.put(pixels);
+		direct.flip();
+		return direct.asReadOnlyBuffer();
+	}
+
+	private ByteBuffer lookup(Texture texture) {
+		Pixels pixels = cache.get(texture);
+		if (pixels == null) {
+			return null;
+		}
+		pixels.uses++;
+		return pixels.rgba.duplicate();
+	}
+
+	private void store(Texture texture, ByteBuffer rgba) {
+		if (rgba.capacity() > maxBytes) {
+			return;
+		}
+		remove(texture);
+		Pixels pixels = new Pixels(rgba);
+		pixels.uses = 1;
+		cache.put(texture, pixels);
+		bytes += rgba.capacity();
+		evict(texture);
+	}
+
+	private void remove(Texture texture) {
+		Pixels removed = cache.remove(texture);
+		if (removed != null) {
+			bytes -= removed.rgba.capacity();
+		}
+	}
+
+	/**
+	 * Evicts textures until the cache is in bound.
+	 * 
+	 * @param keep The texture stored right now, evicted last.
+	 */
+	private void evict(Texture keep) {
+		while (bytes > maxBytes && !cache.isEmpty()) {
+			Texture victim = null;
+			long fewestUses = Long.MAX_VALUE;
+			Iterator<Map.Entry<Texture, Pixels>> eldest = cache.entrySet().iterator();
+			while (eldest.hasNext()) {
+				Map.Entry<Texture, Pixels> entry = eldest.next();
+				if (entry.getKey() == keep && cache.size() > 1) {
+					continue;
+				}
+				if (policy == Policy.LRU) {
+					victim = entry.getKey();
+					break;
+				}
+				if (entry.getValue().uses < fewestUses) {
+					fewestUses = entry.getValue().uses;
+					victim = entry.getKey();
+				}
+			}
+			remove(victim);
+			evictions++;
+		}
+	}
+
+	/**
+	 * Forgets the pixels of a texture, used if the image of the texture has
+	 * changed.
+	 * 
+	 * @param texture The texture, never <code>null</code>.
+	 */
+	public synchronized void invalidate(Texture texture) {
+		remove(texture);
+	}
+
+	/**
+	 * Forgets the pixels of all textures.
+	 */
+	public synchronized void clear() {
+		cache.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Changes the bound of the cache, evicts textures if the cache is too large.
+	 * 
+	 * @param maxBytes The maximum number of bytes of all pixels,
+	 *                 <code>0</code> disables the cache.
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict(null);
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Returns wherever the pixels are kept in direct memory.
+	 * 
+	 * @return <code>true</code> if off-heap, <code>false</code> if on the Java
+	 *         heap.
+	 */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * Returns the number of bytes of all cached pixels.
+	 * 
+	 * @return The size, never negative.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns how often the pixels of a texture were found in the cache.
+	 * 
+	 * @return The number of hits, never negative.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns how often a texture had to be decoded.
+	 * 
+	 * @return The number of misses, never negative.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns how many textures have been evicted to stay in bound.
+	 * 
+	 * @return The number of evictions, never negative.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+}
@@ -6,18 +6,26 @@
  */
 package de.e_nexus.vr.server.mesh.tex;
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.logging.Logger;
 
 import de.e_nexus.vr.server.VRSession;
 import de.e_nexus.vr.server.mesh.Mesh;
-import de.e_nexus.vr.server.util.NumberTools;
 
 public class MeshTextureInfoInputStream extends InputStream {
 
 	private final static Logger LOG = Logger.getLogger(MeshTextureInfoInputStream.class.getCanonicalName());
 
+	/**
+	 * The number of bytes the VR client answers after a mesh: the id of the mesh
+	 * and the id of the image of every {@link TextureStage}.
+	 */
+	public static final int REPLY_LENGTH = 4 + 4 * TextureStage.values().length;
+
 	private final InputStream in;
 
 	public MeshTextureInfoInputStream(InputStream in) {
@@ -69,31 +77,52 @@ public class MeshTextureInfoInputStream extends InputStream {
 	}
 
 	public void readTextureIndexes(Mesh<?> m, VRSession session) throws IOException {
-		int nativeMeshOID = NumberTools.readByteArrayBigEndian(in);
+		byte[] reply = new byte[REPLY_LENGTH];
+		new DataInputStream(in).readFully(reply);
+		readTextureIndexes(ByteBuffer.wrap(reply).order(ByteOrder.LITTLE_ENDIAN), m, session);
+	}
+
+	/**
+	 * Reads the ids the VR client reports for a mesh and its textures.
+	 * 
+	 * @param in      The complete answer of the client in little-endian order.
+	 * @param m       The mesh that has been sent.
+	 * @param session The session of the client.
+	 * @throws IOException Never thrown, no registry is used.
+	 */
+	public static void readTextureIndexes(ByteBuffer in, Mesh<?> m, VRSession session) throws IOException {
+		readTextureIndexes(in, m, session, null);
+	}
+
+	/**
+	 * Reads the ids the VR client reports for a mesh and its textures. Every
+	 * image is also registered for the canonical texture of its content if the
+	 * texture has been {@link TextureRegistry#known(Texture) hashed} already, so
+	 * textures of equal content are not sent to the client again.
+	 * 
+	 * @param in       The complete answer of the client in little-endian order.
+	 * @param m        The mesh that has been sent.
+	 * @param session  The session of the client.
+	 * @param registry The registry of the textures, <code>null</code> if only
+	 *                 the texture itself is registered.
+	 * @throws IOException Never thrown, the textures are hashed in background.
+	 */
+	public static void readTextureIndexes(ByteBuffer in, Mesh<?> m, VRSession session, TextureRegistry registry) throws IOException {
+		int nativeMeshOID = in.getInt();
 		session.registerMesh(nativeMeshOID, m);
 		LOG.fine("Read texture indexes from client.");
 		for (TextureStage s : TextureStage.values()) {
-			int triesLeft = 30;
-			LOG.finer("Maximum tries of " + triesLeft);
-			while (in.available() < 4 && --triesLeft > 0) {
-				LOG.finer("Not enougth bytes available, wait a short time.");
-				try {
-					int max = Math.max(10, triesLeft) * 10;
-					LOG.finest("Wait " + max + " miliseconds until look if enougth bytes availale.");
-					Thread.sleep(max);
-				} catch (InterruptedException e) {
-					throw new IOException("Wait for texture index read interrupted!", e);
-				}
-			}
-
-			if (triesLeft <= 0) {
-				throw new IOException("Wait too long for reading.");
-			}
-			LOG.fine("Informations available, read level: " + s);
-			int imageId = NumberTools.readByteArrayBigEndian(in);
+			int imageId = in.getInt();
 			if (imageId != -1) {
 				LOG.fine("Level " + s + " returns a imageId of " + imageId);
-				session.registerTexture(imageId, m.textures.get(s));
+				Texture texture = m.textures.get(s);
+				session.registerTexture(imageId, texture);
+				if (registry != null) {
+					Texture canonical = registry.known(texture);
+					if (canonical != null && canonical != texture) {
+						session.registerEqualTexture(canonical, texture);
+					}
+				}
 			} else {
 				LOG.fine("Level " + s + " reported to have no image.");
 			}
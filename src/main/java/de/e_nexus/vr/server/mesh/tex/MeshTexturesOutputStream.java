@@ -6,37 +6,111 @@
  */
 package de.e_nexus.vr.server.mesh.tex;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.logging.Logger;
 
+import de.e_nexus.vr.server.VRSession;
 import de.e_nexus.vr.server.mesh.LittleEndianOutputStream;
 import de.e_nexus.vr.server.mesh.Mesh;
 import de.e_nexus.vr.server.mesh.Vector;
+import de.e_nexus.vr.server.net.PayloadCompression;
 
 public class MeshTexturesOutputStream<T extends Vector> extends LittleEndianOutputStream {
 
 	private final static Logger LOG = Logger.getLogger(MeshTexturesOutputStream.class.getCanonicalName());
 
+	/**
+	 * The size of the buffer the pixels are copied with.
+	 */
+	private static final int PIXEL_BUFFER_SIZE = 8192;
+
+	/**
+	 * The compression of the pixels, <code>null</code> if the pixels are sent
+	 * raw.
+	 */
+	private final PayloadCompression compression;
+
+	/**
+	 * The registry to find textures of equal content in, <code>null</code> if
+	 * only the same texture is reused.
+	 */
+	private final TextureRegistry registry;
+
 	public MeshTexturesOutputStream(OutputStream out) {
+		this(out, null);
+	}
+
+	/**
+	 * Creates a stream that sends the pixels of new textures as blocks of a
+	 * {@link PayloadCompression}.
+	 * 
+	 * @param out         The origin output stream.
+	 * @param compression The compression, <code>null</code> if the pixels are
+	 *                    sent raw.
+	 */
+	public MeshTexturesOutputStream(OutputStream out, PayloadCompression compression) {
+		this(out, compression, null);
+	}
+
+	/**
+	 * Creates a stream that does not send a texture to a VR client that already
+	 * has a texture of equal content.
+	 * 
+	 * @param out         The origin output stream.
+	 * @param compression The compression, <code>null</code> if the pixels are
+	 *                    sent raw.
+	 * @param registry    The registry of the textures, <code>null</code> if
+	 *                    only the same texture is reused.
+	 */
+	public MeshTexturesOutputStream(OutputStream out, PayloadCompression compression, TextureRegistry registry) {
 		super(out);
+		this.compression = compression;
+		this.registry = registry;
 	}
 
+	/**
+	 * Writes all textures of a mesh.
+	 * 
+	 * @param mesh The mesh, never <code>null</code>.
+	 * @throws IOException If the stream is broken.
+	 * @deprecated Sends every texture, also a texture whose
+	 *             {@link Texture#setId(int) id has been set}; the VR client
+	 *             has its images per session, use
+	 *             {@link #writeTextures(Mesh, VRSession)}.
+	 */
+	@Deprecated
 	public void writeTextures(Mesh<T> mesh) throws IOException {
+		writeTextures(mesh, null);
+	}
+
+	/**
+	 * Writes the textures of a mesh. A texture the VR client already has, or a
+	 * texture of equal content, is referenced by its image id instead of being
+	 * sent again.
+	 * 
+	 * @param mesh    The mesh, never <code>null</code>.
+	 * @param session The session of the VR client, <code>null</code> to send
+	 *                every texture.
+	 * @throws IOException If the stream is broken.
+	 */
+	public void writeTextures(Mesh<T> mesh, VRSession session) throws IOException {
 		if (mesh.textures.isEmpty()) {
 			LOG.fine("No textures in " + mesh + "! Send -1.");
 			write(-1);
+			flush();
 			return;
 		}
 		byte textureCount = (byte) mesh.textures.size();
 		LOG.fine("There are " + textureCount + " textures available in mesh " + mesh + ".");
 		write(textureCount);
-		flush();
 		for (TextureStage stage : mesh.textures.keySet()) {
 			LOG.finer("Start to send texture stage: " + stage + " of mesh " + mesh + ".");
 			Texture texture = mesh.textures.get(stage);
-			if (texture.getId() == null) {
+			Integer imageId = imageId(texture, session);
+			if (imageId == null) {
 				LOG.finer("Texture of mesh " + mesh + " is unknown to the VR client.");
 				LOG.finest("Transport ADD TEXTURE (byte 0) to VR client.");
 				write((byte) 0);
@@ -53,28 +127,55 @@ public class MeshTexturesOutputStream<T extends Vector> extends LittleEndianOutp
 				writeLittleEndian(32);
 				InputStream in = texture.createDataStream();
 				int bytesLeft = width * height * 4;
-				byte[] buff;
+				if (compression != null) {
+					compression.compress(PayloadCompression.Stream.TEXTURE, in, bytesLeft, this);
+					bytesLeft = 0;
+				}
+				byte[] buff = new byte[Math.min(PIXEL_BUFFER_SIZE, bytesLeft)];
 				while (bytesLeft > 0) {
-					buff = new byte[Math.min(1024, bytesLeft)];
-					int haveRead = in.read(buff);
+					int haveRead = in.read(buff, 0, Math.min(buff.length, bytesLeft));
+					if (haveRead == -1) {
+						throw new EOFException("The texture on stage " + stage + " of mesh " + mesh + " ends " + bytesLeft + " bytes too early.");
+					}
 					write(buff, 0, haveRead);
 					bytesLeft -= haveRead;
-					flush();
 				}
 				LOG.fine(
 						"All texture data on stage " + stage + " for a new texture are written for mesh " + mesh + ".");
 			} else {
-				LOG.fine("The texture already exists in the client having the id " + texture.getId());
+				LOG.fine("The texture already exists in the client having the id " + imageId);
 				LOG.finest("Sending TEXTURE ALREADY EXISTS(byte 1) for mesh " + mesh + " to the VR client.");
 				write((byte) 1);
 				LOG.finest("Sending exists for stage " + stage + ".");
 				write((byte) stage.ordinal());
-				LOG.finest("Sending imageId " + texture.getId() + " to VR client.");
-				writeLittleEndian(texture.getId());
+				LOG.finest("Sending imageId " + imageId + " to VR client.");
+				writeLittleEndian(imageId);
 				LOG.finest("All reference informations are written for stage " + stage + " of mesh " + mesh + ".");
 			}
 			LOG.finest("Flushing the output.");
 			flush();
 		}
 	}
+
+	/**
+	 * Finds the image of a texture in the VR client.
+	 * 
+	 * @param texture The texture, never <code>null</code>.
+	 * @param session The session of the client, <code>null</code> if the
+	 *                client has no textures.
+	 * @return The image id or <code>null</code> if the texture must be sent.
+	 */
+	private Integer imageId(Texture texture, VRSession session) {
+		if (session == null) {
+			return null;
+		}
+		Integer imageId = session.getTexureId(texture);
+		if (imageId == null && registry != null) {
+			Texture canonical = registry.known(texture);
+			if (canonical != null && canonical != texture) {
+				imageId = session.getTexureId(canonical);
+			}
+		}
+		return imageId;
+	}
 }
@@ -6,67 +6,266 @@
  */
 package de.e_nexus.vr.server.mesh.tex;
 
+import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.WritableRaster;
-import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
+/**
+ * Streams the pixels of an image as rgba bytes.
+ * <p>
+ * The pixels are converted in bands of whole rows. The common image types
+ * {@link BufferedImage#TYPE_INT_ARGB}, {@link BufferedImage#TYPE_INT_RGB},
+ * {@link BufferedImage#TYPE_4BYTE_ABGR} and {@link BufferedImage#TYPE_3BYTE_BGR}
+ * are converted directly from their data elements, all other types through
+ * their {@link ColorModel}. The bands of large images are converted in
+ * parallel, in the fork/join pool of the calling thread or in the common pool.
+ */
 public class PixelOutputStream extends InputStream {
 
-	enum Field {
-		R, G, B, A
-	}
+	/**
+	 * The number of rows converted by one thread at once.
+	 */
+	private static final int BAND_ROWS = 16;
+
+	/**
+	 * The number of pixels from which on the bands are converted in parallel,
+	 * 512x512.
+	 */
+	public static final int PARALLEL_THRESHOLD = 512 * 512;
+
+	private final BufferedImage image;
+
+	private final int width;
+
+	private final int height;
 
-	private int currentX = 0;
-	private int currentY = 0;
-	private Field currentField = Field.R;
-	private WritableRaster raster;
-	private ColorModel colorModel;
-	private int width;
+	private final boolean parallel;
+
+	/**
+	 * The converted rows.
+	 */
+	private final byte[] window;
+
+	private int windowPosition;
+
+	private int windowLimit;
+
+	/**
+	 * The first row not yet converted.
+	 */
+	private int nextRow;
 
 	public PixelOutputStream(WritableRaster raster, ColorModel colorModel, int width) {
-		this.raster = raster;
-		this.colorModel = colorModel;
+		this(new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null), width);
+	}
+
+	/**
+	 * Creates a stream of all pixels of an image. Large images are converted in
+	 * parallel.
+	 * 
+	 * @param image The image, must not be changed while streaming, never
+	 *              <code>null</code>.
+	 */
+	public PixelOutputStream(BufferedImage image) {
+		this(image, image.getWidth());
+	}
+
+	private PixelOutputStream(BufferedImage image, int width) {
+		this(image, width, (long) width * image.getHeight() >= PARALLEL_THRESHOLD);
+	}
+
+	/**
+	 * Creates a stream of the pixels of an image.
+	 * 
+	 * @param image    The image, must not be changed while streaming, never
+	 *                 <code>null</code>.
+	 * @param width    The number of pixels of a row to stream, at most the width
+	 *                 of the image.
+	 * @param parallel <code>true</code> to convert multiple bands in parallel.
+	 */
+	public PixelOutputStream(BufferedImage image, int width, boolean parallel) {
+		this.image = image;
 		this.width = width;
+		this.height = image.getHeight();
+		this.parallel = parallel;
+		int windowRows = parallel ? BAND_ROWS * Runtime.getRuntime().availableProcessors() : BAND_ROWS;
+		this.window = new byte[Math.min(windowRows, height) * width * 4];
+	}
+
+	@Override
+	public int read() {
+		if (windowPosition == windowLimit && !fill()) {
+			return -1;
+		}
+		return window[windowPosition++] & 0xFF;
 	}
 
 	@Override
-	public int read() throws IOException {
-		Object pixel;
-		try {
-			pixel = raster.getDataElements(currentX, currentY, null);
-		} catch (ArrayIndexOutOfBoundsException e) {
-			throw new RuntimeException(currentX + "x" + currentY, e);
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
 		}
-		switch (currentField) {
-		case R:
-			currentField = Field.G;
-			// 0 means no red, 255 means full red.
-			return colorModel.getRed(pixel);
-		case G:
-			currentField = Field.B;
-			// 0 means no green, 255 means full green.
-			return colorModel.getGreen(pixel);
-		case B:
-			currentField = Field.A;
-			// 0 means no blue, 255 means full blue.
-			return colorModel.getBlue(pixel);
-		case A:
-			currentField = Field.R;
-			next();
-			// 0 is invisible, 255 means no transparency
-			return colorModel.getAlpha(pixel);
-		default:
-			throw new RuntimeException("Illegal field: " + currentField);
+		int read = 0;
+		while (read < len) {
+			if (windowPosition == windowLimit && !fill()) {
+				break;
+			}
+			int n = Math.min(len - read, windowLimit - windowPosition);
+			System.arraycopy(window, windowPosition, b, off + read, n);
+			windowPosition += n;
+			read += n;
 		}
+		return read == 0 ? -1 : read;
+	}
+
+	@Override
+	public int available() {
+		return windowLimit - windowPosition + (height - nextRow) * width * 4;
 	}
 
-	protected void next() {
-		currentX++;
-		if (currentX == width) {
-			currentX = 0;
-			currentY++;
+	/**
+	 * Converts the next rows into the window.
+	 * 
+	 * @return <code>false</code> if all rows have been converted.
+	 */
+	private boolean fill() {
+		int rows = Math.min(window.length / (width * 4), height - nextRow);
+		if (rows <= 0) {
+			return false;
+		}
+		if (parallel && rows > BAND_ROWS) {
+			parallel(new BandConversion(image, width, nextRow, rows, window, 0));
+		} else {
+			convert(image, width, nextRow, rows, window, 0);
 		}
+		nextRow += rows;
+		windowPosition = 0;
+		windowLimit = rows * width * 4;
+		return true;
 	}
 
+	/**
+	 * Converts all pixels of an image into rgba bytes. The bands of large images
+	 * are converted in parallel.
+	 * 
+	 * @param image The image, never <code>null</code>.
+	 * @return The <code>4*width*height</code> bytes, never <code>null</code>.
+	 */
+	public static byte[] toRGBA(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		byte[] rgba = new byte[width * height * 4];
+		if ((long) width * height >= PARALLEL_THRESHOLD) {
+			parallel(new BandConversion(image, width, 0, height, rgba, 0));
+		} else {
+			convert(image, width, 0, height, rgba, 0);
+		}
+		return rgba;
+	}
+
+	/**
+	 * Runs a conversion in the fork/join pool of the current thread, if any, or
+	 * in the common pool.
+	 * 
+	 * @param conversion The conversion, never <code>null</code>.
+	 */
+	private static void parallel(BandConversion conversion) {
+		if (ForkJoinTask.inForkJoinPool()) {
+			conversion.invoke();
+		} else {
+			ForkJoinPool.commonPool().invoke(conversion);
+		}
+	}
+
+	/**
+	 * Converts the rows of an image into rgba bytes.
+	 * 
+	 * @param image    The image, never <code>null</code>.
+	 * @param width    The number of pixels of a row to convert.
+	 * @param firstRow The first row to convert.
+	 * @param rows     The number of rows to convert.
+	 * @param target   The array to write the bytes to.
+	 * @param offset   The index of the first byte to write.
+	 */
+	static void convert(BufferedImage image, int width, int firstRow, int rows, byte[] target, int offset) {
+		WritableRaster raster = image.getRaster();
+		switch (image.getType()) {
+		case BufferedImage.TYPE_INT_ARGB:
+		case BufferedImage.TYPE_INT_RGB: {
+			int[] pixels = (int[]) raster.getDataElements(0, firstRow, width, rows, null);
+			fromArgb(pixels, image.getType() == BufferedImage.TYPE_INT_ARGB, target, offset);
+			break;
+		}
+		case BufferedImage.TYPE_4BYTE_ABGR: {
+			// the data elements are ordered by band: red, green, blue, alpha
+			byte[] elements = (byte[]) raster.getDataElements(0, firstRow, width, rows, null);
+			System.arraycopy(elements, 0, target, offset, elements.length);
+			break;
+		}
+		case BufferedImage.TYPE_3BYTE_BGR: {
+			// the data elements are ordered by band: red, green, blue
+			byte[] elements = (byte[]) raster.getDataElements(0, firstRow, width, rows, null);
+			for (int i = 0, o = offset; i < elements.length; i += 3, o += 4) {
+				target[o] = elements[i];
+				target[o + 1] = elements[i + 1];
+				target[o + 2] = elements[i + 2];
+				target[o + 3] = (byte) 0xFF;
+			}
+			break;
+		}
+		default: {
+			int[] pixels = image.getRGB(0, firstRow, width, rows, null, 0, width);
+			fromArgb(pixels, true, target, offset);
+		}
+		}
+	}
+
+	private static void fromArgb(int[] pixels, boolean alpha, byte[] target, int offset) {
+		for (int i = 0, o = offset; i < pixels.length; i++, o += 4) {
+			int p = pixels[i];
+			target[o] = (byte) (p >> 16);
+			target[o + 1] = (byte) (p >> 8);
+			target[o + 2] = (byte) p;
+			target[o + 3] = alpha ? (byte) (p >>> 24) : (byte) 0xFF;
+		}
+	}
+
+	/**
+	 * Converts rows by splitting them into bands converted in parallel.
+	 */
+	private static class BandConversion extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final BufferedImage image;
+		private final int width;
+		private final int firstRow;
+		private final int rows;
+		private final byte[] target;
+		private final int offset;
+
+		BandConversion(BufferedImage image, int width, int firstRow, int rows, byte[] target, int offset) {
+			this.image = image;
+			this.width = width;
+			this.firstRow = firstRow;
+			this.rows = rows;
+			this.target = target;
+			this.offset = offset;
+		}
+
+		@Override
+		protected void compute() {
+			if (rows <= BAND_ROWS) {
+				convert(image, width, firstRow, rows, target, offset);
+				return;
+			}
+			int half = rows / 2;
+			invokeAll(new BandConversion(image, width, firstRow, half, target, offset),
+					new BandConversion(image, width, firstRow + half, rows - half, target, offset + half * width * 4));
+		}
+	}
 }
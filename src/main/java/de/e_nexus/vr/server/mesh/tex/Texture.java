@@ -6,6 +6,7 @@
  */
 package de.e_nexus.vr.server.mesh.tex;
 
+import java.io.IOException;
 import java.io.InputStream;
 
 /**
@@ -34,8 +35,14 @@ public interface Texture {
 	 * 
 	 * @return The bound id in the VR client or <code>null</code> if the texture is
 	 *         not present in the client.
+	 * @deprecated Every VR client has its own ids, use
+	 *             {@link de.e_nexus.vr.server.VRSession#getTexureId(Texture)}.
+	 *             Always <code>null</code>.
 	 */
-	Integer getId();
+	@Deprecated
+	default Integer getId() {
+		return null;
+	}
 
 	/**
 	 * The width of the texture. Never negative, never <code>0</code>.
@@ -62,10 +69,25 @@ public interface Texture {
 	 */
 	InputStream createDataStream();
 
+	/**
+	 * Prepares the texture to be sent, for example decodes the image into a
+	 * cache. Called in background before a VR client asks for the texture. Does
+	 * nothing by default.
+	 * 
+	 * @throws IOException If the texture could not be prepared.
+	 */
+	default void preload() throws IOException {
+	}
+
 	/**
 	 * Should only be used by {@link MeshTextureInfoInputStream}.
 	 * 
 	 * @param id Set the bound id in the VR client.
+	 * @deprecated Every VR client has its own ids, use
+	 *             {@link de.e_nexus.vr.server.VRSession#registerTexture(int, Texture)}.
+	 *             Does nothing.
 	 */
-	void setId(int id);
+	@Deprecated
+	default void setId(int id) {
+	}
 }
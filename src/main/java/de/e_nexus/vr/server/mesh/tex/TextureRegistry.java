@@ -0,0 +1,243 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh.tex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Finds textures having the same pixels. The pixels of every texture are
+ * hashed once; all textures of equal content are mapped to one canonical
+ * texture. A VR client that knows the canonical texture is not sent an equal
+ * texture again but told to reuse its image.
+ * <p>
+ * Textures are held weakly. A texture whose image changes must be
+ * {@link #invalidate(Texture) invalidated}.
+ * <p>
+ * Hashing reads all pixels of a texture. While a VR client waits only the
+ * textures hashed before are {@link #known(Texture) looked up}; the others are
+ * hashed in background.
+ */
+public class TextureRegistry {
+
+	/**
+	 * The logger for this class.
+	 */
+	private final static Logger LOG = Logger.getLogger(TextureRegistry.class.getCanonicalName());
+
+	/**
+	 * The size of the portions the pixels are hashed in.
+	 */
+	private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The dimension and the SHA-256 hash of the pixels of a texture.
+	 */
+	private static final class ContentKey {
+		private final int width;
+		private final int height;
+		private final byte[] hash;
+
+		ContentKey(int width, int height, byte[] hash) {
+			this.width = width;
+			this.height = height;
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(hash) * 31 + width;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ContentKey)) {
+				return false;
+			}
+			ContentKey other = (ContentKey) obj;
+			return width == other.width && height == other.height && Arrays.equals(hash, other.hash);
+		}
+	}
+
+	/**
+	 * The content of every hashed texture.
+	 */
+	private final Map<Texture, ContentKey> contents = new WeakHashMap<Texture, ContentKey>();
+
+	/**
+	 * The canonical texture of every content.
+	 */
+	private final Map<ContentKey, WeakReference<Texture>> canonicals = new HashMap<ContentKey, WeakReference<Texture>>();
+
+	/**
+	 * The textures hashed in background right now.
+	 */
+	private final Set<Texture> hashing = Collections.newSetFromMap(new WeakHashMap<Texture, Boolean>());
+
+	/**
+	 * The executor to hash textures in background, <code>null</code> if the
+	 * textures are hashed by {@link #canonical(Texture)} only.
+	 */
+	private final Executor executor;
+
+	/**
+	 * Creates a registry that hashes textures by {@link #canonical(Texture)}
+	 * only.
+	 */
+	public TextureRegistry() {
+		this(null);
+	}
+
+	/**
+	 * Creates a registry that hashes the textures {@link #known(Texture) looked
+	 * up} in background.
+	 * 
+	 * @param executor The executor to hash in, <code>null</code> if the textures
+	 *                 are hashed by {@link #canonical(Texture)} only.
+	 */
+	public TextureRegistry(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Returns the canonical texture having the same pixels as a texture. Hashes
+	 * the pixels of the texture if not done before.
+	 * 
+	 * @param texture The texture, never <code>null</code>.
+	 * @return The canonical texture, the texture itself if it is the first of
+	 *         its content, never <code>null</code>.
+	 * @throws IOException If the pixels could not be read.
+	 */
+	public Texture canonical(Texture texture) throws IOException {
+		ContentKey key;
+		synchronized (this) {
+			key = contents.get(texture);
+		}
+		if (key == null) {
+			key = hash(texture);
+		}
+		synchronized (this) {
+			contents.put(texture, key);
+			WeakReference<Texture> canonical = canonicals.get(key);
+			Texture known = canonical == null ? null : canonical.get();
+			if (known != null) {
+				return known;
+			}
+			canonicals.put(key, new WeakReference<Texture>(texture));
+			return texture;
+		}
+	}
+
+	/**
+	 * Returns the canonical texture having the same pixels as a texture, if the
+	 * texture has been hashed before. Never reads the pixels; a texture not
+	 * hashed yet is hashed in background, so the canonical texture is known
+	 * next time.
+	 * 
+	 * @param texture The texture, never <code>null</code>.
+	 * @return The canonical texture, <code>null</code> if the texture has not
+	 *         been hashed yet.
+	 */
+	public Texture known(final Texture texture) {
+		synchronized (this) {
+			ContentKey key = contents.get(texture);
+			if (key != null) {
+				WeakReference<Texture> canonical = canonicals.get(key);
+				Texture known = canonical == null ? null : canonical.get();
+				return known == null ? texture : known;
+			}
+			if (executor == null || !hashing.add(texture)) {
+				return null;
+			}
+		}
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						canonical(texture);
+					} catch (IOException e) {
+						LOG.log(Level.WARNING, "The texture " + texture + " could not be hashed.", e);
+					} finally {
+						synchronized (TextureRegistry.this) {
+							hashing.remove(texture);
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			synchronized (this) {
+				hashing.remove(texture);
+			}
+		}
+		return null;
+	}
+
+	private static ContentKey hash(Texture texture) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Every Java platform supports SHA-256.", e);
+		}
+		int width = texture.getWidth();
+		int height = texture.getHeight();
+		InputStream in = new DigestInputStream(texture.createDataStream(), digest);
+		try {
+			byte[] buffer = new byte[HASH_BUFFER_SIZE];
+			long left = (long) width * height * 4;
+			while (left > 0) {
+				int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+				if (n == -1) {
+					break;
+				}
+				left -= n;
+			}
+		} finally {
+			in.close();
+		}
+		return new ContentKey(width, height, digest.digest());
+	}
+
+	/**
+	 * Forgets the content of a texture, used if the image of the texture has
+	 * changed.
+	 * 
+	 * @param texture The texture, never <code>null</code>.
+	 */
+	public synchronized void invalidate(Texture texture) {
+		ContentKey key = contents.remove(texture);
+		if (key != null) {
+			WeakReference<Texture> canonical = canonicals.get(key);
+			if (canonical != null && canonical.get() == texture) {
+				canonicals.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of distinct contents of the hashed textures.
+	 * 
+	 * @return The number of contents, never negative.
+	 */
+	public synchronized int size() {
+		return canonicals.size();
+	}
+}
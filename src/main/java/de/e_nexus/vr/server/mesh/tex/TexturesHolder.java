@@ -6,6 +6,7 @@
  */
 package de.e_nexus.vr.server.mesh.tex;
 
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -28,4 +29,13 @@ public class TexturesHolder {
 	public void setTexture(TextureStage stage, Texture texture) {
 		textures.put(stage, texture);
 	}
+
+	/**
+	 * Returns the textures bound.
+	 * 
+	 * @return The textures by stage, unmodifiable, never <code>null</code>.
+	 */
+	public Map<TextureStage, Texture> getTextures() {
+		return Collections.unmodifiableMap(textures);
+	}
 }
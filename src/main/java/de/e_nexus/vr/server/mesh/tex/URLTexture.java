@@ -16,16 +16,51 @@ import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
 
+/**
+ * A texture whose image is read from a {@link URL}.
+ * <p>
+ * By default the image is decoded every time it is sent to a VR client, like
+ * before the textures could be cached. A texture created having a
+ * {@link DecodedTextureCache} keeps the decoded pixels in that cache instead,
+ * for example in the {@link DecodedTextureCache#getShared() shared cache}
+ * whose bound is changed by {@link DecodedTextureCache#setMaxBytes(long)}.
+ */
 public class URLTexture implements Texture {
 
 	private final URL url;
 	private final int width;
 	private final int height;
-	private Integer id;
 	private final ImageReader reader;
 
+	/**
+	 * The cache of the decoded pixels, <code>null</code> if the image is decoded
+	 * every time.
+	 */
+	private final DecodedTextureCache cache;
+
+	/**
+	 * Creates a texture whose image is decoded every time it is sent.
+	 * 
+	 * @param url The url of the image, never <code>null</code>.
+	 * @throws IOException                    If the image could not be read.
+	 * @throws ArrayIndexOutOfBoundsException If the image is empty.
+	 */
 	public URLTexture(URL url) throws IOException, ArrayIndexOutOfBoundsException {
+		this(url, null);
+	}
+
+	/**
+	 * Creates a texture.
+	 * 
+	 * @param url   The url of the image, never <code>null</code>.
+	 * @param cache The cache of the decoded pixels, <code>null</code> to decode
+	 *              the image every time it is sent.
+	 * @throws IOException                    If the image could not be read.
+	 * @throws ArrayIndexOutOfBoundsException If the image is empty.
+	 */
+	public URLTexture(URL url, DecodedTextureCache cache) throws IOException, ArrayIndexOutOfBoundsException {
 		this.url = url;
+		this.cache = cache;
 		InputStream openStream = url.openStream();
 
 		ImageInputStream iis = ImageIO.createImageInputStream(openStream);
@@ -42,14 +77,6 @@ public class URLTexture implements Texture {
 		}
 	}
 
-	public Integer getId() {
-		return id;
-	}
-
-	public void setId(int id) {
-		this.id = id;
-	}
-
 	public int getWidth() {
 		return width;
 	}
@@ -58,13 +85,39 @@ public class URLTexture implements Texture {
 		return height;
 	}
 
+	/**
+	 * The image of the texture for the cache.
+	 */
+	private final DecodedTextureCache.ImageSource source = new DecodedTextureCache.ImageSource() {
+		public BufferedImage read() throws IOException {
+			return decode();
+		}
+	};
+
 	public InputStream createDataStream() {
 		try {
-			BufferedImage i = reader.read(0);
-			return new PixelOutputStream(i.getRaster(), i.getColorModel(), getWidth());
+			if (cache != null) {
+				return cache.open(this, source);
+			}
+			return new PixelOutputStream(decode());
 		} catch (IOException e) {
 			throw new RuntimeException("URL " + url + " not available anymore!");
 		}
 	}
 
+	/**
+	 * Decodes the image into the cache, if any.
+	 */
+	public void preload() throws IOException {
+		if (cache != null) {
+			cache.get(this, source);
+		}
+	}
+
+	private BufferedImage decode() throws IOException {
+		synchronized (reader) {
+			return reader.read(0);
+		}
+	}
+
 }
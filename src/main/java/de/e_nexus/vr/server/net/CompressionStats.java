@@ -0,0 +1,115 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+/**
+ * Counts the payloads of one {@link PayloadCompression.Stream stream}, how
+ * much they have been compressed and how much CPU time the compression took.
+ */
+public class CompressionStats {
+
+	private long payloads;
+
+	private long storedPayloads;
+
+	private long rawBytes;
+
+	private long compressedBytes;
+
+	private long cpuNanos;
+
+	/**
+	 * Records a payload that has been sent without compression because it is
+	 * too small or compression did not make it smaller.
+	 * 
+	 * @param length The length of the payload.
+	 * @param nanos  The CPU time spent trying to compress the payload.
+	 */
+	synchronized void recordStored(int length, long nanos) {
+		payloads++;
+		storedPayloads++;
+		rawBytes += length;
+		compressedBytes += length;
+		cpuNanos += nanos;
+	}
+
+	/**
+	 * Records a compressed payload.
+	 * 
+	 * @param rawLength        The length of the payload.
+	 * @param compressedLength The length of the compressed payload.
+	 * @param nanos            The CPU time used to compress the payload.
+	 */
+	synchronized void recordCompressed(int rawLength, int compressedLength, long nanos) {
+		payloads++;
+		rawBytes += rawLength;
+		compressedBytes += compressedLength;
+		cpuNanos += nanos;
+	}
+
+	/**
+	 * Returns the number of payloads sent.
+	 * 
+	 * @return The number of payloads, never negative.
+	 */
+	public synchronized long getPayloads() {
+		return payloads;
+	}
+
+	/**
+	 * Returns the number of payloads sent without compression.
+	 * 
+	 * @return The number of payloads, never negative.
+	 */
+	public synchronized long getStoredPayloads() {
+		return storedPayloads;
+	}
+
+	/**
+	 * Returns the number of bytes of all payloads before compression.
+	 * 
+	 * @return The number of bytes, never negative.
+	 */
+	public synchronized long getRawBytes() {
+		return rawBytes;
+	}
+
+	/**
+	 * Returns the number of bytes of all payloads as sent.
+	 * 
+	 * @return The number of bytes, never negative.
+	 */
+	public synchronized long getCompressedBytes() {
+		return compressedBytes;
+	}
+
+	/**
+	 * Returns the CPU time spent compressing. If the CPU time of threads can not
+	 * be measured the elapsed time is recorded.
+	 * 
+	 * @return The time in nanoseconds, never negative.
+	 */
+	public synchronized long getCpuNanos() {
+		return cpuNanos;
+	}
+
+	/**
+	 * Returns the size of the sent payloads relative to their raw size.
+	 * 
+	 * @return The ratio, <code>1</code> if nothing has been compressed, smaller
+	 *         values are better.
+	 */
+	public synchronized double getRatio() {
+		return rawBytes == 0 ? 1 : (double) compressedBytes / rawBytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return payloads + " payloads (" + storedPayloads + " stored), " + rawBytes + " -> " + compressedBytes + " bytes, ratio " + String.format("%.3f", getRatio()) + ", "
+				+ cpuNanos / 1000000 + " ms CPU";
+	}
+}
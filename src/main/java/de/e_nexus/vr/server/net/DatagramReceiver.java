@@ -0,0 +1,111 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import de.e_nexus.vr.server.dispatch.Lane;
+
+/**
+ * Receives the datagrams of a non-blocking {@link DatagramChannel} and
+ * dispatches them to the {@link Lane#POSE pose lane}.
+ */
+class DatagramReceiver {
+
+	/**
+	 * The maximum size of a datagram, larger datagrams are truncated.
+	 */
+	private static final int MAX_DATAGRAM = 512;
+
+	/**
+	 * The maximum of handled deliveries kept for the following datagrams.
+	 */
+	private static final int MAX_SPARE_DELIVERIES = 16;
+
+	private final DatagramChannel channel;
+
+	private final VRDatagramHandler handler;
+
+	private final VRConnectionEngine engine;
+
+	/**
+	 * Handled deliveries, reused together with their buffers.
+	 */
+	private final BlockingQueue<Delivery> spareDeliveries = new ArrayBlockingQueue<Delivery>(MAX_SPARE_DELIVERIES);
+
+	DatagramReceiver(DatagramChannel channel, VRDatagramHandler handler, VRConnectionEngine engine) {
+		this.channel = channel;
+		this.handler = handler;
+		this.engine = engine;
+	}
+
+	/**
+	 * Receives every datagram that is available. Datagrams the pose lane can not
+	 * take are dropped, a newer pose will follow anyway. Only called by the
+	 * selector thread.
+	 *
+	 * @throws IOException If the channel is broken.
+	 */
+	void receive() throws IOException {
+		while (true) {
+			Delivery delivery = spareDeliveries.poll();
+			if (delivery == null) {
+				delivery = new Delivery();
+			}
+			delivery.datagram.clear();
+			delivery.sender = (InetSocketAddress) channel.receive(delivery.datagram);
+			if (delivery.sender == null) {
+				spareDeliveries.offer(delivery);
+				return;
+			}
+			delivery.datagram.flip();
+			if (!engine.getDispatcher(Lane.POSE).dispatch(delivery)) {
+				spareDeliveries.offer(delivery);
+			}
+		}
+	}
+
+	/**
+	 * One datagram on its way to the handler. Deliveries are reused, a delivery
+	 * is not referenced anywhere after it has been handled.
+	 */
+	private class Delivery implements Runnable {
+
+		/**
+		 * The buffer the datagram is received into, in little-endian order.
+		 */
+		private final ByteBuffer datagram = ByteBuffer.allocate(MAX_DATAGRAM).order(ByteOrder.LITTLE_ENDIAN);
+
+		private InetSocketAddress sender;
+
+		public void run() {
+			try {
+				handler.handleDatagram(sender, datagram);
+			} catch (Exception e) {
+				engine.handle(e);
+			} finally {
+				sender = null;
+				spareDeliveries.offer(this);
+			}
+		}
+	}
+
+	/**
+	 * Closes the channel.
+	 *
+	 * @throws IOException If the channel could not be closed.
+	 */
+	void close() throws IOException {
+		channel.close();
+	}
+}
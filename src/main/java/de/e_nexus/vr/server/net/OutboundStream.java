@@ -0,0 +1,236 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects the response of one step of a conversation in chunks.
+ * <p>
+ * Nothing is written to the socket while the handler is working. The chunks are
+ * handed over to the connection when the step is complete and written as fast
+ * as the VR client is able to receive them. Flushing has no effect.
+ * <p>
+ * On persistent connections the response is sent as frame, the first four
+ * bytes are reserved for the length of the frame.
+ * <p>
+ * Numbers are encoded in little-endian order directly into the chunks. Large
+ * immutable payloads are {@link #writeShared(ByteBuffer) shared} instead of
+ * copied.
+ * <p>
+ * A stream is {@link #reset(boolean, ByteBuffer) reset} for the next step of
+ * its connection, the first chunk of a sent response is reused.
+ */
+public class OutboundStream extends OutputStream {
+
+	/**
+	 * The size of the first chunk, most responses are small.
+	 */
+	static final int FIRST_CHUNK = 256;
+
+	/**
+	 * The size no chunk will ever exceed.
+	 */
+	private static final int MAX_CHUNK = 64 * 1024;
+
+	/**
+	 * The size from which on shared buffers are not copied. Smaller buffers are
+	 * copied to keep the number of chunks low.
+	 */
+	private static final int MIN_SHARED = 1024;
+
+	/**
+	 * The chunks in read-mode, except the current chunk.
+	 */
+	private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>(1);
+
+	/**
+	 * The chunk in write-mode, <code>null</code> if a new chunk must be
+	 * allocated.
+	 */
+	private ByteBuffer chunk;
+
+	/**
+	 * The size of the next allocated chunk.
+	 */
+	private int nextChunkSize = FIRST_CHUNK;
+
+	/**
+	 * <code>true</code> if the response is sent as frame.
+	 */
+	private boolean framed;
+
+	/**
+	 * Creates a stream for the response of one step.
+	 * 
+	 * @param framed <code>true</code> if the response is sent as frame.
+	 */
+	OutboundStream(boolean framed) {
+		reset(framed, null);
+	}
+
+	/**
+	 * Starts the response of the next step. The chunks handed over by
+	 * {@link #drain()} are left untouched, a chunk that has not been handed over
+	 * is reused.
+	 * 
+	 * @param framed <code>true</code> if the response is sent as frame.
+	 * @param spare  A sent chunk of the {@link #isReusable(ByteBuffer) first
+	 *               size} to start with, <code>null</code> to allocate one if
+	 *               needed. Ignored if the stream still has a chunk.
+	 */
+	void reset(boolean framed, ByteBuffer spare) {
+		this.framed = framed;
+		chunks.clear();
+		if (chunk == null) {
+			chunk = spare;
+		}
+		if (chunk != null) {
+			chunk.clear();
+			nextChunkSize = FIRST_CHUNK * 2;
+		} else {
+			nextChunkSize = FIRST_CHUNK;
+		}
+		if (framed) {
+			writeLittleEndian(0);
+		}
+	}
+
+	/**
+	 * Returns wherever the stream has a chunk that has not been handed over.
+	 * 
+	 * @return <code>true</code> if the next {@link #reset(boolean, ByteBuffer)}
+	 *         needs no spare chunk.
+	 */
+	boolean hasChunk() {
+		return chunk != null;
+	}
+
+	/**
+	 * Returns wherever a sent chunk may be given to
+	 * {@link #reset(boolean, ByteBuffer)}. Only the first chunks of responses
+	 * have the first size, {@link #writeShared(ByteBuffer) shared} buffers are
+	 * always larger.
+	 * 
+	 * @param sent The chunk that has been written completely.
+	 * @return <code>true</code> if the chunk is a first chunk.
+	 */
+	static boolean isReusable(ByteBuffer sent) {
+		return sent.capacity() == FIRST_CHUNK && !sent.isReadOnly();
+	}
+
+	@Override
+	public void write(int b) {
+		ensureSpace(1);
+		chunk.put((byte) b);
+	}
+
+	/**
+	 * Writes a int value in little endian bytes.
+	 * 
+	 * @param i The value.
+	 */
+	public void writeLittleEndian(int i) {
+		ensureSpace(4);
+		chunk.putInt(i);
+	}
+
+	/**
+	 * Writes a float value in little endian bytes.
+	 * 
+	 * @param f The value.
+	 */
+	public void writeLittleEndian(float f) {
+		ensureSpace(4);
+		chunk.putFloat(f);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		while (len > 0) {
+			ensureSpace(1);
+			int n = Math.min(len, chunk.remaining());
+			chunk.put(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Appends the remaining bytes of a buffer. Large buffers are not copied but
+	 * sent as they are, so the content must not be changed until the response
+	 * has been sent. Direct and mapped buffers are sent without passing the Java
+	 * heap.
+	 * 
+	 * @param payload The buffer in read-mode, never <code>null</code>. The
+	 *                position of the buffer is not changed.
+	 */
+	public void writeShared(ByteBuffer payload) {
+		if (payload.remaining() < MIN_SHARED) {
+			ByteBuffer source = payload.duplicate();
+			while (source.hasRemaining()) {
+				ensureSpace(1);
+				int n = Math.min(source.remaining(), chunk.remaining());
+				ByteBuffer portion = source.duplicate();
+				portion.limit(portion.position() + n);
+				chunk.put(portion);
+				source.position(source.position() + n);
+			}
+			return;
+		}
+		seal();
+		chunks.add(payload.duplicate());
+	}
+
+	private void ensureSpace(int bytes) {
+		if (chunk != null && chunk.remaining() >= bytes) {
+			return;
+		}
+		seal();
+		chunk = ByteBuffer.allocate(nextChunkSize).order(ByteOrder.LITTLE_ENDIAN);
+		nextChunkSize = Math.min(nextChunkSize * 2, MAX_CHUNK);
+	}
+
+	/**
+	 * Finishes the current chunk. An empty chunk is kept for the following bytes.
+	 */
+	private void seal() {
+		if (chunk != null && chunk.position() > 0) {
+			chunk.flip();
+			chunks.add(chunk);
+			chunk = null;
+		}
+	}
+
+	/**
+	 * Returns the written chunks ready to be sent. An empty response is not sent
+	 * as frame.
+	 * 
+	 * @return The chunks in read-mode, never <code>null</code>.
+	 */
+	List<ByteBuffer> drain() {
+		seal();
+		int size = 0;
+		for (ByteBuffer b : chunks) {
+			size += b.remaining();
+		}
+		if (framed) {
+			if (size == 4) {
+				chunk = chunks.get(0);
+				chunks.clear();
+				return Collections.emptyList();
+			}
+			chunks.get(0).putInt(0, size - 4);
+		}
+		return chunks;
+	}
+}
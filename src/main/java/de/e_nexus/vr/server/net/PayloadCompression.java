@@ -0,0 +1,275 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Deflater;
+
+import de.e_nexus.vr.server.codes.SessionCapability;
+import de.e_nexus.vr.server.util.ByteBufferInputStream;
+
+/**
+ * Compresses the payloads of sessions that accepted
+ * {@link SessionCapability#COMPRESSED_PAYLOADS}. Every payload is sent as
+ * block:
+ * <ol>
+ * <li>One byte telling the method, {@link #STORED} or {@link #DEFLATE}.</li>
+ * <li>The length of the raw payload, 4 bytes little-endian.</li>
+ * <li>The length of the data, 4 bytes little-endian.</li>
+ * <li>The data, the raw payload or the payload compressed by zlib.</li>
+ * </ol>
+ * Payloads smaller than the {@link #setThreshold(int) threshold} are stored,
+ * as are payloads zlib does not make smaller, like already compressed images.
+ */
+public class PayloadCompression {
+
+	/**
+	 * The payloads that are compressed.
+	 */
+	public enum Stream {
+		/**
+		 * The encoded meshes.
+		 */
+		MESH,
+
+		/**
+		 * The pixels of the textures.
+		 */
+		TEXTURE
+	}
+
+	/**
+	 * The method of a block whose data is the raw payload.
+	 */
+	public static final byte STORED = 0;
+
+	/**
+	 * The method of a block whose data is compressed by zlib.
+	 */
+	public static final byte DEFLATE = 1;
+
+	/**
+	 * The length of the header of a block.
+	 */
+	public static final int BLOCK_HEADER_LENGTH = 1 + 4 + 4;
+
+	/**
+	 * The default threshold, 1 KiB.
+	 */
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	/**
+	 * The size of the portions given to the deflater.
+	 */
+	private static final int PORTION_SIZE = 64 * 1024;
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private final Map<Stream, CompressionStats> stats = new EnumMap<Stream, CompressionStats>(Stream.class);
+
+	/**
+	 * The deflaters not in use, a deflater holds native memory and is reused.
+	 */
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+
+	private volatile int level = Deflater.BEST_SPEED;
+
+	private volatile int threshold = DEFAULT_THRESHOLD;
+
+	public PayloadCompression() {
+		for (Stream stream : Stream.values()) {
+			stats.put(stream, new CompressionStats());
+		}
+	}
+
+	/**
+	 * Compresses a payload into a block.
+	 * 
+	 * @param stream The stream the payload belongs to, never <code>null</code>.
+	 * @param raw    The payload in read-mode, the position is not changed.
+	 * @return The block in read-mode, never <code>null</code>.
+	 * @throws IOException If the payload could not be compressed.
+	 */
+	public ByteBuffer compress(Stream stream, ByteBuffer raw) throws IOException {
+		ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_HEADER_LENGTH + raw.remaining() / 2);
+		compress(stream, new ByteBufferInputStream(raw), raw.remaining(), block);
+		return ByteBuffer.wrap(block.toByteArray());
+	}
+
+	/**
+	 * Compresses a payload and writes the block.
+	 * 
+	 * @param stream    The stream the payload belongs to, never
+	 *                  <code>null</code>.
+	 * @param raw       The payload, never <code>null</code>. A payload that
+	 *                  does not {@link InputStream#markSupported() support
+	 *                  marks} is buffered while it is compressed, in case it
+	 *                  must be stored.
+	 * @param rawLength The number of bytes of the payload to read.
+	 * @param out       The stream to write the block to, never
+	 *                  <code>null</code>.
+	 * @throws IOException If the payload ends too early or could not be
+	 *                     written.
+	 */
+	public void compress(Stream stream, InputStream raw, int rawLength, OutputStream out) throws IOException {
+		CompressionStats streamStats = stats.get(stream);
+		byte[] portion = new byte[Math.max(1, Math.min(rawLength, PORTION_SIZE))];
+		if (rawLength < threshold || rawLength == 0) {
+			writeStored(raw, rawLength, portion, out);
+			streamStats.recordStored(rawLength, 0);
+			return;
+		}
+		ByteArrayOutputStream rawCopy = null;
+		if (raw.markSupported()) {
+			raw.mark(rawLength);
+		} else {
+			rawCopy = new ByteArrayOutputStream(rawLength);
+		}
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			deflater = new Deflater();
+		}
+		try {
+			deflater.setLevel(level);
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(rawLength / 4);
+			byte[] output = new byte[PORTION_SIZE];
+			long nanos = 0;
+			int left = rawLength;
+			while (left > 0) {
+				int n = readPortion(raw, portion, left);
+				left -= n;
+				if (rawCopy != null) {
+					rawCopy.write(portion, 0, n);
+				}
+				long start = cpuTime();
+				deflater.setInput(portion, 0, n);
+				if (left == 0) {
+					deflater.finish();
+				}
+				while (!deflater.needsInput() || (left == 0 && !deflater.finished())) {
+					compressed.write(output, 0, deflater.deflate(output));
+				}
+				nanos += cpuTime() - start;
+			}
+			if (compressed.size() >= rawLength) {
+				if (rawCopy == null) {
+					raw.reset();
+					writeStored(raw, rawLength, portion, out);
+				} else {
+					writeHeader(out, STORED, rawLength, rawLength);
+					rawCopy.writeTo(out);
+				}
+				streamStats.recordStored(rawLength, nanos);
+				return;
+			}
+			streamStats.recordCompressed(rawLength, compressed.size(), nanos);
+			writeHeader(out, DEFLATE, rawLength, compressed.size());
+			compressed.writeTo(out);
+		} finally {
+			deflater.reset();
+			deflaters.add(deflater);
+		}
+	}
+
+	/**
+	 * Copies a payload into a {@link #STORED} block.
+	 */
+	private static void writeStored(InputStream raw, int rawLength, byte[] portion, OutputStream out) throws IOException {
+		writeHeader(out, STORED, rawLength, rawLength);
+		int left = rawLength;
+		while (left > 0) {
+			int n = readPortion(raw, portion, left);
+			out.write(portion, 0, n);
+			left -= n;
+		}
+	}
+
+	private static int readPortion(InputStream raw, byte[] portion, int left) throws IOException {
+		int n = raw.read(portion, 0, Math.min(portion.length, left));
+		if (n == -1) {
+			throw new EOFException("The payload ends " + left + " bytes too early.");
+		}
+		return n;
+	}
+
+	private static void writeHeader(OutputStream out, byte method, int rawLength, int dataLength) throws IOException {
+		out.write(method);
+		writeLittleEndian(out, rawLength);
+		writeLittleEndian(out, dataLength);
+	}
+
+	private static void writeLittleEndian(OutputStream out, int i) throws IOException {
+		out.write(i);
+		out.write(i >>> 8);
+		out.write(i >>> 16);
+		out.write(i >>> 24);
+	}
+
+	/**
+	 * Returns the CPU time of the current thread or, if not measurable, the
+	 * elapsed time.
+	 * 
+	 * @return The time in nanoseconds.
+	 */
+	private static long cpuTime() {
+		long time = THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+		return time < 0 ? System.nanoTime() : time;
+	}
+
+	/**
+	 * Returns the statistics of a stream.
+	 * 
+	 * @param stream The stream, never <code>null</code>.
+	 * @return The statistics, never <code>null</code>.
+	 */
+	public CompressionStats getStats(Stream stream) {
+		return stats.get(stream);
+	}
+
+	/**
+	 * Sets the level of the zlib compression.
+	 * 
+	 * @param level The level from {@link Deflater#BEST_SPEED} to
+	 *              {@link Deflater#BEST_COMPRESSION}, default is
+	 *              {@link Deflater#BEST_SPEED}.
+	 */
+	public void setLevel(int level) {
+		if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Illegal compression level: " + level);
+		}
+		this.level = level;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Sets the size payloads must have to be compressed.
+	 * 
+	 * @param threshold The size in bytes, <code>0</code> compresses every
+	 *                  payload.
+	 */
+	public void setThreshold(int threshold) {
+		this.threshold = threshold;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+}
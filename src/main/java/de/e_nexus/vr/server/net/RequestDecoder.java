@@ -0,0 +1,195 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+import de.e_nexus.vr.server.codes.Client2ServerCode;
+import de.e_nexus.vr.server.listeners.interaction.HelmetAndControllerInfo;
+
+/**
+ * Knows how many bytes a request of the VR client occupies on the wire and
+ * decodes the payloads.
+ * <p>
+ * A non-blocking connection receives the bytes of a request in arbitrary
+ * portions. Only if the request is complete it is given to the opcode handler,
+ * so the handler never has to wait for the client.
+ * <p>
+ * The payloads are decoded from little-endian {@link ByteBuffer buffers}
+ * without allocating memory per value.
+ */
+public final class RequestDecoder {
+
+	/**
+	 * The size of the helmet and controller payload: 22 floats and the two state
+	 * bytes of the controllers.
+	 */
+	public static final int HELMET_AND_CONTROLLER_INFO_LENGTH = 22 * 4 + 2;
+
+	private static final Charset LATIN1 = Charset.forName("latin1");
+
+	private RequestDecoder() {
+	}
+
+	/**
+	 * Reads the opcode of the request starting at the current position of the
+	 * buffer.
+	 *
+	 * @param buffer The buffer in read-mode, must have at least one byte
+	 *               remaining.
+	 * @return The code, never <code>null</code>.
+	 * @throws ProtocolException If the byte is no known code.
+	 */
+	public static Client2ServerCode readCode(ByteBuffer buffer) throws ProtocolException {
+		int read = buffer.get(buffer.position()) & 0xFF;
+		Client2ServerCode[] codes = Client2ServerCode.values();
+		if (read >= codes.length) {
+			throw new ProtocolException("Illegal code incomming: " + read + " maybe not yet implemented.");
+		}
+		return codes[read];
+	}
+
+	/**
+	 * Calculates the length of the request starting at the current position of
+	 * the buffer, including the opcode.
+	 *
+	 * @param buffer The buffer in read-mode, never <code>null</code>.
+	 * @return The number of bytes the complete request occupies or
+	 *         <code>-1</code> if not enough bytes are available to know the
+	 *         length.
+	 * @throws ProtocolException If the opcode is unknown.
+	 */
+	public static int requiredLength(ByteBuffer buffer) throws ProtocolException {
+		if (!buffer.hasRemaining()) {
+			return -1;
+		}
+		switch (readCode(buffer)) {
+		case CREATE_SESSION:
+			return 1;
+		case CREATE_PERSISTENT_SESSION:
+			return 1 + 4;
+		case SEND_HELMET_AND_CONTROLLER_INFO:
+			return 1 + HELMET_AND_CONTROLLER_INFO_LENGTH;
+		case GET_INCOMING_MESH:
+		case GET_REMOVE_MESH:
+		case GET_MESH_TRANSFORMS:
+		case GET_INSTANCE_CHANGES:
+			return lengthPrefixed(buffer, 1);
+		case SEND_KEYBOARD_CHANGES: {
+			int offset = lengthPrefixed(buffer, 1);
+			if (offset == -1) {
+				return -1;
+			}
+			offset = lengthPrefixed(buffer, offset);
+			if (offset == -1) {
+				return -1;
+			}
+			return lengthPrefixed(buffer, offset);
+		}
+		case CONTINUE:
+			throw new ProtocolException("The code " + Client2ServerCode.CONTINUE + " is only allowed in frames of persistent connections.");
+		default:
+			throw new ProtocolException("Length of code " + readCode(buffer) + " unknown.");
+		}
+	}
+
+	/**
+	 * Decodes the payload of
+	 * {@link Client2ServerCode#SEND_HELMET_AND_CONTROLLER_INFO}.
+	 *
+	 * @param in The payload without the code in little-endian order, at least
+	 *           {@link #HELMET_AND_CONTROLLER_INFO_LENGTH} bytes remaining.
+	 * @return The positions and buttons, never <code>null</code>.
+	 */
+	public static HelmetAndControllerInfo readHelmetAndControllerInfo(ByteBuffer in) {
+		float helmetX = in.getFloat();
+		float helmetY = in.getFloat();
+		float helmetZ = in.getFloat();
+		float helmetAngleX = in.getFloat();
+		float helmetAngleY = in.getFloat();
+		float helmetAngleZ = in.getFloat();
+		float lhX = in.getFloat();
+		float lhY = in.getFloat();
+		float lhZ = in.getFloat();
+		float lhrX = in.getFloat();
+		float lhrY = in.getFloat();
+		float lhrZ = in.getFloat();
+
+		float rhX = in.getFloat();
+		float rhY = in.getFloat();
+		float rhZ = in.getFloat();
+		float rhrX = in.getFloat();
+		float rhrY = in.getFloat();
+		float rhrZ = in.getFloat();
+		byte lcs = in.get();
+		byte rcs = in.get();
+		float ltx = in.getFloat();
+		float lty = in.getFloat();
+		float rtx = in.getFloat();
+		float rty = in.getFloat();
+		return new HelmetAndControllerInfo(helmetX, helmetY, helmetZ, helmetAngleX, helmetAngleY, helmetAngleZ, lhX, lhY, lhZ, lhrX, lhrY, lhrZ, rhX, rhY, rhZ, rhrX, rhrY, rhrZ,
+				lcs, rcs, ltx, lty, rtx, rty);
+	}
+
+	/**
+	 * Decodes a session id sent as 16 raw bytes, most significant byte first.
+	 * The byte order of the buffer is ignored and left unchanged.
+	 *
+	 * @param in The buffer, at least 16 bytes remaining. The position is moved
+	 *           behind the id.
+	 * @return The id, never <code>null</code>.
+	 */
+	public static UUID readBinaryUUID(ByteBuffer in) {
+		long mostSigBits = in.getLong();
+		long leastSigBits = in.getLong();
+		if (in.order() == ByteOrder.LITTLE_ENDIAN) {
+			mostSigBits = Long.reverseBytes(mostSigBits);
+			leastSigBits = Long.reverseBytes(leastSigBits);
+		}
+		return new UUID(mostSigBits, leastSigBits);
+	}
+
+	/**
+	 * Decodes a latin1 string.
+	 *
+	 * @param in     The buffer, the position is moved behind the string.
+	 * @param length The number of bytes of the string.
+	 * @return The string, never <code>null</code>.
+	 */
+	public static String readLatin1(ByteBuffer in, int length) {
+		String string;
+		if (in.hasArray()) {
+			string = new String(in.array(), in.arrayOffset() + in.position(), length, LATIN1);
+		} else {
+			byte[] bytes = new byte[length];
+			in.duplicate().get(bytes);
+			string = new String(bytes, LATIN1);
+		}
+		in.position(in.position() + length);
+		return string;
+	}
+
+	/**
+	 * Skips a block that starts with one byte telling how many bytes follow.
+	 *
+	 * @param buffer The buffer in read-mode.
+	 * @param offset The offset of the length-byte relative to the position of the
+	 *               buffer.
+	 * @return The offset after the block or <code>-1</code> if the length-byte is
+	 *         not yet available.
+	 */
+	private static int lengthPrefixed(ByteBuffer buffer, int offset) {
+		if (buffer.remaining() <= offset) {
+			return -1;
+		}
+		return offset + 1 + (buffer.get(buffer.position() + offset) & 0xFF);
+	}
+}
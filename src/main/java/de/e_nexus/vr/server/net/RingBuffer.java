@@ -0,0 +1,129 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single-producer/single-consumer ring of bytes in shared memory.
+ * <p>
+ * The ring consists of a control block and the data. The control block holds
+ * the number of bytes ever written (head) and ever read (tail), each on its own
+ * cache line. Only the producer moves the head, only the consumer moves the
+ * tail, so neither side needs a lock.
+ */
+class RingBuffer {
+
+	/**
+	 * The size of the control block in front of the data.
+	 */
+	static final int CONTROL = 128;
+
+	private static final int HEAD = 0;
+
+	private static final int TAIL = 64;
+
+	/**
+	 * The control block followed by the data.
+	 */
+	private final ByteBuffer ring;
+
+	/**
+	 * A view of the data, reused for every copy.
+	 */
+	private final ByteBuffer data;
+
+	private final int capacity;
+
+	private final int mask;
+
+	/**
+	 * Creates the ring on a part of the shared memory.
+	 * 
+	 * @param ring     The control block and the data, starting at an index
+	 *                 aligned to 8 bytes.
+	 * @param capacity The size of the data, a power of two.
+	 */
+	RingBuffer(ByteBuffer ring, int capacity) {
+		this.ring = ring;
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		ring.position(CONTROL);
+		ring.limit(CONTROL + capacity);
+		this.data = ring.slice();
+		ring.clear();
+	}
+
+	/**
+	 * Copies as many bytes as fit into the ring. Only called by the producer.
+	 * 
+	 * @param src The bytes to write, the position is moved.
+	 * @return The number of bytes written, <code>0</code> if the ring is full.
+	 */
+	int write(ByteBuffer src) {
+		long head = SharedMemoryAccess.getAcquire(ring, HEAD);
+		long tail = SharedMemoryAccess.getAcquire(ring, TAIL);
+		int length = Math.min(capacity - (int) (head - tail), src.remaining());
+		if (length == 0) {
+			return 0;
+		}
+		int offset = (int) (head & mask);
+		int first = Math.min(length, capacity - offset);
+		int limit = src.limit();
+		src.limit(src.position() + first);
+		data.clear().position(offset);
+		data.put(src);
+		src.limit(src.position() + length - first);
+		data.clear();
+		data.put(src);
+		src.limit(limit);
+		SharedMemoryAccess.setRelease(ring, HEAD, head + length);
+		return length;
+	}
+
+	/**
+	 * Copies as many bytes as available out of the ring. Only called by the
+	 * consumer.
+	 * 
+	 * @param dst The buffer to fill, the position is moved.
+	 * @return The number of bytes read, <code>0</code> if the ring is empty.
+	 */
+	int read(ByteBuffer dst) {
+		long tail = SharedMemoryAccess.getAcquire(ring, TAIL);
+		long head = SharedMemoryAccess.getAcquire(ring, HEAD);
+		int length = (int) Math.min(head - tail, dst.remaining());
+		if (length == 0) {
+			return 0;
+		}
+		int offset = (int) (tail & mask);
+		int first = Math.min(length, capacity - offset);
+		data.clear().position(offset).limit(offset + first);
+		dst.put(data);
+		data.clear().limit(length - first);
+		dst.put(data);
+		SharedMemoryAccess.setRelease(ring, TAIL, tail + length);
+		return length;
+	}
+
+	/**
+	 * Returns the number of bytes ever written.
+	 * 
+	 * @return The head, never negative.
+	 */
+	long head() {
+		return SharedMemoryAccess.getAcquire(ring, HEAD);
+	}
+
+	/**
+	 * Returns the number of bytes ever read.
+	 * 
+	 * @return The tail, never negative.
+	 */
+	long tail() {
+		return SharedMemoryAccess.getAcquire(ring, TAIL);
+	}
+}
@@ -0,0 +1,51 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Ordered access to the indexes of a {@link RingBuffer} shared with another
+ * process. This JDK has no such access, the multi-release jar contains the
+ * variant for JDK 16 and newer.
+ */
+final class SharedMemoryAccess {
+
+	private SharedMemoryAccess() {
+	}
+
+	/**
+	 * Returns wherever the JDK supports ordered access to shared memory.
+	 * 
+	 * @return <code>false</code>.
+	 */
+	static boolean isAvailable() {
+		return false;
+	}
+
+	/**
+	 * Reads a long, later reads are not reordered before it.
+	 * 
+	 * @param buffer The mapped buffer.
+	 * @param index  The index of the long, aligned to 8 bytes.
+	 * @return Never.
+	 */
+	static long getAcquire(ByteBuffer buffer, int index) {
+		throw new UnsupportedOperationException("Shared memory links require JDK 16 or newer.");
+	}
+
+	/**
+	 * Writes a long, earlier writes are not reordered after it.
+	 * 
+	 * @param buffer The mapped buffer.
+	 * @param index  The index of the long, aligned to 8 bytes.
+	 * @param value  The value.
+	 */
+	static void setRelease(ByteBuffer buffer, int index, long value) {
+		throw new UnsupportedOperationException("Shared memory links require JDK 16 or newer.");
+	}
+}
@@ -0,0 +1,255 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A connection between the server and a VR client on the same machine using a
+ * memory-mapped file. The file contains two {@link RingBuffer ring buffers},
+ * one for each direction. The bytes are the same as on a socket, so a link
+ * carries the same requests and frames.
+ * <p>
+ * A link serves one client. The server creates the file using
+ * {@link #create(Path, int)}, the client maps it using {@link #open(Path)}.
+ * Either side ends the link by {@link #close() closing} it.
+ * <p>
+ * Requires JDK 16 or newer, see {@link #isAvailable()}.
+ */
+public class SharedMemoryLink implements ByteChannel {
+
+	/**
+	 * The first bytes of the file, "VRSM".
+	 */
+	private static final int MAGIC = 0x4d535256;
+
+	/**
+	 * The magic, the capacity of each ring and the closed-flag.
+	 */
+	private static final int HEADER = 64;
+
+	private static final int CAPACITY = 4;
+
+	private static final int CLOSED = 8;
+
+	private final Path file;
+
+	private final MappedByteBuffer buffer;
+
+	private final RingBuffer inbound;
+
+	private final RingBuffer outbound;
+
+	private SharedMemoryLink(Path file, MappedByteBuffer buffer, int capacity, boolean server) {
+		this.file = file;
+		this.buffer = buffer;
+		RingBuffer clientToServer = new RingBuffer(ring(0, capacity), capacity);
+		RingBuffer serverToClient = new RingBuffer(ring(1, capacity), capacity);
+		this.inbound = server ? clientToServer : serverToClient;
+		this.outbound = server ? serverToClient : clientToServer;
+	}
+
+	private ByteBuffer ring(int index, int capacity) {
+		ByteBuffer ring = buffer.duplicate();
+		ring.position(HEADER + index * (RingBuffer.CONTROL + capacity));
+		ring.limit(ring.position() + RingBuffer.CONTROL + capacity);
+		return ring.slice();
+	}
+
+	/**
+	 * Returns wherever the JDK supports shared memory links.
+	 * 
+	 * @return <code>true</code> if links can be used, <code>false</code>
+	 *         otherwise.
+	 */
+	public static boolean isAvailable() {
+		return SharedMemoryAccess.isAvailable();
+	}
+
+	/**
+	 * Creates the file of a new link, the side of the server.
+	 * 
+	 * @param file     The file, an existing file is overwritten.
+	 * @param capacity The number of bytes each direction buffers, a power of two
+	 *                 of at least 4096.
+	 * @return The link, never <code>null</code>.
+	 * @throws IOException If the file could not be mapped.
+	 */
+	public static SharedMemoryLink create(Path file, int capacity) throws IOException {
+		if (!isAvailable()) {
+			throw new UnsupportedOperationException("Shared memory links require JDK 16 or newer.");
+		}
+		if (capacity < 4096 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("The capacity " + capacity + " is no power of two of at least 4096.");
+		}
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, HEADER + 2L * (RingBuffer.CONTROL + capacity));
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(CAPACITY, capacity);
+			buffer.putInt(0, MAGIC);
+			return new SharedMemoryLink(file, buffer, capacity, true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Maps the file of a link the server created, the side of the client.
+	 * 
+	 * @param file The file, never <code>null</code>.
+	 * @return The link, never <code>null</code>.
+	 * @throws IOException If the file could not be mapped or is no link.
+	 */
+	public static SharedMemoryLink open(Path file) throws IOException {
+		if (!isAvailable()) {
+			throw new UnsupportedOperationException("Shared memory links require JDK 16 or newer.");
+		}
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			int capacity = buffer.getInt(CAPACITY);
+			if (buffer.getInt(0) != MAGIC || channel.size() != HEADER + 2L * (RingBuffer.CONTROL + capacity)) {
+				throw new IOException("The file " + file + " is no shared memory link.");
+			}
+			return new SharedMemoryLink(file, buffer, capacity, false);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads the bytes the other side has written.
+	 * 
+	 * @param dst The buffer to fill.
+	 * @return The number of bytes read, <code>0</code> if nothing is available,
+	 *         <code>-1</code> if the link is closed and every byte has been
+	 *         read.
+	 */
+	public int read(ByteBuffer dst) {
+		boolean open = isOpen();
+		int read = inbound.read(dst);
+		if (read == 0 && !open) {
+			return -1;
+		}
+		return read;
+	}
+
+	/**
+	 * Writes as many bytes as the other side has room for.
+	 * 
+	 * @param src The bytes to write.
+	 * @return The number of bytes written, <code>0</code> if the other side has
+	 *         not yet read enough.
+	 * @throws ClosedChannelException If the link is closed.
+	 */
+	public int write(ByteBuffer src) throws ClosedChannelException {
+		if (!isOpen()) {
+			throw new ClosedChannelException();
+		}
+		return outbound.write(src);
+	}
+
+	/**
+	 * Returns wherever there are bytes to read.
+	 * 
+	 * @return <code>true</code> if {@link #read(ByteBuffer)} would read
+	 *         something.
+	 */
+	boolean hasInput() {
+		return inbound.head() != inbound.tail();
+	}
+
+	/**
+	 * Returns the number of bytes the other side has written so far.
+	 * 
+	 * @return The number of bytes, never negative.
+	 */
+	long inboundWritten() {
+		return inbound.head();
+	}
+
+	/**
+	 * Returns the number of bytes read from the other side so far.
+	 * 
+	 * @return The number of bytes, never negative.
+	 */
+	long inboundRead() {
+		return inbound.tail();
+	}
+
+	/**
+	 * Returns the number of bytes the other side has read so far. Growing while
+	 * the other side makes room for more bytes to write.
+	 * 
+	 * @return The number of bytes, never negative.
+	 */
+	long outboundProgress() {
+		return outbound.tail();
+	}
+
+	/**
+	 * Returns wherever neither side has closed the link.
+	 * 
+	 * @return <code>true</code> if open, <code>false</code> otherwise.
+	 */
+	public boolean isOpen() {
+		return SharedMemoryAccess.getAcquire(buffer, CLOSED) == 0;
+	}
+
+	/**
+	 * Closes the link for both sides. The other side reads the bytes left and
+	 * sees the end of the stream afterwards.
+	 */
+	public void close() {
+		SharedMemoryAccess.setRelease(buffer, CLOSED, 1);
+	}
+
+	/**
+	 * Returns the address of the link, for messages.
+	 * 
+	 * @return The address, never <code>null</code>.
+	 */
+	public SocketAddress getAddress() {
+		return new LinkAddress(file);
+	}
+
+	@Override
+	public String toString() {
+		return "Shared memory link " + file;
+	}
+
+	/**
+	 * The address of a link: its file.
+	 */
+	private static class LinkAddress extends SocketAddress {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String file;
+
+		LinkAddress(Path file) {
+			this.file = file.toString();
+		}
+
+		@Override
+		public String toString() {
+			return "shm:" + file;
+		}
+	}
+}
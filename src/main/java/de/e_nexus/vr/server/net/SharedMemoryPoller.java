@@ -0,0 +1,72 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Watches a {@link SharedMemoryLink} for the selector thread, a link is not
+ * selectable. Wakes the selector thread up if the client has written bytes,
+ * read bytes or closed the link.
+ * <p>
+ * Bytes that wait while a step of the connection is in progress do not wake
+ * the selector thread again, the end of the step does. The pause between two
+ * looks grows while nothing happens, so an idle link costs almost no
+ * processor time.
+ */
+class SharedMemoryPoller implements Runnable {
+
+	/**
+	 * The pause between two looks at a busy link in nanoseconds.
+	 */
+	private static final long MIN_POLL_NANOS = 20000;
+
+	/**
+	 * The longest pause between two looks at an idle link in nanoseconds.
+	 */
+	private static final long MAX_POLL_NANOS = 1000000;
+
+	private final SharedMemoryLink link;
+
+	private final VRConnection connection;
+
+	private final VRConnectionEngine engine;
+
+	SharedMemoryPoller(SharedMemoryLink link, VRConnection connection, VRConnectionEngine engine) {
+		this.link = link;
+		this.connection = connection;
+		this.engine = engine;
+	}
+
+	public void run() {
+		long written = link.inboundWritten();
+		long read = link.inboundRead();
+		long progress = link.outboundProgress();
+		long pause = MIN_POLL_NANOS;
+		try {
+			while (!connection.isClosed()) {
+				boolean open = link.isOpen();
+				long currentWritten = link.inboundWritten();
+				long currentRead = link.inboundRead();
+				long currentProgress = link.outboundProgress();
+				boolean input = currentWritten != currentRead;
+				if (currentWritten != written || currentProgress != progress || (input && currentRead != read) || (!open && !input)) {
+					written = currentWritten;
+					read = currentRead;
+					progress = currentProgress;
+					pause = MIN_POLL_NANOS;
+					engine.wakeup(connection);
+				} else {
+					pause = Math.min(pause * 2, MAX_POLL_NANOS);
+				}
+				LockSupport.parkNanos(pause);
+			}
+		} finally {
+			engine.removePolled(connection);
+		}
+	}
+}
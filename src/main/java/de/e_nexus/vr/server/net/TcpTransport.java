@@ -0,0 +1,79 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Accepts VR clients using TCP. Nagle's algorithm is disabled, the requests are
+ * small and latency matters.
+ */
+public class TcpTransport implements VRTransport {
+
+	/**
+	 * The port to listen to, <code>0</code> for any free port.
+	 */
+	private final int port;
+
+	/**
+	 * The port the server channel is bound to, <code>-1</code> if not yet bound.
+	 */
+	private volatile int localPort = -1;
+
+	/**
+	 * Creates the transport.
+	 * 
+	 * @param port The port to listen to, <code>0</code> for any free port.
+	 */
+	public TcpTransport(int port) {
+		this.port = port;
+	}
+
+	public ServerSocketChannel bind() throws IOException {
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			channel.bind(new InetSocketAddress(port));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		localPort = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+		return channel;
+	}
+
+	public void configure(SocketChannel channel) throws IOException {
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+	}
+
+	public SocketChannel connect() throws IOException {
+		SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), localPort));
+		configure(channel);
+		return channel;
+	}
+
+	public void unbind() {
+	}
+
+	/**
+	 * Returns the port the server channel is bound to.
+	 * 
+	 * @return The port or <code>-1</code> if not yet bound.
+	 */
+	public int getLocalPort() {
+		return localPort;
+	}
+
+	@Override
+	public String toString() {
+		return "TCP port " + (localPort == -1 ? port : localPort);
+	}
+}
@@ -0,0 +1,50 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Access to Unix domain socket channels. This JDK has none, the multi-release
+ * jar contains the variant for JDK 16 and newer.
+ */
+final class UnixDomainSockets {
+
+	private UnixDomainSockets() {
+	}
+
+	/**
+	 * Returns wherever the JDK supports Unix domain socket channels.
+	 * 
+	 * @return <code>false</code>.
+	 */
+	static boolean isAvailable() {
+		return false;
+	}
+
+	/**
+	 * Opens a server channel bound to a socket file.
+	 * 
+	 * @param path The path of the socket file.
+	 * @return Never.
+	 */
+	static ServerSocketChannel bind(Path path) {
+		throw new UnsupportedOperationException("Unix domain sockets require JDK 16 or newer.");
+	}
+
+	/**
+	 * Connects to a socket file.
+	 * 
+	 * @param path The path of the socket file.
+	 * @return Never.
+	 */
+	static SocketChannel connect(Path path) {
+		throw new UnsupportedOperationException("Unix domain sockets require JDK 16 or newer.");
+	}
+}
@@ -0,0 +1,80 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Accepts VR clients running on the same machine using a Unix domain socket.
+ * Skips the TCP/IP stack of the loopback device.
+ * <p>
+ * Requires a JDK having Unix domain socket channels, see
+ * {@link #isAvailable()}. Sessions of such clients belong to the loopback
+ * address.
+ */
+public class UnixDomainTransport implements VRTransport {
+
+	/**
+	 * The path of the socket file.
+	 */
+	private final Path path;
+
+	/**
+	 * Creates the transport.
+	 * 
+	 * @param path The path of the socket file, never <code>null</code>. A file
+	 *             left over by a previous server is deleted on
+	 *             {@link #bind()}.
+	 */
+	public UnixDomainTransport(Path path) {
+		this.path = path;
+	}
+
+	/**
+	 * Returns wherever the JDK supports Unix domain socket channels.
+	 * 
+	 * @return <code>true</code> if this transport can be used,
+	 *         <code>false</code> otherwise.
+	 */
+	public static boolean isAvailable() {
+		return UnixDomainSockets.isAvailable();
+	}
+
+	public ServerSocketChannel bind() throws IOException {
+		Files.deleteIfExists(path);
+		return UnixDomainSockets.bind(path);
+	}
+
+	public void configure(SocketChannel channel) {
+	}
+
+	public SocketChannel connect() throws IOException {
+		return UnixDomainSockets.connect(path);
+	}
+
+	public void unbind() throws IOException {
+		Files.deleteIfExists(path);
+	}
+
+	/**
+	 * Returns the path of the socket file.
+	 * 
+	 * @return The path, never <code>null</code>.
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	@Override
+	public String toString() {
+		return "Unix domain socket " + path;
+	}
+}
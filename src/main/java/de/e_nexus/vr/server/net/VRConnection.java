@@ -0,0 +1,657 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import de.e_nexus.vr.server.VRSession;
+import de.e_nexus.vr.server.codes.Client2ServerCode;
+import de.e_nexus.vr.server.dispatch.Lane;
+
+/**
+ * The state of one connection of a VR client.
+ * <p>
+ * The connection collects the bytes of the client without blocking. As soon as
+ * a request is complete it is handed over to the {@link VRRequestHandler}. If
+ * the handler needs an answer of the client (like the texture ids after a
+ * mesh), the connection waits for the answer without blocking any other
+ * client. The response is written as fast as the client is able to receive it.
+ * <p>
+ * Every step of the conversation is executed by the
+ * {@link VRConnectionEngine#getDispatcher(Lane) dispatcher} of its lane, one
+ * step of a connection at a time. Only requests of the {@link Lane#POSE pose
+ * lane} overtake a step in progress.
+ * <p>
+ * A connection serves exactly one request unless it has been made
+ * {@link #persist(VRSession) persistent}. A persistent connection carries any
+ * number of framed requests until the client closes it.
+ *
+ * @see Client2ServerCode#CREATE_PERSISTENT_SESSION
+ */
+public class VRConnection {
+
+	/**
+	 * The maximum of bytes a client is allowed to send without completing a
+	 * request.
+	 */
+	private static final int MAX_INBOUND = 64 * 1024;
+
+	/**
+	 * The maximum of pipelined requests waiting for a conversation to end.
+	 */
+	private static final int MAX_DEFERRED = 1024;
+
+	/**
+	 * The maximum of finished steps kept for the following requests.
+	 */
+	private static final int MAX_SPARE_STEPS = 4;
+
+	/**
+	 * The maximum of sent chunks kept for the following responses.
+	 */
+	private static final int MAX_SPARE_CHUNKS = 4;
+
+	/**
+	 * The state of the conversation.
+	 */
+	enum State {
+		/**
+		 * Waiting for a request.
+		 */
+		REQUEST,
+		/**
+		 * Waiting for the answer of the client.
+		 */
+		REPLY,
+		/**
+		 * The conversation is over, close after all bytes are written.
+		 */
+		DONE,
+		/**
+		 * The connection is closed.
+		 */
+		CLOSED
+	}
+
+	private final ByteChannel channel;
+
+	/**
+	 * The address of the client.
+	 */
+	private final SocketAddress remote;
+
+	/**
+	 * The key of the channel, <code>null</code> if the channel is not selectable
+	 * and polled instead.
+	 */
+	private final SelectionKey key;
+
+	private final VRConnectionEngine engine;
+
+	private final VRRequestHandler handler;
+
+	private final Deque<ByteBuffer> outbound = new ArrayDeque<ByteBuffer>();
+
+	/**
+	 * The chunks given to one gathering write.
+	 */
+	private final ByteBuffer[] gatherBuffer = new ByteBuffer[16];
+
+	/**
+	 * Frames of pipelined requests that arrived while a conversation waits for
+	 * the answer of the client.
+	 */
+	private final Deque<Step> deferred = new ArrayDeque<Step>();
+
+	/**
+	 * Finished steps, reused for the following requests together with their
+	 * buffers.
+	 */
+	private final Deque<Step> spareSteps = new ArrayDeque<Step>();
+
+	/**
+	 * Sent first chunks of responses, reused for the following responses.
+	 */
+	private final Deque<ByteBuffer> spareChunks = new ArrayDeque<ByteBuffer>();
+
+	/**
+	 * The bytes received but not yet processed. Only touched by the selector
+	 * thread.
+	 */
+	private ByteBuffer inbound = ByteBuffer.allocate(512).order(ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * The session of a persistent connection, <code>null</code> if the
+	 * connection serves only one request.
+	 */
+	private volatile VRSession session;
+
+	private State state = State.REQUEST;
+
+	private int replyLength;
+
+	private VRReplyHandler replyHandler;
+
+	/**
+	 * <code>true</code> while a step is dispatched and not yet finished.
+	 */
+	private boolean busy;
+
+	VRConnection(ByteChannel channel, SocketAddress remote, SelectionKey key, VRConnectionEngine engine, VRRequestHandler handler) {
+		this.channel = channel;
+		this.remote = remote;
+		this.key = key;
+		this.engine = engine;
+		this.handler = handler;
+	}
+
+	/**
+	 * Returns the address of the VR client.
+	 *
+	 * @return The remote address, never <code>null</code>.
+	 */
+	public SocketAddress getRemoteSocketAddress() {
+		return remote;
+	}
+
+	/**
+	 * Returns the internet address of the VR client. Clients connected using a
+	 * {@link UnixDomainTransport Unix domain socket} or a
+	 * {@link SharedMemoryLink} run on the same machine and have the loopback
+	 * address.
+	 *
+	 * @return The remote address, never <code>null</code>.
+	 */
+	public InetSocketAddress getRemoteInetSocketAddress() {
+		SocketAddress remote = getRemoteSocketAddress();
+		if (remote instanceof InetSocketAddress) {
+			return (InetSocketAddress) remote;
+		}
+		return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+	}
+
+	/**
+	 * Keeps the connection open after the current request. Every following
+	 * request and every response is sent as frame.
+	 *
+	 * @param session The session the connection belongs to, never
+	 *                <code>null</code>.
+	 */
+	public void persist(VRSession session) {
+		this.session = session;
+	}
+
+	/**
+	 * Returns the session of the persistent connection.
+	 *
+	 * @return The session or <code>null</code> if the connection is not
+	 *         persistent.
+	 */
+	public VRSession getSession() {
+		return session;
+	}
+
+	/**
+	 * Returns wherever the connection is persistent and idle: no request is in
+	 * progress and no response is left to write.
+	 *
+	 * @return <code>true</code> if the connection could be closed without losing
+	 *         anything.
+	 */
+	synchronized boolean isIdle() {
+		return session != null && !busy && state == State.REQUEST && outbound.isEmpty() && deferred.isEmpty();
+	}
+
+	/**
+	 * Returns wherever the channel is not selectable and is polled instead.
+	 *
+	 * @return <code>true</code> for a {@link SharedMemoryLink},
+	 *         <code>false</code> for a socket.
+	 */
+	boolean isPolled() {
+		return key == null;
+	}
+
+	/**
+	 * Awaits an answer of the VR client after the current step of the
+	 * conversation is sent.
+	 *
+	 * @param length  The exact number of bytes the client will answer, never
+	 *                negative.
+	 * @param handler The handler to continue the conversation, never
+	 *                <code>null</code>.
+	 */
+	public synchronized void expectReply(int length, VRReplyHandler handler) {
+		this.replyLength = length;
+		this.replyHandler = handler;
+	}
+
+	/**
+	 * Reads the available bytes and processes any request that is complete.
+	 *
+	 * @throws IOException If the connection is broken or the client sends
+	 *                     nonsense.
+	 */
+	void read() throws IOException {
+		if (!inbound.hasRemaining()) {
+			if (inbound.capacity() >= MAX_INBOUND) {
+				throw new ProtocolException("Client " + getRemoteSocketAddress() + " sends more than " + MAX_INBOUND + " bytes without completing a request.");
+			}
+			ByteBuffer larger = ByteBuffer.allocate(inbound.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+			inbound.flip();
+			larger.put(inbound);
+			inbound = larger;
+		}
+		if (channel.read(inbound) == -1) {
+			close();
+			return;
+		}
+		process();
+	}
+
+	/**
+	 * Dispatches the next complete request or answer unless a step of this
+	 * connection is still in progress. Requests of the {@link Lane#POSE pose
+	 * lane} on persistent connections are dispatched even if a step is in
+	 * progress. Only called by the selector thread.
+	 *
+	 * @throws IOException If the client sends nonsense or the dispatcher rejects
+	 *                     the step.
+	 */
+	void process() throws IOException {
+		inbound.flip();
+		try {
+			while (true) {
+				Step step;
+				synchronized (this) {
+					if (session == null) {
+						step = busy ? null : nextRequest();
+					} else {
+						step = nextFrame();
+					}
+					if (step == null) {
+						return;
+					}
+					if (!step.overtaking) {
+						busy = true;
+					}
+				}
+				if (!engine.getDispatcher(step.lane).dispatch(step) && !step.overtaking) {
+					throw new IOException("Request of client " + getRemoteSocketAddress() + " rejected, the dispatcher is overloaded.");
+				}
+			}
+		} finally {
+			inbound.compact();
+		}
+	}
+
+	/**
+	 * Takes the next request or answer of a connection without frames.
+	 *
+	 * @return The step or <code>null</code> if nothing is complete.
+	 * @throws IOException If the client sends nonsense.
+	 */
+	private Step nextRequest() throws IOException {
+		if (state == State.REQUEST) {
+			int length = RequestDecoder.requiredLength(inbound);
+			if (length == -1 || inbound.remaining() < length) {
+				return null;
+			}
+			Client2ServerCode code = RequestDecoder.readCode(inbound);
+			return take(length).prepare(code, 1, false);
+		} else if (state == State.REPLY) {
+			if (inbound.remaining() < replyLength) {
+				return null;
+			}
+			return take(replyLength).prepare(null, 0, false);
+		}
+		return null;
+	}
+
+	/**
+	 * Takes the next frame of a persistent connection. Frames that can not be
+	 * processed yet are deferred, frames of the pose lane overtake them.
+	 *
+	 * @return The step or <code>null</code> if nothing can be processed now.
+	 * @throws IOException If the client sends nonsense.
+	 */
+	private Step nextFrame() throws IOException {
+		while (true) {
+			if (state != State.REQUEST && state != State.REPLY) {
+				return null;
+			}
+			if (!busy) {
+				if (state == State.REQUEST && !deferred.isEmpty()) {
+					return frame(deferred.poll());
+				}
+				if (state == State.REPLY) {
+					Iterator<Step> waiting = deferred.iterator();
+					while (waiting.hasNext()) {
+						Step frame = waiting.next();
+						if (frame.in.get(0) == Client2ServerCode.CONTINUE.ordinal()) {
+							waiting.remove();
+							return frame(frame);
+						}
+					}
+				}
+			}
+			if (inbound.remaining() < 4) {
+				return null;
+			}
+			int length = inbound.getInt(inbound.position());
+			if (length < 1 || length > MAX_INBOUND - 4) {
+				throw new ProtocolException("Client " + getRemoteSocketAddress() + " sends a frame of " + length + " bytes.");
+			}
+			if (inbound.remaining() < 4 + length) {
+				return null;
+			}
+			inbound.position(inbound.position() + 4);
+			Step frame = take(length);
+			if (Lane.of(RequestDecoder.readCode(frame.in)) == Lane.POSE) {
+				return frame(frame);
+			}
+			if (deferred.size() >= MAX_DEFERRED) {
+				throw new ProtocolException("Client " + getRemoteSocketAddress() + " pipelines more than " + MAX_DEFERRED + " requests.");
+			}
+			deferred.add(frame);
+		}
+	}
+
+	/**
+	 * Prepares a frame taken from the inbound buffer.
+	 *
+	 * @param frame The step holding the complete frame.
+	 * @return The step, never <code>null</code>.
+	 * @throws IOException If the client sends nonsense.
+	 */
+	private Step frame(Step frame) throws IOException {
+		ByteBuffer body = frame.in;
+		int length = body.limit();
+		Client2ServerCode code = RequestDecoder.readCode(body);
+		if (code == Client2ServerCode.CONTINUE) {
+			if (state != State.REPLY || length - 1 != replyLength) {
+				throw new ProtocolException("Client " + getRemoteSocketAddress() + " continues a conversation with " + (length - 1) + " bytes but " + (state == State.REPLY ? replyLength : 0) + " bytes are expected.");
+			}
+			return frame.prepare(null, 1, false);
+		}
+		int required = RequestDecoder.requiredLength(body);
+		if (required != length) {
+			throw new ProtocolException("Client " + getRemoteSocketAddress() + " sends a frame of " + length + " bytes for " + code + " but " + required + " bytes are required.");
+		}
+		return frame.prepare(code, 1, Lane.of(code) == Lane.POSE);
+	}
+
+	/**
+	 * Takes bytes from the inbound buffer into a spare step.
+	 *
+	 * @param length The number of bytes to take.
+	 * @return The step, its bytes not yet {@link Step#prepare(Client2ServerCode,
+	 *         int, boolean) prepared}.
+	 */
+	private Step take(int length) {
+		Step step = spareSteps.poll();
+		if (step == null) {
+			step = new Step();
+		}
+		step.fill(inbound, length);
+		return step;
+	}
+
+	/**
+	 * Keeps a finished step for the following requests.
+	 *
+	 * @param step The step, not referenced anywhere else.
+	 */
+	private synchronized void recycle(Step step) {
+		if (spareSteps.size() < MAX_SPARE_STEPS) {
+			spareSteps.add(step);
+		}
+	}
+
+	/**
+	 * Keeps a sent chunk for the following responses.
+	 *
+	 * @param chunk The chunk, written completely.
+	 */
+	private void recycle(ByteBuffer chunk) {
+		if (spareChunks.size() < MAX_SPARE_CHUNKS && OutboundStream.isReusable(chunk)) {
+			spareChunks.add(chunk);
+		}
+	}
+
+	/**
+	 * Takes a sent chunk for a response.
+	 *
+	 * @return The chunk or <code>null</code> if there is none.
+	 */
+	private synchronized ByteBuffer takeSpareChunk() {
+		return spareChunks.poll();
+	}
+
+	/**
+	 * One step of the conversation: a request or the answer of the client.
+	 * Steps are reused, a step is not referenced anywhere after it has finished.
+	 */
+	private class Step implements Runnable {
+
+		/**
+		 * The code of the request, <code>null</code> if it is the answer.
+		 */
+		private Client2ServerCode code;
+
+		/**
+		 * The bytes of the step in little-endian order, the payload between the
+		 * position and the limit.
+		 */
+		private ByteBuffer in = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
+
+		private final OutboundStream out = new OutboundStream(false);
+
+		private Lane lane;
+
+		/**
+		 * <code>true</code> if the step runs beside the conversation. Such a step
+		 * has no response and does not change the state of the connection.
+		 */
+		private boolean overtaking;
+
+		/**
+		 * Copies the bytes of the step.
+		 *
+		 * @param source The buffer in read-mode, the position is moved behind the
+		 *               bytes.
+		 * @param length The number of bytes.
+		 */
+		void fill(ByteBuffer source, int length) {
+			if (in.capacity() < length) {
+				in = ByteBuffer.allocate(Integer.highestOneBit(length - 1) << 1).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			in.clear();
+			int limit = source.limit();
+			source.limit(source.position() + length);
+			in.put(source);
+			source.limit(limit);
+			in.flip();
+		}
+
+		/**
+		 * Sets what the step is about to do.
+		 *
+		 * @param code       The code of the request, <code>null</code> if it is
+		 *                   the answer.
+		 * @param skip       The number of leading bytes not to be part of the
+		 *                   payload.
+		 * @param overtaking <code>true</code> if the step runs beside the
+		 *                   conversation.
+		 * @return This step.
+		 */
+		Step prepare(Client2ServerCode code, int skip, boolean overtaking) {
+			this.code = code;
+			this.lane = code == null ? Lane.BULK : Lane.of(code);
+			this.overtaking = overtaking;
+			in.position(skip);
+			return this;
+		}
+
+		public void run() {
+			try {
+				out.reset(session != null, out.hasChunk() ? null : takeSpareChunk());
+				if (code == null) {
+					VRReplyHandler current;
+					synchronized (VRConnection.this) {
+						current = replyHandler;
+						replyHandler = null;
+					}
+					current.handleReply(in, out);
+				} else {
+					handler.handleRequest(VRConnection.this, code, in, out);
+				}
+				if (!overtaking) {
+					finishStep(out);
+				}
+			} catch (Exception e) {
+				close();
+				handler.handle(e);
+			} finally {
+				if (!overtaking) {
+					synchronized (VRConnection.this) {
+						busy = false;
+					}
+					engine.wakeup(VRConnection.this);
+				}
+				recycle(this);
+			}
+		}
+	}
+
+	private synchronized void finishStep(OutboundStream out) {
+		List<ByteBuffer> response = out.drain();
+		for (int i = 0; i < response.size(); i++) {
+			outbound.add(response.get(i));
+		}
+		if (replyHandler != null) {
+			state = State.REPLY;
+		} else {
+			state = session == null ? State.DONE : State.REQUEST;
+		}
+	}
+
+	/**
+	 * Writes as many bytes to the client as possible without blocking.
+	 *
+	 * @throws IOException If the connection is broken.
+	 */
+	synchronized void write() throws IOException {
+		if (channel instanceof GatheringByteChannel) {
+			gather((GatheringByteChannel) channel);
+			return;
+		}
+		while (!outbound.isEmpty()) {
+			ByteBuffer head = outbound.peek();
+			channel.write(head);
+			if (head.hasRemaining()) {
+				return;
+			}
+			recycle(outbound.poll());
+		}
+	}
+
+	/**
+	 * Writes the chunks using as few system calls as possible.
+	 *
+	 * @param gathering The channel of the connection.
+	 * @throws IOException If the connection is broken.
+	 */
+	private void gather(GatheringByteChannel gathering) throws IOException {
+		try {
+			while (!outbound.isEmpty()) {
+				int n = 0;
+				for (ByteBuffer b : outbound) {
+					if (n == gatherBuffer.length) {
+						break;
+					}
+					gatherBuffer[n++] = b;
+				}
+				gathering.write(gatherBuffer, 0, n);
+				while (!outbound.isEmpty() && !outbound.peek().hasRemaining()) {
+					recycle(outbound.poll());
+				}
+				if (gatherBuffer[n - 1].hasRemaining()) {
+					return;
+				}
+			}
+		} finally {
+			Arrays.fill(gatherBuffer, null);
+		}
+	}
+
+	/**
+	 * Tells the selector what this connection is waiting for. Closes the
+	 * connection if the conversation is over. Only called by the selector
+	 * thread.
+	 *
+	 * @throws IOException If the connection is broken.
+	 */
+	synchronized void updateInterest() throws IOException {
+		if (state == State.CLOSED) {
+			return;
+		}
+		if (!outbound.isEmpty()) {
+			write();
+		}
+		if (state == State.DONE && outbound.isEmpty()) {
+			close();
+			return;
+		}
+		if (key == null) {
+			return;
+		}
+		int ops = state == State.DONE ? 0 : SelectionKey.OP_READ;
+		if (!outbound.isEmpty()) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+		key.interestOps(ops);
+	}
+
+	/**
+	 * Closes the connection immediately.
+	 */
+	synchronized void close() {
+		state = State.CLOSED;
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			handler.handle(e);
+		}
+	}
+
+	/**
+	 * Returns wherever the connection is closed.
+	 *
+	 * @return <code>true</code> if closed, <code>false</code> otherwise.
+	 */
+	public synchronized boolean isClosed() {
+		return state == State.CLOSED;
+	}
+}
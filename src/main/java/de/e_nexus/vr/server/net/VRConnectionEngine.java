@@ -0,0 +1,368 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import de.e_nexus.vr.server.dispatch.Lane;
+import de.e_nexus.vr.server.dispatch.VRDispatcher;
+
+/**
+ * Multiplexes all connections of all VR clients using one {@link Selector}.
+ * <p>
+ * Reading and writing never blocks. A slow client that receives a large mesh
+ * does not delay the requests of any other client. The opcode handlers are
+ * executed by a {@link VRDispatcher}, so the selector thread is free to accept
+ * and serve other clients meanwhile. Requests of the helmet and the controllers
+ * have their own {@link Lane lane}.
+ * <p>
+ * {@link SharedMemoryLink Shared memory links} are not selectable, they are
+ * watched by a thread that wakes the selector up.
+ */
+public class VRConnectionEngine implements Closeable {
+
+	private final Selector selector;
+
+	private final VRTransport transport;
+
+	private final ServerSocketChannel serverChannel;
+
+	private final VRRequestHandler handler;
+
+	private final VRDispatcher bulkDispatcher;
+
+	private final VRDispatcher poseDispatcher;
+
+	/**
+	 * The connections that finished a step in another thread and need the
+	 * attention of the selector thread.
+	 */
+	private final Queue<VRConnection> wakeups = new ConcurrentLinkedQueue<VRConnection>();
+
+	/**
+	 * The open connections of {@link SharedMemoryLink shared memory links}, they
+	 * have no key in the selector.
+	 */
+	private final Set<VRConnection> polled = Collections.newSetFromMap(new ConcurrentHashMap<VRConnection, Boolean>());
+
+	/**
+	 * Creates the engine and binds the server channel of the transport.
+	 *
+	 * @param transport      The transport to accept VR clients on, never
+	 *                       <code>null</code>.
+	 * @param handler        The handler of the requests, never <code>null</code>.
+	 * @param bulkDispatcher The dispatcher of the {@link Lane#BULK bulk lane},
+	 *                       never <code>null</code>.
+	 * @param poseDispatcher The dispatcher of the {@link Lane#POSE pose lane},
+	 *                       never <code>null</code>.
+	 * @throws IOException If the address is already in use or the selector could
+	 *                     not be opened.
+	 */
+	public VRConnectionEngine(VRTransport transport, VRRequestHandler handler, VRDispatcher bulkDispatcher, VRDispatcher poseDispatcher) throws IOException {
+		this.transport = transport;
+		this.handler = handler;
+		this.bulkDispatcher = bulkDispatcher;
+		this.poseDispatcher = poseDispatcher;
+		this.serverChannel = transport.bind();
+		try {
+			this.selector = Selector.open();
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			serverChannel.close();
+			transport.unbind();
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits for activity of any connection and processes it.
+	 *
+	 * @param timeoutMillis The maximum time to wait in miliseconds, must be
+	 *                      positive.
+	 * @throws IOException If the selector is broken.
+	 */
+	public void cycle(long timeoutMillis) throws IOException {
+		VRConnection woken;
+		while ((woken = wakeups.poll()) != null) {
+			if (woken.isClosed()) {
+				continue;
+			}
+			try {
+				if (woken.isPolled()) {
+					woken.read();
+				} else {
+					woken.process();
+				}
+				woken.updateInterest();
+			} catch (Exception e) {
+				woken.close();
+				handler.handle(e);
+			}
+		}
+		if (selector.select(timeoutMillis) == 0) {
+			return;
+		}
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			keys.remove();
+			if (!key.isValid()) {
+				continue;
+			}
+			if (key.isAcceptable()) {
+				accept();
+				continue;
+			}
+			if (key.attachment() instanceof DatagramReceiver) {
+				try {
+					((DatagramReceiver) key.attachment()).receive();
+				} catch (IOException e) {
+					key.cancel();
+					handler.handle(e);
+				}
+				continue;
+			}
+			VRConnection connection = (VRConnection) key.attachment();
+			try {
+				if (key.isReadable()) {
+					connection.read();
+				}
+				if (key.isValid() && key.isWritable()) {
+					connection.write();
+				}
+				connection.updateInterest();
+			} catch (Exception e) {
+				connection.close();
+				handler.handle(e);
+			}
+		}
+	}
+
+	private void accept() {
+		try {
+			SocketChannel channel = serverChannel.accept();
+			if (channel == null) {
+				return;
+			}
+			channel.configureBlocking(false);
+			transport.configure(channel);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			key.attach(new VRConnection(channel, channel.getRemoteAddress(), key, this, handler));
+		} catch (IOException e) {
+			handler.handle(e);
+		}
+	}
+
+	/**
+	 * Returns the transport VR clients are accepted on.
+	 *
+	 * @return The transport, never <code>null</code>.
+	 */
+	public VRTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Returns the address the server channel is bound to.
+	 *
+	 * @return The local address, never <code>null</code>.
+	 * @throws IOException If the server channel is closed.
+	 */
+	public SocketAddress getLocalAddress() throws IOException {
+		return serverChannel.getLocalAddress();
+	}
+
+	/**
+	 * Returns the socket of the server channel.
+	 *
+	 * @return The socket or <code>null</code> if the transport has no sockets,
+	 *         like a Unix domain socket.
+	 */
+	public ServerSocket getServerSocket() {
+		try {
+			return serverChannel.socket();
+		} catch (UnsupportedOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns wherever new connections are accepted.
+	 *
+	 * @return <code>true</code> until {@link #stopAccepting()} or
+	 *         {@link #close()}, <code>false</code> afterwards.
+	 */
+	public boolean isAccepting() {
+		return serverChannel.isOpen();
+	}
+
+	/**
+	 * Receives the datagrams of a bound channel. Every datagram is given to the
+	 * handler by the dispatcher of the {@link Lane#POSE pose lane}. The channel
+	 * is closed by {@link #stopAccepting()}.
+	 *
+	 * @param channel         The bound channel, never <code>null</code>.
+	 * @param datagramHandler The handler of the datagrams, never
+	 *                        <code>null</code>.
+	 * @throws IOException If the channel could not be registered.
+	 */
+	public void addDatagramChannel(DatagramChannel channel, VRDatagramHandler datagramHandler) throws IOException {
+		channel.configureBlocking(false);
+		channel.register(selector, SelectionKey.OP_READ, new DatagramReceiver(channel, datagramHandler, this));
+	}
+
+	/**
+	 * Serves the client of a shared memory link. The link is watched by its own
+	 * daemon thread.
+	 *
+	 * @param link  The link created by the server, never <code>null</code>.
+	 * @param group The group of the thread, <code>null</code> if no threadgroup
+	 *              should be used.
+	 */
+	public void addSharedMemoryLink(SharedMemoryLink link, ThreadGroup group) {
+		VRConnection connection = new VRConnection(link, link.getAddress(), null, this, handler);
+		polled.add(connection);
+		Thread poller = new Thread(group, new SharedMemoryPoller(link, connection, this), "VR-Server " + link);
+		poller.setDaemon(true);
+		poller.start();
+	}
+
+	/**
+	 * Forgets a closed connection of a shared memory link.
+	 *
+	 * @param connection The connection, never <code>null</code>.
+	 */
+	void removePolled(VRConnection connection) {
+		polled.remove(connection);
+	}
+
+	/**
+	 * Returns the dispatcher executing the requests of a lane.
+	 *
+	 * @param lane The lane, never <code>null</code>.
+	 * @return The dispatcher, never <code>null</code>.
+	 */
+	public VRDispatcher getDispatcher(Lane lane) {
+		return lane == Lane.POSE ? poseDispatcher : bulkDispatcher;
+	}
+
+	/**
+	 * Asks the selector thread to continue with a connection whose step has been
+	 * finished.
+	 *
+	 * @param connection The connection, never <code>null</code>.
+	 */
+	void wakeup(VRConnection connection) {
+		wakeups.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Reports an exception that occurred outside of a connection.
+	 *
+	 * @param e The exception, never <code>null</code>.
+	 */
+	void handle(Throwable e) {
+		handler.handle(e);
+	}
+
+	/**
+	 * Stops accepting new connections and datagrams. Connections that are
+	 * already accepted are processed until the VR client closes them.
+	 *
+	 * @throws IOException If a channel could not be closed.
+	 */
+	public void stopAccepting() throws IOException {
+		serverChannel.close();
+		transport.unbind();
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof DatagramReceiver) {
+				((DatagramReceiver) key.attachment()).close();
+			}
+		}
+	}
+
+	/**
+	 * Closes every persistent connection that is idle. Used while stopping, a
+	 * persistent connection would otherwise never end.
+	 */
+	public void closeIdleConnections() {
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof VRConnection) {
+				VRConnection connection = (VRConnection) key.attachment();
+				if (connection.isIdle()) {
+					connection.close();
+				}
+			}
+		}
+		for (VRConnection connection : polled) {
+			if (connection.isIdle()) {
+				connection.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns wherever any accepted connection is not yet closed.
+	 *
+	 * @return <code>true</code> if connections are open, <code>false</code>
+	 *         otherwise.
+	 */
+	public boolean hasOpenConnections() {
+		for (SelectionKey key : selector.keys()) {
+			if (key.isValid() && key.attachment() instanceof VRConnection) {
+				return true;
+			}
+		}
+		for (VRConnection connection : polled) {
+			if (!connection.isClosed()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Closes the server channel, every open connection, the selector and the
+	 * dispatchers. Closing a closed engine has no effect.
+	 */
+	public void close() throws IOException {
+		if (!selector.isOpen()) {
+			return;
+		}
+		bulkDispatcher.shutdown();
+		poseDispatcher.shutdown();
+		serverChannel.close();
+		transport.unbind();
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof VRConnection) {
+				((VRConnection) key.attachment()).close();
+			} else if (key.attachment() instanceof DatagramReceiver) {
+				((DatagramReceiver) key.attachment()).close();
+			}
+		}
+		for (VRConnection connection : polled) {
+			connection.close();
+		}
+		selector.close();
+	}
+}
@@ -0,0 +1,29 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Handles the datagrams received by the {@link VRConnectionEngine}.
+ */
+public interface VRDatagramHandler {
+
+	/**
+	 * Handles one datagram. Called by the dispatcher of the
+	 * {@link de.e_nexus.vr.server.dispatch.Lane#POSE pose lane}, one datagram at a
+	 * time in the order they have been received.
+	 *
+	 * @param sender   The address of the sender, never <code>null</code>.
+	 * @param datagram The content of the datagram in little-endian order, never
+	 *                 <code>null</code>.
+	 * @throws IOException If the datagram is malformed.
+	 */
+	void handleDatagram(InetSocketAddress sender, ByteBuffer datagram) throws IOException;
+}
@@ -0,0 +1,28 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Continues a conversation with the VR client after the client answered.
+ * 
+ * @see VRConnection#expectReply(int, VRReplyHandler)
+ */
+public interface VRReplyHandler {
+
+	/**
+	 * Handles the answer of the VR client.
+	 * 
+	 * @param in  The answer, exactly the number of bytes that have been expected,
+	 *            in little-endian order.
+	 * @param out The response to the VR client.
+	 * @throws IOException If the answer is malformed.
+	 */
+	void handleReply(ByteBuffer in, OutboundStream out) throws IOException;
+}
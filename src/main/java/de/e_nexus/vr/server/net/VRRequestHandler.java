@@ -0,0 +1,38 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import de.e_nexus.vr.server.codes.Client2ServerCode;
+
+/**
+ * Handles complete requests of the VR client.
+ */
+public interface VRRequestHandler {
+
+	/**
+	 * Handles one request. The request is completely available.
+	 * 
+	 * @param connection The connection the request came from, never
+	 *                   <code>null</code>.
+	 * @param code       The opcode of the request, never <code>null</code>.
+	 * @param in         The payload of the request without the opcode in
+	 *                   little-endian order.
+	 * @param out        The response to the VR client.
+	 * @throws IOException If the request is malformed.
+	 */
+	void handleRequest(VRConnection connection, Client2ServerCode code, ByteBuffer in, OutboundStream out) throws IOException;
+
+	/**
+	 * Handles a problem with a connection. The connection is already closed.
+	 * 
+	 * @param e The problem, never <code>null</code>.
+	 */
+	void handle(Throwable e);
+}
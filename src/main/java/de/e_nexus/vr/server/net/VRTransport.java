@@ -0,0 +1,53 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The kind of socket the {@link VRConnectionEngine} accepts VR clients on.
+ * 
+ * @see TcpTransport
+ * @see UnixDomainTransport
+ */
+public interface VRTransport {
+
+	/**
+	 * Opens the server channel and binds it.
+	 * 
+	 * @return The bound server channel, never <code>null</code>.
+	 * @throws IOException If the address is already in use.
+	 */
+	ServerSocketChannel bind() throws IOException;
+
+	/**
+	 * Configures an accepted connection before it is registered with the
+	 * selector.
+	 * 
+	 * @param channel The accepted channel, never <code>null</code>.
+	 * @throws IOException If an option could not be set.
+	 */
+	void configure(SocketChannel channel) throws IOException;
+
+	/**
+	 * Opens a blocking client connection to the bound server channel, used by
+	 * clients running in the same JVM like benchmarks.
+	 * 
+	 * @return The connected channel, never <code>null</code>.
+	 * @throws IOException If the server could not be reached.
+	 */
+	SocketChannel connect() throws IOException;
+
+	/**
+	 * Releases the address after the server channel has been closed.
+	 * 
+	 * @throws IOException If the address could not be released.
+	 */
+	void unbind() throws IOException;
+}
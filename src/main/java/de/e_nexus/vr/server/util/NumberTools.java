@@ -8,8 +8,6 @@ package de.e_nexus.vr.server.util;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.logging.Logger;
 
 public class NumberTools {
@@ -26,29 +24,33 @@ public class NumberTools {
 	}
 
 	public static byte[] toByteArrayLittleEndian(float value) {
-		ByteBuffer allocate = ByteBuffer.allocate(4);
-		byte[] array = allocate.putFloat(value).order(ByteOrder.BIG_ENDIAN).array();
-		return new byte[] { array[3], array[2], array[1], array[0] };
+		return toByteArrayLittleEndian(Float.floatToRawIntBits(value));
 	}
 
+	/**
+	 * Reads four bytes in little-endian order. Prefer decoding from a
+	 * {@link java.nio.ByteBuffer} using
+	 * {@link de.e_nexus.vr.server.net.RequestDecoder}.
+	 * 
+	 * @param is The stream.
+	 * @return The int value.
+	 * @throws IOException If the stream fails.
+	 */
 	public static int readByteArrayBigEndian(InputStream is) throws IOException {
-		byte[] array = { (byte) is.read(), (byte) is.read(), (byte) is.read(), (byte) is.read() };
-		ByteBuffer allocate = ByteBuffer.allocate(4);
-		allocate.order(ByteOrder.LITTLE_ENDIAN);
-		allocate.put(array);
-		return allocate.getInt(0);
+		return (is.read() & 0xFF) | (is.read() & 0xFF) << 8 | (is.read() & 0xFF) << 16 | (is.read() & 0xFF) << 24;
 	}
 
+	/**
+	 * Reads four bytes in little-endian order. Prefer decoding from a
+	 * {@link java.nio.ByteBuffer} using
+	 * {@link de.e_nexus.vr.server.net.RequestDecoder}.
+	 * 
+	 * @param is The stream.
+	 * @return The float value.
+	 * @throws IOException If the stream fails.
+	 */
 	public static float readByteArrayBigEndianFloat(InputStream is) throws IOException {
-		byte[] array = { (byte) is.read(), (byte) is.read(), (byte) is.read(), (byte) is.read() };
-		return getByxteArrayBigEndianFloat(array);
-	}
-
-	private static float getByxteArrayBigEndianFloat(byte[] array) {
-		ByteBuffer allocate = ByteBuffer.allocate(4);
-		allocate.order(ByteOrder.LITTLE_ENDIAN);
-		allocate.put(array);
-		return allocate.getFloat(0);
+		return Float.intBitsToFloat(readByteArrayBigEndian(is));
 	}
 
 	public static void printbytes(byte[] fd) {
@@ -0,0 +1,55 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Ordered access to the indexes of a {@link RingBuffer} shared with another
+ * process, using a {@link VarHandle}.
+ */
+final class SharedMemoryAccess {
+
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private SharedMemoryAccess() {
+	}
+
+	/**
+	 * Returns wherever the JDK supports ordered access to shared memory.
+	 * 
+	 * @return <code>true</code>.
+	 */
+	static boolean isAvailable() {
+		return true;
+	}
+
+	/**
+	 * Reads a long, later reads are not reordered before it.
+	 * 
+	 * @param buffer The mapped buffer.
+	 * @param index  The index of the long, aligned to 8 bytes.
+	 * @return The value.
+	 */
+	static long getAcquire(ByteBuffer buffer, int index) {
+		return (long) LONGS.getAcquire(buffer, index);
+	}
+
+	/**
+	 * Writes a long, earlier writes are not reordered after it.
+	 * 
+	 * @param buffer The mapped buffer.
+	 * @param index  The index of the long, aligned to 8 bytes.
+	 * @param value  The value.
+	 */
+	static void setRelease(ByteBuffer buffer, int index, long value) {
+		LONGS.setRelease(buffer, index, value);
+	}
+}
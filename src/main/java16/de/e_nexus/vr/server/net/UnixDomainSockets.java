@@ -0,0 +1,61 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Access to Unix domain socket channels of JDK 16 and newer.
+ */
+final class UnixDomainSockets {
+
+	private UnixDomainSockets() {
+	}
+
+	/**
+	 * Returns wherever the JDK supports Unix domain socket channels.
+	 * 
+	 * @return <code>true</code>.
+	 */
+	static boolean isAvailable() {
+		return true;
+	}
+
+	/**
+	 * Opens a server channel bound to a socket file.
+	 * 
+	 * @param path The path of the socket file.
+	 * @return The bound channel, never <code>null</code>.
+	 * @throws IOException If the file could not be created.
+	 */
+	static ServerSocketChannel bind(Path path) throws IOException {
+		ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			channel.bind(UnixDomainSocketAddress.of(path));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return channel;
+	}
+
+	/**
+	 * Connects to a socket file.
+	 * 
+	 * @param path The path of the socket file.
+	 * @return The connected channel, never <code>null</code>.
+	 * @throws IOException If nobody listens to the file.
+	 */
+	static SocketChannel connect(Path path) throws IOException {
+		return SocketChannel.open(UnixDomainSocketAddress.of(path));
+	}
+}
@@ -0,0 +1,28 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.dispatch;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads of JDK 21 and newer.
+ */
+final class VirtualThreads {
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Creates a factory of virtual threads.
+	 * 
+	 * @param name The prefix of the names of the threads.
+	 * @return The factory, never <code>null</code>.
+	 */
+	static ThreadFactory factory(String name) {
+		return Thread.ofVirtual().name(name + " ", 1).factory();
+	}
+}
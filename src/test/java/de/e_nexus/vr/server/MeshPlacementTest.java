@@ -0,0 +1,258 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.e_nexus.vr.server.codes.Client2ServerCode;
+import de.e_nexus.vr.server.listeners.VRClientRequestAppInfo;
+import de.e_nexus.vr.server.mesh.Mesh;
+import de.e_nexus.vr.server.mesh.MeshInstance;
+import de.e_nexus.vr.server.mesh.Transform;
+import de.e_nexus.vr.server.mesh.UVVector;
+import de.e_nexus.vr.server.mesh.Vector;
+import de.e_nexus.vr.server.mesh.tex.MeshTextureInfoInputStream;
+
+/**
+ * Tests the requests a VR client polls to place the meshes it already has.
+ */
+public class MeshPlacementTest {
+
+	private VRServer server;
+
+	private final Mesh<UVVector> cube = new Mesh<UVVector>();
+
+	private final Mesh<UVVector> box = new Mesh<UVVector>();
+
+	private String session;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new VRServer(0, null);
+		server.getListeners().addInfoListener(new VRClientRequestAppInfo() {
+			public String getLatin1Title() {
+				return "Placement";
+			}
+		});
+		cube.addCube(0, 0, 0, 1, 1);
+		box.addCube(0, 0, 0, 2, 1);
+		server.start();
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+		try {
+			socket.getOutputStream().write(Client2ServerCode.CREATE_SESSION.ordinal());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			readString(in);
+			session = readString(in);
+		} finally {
+			socket.close();
+		}
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		server.close();
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] string = new byte[in.read()];
+		in.readFully(string);
+		return new String(string, "latin1");
+	}
+
+	private static int readInt(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[4];
+		in.readFully(bytes);
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+	}
+
+	private static float[] readTransform(DataInputStream in) throws IOException {
+		float[] transform = new float[Transform.ENCODED_LENGTH / 4];
+		for (int i = 0; i < transform.length; i++) {
+			transform[i] = Float.intBitsToFloat(readInt(in));
+		}
+		return transform;
+	}
+
+	private static void assertTransform(Transform expected, float[] actual) {
+		float[] components = { expected.getX(), expected.getY(), expected.getZ(), expected.getRotationX(), expected.getRotationY(), expected.getRotationZ(), expected.getRotationW(), expected.getScale() };
+		for (int i = 0; i < components.length; i++) {
+			assertEquals(components[i], actual[i], 0f);
+		}
+	}
+
+	/**
+	 * Opens a request of the session.
+	 */
+	private Socket request(Client2ServerCode code) throws IOException {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+		socket.setSoTimeout(10000);
+		OutputStream out = socket.getOutputStream();
+		out.write(code.ordinal());
+		out.write(session.length());
+		out.write(session.getBytes("latin1"));
+		return socket;
+	}
+
+	/**
+	 * Downloads the meshes the client does not have yet, the client gives them
+	 * the ids from <code>firstId</code> on.
+	 * 
+	 * @return The number of meshes downloaded.
+	 */
+	private int downloadMeshes(int firstId) throws IOException {
+		Socket socket = request(Client2ServerCode.GET_INCOMING_MESH);
+		try {
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			int count = in.read();
+			for (int m = 0; m < count; m++) {
+				in.readFully(new byte[Integer.parseInt(readString(in))]);
+				assertEquals(-1, in.readByte());
+				ByteBuffer reply = ByteBuffer.allocate(MeshTextureInfoInputStream.REPLY_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+				reply.putInt(firstId + m);
+				while (reply.hasRemaining()) {
+					reply.putInt(-1);
+				}
+				out.write(reply.array());
+				out.flush();
+			}
+			return count;
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void movedMeshesAreSentOnce() throws IOException {
+		server.addMesh(cube);
+		server.addMesh(box);
+		assertEquals(2, downloadMeshes(70));
+		Transform turned = Transform.rotated(0, 0, 0, new Vector(0, 1, 0), Math.PI / 2);
+		Transform moved = Transform.moved(5, 0, 0);
+		server.transformMesh(cube, turned);
+		server.transformMesh(cube, moved);
+
+		Socket socket = request(Client2ServerCode.GET_MESH_TRANSFORMS);
+		try {
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			assertEquals(1, in.read());
+			assertEquals(70, readInt(in));
+			assertTransform(moved, readTransform(in));
+		} finally {
+			socket.close();
+		}
+		socket = request(Client2ServerCode.GET_MESH_TRANSFORMS);
+		try {
+			assertEquals(0, socket.getInputStream().read());
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void transformOfANewMeshFollowsTheMesh() throws IOException {
+		Transform moved = Transform.moved(1, 2, 3);
+		server.addMesh(cube);
+		server.transformMesh(cube, moved);
+		Socket socket = request(Client2ServerCode.GET_MESH_TRANSFORMS);
+		try {
+			assertEquals(0, socket.getInputStream().read());
+		} finally {
+			socket.close();
+		}
+		assertEquals(1, downloadMeshes(80));
+		socket = request(Client2ServerCode.GET_MESH_TRANSFORMS);
+		try {
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			assertEquals(1, in.read());
+			assertEquals(80, readInt(in));
+			assertTransform(moved, readTransform(in));
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void instancesAreSentOnceTheClientHasTheMesh() throws IOException {
+		server.addMesh(cube);
+		MeshInstance first = server.addInstance(cube, Transform.moved(1, 0, 0));
+		MeshInstance second = server.addInstance(cube, Transform.moved(2, 0, 0));
+		Socket socket = request(Client2ServerCode.GET_INSTANCE_CHANGES);
+		try {
+			assertEquals(0, socket.getInputStream().read());
+		} finally {
+			socket.close();
+		}
+		assertEquals(1, downloadMeshes(90));
+		socket = request(Client2ServerCode.GET_INSTANCE_CHANGES);
+		try {
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			assertEquals(2, in.read());
+			assertEquals(first.getId(), readInt(in));
+			assertEquals(90, readInt(in));
+			assertTransform(first.getTransform(), readTransform(in));
+			assertEquals(second.getId(), readInt(in));
+			assertEquals(90, readInt(in));
+			assertTransform(second.getTransform(), readTransform(in));
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void removedInstancesPrecedeMovedOnes() throws IOException {
+		server.addMesh(cube);
+		MeshInstance first = server.addInstance(cube, Transform.moved(1, 0, 0));
+		MeshInstance second = server.addInstance(cube, Transform.moved(2, 0, 0));
+		assertEquals(1, downloadMeshes(90));
+		Socket socket = request(Client2ServerCode.GET_INSTANCE_CHANGES);
+		try {
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			assertEquals(2, in.read());
+			in.readFully(new byte[2 * (8 + Transform.ENCODED_LENGTH)]);
+		} finally {
+			socket.close();
+		}
+		Transform moved = Transform.moved(9, 9, 9);
+		server.transformInstance(first, moved);
+		server.removeInstance(second);
+		socket = request(Client2ServerCode.GET_INSTANCE_CHANGES);
+		try {
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			assertEquals(2, in.read());
+			assertEquals(second.getId(), readInt(in));
+			assertEquals(-1, readInt(in));
+			assertEquals(first.getId(), readInt(in));
+			assertEquals(90, readInt(in));
+			assertTransform(moved, readTransform(in));
+		} finally {
+			socket.close();
+		}
+		server.removeMesh(cube);
+		socket = request(Client2ServerCode.GET_INSTANCE_CHANGES);
+		try {
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			assertEquals(1, in.read());
+			assertEquals(first.getId(), readInt(in));
+			assertEquals(-1, readInt(in));
+		} finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.e_nexus.vr.server.codes.Client2ServerCode;
+import de.e_nexus.vr.server.codes.SessionCapability;
+import de.e_nexus.vr.server.listeners.VRClientRequestAppInfo;
+import de.e_nexus.vr.server.listeners.interaction.HelmetAndControllerInfo;
+import de.e_nexus.vr.server.net.RequestDecoder;
+
+/**
+ * Tests which {@link SessionCapability#DATAGRAM_POSE pose datagrams} the
+ * {@link VRServer} accepts.
+ */
+public class PoseDatagramTest {
+
+	private final AtomicInteger poses = new AtomicInteger();
+
+	private VRServer server;
+
+	private DatagramSocket datagrams;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new VRServer(0, null);
+		server.getListeners().addInfoListener(new VRClientRequestAppInfo() {
+			public String getLatin1Title() {
+				return "Poses";
+			}
+		});
+		server.getListeners().addInteractionListener(new VRClientHelmetAndControllerListener() {
+			public void notify(HelmetAndControllerInfo haci) {
+				poses.incrementAndGet();
+			}
+		});
+		server.start();
+		datagrams = new DatagramSocket();
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		datagrams.close();
+		server.close();
+	}
+
+	/**
+	 * Creates a persistent session and returns its id.
+	 */
+	private UUID createSession(Socket socket, SessionCapability... capabilities) throws IOException {
+		ByteBuffer request = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN);
+		request.put((byte) Client2ServerCode.CREATE_PERSISTENT_SESSION.ordinal());
+		int requested = 0;
+		for (SessionCapability capability : capabilities) {
+			requested |= capability.bit();
+		}
+		request.putInt(requested);
+		socket.getOutputStream().write(request.array());
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		readString(in);
+		UUID uuid = UUID.fromString(readString(in));
+		byte[] accepted = new byte[4];
+		in.readFully(accepted);
+		Assume.assumeTrue("UDP port not available", ByteBuffer.wrap(accepted).order(ByteOrder.LITTLE_ENDIAN).getInt() == requested);
+		return uuid;
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] string = new byte[in.read()];
+		in.readFully(string);
+		return new String(string, "latin1");
+	}
+
+	private void send(UUID uuid, int sequence) throws IOException {
+		ByteBuffer datagram = ByteBuffer.allocate(16 + 4 + RequestDecoder.HELMET_AND_CONTROLLER_INFO_LENGTH);
+		datagram.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+		datagram.order(ByteOrder.LITTLE_ENDIAN).putInt(sequence);
+		byte[] bytes = datagram.array();
+		datagrams.send(new DatagramPacket(bytes, bytes.length, new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort())));
+	}
+
+	/**
+	 * Waits until the server handled the datagrams sent so far.
+	 */
+	private void awaitHandled(int handled) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (poses.get() + server.getDroppedDatagrams() < handled && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void datagramsOfSessionsWithoutTheCapabilityAreDropped() throws Exception {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+		try {
+			UUID uuid = createSession(socket, SessionCapability.IMPLICIT_SESSION);
+			send(uuid, 1);
+			send(uuid, 2);
+			awaitHandled(2);
+			assertEquals(0, poses.get());
+			assertEquals(2, server.getDroppedDatagrams());
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void onlyNewerDatagramsOfTheSessionAreAccepted() throws Exception {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+		try {
+			UUID uuid = createSession(socket, SessionCapability.DATAGRAM_POSE);
+			send(uuid, 5);
+			awaitHandled(1);
+			send(uuid, 3);
+			awaitHandled(2);
+			send(UUID.randomUUID(), 6);
+			awaitHandled(3);
+			send(uuid, 6);
+			awaitHandled(4);
+			assertEquals(2, poses.get());
+			assertEquals(2, server.getDroppedDatagrams());
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void malformedDatagramsAreDropped() throws Exception {
+		byte[] bytes = new byte[3];
+		datagrams.send(new DatagramPacket(bytes, bytes.length, new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort())));
+		awaitHandled(1);
+		assertEquals(1, server.getDroppedDatagrams());
+		assertEquals(0, poses.get());
+	}
+}
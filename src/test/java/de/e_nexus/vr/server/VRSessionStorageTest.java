@@ -0,0 +1,221 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.rmi.ConnectIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.e_nexus.vr.server.codes.Client2ServerCode;
+import de.e_nexus.vr.server.codes.SessionCapability;
+import de.e_nexus.vr.server.listeners.VRClientRequestAppInfo;
+import de.e_nexus.vr.server.listeners.VRExceptionListener;
+import de.e_nexus.vr.server.net.RequestDecoder;
+
+/**
+ * Tests that the {@link VRSessionStorage} finds a session by its id, whatever
+ * method changed the sessions, and that a binary id finds the session.
+ */
+public class VRSessionStorageTest {
+
+	private static final InetSocketAddress CLIENT = new InetSocketAddress(InetAddress.getLoopbackAddress(), 1234);
+
+	private final VRSessionStorage storage = new VRSessionStorage();
+
+	private VRSession first;
+
+	private VRSession second;
+
+	private VRSession third;
+
+	@Before
+	public void registerSessions() {
+		first = VRSession.registerNewSession(CLIENT.getAddress(), storage);
+		second = VRSession.registerNewSession(CLIENT.getAddress(), storage);
+		third = VRSession.registerNewSession(CLIENT.getAddress(), new VRSessionStorage());
+	}
+
+	private VRSession find(VRSession session) {
+		return storage.getByIpAndSession(session.getUuid(), CLIENT);
+	}
+
+	@Test
+	public void sessionIsFoundByIdAndAddress() throws IOException {
+		assertSame(first, find(first));
+		assertSame(second, find(second));
+		assertNull(find(third));
+		assertNull(storage.getByIpAndSession(first.getUuid(), new InetSocketAddress(InetAddress.getByName("192.0.2.1"), 1234)));
+	}
+
+	@Test
+	public void addingMethodsIndexTheSession() {
+		storage.addElement(third);
+		assertSame(third, find(third));
+		storage.clear();
+		storage.add(0, third);
+		assertSame(third, find(third));
+		storage.clear();
+		storage.insertElementAt(third, 0);
+		assertSame(third, find(third));
+		storage.clear();
+		storage.addAll(Arrays.asList(first, third));
+		assertSame(third, find(third));
+		storage.clear();
+		storage.addAll(0, Arrays.asList(first, third));
+		assertSame(third, find(third));
+		storage.subList(0, 1).add(second);
+		assertSame(second, find(second));
+	}
+
+	@Test
+	public void replacingMethodsForgetTheReplacedSession() {
+		storage.set(0, third);
+		assertSame(third, find(third));
+		assertNull(find(first));
+		storage.setElementAt(first, 0);
+		assertSame(first, find(first));
+		assertNull(find(third));
+		ListIterator<VRSession> sessions = storage.listIterator();
+		sessions.next();
+		sessions.set(third);
+		assertSame(third, find(third));
+		assertNull(find(first));
+	}
+
+	@Test
+	public void removingMethodsForgetTheSession() {
+		storage.removeElement(first);
+		assertNull(find(first));
+		storage.removeElementAt(0);
+		assertNull(find(second));
+
+		storage.addAll(Arrays.asList(first, second, third));
+		storage.removeIf(new Predicate<VRSession>() {
+			public boolean test(VRSession session) {
+				return session == second;
+			}
+		});
+		assertNull(find(second));
+		assertSame(first, find(first));
+		storage.removeAll(Arrays.asList(first));
+		assertNull(find(first));
+		storage.retainAll(Arrays.asList(first));
+		assertNull(find(third));
+
+		storage.addAll(Arrays.asList(first, second, third));
+		Iterator<VRSession> sessions = storage.iterator();
+		sessions.next();
+		sessions.remove();
+		assertNull(find(first));
+		storage.subList(0, 1).clear();
+		assertNull(find(second));
+		storage.setSize(0);
+		assertNull(find(third));
+	}
+
+	@Test
+	public void sessionStoredTwiceIsFoundUntilRemovedTwice() {
+		storage.add(first);
+		storage.remove(first);
+		assertSame(first, find(first));
+		storage.remove(first);
+		assertNull(find(first));
+	}
+
+	@Test
+	public void binaryIdIsMostSignificantByteFirst() {
+		UUID uuid = first.getUuid();
+		ByteBuffer id = ByteBuffer.allocate(16);
+		id.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).flip();
+		assertSame(first, storage.getByIpAndSession(RequestDecoder.readBinaryUUID(id.order(ByteOrder.LITTLE_ENDIAN)), CLIENT));
+		id.rewind();
+		assertSame(first, storage.getByIpAndSession(RequestDecoder.readBinaryUUID(id.order(ByteOrder.BIG_ENDIAN)), CLIENT));
+	}
+
+	@Test
+	public void serverFindsTheSessionOfABinaryId() throws Exception {
+		try (VRServer server = new VRServer(0, null)) {
+			server.getListeners().addInfoListener(new VRClientRequestAppInfo() {
+				public String getLatin1Title() {
+					return "Binary";
+				}
+			});
+			final List<Throwable> problems = Collections.synchronizedList(new ArrayList<Throwable>());
+			server.getListeners().addVRExceptionListener(new VRExceptionListener() {
+				public void handle(Throwable e) {
+					problems.add(e);
+				}
+			});
+			server.start();
+			UUID uuid;
+			Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+			try {
+				socket.getOutputStream().write(new byte[] { (byte) Client2ServerCode.CREATE_PERSISTENT_SESSION.ordinal(), (byte) SessionCapability.BINARY_SESSION_ID.bit(), 0, 0, 0 });
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				readString(in);
+				uuid = UUID.fromString(readString(in));
+				assertEquals(SessionCapability.BINARY_SESSION_ID.bit(), Integer.reverseBytes(in.readInt()));
+			} finally {
+				socket.close();
+			}
+			assertEquals(0, removeMeshes(server, uuid));
+			assertEquals(-1, removeMeshes(server, UUID.randomUUID()));
+			long deadline = System.currentTimeMillis() + 10000;
+			while (problems.isEmpty() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, problems.size());
+			assertTrue(problems.get(0) instanceof ConnectIOException);
+		}
+	}
+
+	/**
+	 * Asks for the meshes to remove using the binary id.
+	 * 
+	 * @return The number of meshes or <code>-1</code> if the server closed the
+	 *         connection.
+	 */
+	private static int removeMeshes(VRServer server, UUID uuid) throws IOException {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+		try {
+			ByteBuffer request = ByteBuffer.allocate(18);
+			request.put((byte) Client2ServerCode.GET_REMOVE_MESH.ordinal()).put((byte) 16);
+			request.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+			socket.getOutputStream().write(request.array());
+			return socket.getInputStream().read();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] string = new byte[in.read()];
+		in.readFully(string);
+		return new String(string, "latin1");
+	}
+}
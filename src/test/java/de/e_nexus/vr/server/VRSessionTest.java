@@ -0,0 +1,112 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.e_nexus.vr.server.mesh.Mesh;
+import de.e_nexus.vr.server.mesh.Vector;
+
+/**
+ * Tests how a {@link VRSession} swaps the levels of detail of a mesh: a new
+ * level is sent, the level shown so far is removed once the new level arrived.
+ */
+public class VRSessionTest {
+
+	private final Mesh<Vector> mesh = new Mesh<Vector>();
+	private final Mesh<Vector> half = new Mesh<Vector>();
+	private final Mesh<Vector> quarter = new Mesh<Vector>();
+
+	private VRSession session;
+
+	@Before
+	public void clientHasTheMesh() {
+		session = VRSession.registerNewSession(InetAddress.getLoopbackAddress(), new VRSessionStorage());
+		session.registerMesh(1, mesh);
+	}
+
+	/**
+	 * Takes a level from the meshes to send, like the server does when it sends
+	 * the level.
+	 */
+	private void send(Mesh<?> level) {
+		assertTrue(session.unmarkAddMesh(level));
+	}
+
+	@Test
+	public void shownLevelIsKeptUntilTheNewLevelArrived() {
+		session.showLevel(mesh, half);
+		assertSame(half, session.getShownLevel(mesh));
+		assertTrue(session.getMeshesToSend().contains(half));
+		assertEquals(Collections.emptySet(), session.removeMeshesMarkedForRemoval());
+		assertTrue(session.hasMesh(mesh));
+
+		send(half);
+		session.registerMesh(2, half);
+		assertTrue(session.levelArrived(mesh, half));
+		assertEquals(Collections.singleton(1), session.removeMeshesMarkedForRemoval());
+		assertFalse(session.hasMesh(mesh));
+		assertTrue(session.hasMesh(half));
+	}
+
+	@Test
+	public void levelNotSentYetIsNotSentAnymore() {
+		session.showLevel(mesh, half);
+		session.showLevel(mesh, quarter);
+		assertFalse(session.getMeshesToSend().contains(half));
+		assertTrue(session.getMeshesToSend().contains(quarter));
+
+		session.showLevel(mesh, mesh);
+		assertSame(mesh, session.getShownLevel(mesh));
+		assertTrue(session.getMeshesToSend().isEmpty());
+		assertEquals(Collections.emptySet(), session.removeMeshesMarkedForRemoval());
+		assertTrue(session.hasMesh(mesh));
+	}
+
+	@Test
+	public void levelArrivingTooLateIsRemoved() {
+		session.showLevel(mesh, half);
+		send(half);
+		session.showLevel(mesh, mesh);
+		session.registerMesh(2, half);
+		assertFalse(session.levelArrived(mesh, half));
+		assertEquals(Collections.singleton(2), session.removeMeshesMarkedForRemoval());
+		assertTrue(session.hasMesh(mesh));
+	}
+
+	@Test
+	public void retiredLevelsAreRemovedWithTheShownLevel() {
+		session.showLevel(mesh, half);
+		send(half);
+		session.registerMesh(2, half);
+		session.levelArrived(mesh, half);
+		session.removeMeshesMarkedForRemoval();
+
+		session.showLevel(mesh, quarter);
+		send(quarter);
+		session.showLevel(mesh, mesh);
+		session.registerMesh(3, quarter);
+		assertFalse(session.levelArrived(mesh, quarter));
+		assertEquals(Collections.emptySet(), session.removeMeshesMarkedForRemoval());
+
+		session.registerMesh(4, mesh);
+		assertTrue(session.levelArrived(mesh, mesh));
+		assertEquals(new HashSet<Integer>(Arrays.asList(2, 3)), session.removeMeshesMarkedForRemoval());
+		assertTrue(session.hasMesh(mesh));
+	}
+}
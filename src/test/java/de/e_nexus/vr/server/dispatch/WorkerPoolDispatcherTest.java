@@ -0,0 +1,103 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Tests the pools of the lanes: the priorities of their threads, the number of
+ * handlers running at once and the rejection of tasks by a full queue.
+ */
+public class WorkerPoolDispatcherTest {
+
+	/**
+	 * Returns the priority of the thread executing a task of the dispatcher.
+	 */
+	private static int priority(VRDispatcher dispatcher) throws InterruptedException {
+		final AtomicInteger priority = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(1);
+		assertTrue(dispatcher.dispatch(new Runnable() {
+			public void run() {
+				priority.set(Thread.currentThread().getPriority());
+				done.countDown();
+			}
+		}));
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		dispatcher.shutdown();
+		return priority.get();
+	}
+
+	/**
+	 * Dispatches a task that blocks until the latch is released.
+	 */
+	private static boolean block(VRDispatcher dispatcher, final CountDownLatch started, final CountDownLatch release) {
+		return dispatcher.dispatch(new Runnable() {
+			public void run() {
+				started.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+	}
+
+	@Test
+	public void bulkLaneRunsBelowThePoseLane() throws InterruptedException {
+		assertEquals(Thread.NORM_PRIORITY - 1, priority(WorkerPoolDispatcher.createDefault("Bulk", null)));
+		assertEquals(Thread.MAX_PRIORITY, priority(WorkerPoolDispatcher.createPoseLane("Pose", null)));
+	}
+
+	@Test
+	public void virtualPoolOnlyWithVirtualThreads() {
+		WorkerPoolDispatcher virtual = WorkerPoolDispatcher.createVirtual("Virtual");
+		assertEquals(WorkerPoolDispatcher.isVirtualThreadsAvailable(), virtual != null);
+		if (virtual != null) {
+			virtual.shutdown();
+		}
+	}
+
+	@Test
+	public void virtualPoolIsNotLimitedToTheProcessors() throws InterruptedException {
+		WorkerPoolDispatcher virtual = WorkerPoolDispatcher.createVirtual("Virtual");
+		Assume.assumeTrue(virtual != null);
+		int handlers = Runtime.getRuntime().availableProcessors() * 4;
+		CountDownLatch started = new CountDownLatch(handlers);
+		CountDownLatch release = new CountDownLatch(1);
+		for (int i = 0; i < handlers; i++) {
+			assertTrue(block(virtual, started, release));
+		}
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		release.countDown();
+		virtual.shutdown();
+	}
+
+	@Test
+	public void fullQueueRejects() throws InterruptedException {
+		WorkerPoolDispatcher pool = new WorkerPoolDispatcher(1, 1, WorkerPoolDispatcher.platformThreads("Full", null, Thread.NORM_PRIORITY));
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		assertTrue(block(pool, started, release));
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		assertTrue(block(pool, new CountDownLatch(1), release));
+		assertFalse(block(pool, new CountDownLatch(1), release));
+		assertEquals(2, pool.getMetrics().getDispatched());
+		assertEquals(1, pool.getMetrics().getRejected());
+		release.countDown();
+		pool.shutdown();
+	}
+}
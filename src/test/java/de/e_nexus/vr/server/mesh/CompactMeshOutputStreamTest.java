@@ -0,0 +1,237 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Decodes the output of the {@link CompactMeshOutputStream} the way a VR
+ * client does.
+ */
+public class CompactMeshOutputStreamTest {
+
+	private static final byte FLOAT = 0;
+	private static final byte UINT = 1;
+	private static final byte USHORT = 3;
+	private static final byte OCTAHEDRAL = 4;
+
+	/**
+	 * The normals of the test mesh, the last ones on the lower half of the
+	 * octahedron.
+	 */
+	private static final float[][] NORMALS = { { 0, 0, 1 }, { 1, 0, 0 }, { 0.6f, -0.8f, 0 }, { 0.3f, 0.4f, -0.5f }, { -0.2f, -0.7f, -0.1f }, { 0, 0, -1 } };
+
+	/**
+	 * The header, the attribute descriptors and the buffer of an encoded mesh.
+	 */
+	private static final class Decoded {
+		int vertices;
+		int indices;
+		int attributes;
+		int stride;
+		int vertexOffset;
+		int indexOffset;
+		final float[] min = new float[3];
+		final float[] extent = new float[3];
+		final Map<String, Byte> types = new LinkedHashMap<String, Byte>();
+		final Map<String, Integer> offsets = new LinkedHashMap<String, Integer>();
+		ByteBuffer buffer;
+
+		int vertex(int vertex, String attribute) {
+			return vertexOffset + vertex * stride + offsets.get(attribute);
+		}
+
+		float position(int vertex, int component) {
+			int n = buffer.getShort(vertex(vertex, "position") + component * 2) & 0xFFFF;
+			return min[component] + n / 65535f * extent[component];
+		}
+
+		int index(int index) {
+			if (types.get("index") == USHORT) {
+				return buffer.getShort(indexOffset + index * 2) & 0xFFFF;
+			}
+			return buffer.getInt(indexOffset + index * 4);
+		}
+	}
+
+	private static <T extends Vector> Decoded encode(Mesh<T> mesh) throws IOException {
+		int size = CompactMeshOutputStream.encodedSize(mesh);
+		ByteBuffer target = ByteBuffer.allocate(size);
+		CompactMeshOutputStream<T> out = new CompactMeshOutputStream<T>(target);
+		out.writeMesh(mesh);
+		out.close();
+		assertEquals(size, target.position());
+		target.flip();
+		Decoded decoded = new Decoded();
+		ByteBuffer in = target.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		decoded.buffer = in.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		decoded.vertices = in.getInt();
+		decoded.indices = in.getInt();
+		decoded.attributes = in.getInt();
+		decoded.stride = in.getInt();
+		decoded.vertexOffset = in.getInt();
+		decoded.indexOffset = in.getInt();
+		int offset = 0;
+		for (int a = 0; a < decoded.attributes; a++) {
+			byte type = in.get();
+			int components = in.get();
+			in.get();
+			byte[] name = new byte[in.get()];
+			in.get(name);
+			String attribute = new String(name, "latin1").trim();
+			decoded.types.put(attribute, type);
+			if (attribute.equals("position")) {
+				for (int c = 0; c < 3; c++) {
+					decoded.min[c] = in.getFloat();
+				}
+				for (int c = 0; c < 3; c++) {
+					decoded.extent[c] = in.getFloat();
+				}
+			}
+			if (!attribute.equals("index")) {
+				decoded.offsets.put(attribute, offset);
+				int bytes = components * (type == FLOAT ? 4 : 2);
+				offset += (bytes + 3) / 4 * 4;
+			}
+		}
+		assertEquals(decoded.vertexOffset, in.position());
+		assertEquals(offset, decoded.stride);
+		assertEquals(decoded.vertexOffset + decoded.vertices * decoded.stride, decoded.indexOffset);
+		int indexSize = decoded.types.get("index") == USHORT ? 2 : 4;
+		assertEquals(decoded.indexOffset + decoded.indices * indexSize, size);
+		return decoded;
+	}
+
+	private static Mesh<UVVector> mesh(float uvScale) {
+		Mesh<UVVector> mesh = new Mesh<UVVector>();
+		for (int i = 0; i < NORMALS.length; i++) {
+			float[] n = NORMALS[i];
+			mesh.addVector(new UVVector(i * 0.5f - 1, i * i * 0.1f, 2 - i, i / 5f * uvScale, 1 - i / 5f, n[0], n[1], n[2]));
+		}
+		mesh.addTriangleCounterClockwise(0, 1, 2);
+		mesh.addTriangleCounterClockwise(3, 4, 5);
+		return mesh;
+	}
+
+	private static Mesh<Vector> points(int vertices) {
+		Mesh<Vector> mesh = new Mesh<Vector>();
+		for (int i = 0; i < vertices; i++) {
+			mesh.addVector(new Vector(i, 0, 0));
+		}
+		mesh.addTriangleCounterClockwise(0, vertices / 2, vertices - 1);
+		return mesh;
+	}
+
+	@Test
+	public void headerPointsToTheVerticesAndIndices() throws IOException {
+		Decoded decoded = encode(mesh(1));
+		assertEquals(NORMALS.length, decoded.vertices);
+		assertEquals(6, decoded.indices);
+		assertEquals(4, decoded.attributes);
+		assertEquals(16, decoded.stride);
+		assertEquals(USHORT, (byte) decoded.types.get("position"));
+		assertEquals(OCTAHEDRAL, (byte) decoded.types.get("normals"));
+		assertEquals(USHORT, (byte) decoded.types.get("index"));
+		for (int i = 0; i < 6; i++) {
+			assertEquals(i, decoded.index(i));
+		}
+	}
+
+	@Test
+	public void positionsAreQuantizedInTheBoundingBox() throws IOException {
+		Decoded decoded = encode(mesh(1));
+		assertEquals(-1f, decoded.min[0], 0f);
+		assertEquals(0f, decoded.min[1], 0f);
+		assertEquals(-3f, decoded.min[2], 0f);
+		assertEquals(2.5f, decoded.extent[0], 1e-6f);
+		assertEquals(2.5f, decoded.extent[1], 1e-6f);
+		assertEquals(5f, decoded.extent[2], 1e-6f);
+		for (int v = 0; v < decoded.vertices; v++) {
+			float[] expected = { v * 0.5f - 1, v * v * 0.1f, 2 - v };
+			for (int c = 0; c < 3; c++) {
+				assertEquals(expected[c], decoded.position(v, c), decoded.extent[c] / 65535f);
+			}
+		}
+	}
+
+	@Test
+	public void normalsAreOctahedralAndFoldTheLowerHalf() throws IOException {
+		Decoded decoded = encode(mesh(1));
+		for (int v = 0; v < decoded.vertices; v++) {
+			int at = decoded.vertex(v, "normals");
+			float ox = decoded.buffer.getShort(at) / 32767f;
+			float oy = decoded.buffer.getShort(at + 2) / 32767f;
+			float z = 1 - Math.abs(ox) - Math.abs(oy);
+			float x = ox;
+			float y = oy;
+			if (z < 0) {
+				x = (1 - Math.abs(oy)) * Math.signum(ox);
+				y = (1 - Math.abs(ox)) * Math.signum(oy);
+			}
+			float length = (float) Math.sqrt(x * x + y * y + z * z);
+			float[] n = NORMALS[v];
+			float expected = (float) Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+			assertEquals(n[0] / expected, x / length, 1e-3f);
+			assertEquals(n[1] / expected, y / length, 1e-3f);
+			assertEquals(n[2] / expected, z / length, 1e-3f);
+		}
+		int down = decoded.vertex(5, "normals");
+		assertEquals(32767, decoded.buffer.getShort(down));
+		assertEquals(32767, decoded.buffer.getShort(down + 2));
+	}
+
+	@Test
+	public void uvInTheUnitSquareAreUnorm() throws IOException {
+		Decoded decoded = encode(mesh(1));
+		assertEquals(USHORT, (byte) decoded.types.get("uv"));
+		for (int v = 0; v < decoded.vertices; v++) {
+			int at = decoded.vertex(v, "uv");
+			assertEquals(v / 5f, (decoded.buffer.getShort(at) & 0xFFFF) / 65535f, 1f / 65535);
+			assertEquals(1 - v / 5f, (decoded.buffer.getShort(at + 2) & 0xFFFF) / 65535f, 1f / 65535);
+		}
+	}
+
+	@Test
+	public void uvOutsideTheUnitSquareAreFloats() throws IOException {
+		Decoded decoded = encode(mesh(3));
+		assertEquals(FLOAT, (byte) decoded.types.get("uv"));
+		assertEquals(20, decoded.stride);
+		for (int v = 0; v < decoded.vertices; v++) {
+			int at = decoded.vertex(v, "uv");
+			assertEquals(v / 5f * 3, decoded.buffer.getFloat(at), 0f);
+			assertEquals(1 - v / 5f, decoded.buffer.getFloat(at + 4), 0f);
+		}
+	}
+
+	@Test
+	public void indicesAreShortUpTo65535Vertices() throws IOException {
+		Decoded decoded = encode(points(65535));
+		assertEquals(USHORT, (byte) decoded.types.get("index"));
+		assertEquals(2, decoded.attributes);
+		assertEquals(8, decoded.stride);
+		assertEquals(0, decoded.index(0));
+		assertEquals(32767, decoded.index(1));
+		assertEquals(65534, decoded.index(2));
+	}
+
+	@Test
+	public void indicesAreIntFrom65536Vertices() throws IOException {
+		Decoded decoded = encode(points(65536));
+		assertEquals(UINT, (byte) decoded.types.get("index"));
+		assertEquals(0, decoded.index(0));
+		assertEquals(32768, decoded.index(1));
+		assertEquals(65535, decoded.index(2));
+	}
+}
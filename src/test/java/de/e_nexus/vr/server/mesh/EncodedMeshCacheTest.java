@@ -0,0 +1,118 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import de.e_nexus.vr.server.net.PayloadCompression;
+
+/**
+ * Tests that the {@link EncodedMeshCache} encodes a mesh once per version and
+ * stays within its bound.
+ */
+public class EncodedMeshCacheTest {
+
+	private static Mesh<Vector> mesh(int vertices) {
+		Mesh<Vector> mesh = new Mesh<Vector>();
+		for (int i = 0; i < vertices; i++) {
+			mesh.addVector(new Vector(i, i * 2, i * 3));
+		}
+		for (int i = 2; i < vertices; i++) {
+			mesh.addTriangleCounterClockwise(i - 2, i - 1, i);
+		}
+		return mesh;
+	}
+
+	@Test
+	public void meshIsEncodedOncePerVersion() throws IOException {
+		EncodedMeshCache cache = new EncodedMeshCache();
+		Mesh<Vector> mesh = mesh(10);
+		EncodedMesh encoded = cache.get(mesh);
+		assertSame(encoded, cache.get(mesh));
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+		assertEquals(encoded.size(), cache.getBytes());
+		assertEquals(EncodedMesh.encode(mesh).getPayload(), encoded.getPayload());
+
+		mesh.addVector(new Vector(1, 1, 1));
+		EncodedMesh changed = cache.get(mesh);
+		assertNotSame(encoded, changed);
+		assertEquals(mesh.getVersion(), changed.getVersion());
+		assertEquals(EncodedMesh.encode(mesh).getPayload(), changed.getPayload());
+		assertEquals(2, cache.getMisses());
+		assertEquals(changed.size(), cache.getBytes());
+	}
+
+	@Test
+	public void encodingsAreKeptApart() throws IOException {
+		EncodedMeshCache cache = new EncodedMeshCache();
+		Mesh<Vector> mesh = mesh(10);
+		PayloadCompression compression = new PayloadCompression();
+		EncodedMesh raw = cache.get(mesh);
+		EncodedMesh compact = cache.get(mesh, true, null);
+		EncodedMesh compressed = cache.get(mesh, compression);
+		assertEquals(EncodedMesh.encode(mesh, true).getPayload(), compact.getPayload());
+		assertEquals(raw.compress(compression).getPayload(), compressed.getPayload());
+		assertSame(raw, cache.get(mesh));
+		assertSame(compact, cache.get(mesh, true, null));
+		assertSame(compressed, cache.get(mesh, compression));
+		assertEquals(raw.size() + compact.size() + compressed.size(), cache.getBytes());
+	}
+
+	@Test
+	public void invalidatedMeshIsEncodedAgain() throws IOException {
+		EncodedMeshCache cache = new EncodedMeshCache();
+		Mesh<Vector> mesh = mesh(10);
+		EncodedMesh encoded = cache.get(mesh);
+		cache.get(mesh, true, null);
+		cache.invalidate(mesh);
+		assertEquals(0, cache.getBytes());
+		assertNotSame(encoded, cache.get(mesh));
+		assertEquals(3, cache.getMisses());
+	}
+
+	@Test
+	public void leastRecentlyUsedIsEvicted() throws IOException {
+		Mesh<Vector> a = mesh(10);
+		Mesh<Vector> b = mesh(10);
+		Mesh<Vector> c = mesh(10);
+		int size = EncodedMesh.encodedSize(a, false);
+		EncodedMeshCache cache = new EncodedMeshCache(size * 2);
+		EncodedMesh encodedA = cache.get(a);
+		EncodedMesh encodedB = cache.get(b);
+		assertSame(encodedA, cache.get(a));
+		cache.get(c);
+		assertEquals(1, cache.getEvictions());
+		assertEquals(size * 2, cache.getBytes());
+		assertSame(encodedA, cache.get(a));
+		assertNotSame(encodedB, cache.get(b));
+
+		cache.setMaxBytes(size);
+		assertEquals(size, cache.getBytes());
+		assertEquals(3, cache.getEvictions());
+	}
+
+	@Test
+	public void payloadLargerThanTheBoundIsNotKept() throws IOException {
+		Mesh<Vector> mesh = mesh(10);
+		EncodedMeshCache cache = new EncodedMeshCache(EncodedMesh.encodedSize(mesh, false) - 1);
+		EncodedMesh encoded = cache.get(mesh);
+		assertEquals(0, cache.getBytes());
+		assertNotSame(encoded, cache.get(mesh));
+		assertEquals(0, cache.getEvictions());
+
+		EncodedMeshCache disabled = new EncodedMeshCache(0);
+		disabled.get(mesh);
+		assertEquals(0, disabled.getBytes());
+	}
+}
@@ -0,0 +1,117 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that an {@link EncodedMesh} keeps its payload outside of the Java heap
+ * and hands it out without copying.
+ */
+public class EncodedMeshTest {
+
+	private Path directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("vrserver");
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		Files.delete(directory);
+	}
+
+	private static Mesh<Vector> mesh(int vertices) {
+		Mesh<Vector> mesh = new Mesh<Vector>();
+		for (int i = 0; i < vertices; i++) {
+			mesh.addVector(new Vector(i, -i, i * 0.5f));
+		}
+		for (int i = 2; i < vertices; i++) {
+			mesh.addTriangleCounterClockwise(i - 2, i - 1, i);
+		}
+		return mesh;
+	}
+
+	/**
+	 * Encodes a mesh the way the server did before the payloads were cached.
+	 */
+	private static byte[] streamed(Mesh<Vector> mesh) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		MeshOutputStream<Vector> out = new MeshOutputStream<Vector>(bytes);
+		out.writeMesh(mesh);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] bytes(ByteBuffer payload) {
+		byte[] bytes = new byte[payload.remaining()];
+		payload.get(bytes);
+		return bytes;
+	}
+
+	private boolean isDirectoryEmpty() throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			return !files.iterator().hasNext();
+		}
+	}
+
+	@Test
+	public void payloadIsDirectAndReadOnly() throws IOException {
+		Mesh<Vector> mesh = mesh(100);
+		EncodedMesh encoded = EncodedMesh.encode(mesh);
+		ByteBuffer payload = encoded.getPayload();
+		assertTrue(payload.isDirect());
+		assertTrue(payload.isReadOnly());
+		assertEquals(EncodedMesh.encodedSize(mesh, false), encoded.size());
+		assertArrayEquals(streamed(mesh), bytes(payload));
+		assertEquals(encoded.size(), encoded.getPayload().remaining());
+	}
+
+	@Test
+	public void mappedPayloadLeavesNoFile() throws IOException {
+		Mesh<Vector> mesh = mesh(100);
+		EncodedMesh encoded = EncodedMesh.encode(mesh, directory);
+		assertTrue(isDirectoryEmpty());
+		assertTrue(encoded.getPayload().isDirect());
+		assertArrayEquals(streamed(mesh), bytes(encoded.getPayload()));
+	}
+
+	@Test
+	public void cacheMapsLargePayloads() throws IOException {
+		Mesh<Vector> mesh = mesh(100000);
+		assertTrue(EncodedMesh.encodedSize(mesh, false) >= EncodedMeshCache.MAPPED_THRESHOLD);
+		EncodedMeshCache cache = new EncodedMeshCache();
+		cache.setDirectory(directory);
+		EncodedMesh encoded = cache.get(mesh);
+		assertTrue(isDirectoryEmpty());
+		assertArrayEquals(streamed(mesh), bytes(encoded.getPayload()));
+	}
+
+	@Test
+	public void payloadIsCopiedToStreams() throws IOException {
+		Mesh<Vector> mesh = mesh(1000);
+		EncodedMesh encoded = EncodedMesh.encode(mesh);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encoded.writeTo(out);
+		assertArrayEquals(streamed(mesh), out.toByteArray());
+		assertEquals(0, encoded.getPayload().position());
+	}
+}
@@ -0,0 +1,83 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the levels the {@link MeshLodBuilder} builds and the level the
+ * {@link MeshLod} chooses by distance.
+ */
+public class MeshLodTest {
+
+	@Test
+	public void builderSimplifiesEveryLevel() {
+		Mesh<UVVector> mesh = MeshSimplifierTest.terrain();
+		int triangles = mesh.getTriangles().size();
+		MeshLod lod = new MeshLodBuilder(mesh).invoke();
+		assertEquals(MeshLod.DEFAULT_RATIOS.length, lod.size());
+		assertSame(mesh, lod.getLevel(0));
+		int previous = triangles;
+		for (int i = 1; i < lod.size(); i++) {
+			int level = lod.getLevel(i).getTriangles().size();
+			assertTrue(i + ": " + level + " of " + previous, level < previous);
+			assertTrue(i + ": " + level, level <= Math.ceil(triangles * MeshLod.DEFAULT_RATIOS[i]));
+			assertEquals(MeshLod.DEFAULT_DISTANCES[i], lod.getDistance(i), 0f);
+			assertEquals(i, lod.indexOf(lod.getLevel(i)));
+			previous = level;
+		}
+		assertEquals(-1, lod.indexOf(new Mesh<UVVector>()));
+	}
+
+	@Test
+	public void levelsAreChosenByDistance() {
+		MeshLod lod = lod();
+		assertEquals(0, lod.level(0));
+		assertEquals(0, lod.level(3.9f));
+		assertEquals(1, lod.level(4));
+		assertEquals(1, lod.level(11.9f));
+		assertEquals(2, lod.level(12));
+		assertEquals(3, lod.level(1000));
+		assertEquals(2, lod.level(20, -1));
+	}
+
+	@Test
+	public void shownLevelIsKeptNearTheBorder() {
+		MeshLod lod = lod();
+		assertEquals(0, lod.level(4.2f, 0));
+		assertEquals(1, lod.level(4.5f, 0));
+		assertEquals(1, lod.level(3.8f, 1));
+		assertEquals(0, lod.level(3.5f, 1));
+		assertEquals(3, lod.level(1000, 0));
+		assertEquals(0, lod.level(0, 3));
+	}
+
+	@Test
+	public void distanceIsMeasuredToTheBoundingSphere() {
+		Mesh<Vector> mesh = new Mesh<Vector>();
+		mesh.addVector(new Vector(-1, 0, 0));
+		mesh.addVector(new Vector(1, 0, 0));
+		mesh.addVector(new Vector(0, 0, 0));
+		mesh.addTriangleCounterClockwise(0, 1, 2);
+		MeshLod lod = new MeshLod(new Mesh<?>[] { mesh }, new float[] { 0 });
+		assertEquals(9, lod.distance(Transform.IDENTITY, 10, 0, 0), 1e-5f);
+		assertEquals(0, lod.distance(Transform.IDENTITY, 0.5f, 0, 0), 0f);
+		assertEquals(4, lod.distance(Transform.moved(5, 0, 0), 10, 0, 0), 1e-5f);
+	}
+
+	private static MeshLod lod() {
+		Mesh<?>[] levels = new Mesh<?>[MeshLod.DEFAULT_DISTANCES.length];
+		for (int i = 0; i < levels.length; i++) {
+			levels[i] = new Mesh<Vector>();
+		}
+		return new MeshLod(levels, MeshLod.DEFAULT_DISTANCES);
+	}
+}
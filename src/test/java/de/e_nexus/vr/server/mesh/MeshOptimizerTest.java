@@ -0,0 +1,194 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that the {@link MeshOptimizer} welds and reorders without changing
+ * the shape of a mesh.
+ */
+public class MeshOptimizerTest {
+
+	/**
+	 * Returns the triangles of a mesh by the attributes of their corners, every
+	 * triangle rotated to start at its least corner, sorted.
+	 */
+	private static List<String> triangles(Mesh<?> mesh) {
+		int[] indices = mesh.getTriangles().toArray();
+		float[] attributes = new float[mesh.vectors.size() * MeshOptimizer.ATTRIBUTES];
+		MeshOptimizer.copyAttributes(mesh, 0, mesh.vectors.size(), attributes);
+		List<String> triangles = new ArrayList<String>();
+		for (int i = 0; i < indices.length; i += 3) {
+			String[] corners = new String[3];
+			for (int c = 0; c < 3; c++) {
+				StringBuilder corner = new StringBuilder();
+				for (int a = 0; a < MeshOptimizer.ATTRIBUTES; a++) {
+					corner.append(attributes[indices[i + c] * MeshOptimizer.ATTRIBUTES + a]).append(' ');
+				}
+				corners[c] = corner.toString();
+			}
+			triangles.add(rotated(corners));
+		}
+		Collections.sort(triangles);
+		return triangles;
+	}
+
+	private static List<String> triangles(int[] indices) {
+		List<String> triangles = new ArrayList<String>();
+		for (int i = 0; i < indices.length; i += 3) {
+			triangles.add(rotated(new String[] { indices[i] + " ", indices[i + 1] + " ", indices[i + 2] + " " }));
+		}
+		Collections.sort(triangles);
+		return triangles;
+	}
+
+	/**
+	 * Joins the corners of a triangle starting at the least corner, keeping the
+	 * winding.
+	 */
+	private static String rotated(String[] corners) {
+		int first = 0;
+		for (int c = 1; c < 3; c++) {
+			if (corners[c].compareTo(corners[first]) < 0) {
+				first = c;
+			}
+		}
+		return corners[first] + "| " + corners[(first + 1) % 3] + "| " + corners[(first + 2) % 3];
+	}
+
+	@Test
+	public void cubeKeepsItsTriangles() {
+		Mesh<UVVector> cube = new Mesh<UVVector>();
+		cube.addCube(0, 0, 0, 1, 1);
+		List<String> before = triangles(cube);
+		MeshOptimizer.Report report = new MeshOptimizer(cube).invoke();
+		assertEquals(24, report.getVerticesBefore());
+		assertEquals(20, report.getVerticesAfter());
+		assertEquals(20, cube.vectors.size());
+		assertEquals(36, report.getIndicesAfter());
+		assertEquals(before, triangles(cube));
+	}
+
+	@Test
+	public void collapsedTrianglesAreDropped() {
+		Mesh<Vector> mesh = new Mesh<Vector>();
+		mesh.addVector(new Vector(0, 0, 0));
+		mesh.addVector(new Vector(0, 0, 0));
+		mesh.addVector(new Vector(1, 0, 0));
+		mesh.addVector(new Vector(0, 1, 0));
+		mesh.addTriangleCounterClockwise(0, 1, 2);
+		mesh.addTriangleCounterClockwise(1, 2, 3);
+		MeshOptimizer.Report report = new MeshOptimizer(mesh).invoke();
+		assertEquals(3, report.getVerticesAfter());
+		assertEquals(6, report.getIndicesBefore());
+		assertEquals(3, report.getIndicesAfter());
+		List<String> expected = new ArrayList<String>();
+		expected.add(rotated(new String[] { "0.0 0.0 0.0 NaN NaN NaN NaN NaN ", "1.0 0.0 0.0 NaN NaN NaN NaN NaN ", "0.0 1.0 0.0 NaN NaN NaN NaN NaN " }));
+		assertEquals(expected, triangles(mesh));
+	}
+
+	@Test
+	public void zeroEpsilonWeldsIdenticalVerticesOnly() {
+		Mesh<Vector> close = strip(0.000001f);
+		new MeshOptimizer(close, 0).invoke();
+		assertEquals(6, close.vectors.size());
+
+		Mesh<Vector> welded = strip(0.000001f);
+		List<String> before = triangles(welded);
+		new MeshOptimizer(welded).invoke();
+		assertEquals(4, welded.vectors.size());
+		assertEquals(before.size(), triangles(welded).size());
+
+		Mesh<Vector> identical = strip(0);
+		before = triangles(identical);
+		new MeshOptimizer(identical, 0).invoke();
+		assertEquals(4, identical.vectors.size());
+		assertEquals(before, triangles(identical));
+	}
+
+	@Test
+	public void verticesAddedAfterWeldingHaveNoNormals() {
+		PackedVertices store = new PackedVertices(false);
+		Mesh<Vector> mesh = new Mesh<Vector>(store);
+		store.add(0, 0, 0, 0, 0, 1);
+		store.add(1, 0, 0, 0, 0, 1);
+		store.add(0, 1, 0, 0, 0, 1);
+		store.add(0, 0, 0, 0, 0, 1);
+		store.add(1, 1, 0, 0, 0, 1);
+		mesh.addTriangleCounterClockwise(0, 1, 2);
+		mesh.addTriangleCounterClockwise(3, 1, 4);
+		new MeshOptimizer(mesh).invoke();
+		assertEquals(4, store.size());
+		assertTrue(store.hasNormals());
+
+		store.add(2, 0, 0);
+		mesh.addVector(new Vector(2, 1, 0));
+		assertEquals(6, mesh.vectors.size());
+		assertSame(Vector.class, mesh.vectors.get(4).getClass());
+		assertSame(Vector.class, mesh.vectors.get(5).getClass());
+		float[] attributes = new float[6 * MeshOptimizer.ATTRIBUTES];
+		MeshOptimizer.copyAttributes(mesh, 4, 6, attributes);
+		for (int v = 4; v < 6; v++) {
+			for (int c = 3; c < 6; c++) {
+				assertTrue(Float.isNaN(attributes[v * MeshOptimizer.ATTRIBUTES + c]));
+			}
+		}
+		assertFalse(store.hasNormals());
+	}
+
+	/**
+	 * Creates two triangles sharing an edge, each having its own vertices. The
+	 * shared vertices of the second triangle are moved by an offset.
+	 */
+	private static Mesh<Vector> strip(float offset) {
+		Mesh<Vector> mesh = new Mesh<Vector>();
+		mesh.addVector(new Vector(0, 0, 0));
+		mesh.addVector(new Vector(1, 0, 0));
+		mesh.addVector(new Vector(0, 1, 0));
+		mesh.addVector(new Vector(1 + offset, 0, 0));
+		mesh.addVector(new Vector(1, 1, 0));
+		mesh.addVector(new Vector(0, 1 + offset, 0));
+		mesh.addTriangleCounterClockwise(0, 1, 2);
+		mesh.addTriangleCounterClockwise(3, 4, 5);
+		return mesh;
+	}
+
+	@Test
+	public void reorderKeepsTheTriangleSet() {
+		Random random = new Random(7);
+		int grid = 128;
+		List<int[]> quads = new ArrayList<int[]>();
+		for (int x = 0; x < grid; x++) {
+			for (int z = 0; z < grid; z++) {
+				int a = x * (grid + 1) + z;
+				quads.add(new int[] { a, a + 1, a + grid + 2, a, a + grid + 2, a + grid + 1 });
+			}
+		}
+		Collections.shuffle(quads, random);
+		int[] indices = new int[quads.size() * 6];
+		for (int q = 0; q < quads.size(); q++) {
+			System.arraycopy(quads.get(q), 0, indices, q * 6, 6);
+		}
+		int vertices = (grid + 1) * (grid + 1);
+		int[] reordered = MeshOptimizer.reorder(indices);
+		assertEquals(triangles(indices), triangles(reordered));
+		float before = MeshOptimizer.cacheMisses(indices, vertices);
+		float after = MeshOptimizer.cacheMisses(reordered, vertices);
+		assertTrue("cache misses " + before + " -> " + after, after < before);
+	}
+}
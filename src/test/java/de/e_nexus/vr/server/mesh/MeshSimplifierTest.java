@@ -0,0 +1,111 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests that the {@link MeshSimplifier} meets the ratio and keeps the seams
+ * and the attributes of the vertices.
+ */
+public class MeshSimplifierTest {
+
+	private static final int GRID = 32;
+
+	/**
+	 * Creates a hilly grid of shared vertices with a seam of the texture
+	 * coordinates in the middle: the vertices of the middle column exist twice,
+	 * once for the left and once for the right half.
+	 */
+	static Mesh<UVVector> terrain() {
+		Random random = new Random(GRID);
+		Mesh<UVVector> mesh = new Mesh<UVVector>();
+		int[][] left = new int[GRID + 1][GRID + 1];
+		int[][] right = new int[GRID + 1][GRID + 1];
+		for (int x = 0; x <= GRID; x++) {
+			for (int z = 0; z <= GRID; z++) {
+				float height = random.nextFloat() * 0.2f;
+				float u = x / (float) GRID;
+				left[x][z] = right[x][z] = mesh.addVector(new UVVector(x, height, z, u, z / (float) GRID, x * 0.01f, 1f, z * 0.01f));
+				if (x == GRID / 2) {
+					right[x][z] = mesh.addVector(new UVVector(x, height, z, 1 - u / 2, z / (float) GRID, x * 0.01f, 1f, z * 0.01f));
+				}
+			}
+		}
+		for (int x = 0; x < GRID; x++) {
+			int[][] side = x < GRID / 2 ? left : right;
+			for (int z = 0; z < GRID; z++) {
+				mesh.addTriangleCounterClockwise(side[x][z], side[x][z + 1], side[x + 1][z + 1]);
+				mesh.addTriangleCounterClockwise(side[x][z], side[x + 1][z + 1], side[x + 1][z]);
+			}
+		}
+		return mesh;
+	}
+
+	/**
+	 * Returns the attributes of every vertex of a mesh.
+	 */
+	private static Set<String> vertices(Mesh<?> mesh) {
+		int vertices = mesh.vectors.size();
+		float[] attributes = new float[vertices * MeshOptimizer.ATTRIBUTES];
+		MeshOptimizer.copyAttributes(mesh, 0, vertices, attributes);
+		Set<String> set = new HashSet<String>();
+		for (int v = 0; v < vertices; v++) {
+			StringBuilder vertex = new StringBuilder();
+			for (int a = 0; a < MeshOptimizer.ATTRIBUTES; a++) {
+				vertex.append(attributes[v * MeshOptimizer.ATTRIBUTES + a]).append(' ');
+			}
+			set.add(vertex.toString());
+		}
+		return set;
+	}
+
+	@Test
+	public void ratiosAreMet() {
+		Mesh<UVVector> mesh = terrain();
+		int triangles = mesh.getTriangles().size();
+		for (float ratio : new float[] { 0.5f, 0.25f }) {
+			int target = (int) Math.ceil(triangles * ratio);
+			int simplified = new MeshSimplifier<UVVector>(mesh, ratio).invoke().getTriangles().size();
+			assertTrue(ratio + ": " + simplified + " of " + triangles, simplified <= target);
+			assertTrue(ratio + ": " + simplified + " of " + triangles, simplified >= target - 4);
+		}
+		assertEquals(triangles, mesh.getTriangles().size());
+		assertEquals(triangles, new MeshSimplifier<UVVector>(mesh, 1).invoke().getTriangles().size());
+	}
+
+	@Test
+	public void verticesKeepTheirNormalsAndTextureCoordinates() {
+		Mesh<UVVector> mesh = terrain();
+		Set<String> original = vertices(mesh);
+		Set<String> simplified = vertices(new MeshSimplifier<UVVector>(mesh, 0.25f).invoke());
+		assertTrue(simplified.size() < original.size());
+		assertTrue(original.containsAll(simplified));
+	}
+
+	@Test
+	public void seamsAreKept() {
+		Mesh<UVVector> mesh = terrain();
+		Mesh<UVVector> simplified = new MeshSimplifier<UVVector>(mesh, 0.25f).invoke();
+		Set<String> vertices = vertices(simplified);
+		int seam = 0;
+		for (String vertex : vertices(mesh)) {
+			if (vertex.startsWith(GRID / 2 + ".0 ")) {
+				assertTrue(vertex, vertices.contains(vertex));
+				seam++;
+			}
+		}
+		assertEquals(2 * (GRID + 1), seam);
+	}
+}
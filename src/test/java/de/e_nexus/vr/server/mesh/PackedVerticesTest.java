@@ -0,0 +1,166 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests that a mesh using {@link PackedVertices} behaves like a mesh of vector
+ * objects.
+ */
+public class PackedVerticesTest {
+
+	private static void assertVector(Vector expected, Vector actual) {
+		assertSame(expected.getClass(), actual.getClass());
+		assertEquals(expected.x, actual.x, 0f);
+		assertEquals(expected.y, actual.y, 0f);
+		assertEquals(expected.z, actual.z, 0f);
+		if (expected instanceof NormalVector) {
+			NormalVector n = (NormalVector) expected;
+			NormalVector m = (NormalVector) actual;
+			assertEquals(n.normalX, m.normalX);
+			assertEquals(n.normalY, m.normalY);
+			assertEquals(n.normalZ, m.normalZ);
+		}
+		if (expected instanceof UVVector) {
+			assertEquals(((UVVector) expected).uvX, ((UVVector) actual).uvX, 0f);
+			assertEquals(((UVVector) expected).uvY, ((UVVector) actual).uvY, 0f);
+		}
+	}
+
+	@Test
+	public void vectorsAreConvertedBothWays() {
+		Mesh<Vector> mesh = new Mesh<Vector>(new PackedVertices(false, 1));
+		Vector plain = new Vector(1, 2, 3);
+		NormalVector normal = new NormalVector(4, 5, 6, 0f, 1f, 0f);
+		NormalVector partial = new NormalVector(7, 8, 9, 1f, null, 0f);
+		assertEquals(0, mesh.addVector(plain));
+		assertEquals(1, mesh.addVector(normal));
+		assertEquals(2, mesh.addVector(partial));
+		assertEquals(3, mesh.vectors.size());
+		assertVector(plain, mesh.vectors.get(0));
+		assertVector(normal, mesh.vectors.get(1));
+		assertVector(new Vector(7, 8, 9), mesh.vectors.get(2));
+		assertFalse(mesh.getPackedVertices().hasNormals());
+	}
+
+	@Test
+	public void uvVectorsKeepTheirAttributes() {
+		Mesh<UVVector> mesh = new Mesh<UVVector>(new PackedVertices(true));
+		UVVector withNormal = new UVVector(1, 2, 3, 0.25f, 0.75f, 0f, 0f, 1f);
+		UVVector withoutNormal = new UVVector(4, 5, 6, 0.5f, 0.5f, null, null, null);
+		mesh.addVector(withNormal);
+		assertTrue(mesh.getPackedVertices().hasNormals());
+		mesh.addVector(withoutNormal);
+		assertFalse(mesh.getPackedVertices().hasNormals());
+		assertVector(withNormal, mesh.vectors.get(0));
+		assertVector(withoutNormal, mesh.vectors.get(1));
+		assertNull(mesh.vectors.get(1).normalX);
+	}
+
+	@Test
+	public void textureCoordinatesMatchTheStore() {
+		PackedVertices uv = new PackedVertices(true);
+		try {
+			uv.add(1, 2, 3);
+			fail("A vertex without texture coordinates was accepted.");
+		} catch (IllegalStateException expected) {
+		}
+		try {
+			uv.add(new NormalVector(1, 2, 3, 0f, 1f, 0f));
+			fail("A vector without texture coordinates was accepted.");
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			new PackedVertices(false).add(1, 2, 3, 0, 1, 0, 0.5f, 0.5f);
+			fail("Texture coordinates were accepted by a store without.");
+		} catch (IllegalStateException expected) {
+		}
+		assertEquals(0, uv.size());
+	}
+
+	@Test
+	public void verticesCanOnlyBeAppended() {
+		Mesh<Vector> mesh = new Mesh<Vector>(new PackedVertices(false));
+		mesh.addVector(new Vector(1, 2, 3));
+		try {
+			mesh.vectors.add(0, new Vector(0, 0, 0));
+			fail("A vertex was inserted.");
+		} catch (UnsupportedOperationException expected) {
+		}
+		try {
+			mesh.vectors.remove(0);
+			fail("A vertex was removed.");
+		} catch (UnsupportedOperationException expected) {
+		}
+		assertEquals(1, mesh.vectors.size());
+	}
+
+	@Test
+	public void addedArraysAreVerticesOfTheMesh() {
+		PackedVertices store = new PackedVertices(false, 0);
+		Mesh<Vector> mesh = new Mesh<Vector>(store);
+		float[] positions = { 9, 9, 9, 1, 2, 3, 4, 5, 6 };
+		float[] normals = { 9, 9, 9, 0, 0, 1, 0, 1, 0 };
+		assertEquals(0, store.addAll(positions, normals, null, 1, 2));
+		assertEquals(2, mesh.vectors.size());
+		assertTrue(store.hasNormals());
+		assertVector(new NormalVector(1, 2, 3, 0f, 0f, 1f), mesh.vectors.get(0));
+		assertVector(new NormalVector(4, 5, 6, 0f, 1f, 0f), mesh.vectors.get(1));
+		assertEquals(2, store.addAll(positions, null, null, 0, 1));
+		assertFalse(store.hasNormals());
+		assertVector(new Vector(9, 9, 9), mesh.vectors.get(2));
+	}
+
+	@Test
+	public void footprintFollowsTheAttributes() {
+		PackedVertices store = new PackedVertices(false, 4);
+		assertEquals(4 * 3 * 4, store.getFootprint());
+		store.add(1, 2, 3);
+		store.trimToSize();
+		assertEquals(3 * 4, store.getFootprint());
+		store.add(1, 2, 3, 0, 1, 0);
+		assertEquals(2, store.size());
+		store.trimToSize();
+		assertEquals(2 * 6 * 4, store.getFootprint());
+		PackedVertices uv = new PackedVertices(true, 0);
+		uv.add(1, 2, 3, 0, 1, 0, 0.5f, 0.5f);
+		uv.trimToSize();
+		assertEquals(8 * 4, uv.getFootprint());
+	}
+
+	@Test
+	public void packedMeshIsEncodedLikeVectorObjects() throws IOException {
+		Mesh<UVVector> objects = new Mesh<UVVector>();
+		Mesh<UVVector> packed = new Mesh<UVVector>(new PackedVertices(true));
+		objects.addCube(1, 2, 3, 1, 2);
+		packed.addCube(1, 2, 3, 1, 2);
+		assertEquals(objects.vectors.size(), packed.vectors.size());
+		for (int i = 0; i < objects.vectors.size(); i++) {
+			assertVector(objects.vectors.get(i), packed.vectors.get(i));
+		}
+		assertEquals(EncodedMesh.encode(objects).getPayload(), EncodedMesh.encode(packed).getPayload());
+	}
+
+	@Test
+	public void changesOfTheStoreChangeTheMesh() {
+		PackedVertices store = new PackedVertices(false);
+		Mesh<Vector> mesh = new Mesh<Vector>(store);
+		int version = mesh.getVersion();
+		store.add(1, 2, 3);
+		assertTrue(version != mesh.getVersion());
+	}
+}
@@ -0,0 +1,96 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+/**
+ * Tests that the {@link Mesh#polygons} of a mesh are a set backed by its
+ * {@link TriangleIndices}.
+ */
+public class TriangleSetViewTest {
+
+	private static Mesh<Vector> mesh() {
+		Mesh<Vector> mesh = new Mesh<Vector>();
+		for (int i = 0; i < 5; i++) {
+			mesh.addVector(new Vector(i, i, i));
+		}
+		mesh.addTriangleCounterClockwise(0, 1, 2);
+		mesh.addTriangleCounterClockwise(2, 3, 4);
+		return mesh;
+	}
+
+	@Test
+	public void addedPolygonsAreAppendedToTheTriangles() {
+		Mesh<Vector> mesh = mesh();
+		int version = mesh.getVersion();
+		assertTrue(mesh.polygons.add(new Triangle(1, 3, 4)));
+		assertEquals(3, mesh.polygons.size());
+		assertArrayEquals(new int[] { 0, 1, 2, 2, 3, 4, 1, 3, 4 }, mesh.getTriangles().toArray());
+		assertTrue(version != mesh.getVersion());
+	}
+
+	@Test
+	public void equalPolygonsAreAddedOnce() {
+		Mesh<Vector> mesh = mesh();
+		assertFalse(mesh.polygons.add(new Triangle(0, 1, 2)));
+		assertTrue(mesh.polygons.add(new Triangle(1, 2, 0)));
+		assertEquals(3, mesh.getTriangles().size());
+		assertTrue(mesh.polygons.contains(new Triangle(2, 3, 4)));
+		assertFalse(mesh.polygons.contains(new Triangle(4, 3, 2)));
+		assertEquals(new HashSet<Triangle>(mesh.polygons), mesh.polygons);
+	}
+
+	@Test
+	public void removedPolygonsAreRemovedFromTheTriangles() {
+		Mesh<Vector> mesh = mesh();
+		mesh.addTriangleCounterClockwise(0, 2, 4);
+		assertTrue(mesh.polygons.remove(new Triangle(2, 3, 4)));
+		assertFalse(mesh.polygons.remove(new Triangle(2, 3, 4)));
+		assertArrayEquals(new int[] { 0, 1, 2, 0, 2, 4 }, mesh.getTriangles().toArray());
+		Iterator<Triangle> iterator = mesh.polygons.iterator();
+		assertEquals(new Triangle(0, 1, 2), iterator.next());
+		iterator.remove();
+		assertEquals(new Triangle(0, 2, 4), iterator.next());
+		assertFalse(iterator.hasNext());
+		assertArrayEquals(new int[] { 0, 2, 4 }, mesh.getTriangles().toArray());
+		mesh.polygons.clear();
+		assertEquals(0, mesh.getTriangles().size());
+	}
+
+	@Test
+	public void iteratorFailsAfterAChange() {
+		Mesh<Vector> mesh = mesh();
+		Iterator<Triangle> iterator = mesh.polygons.iterator();
+		iterator.next();
+		mesh.addTriangleCounterClockwise(0, 2, 4);
+		try {
+			iterator.next();
+			fail("The change was not detected.");
+		} catch (ConcurrentModificationException expected) {
+		}
+	}
+
+	@Test
+	public void polygonsAreIteratedInTheOrderAdded() {
+		Mesh<Vector> mesh = mesh();
+		mesh.polygons.addAll(Arrays.asList(new Triangle(4, 0, 1), new Triangle(3, 1, 0)));
+		Triangle[] expected = { new Triangle(0, 1, 2), new Triangle(2, 3, 4), new Triangle(4, 0, 1), new Triangle(3, 1, 0) };
+		assertArrayEquals(expected, mesh.polygons.toArray());
+	}
+}
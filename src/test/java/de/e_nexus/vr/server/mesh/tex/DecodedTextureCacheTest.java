@@ -0,0 +1,216 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh.tex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests that the {@link DecodedTextureCache} decodes a texture once, counts its
+ * hits and misses and evicts by its {@link DecodedTextureCache.Policy}.
+ */
+public class DecodedTextureCacheTest {
+
+	/**
+	 * A texture of 4x4 pixels, 64 bytes, that counts how often it is decoded.
+	 */
+	private static final class CountingTexture implements Texture, DecodedTextureCache.ImageSource {
+		private final BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB);
+		private final AtomicInteger reads = new AtomicInteger();
+
+		CountingTexture(int rgb) {
+			image.setRGB(0, 0, rgb);
+		}
+
+		public BufferedImage read() {
+			reads.incrementAndGet();
+			return image;
+		}
+
+		public int getWidth() {
+			return 4;
+		}
+
+		public int getHeight() {
+			return 4;
+		}
+
+		public InputStream createDataStream() {
+			return new PixelOutputStream(image);
+		}
+	}
+
+	/**
+	 * Requests a texture and tells if it was found in the cache. A texture that
+	 * was not found is decoded and stored, which may evict another one.
+	 */
+	private static boolean cached(DecodedTextureCache cache, CountingTexture texture) throws IOException {
+		int reads = texture.reads.get();
+		long hits = cache.getHits();
+		cache.get(texture, texture);
+		boolean cached = texture.reads.get() == reads;
+		assertEquals(cached, hits + 1 == cache.getHits());
+		return cached;
+	}
+
+	@Test
+	public void textureIsDecodedOnce() throws IOException {
+		DecodedTextureCache cache = new DecodedTextureCache(1024, DecodedTextureCache.Policy.LRU, false);
+		CountingTexture texture = new CountingTexture(0xFF102030);
+		ByteBuffer first = cache.get(texture, texture);
+		ByteBuffer second = cache.get(texture, texture);
+		assertEquals(1, texture.reads.get());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+		assertEquals(64, cache.getBytes());
+		assertTrue(first.isReadOnly());
+		assertEquals(first, second);
+		assertEquals(0x10, first.get(0));
+		assertEquals((byte) 0xFF, first.get(3));
+	}
+
+	@Test
+	public void leastRecentlyUsedIsEvicted() throws IOException {
+		DecodedTextureCache cache = new DecodedTextureCache(3 * 64, DecodedTextureCache.Policy.LRU, false);
+		CountingTexture a = new CountingTexture(1);
+		CountingTexture b = new CountingTexture(2);
+		CountingTexture c = new CountingTexture(3);
+		CountingTexture d = new CountingTexture(4);
+		cache.get(a, a);
+		cache.get(b, b);
+		cache.get(c, c);
+		cache.get(a, a);
+		cache.get(d, d);
+		assertEquals(1, cache.getEvictions());
+		assertEquals(3 * 64, cache.getBytes());
+		assertTrue(cached(cache, a));
+		assertTrue(cached(cache, c));
+		assertTrue(cached(cache, d));
+		assertFalse(cached(cache, b));
+	}
+
+	@Test
+	public void leastFrequentlyUsedIsEvicted() throws IOException {
+		DecodedTextureCache cache = new DecodedTextureCache(3 * 64, DecodedTextureCache.Policy.LFU, false);
+		CountingTexture a = new CountingTexture(1);
+		CountingTexture b = new CountingTexture(2);
+		CountingTexture c = new CountingTexture(3);
+		CountingTexture d = new CountingTexture(4);
+		cache.get(a, a);
+		cache.get(a, a);
+		cache.get(c, c);
+		cache.get(c, c);
+		cache.get(a, a);
+		cache.get(c, c);
+		cache.get(b, b);
+		cache.get(b, b);
+		// b was used last but twice only, a and c three times
+		cache.get(d, d);
+		assertEquals(1, cache.getEvictions());
+		assertEquals(5, cache.getHits());
+		assertEquals(4, cache.getMisses());
+		assertTrue(cached(cache, a));
+		assertTrue(cached(cache, c));
+		assertTrue(cached(cache, d));
+		assertFalse(cached(cache, b));
+	}
+
+	@Test
+	public void tiesAreEvictedByLastUse() throws IOException {
+		DecodedTextureCache cache = new DecodedTextureCache(2 * 64, DecodedTextureCache.Policy.LFU, false);
+		CountingTexture a = new CountingTexture(1);
+		CountingTexture b = new CountingTexture(2);
+		CountingTexture c = new CountingTexture(3);
+		cache.get(b, b);
+		cache.get(a, a);
+		cache.get(c, c);
+		assertTrue(cached(cache, a));
+		assertTrue(cached(cache, c));
+		assertFalse(cached(cache, b));
+	}
+
+	@Test
+	public void invalidatedTextureIsDecodedAgain() throws IOException {
+		DecodedTextureCache cache = new DecodedTextureCache(1024, DecodedTextureCache.Policy.LRU, true);
+		CountingTexture texture = new CountingTexture(0);
+		assertTrue(cache.get(texture, texture).isDirect());
+		cache.invalidate(texture);
+		assertEquals(0, cache.getBytes());
+		cache.get(texture, texture);
+		assertEquals(2, texture.reads.get());
+		assertEquals(2, cache.getMisses());
+		assertEquals(0, cache.getEvictions());
+	}
+
+	@Test
+	public void shrinkingEvictsAndZeroDisables() throws IOException {
+		DecodedTextureCache cache = new DecodedTextureCache(1024, DecodedTextureCache.Policy.LRU, false);
+		CountingTexture a = new CountingTexture(1);
+		CountingTexture b = new CountingTexture(2);
+		cache.get(a, a);
+		cache.get(b, b);
+		cache.setMaxBytes(64);
+		assertEquals(1, cache.getEvictions());
+		assertEquals(64, cache.getBytes());
+		cache.setMaxBytes(0);
+		assertEquals(0, cache.getBytes());
+		cache.get(a, a);
+		cache.get(a, a);
+		assertEquals(0, cache.getBytes());
+		assertEquals(3, a.reads.get());
+	}
+
+	@Test
+	public void concurrentRequestsDecodeOnce() throws Exception {
+		final DecodedTextureCache cache = new DecodedTextureCache(1024, DecodedTextureCache.Policy.LRU, false);
+		final CountDownLatch reading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountingTexture texture = new CountingTexture(0);
+		final DecodedTextureCache.ImageSource slow = new DecodedTextureCache.ImageSource() {
+			public BufferedImage read() throws IOException {
+				reading.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				return texture.read();
+			}
+		};
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						cache.get(texture, slow);
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		reading.await();
+		Thread.sleep(100);
+		release.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1, texture.reads.get());
+		assertEquals(64, cache.getBytes());
+	}
+}
@@ -0,0 +1,125 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh.tex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.e_nexus.vr.server.VRSession;
+import de.e_nexus.vr.server.VRSessionStorage;
+import de.e_nexus.vr.server.mesh.Mesh;
+import de.e_nexus.vr.server.mesh.Vector;
+
+/**
+ * Tests that a texture is sent to every VR client once and referenced by the
+ * image id of that client afterwards.
+ */
+public class MeshTexturesOutputStreamTest {
+
+	private final VRSessionStorage storage = new VRSessionStorage();
+
+	private final Texture texture = new BufferedImageTexture(new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB));
+
+	private final Mesh<Vector> mesh = new Mesh<Vector>();
+
+	private VRSession first;
+
+	private VRSession second;
+
+	@Before
+	public void twoClients() {
+		mesh.setTexture(TextureStage.DIFFUSE, texture);
+		first = VRSession.registerNewSession(InetAddress.getLoopbackAddress(), storage);
+		second = VRSession.registerNewSession(InetAddress.getLoopbackAddress(), storage);
+	}
+
+	/**
+	 * Writes the textures of the mesh and returns the first texture entry after
+	 * its kind: <code>0</code> for a new texture, <code>1</code> for a
+	 * reference.
+	 */
+	private ByteBuffer write(VRSession session) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		MeshTexturesOutputStream<Vector> out = new MeshTexturesOutputStream<Vector>(bytes);
+		out.writeTextures(mesh, session);
+		out.close();
+		ByteBuffer written = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(1, written.get());
+		return written;
+	}
+
+	private static void assertSent(ByteBuffer written) {
+		assertEquals(0, written.get());
+		assertEquals(TextureStage.DIFFUSE.ordinal(), written.get());
+		assertEquals(2, written.getInt());
+		assertEquals(2, written.getInt());
+		written.position(written.position() + 12);
+		assertEquals(2 * 2 * 4, written.remaining());
+	}
+
+	private static void assertReferenced(int imageId, ByteBuffer written) {
+		assertEquals(1, written.get());
+		assertEquals(TextureStage.DIFFUSE.ordinal(), written.get());
+		assertEquals(imageId, written.getInt());
+		assertEquals(0, written.remaining());
+	}
+
+	@Test
+	public void textureIsSentToEveryClientOnce() throws IOException {
+		assertSent(write(first));
+		first.registerTexture(5, texture);
+		assertReferenced(5, write(first));
+
+		assertFalse(second.hasTexture(texture));
+		assertSent(write(second));
+		second.registerTexture(11, texture);
+		assertReferenced(11, write(second));
+		assertReferenced(5, write(first));
+	}
+
+	@Test
+	public void reusedImageIdSendsTheTextureAgain() throws IOException {
+		first.registerTexture(5, texture);
+		assertTrue(first.hasTexture(texture));
+		first.registerTexture(5, new BufferedImageTexture(new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB)));
+		assertFalse(first.hasTexture(texture));
+		assertSent(write(first));
+	}
+
+	@Test
+	public void textureWithoutSessionIsAlwaysSent() throws IOException {
+		first.registerTexture(5, texture);
+		assertSent(write(null));
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void idOfTheTextureIsIgnored() throws IOException {
+		texture.setId(5);
+		assertNull(texture.getId());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		MeshTexturesOutputStream<Vector> out = new MeshTexturesOutputStream<Vector>(bytes);
+		out.writeTextures(mesh);
+		out.close();
+		ByteBuffer written = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(1, written.get());
+		assertSent(written);
+		assertNull(first.getTexureId(texture));
+	}
+}
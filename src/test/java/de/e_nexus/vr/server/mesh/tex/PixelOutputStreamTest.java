@@ -0,0 +1,122 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh.tex;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that the {@link PixelOutputStream} converts every image type to the
+ * same rgba bytes as the pixel by pixel conversion through the
+ * {@link ColorModel}.
+ */
+public class PixelOutputStreamTest {
+
+	private static BufferedImage image(int type, int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		Random random = new Random(width * 31 + height + type);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				image.setRGB(x, y, random.nextInt());
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Converts an image byte by byte, the way the stream did before the fast
+	 * paths.
+	 */
+	private static byte[] reference(BufferedImage image, int width) {
+		WritableRaster raster = image.getRaster();
+		ColorModel colorModel = image.getColorModel();
+		byte[] rgba = new byte[width * image.getHeight() * 4];
+		int o = 0;
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < width; x++) {
+				Object pixel = raster.getDataElements(x, y, null);
+				rgba[o++] = (byte) colorModel.getRed(pixel);
+				rgba[o++] = (byte) colorModel.getGreen(pixel);
+				rgba[o++] = (byte) colorModel.getBlue(pixel);
+				rgba[o++] = (byte) colorModel.getAlpha(pixel);
+			}
+		}
+		return rgba;
+	}
+
+	private static byte[] readFully(InputStream in, int chunk) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[chunk];
+		int read;
+		while ((read = in.read(buffer, 0, chunk)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	private static void assertConverted(int type, int width, int height) throws Exception {
+		BufferedImage image = image(type, width, height);
+		byte[] expected = reference(image, width);
+		assertArrayEquals(expected, PixelOutputStream.toRGBA(image));
+		assertArrayEquals(expected, readFully(new PixelOutputStream(image), 1000));
+		assertArrayEquals(expected, readFully(new PixelOutputStream(image, width, false), 7));
+		assertArrayEquals(expected, readFully(new PixelOutputStream(image, width, true), 4096));
+	}
+
+	@Test
+	public void intArgbIsConvertedLikeTheColorModel() throws Exception {
+		assertConverted(BufferedImage.TYPE_INT_ARGB, 37, 53);
+	}
+
+	@Test
+	public void intRgbIsOpaque() throws Exception {
+		assertConverted(BufferedImage.TYPE_INT_RGB, 37, 53);
+	}
+
+	@Test
+	public void fourByteAbgrIsConvertedLikeTheColorModel() throws Exception {
+		assertConverted(BufferedImage.TYPE_4BYTE_ABGR, 37, 53);
+	}
+
+	@Test
+	public void threeByteBgrIsOpaque() throws Exception {
+		assertConverted(BufferedImage.TYPE_3BYTE_BGR, 37, 53);
+	}
+
+	@Test
+	public void otherTypesUseTheColorModel() throws Exception {
+		assertConverted(BufferedImage.TYPE_USHORT_565_RGB, 37, 53);
+		assertConverted(BufferedImage.TYPE_BYTE_GRAY, 37, 53);
+	}
+
+	@Test
+	public void largeImagesAreConvertedInParallel() throws Exception {
+		assertConverted(BufferedImage.TYPE_INT_ARGB, 512, 515);
+		assertConverted(BufferedImage.TYPE_4BYTE_ABGR, 600, 450);
+		assertConverted(BufferedImage.TYPE_3BYTE_BGR, 513, 512);
+	}
+
+	@Test
+	public void partOfTheRowsIsStreamed() throws Exception {
+		BufferedImage image = image(BufferedImage.TYPE_INT_ARGB, 40, 20);
+		byte[] expected = reference(image, 25);
+		PixelOutputStream stream = new PixelOutputStream(image.getRaster(), image.getColorModel(), 25);
+		assertEquals(expected.length, stream.available());
+		assertArrayEquals(expected, readFully(stream, 100));
+		assertEquals(0, stream.available());
+		assertEquals(-1, stream.read());
+	}
+}
@@ -0,0 +1,185 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.mesh.tex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import de.e_nexus.vr.server.VRSession;
+import de.e_nexus.vr.server.VRSessionStorage;
+import de.e_nexus.vr.server.mesh.Mesh;
+import de.e_nexus.vr.server.mesh.Vector;
+
+/**
+ * Tests that the {@link TextureRegistry} maps textures of equal pixels to one
+ * canonical texture and that a VR client is told to reuse its image of the
+ * canonical texture.
+ */
+public class TextureRegistryTest {
+
+	/**
+	 * Keeps the tasks until the test runs them.
+	 */
+	private static final class QueuedExecutor implements Executor {
+		private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		void runAll() {
+			while (!tasks.isEmpty()) {
+				tasks.remove(0).run();
+			}
+		}
+	}
+
+	private static Texture texture(int rgb) {
+		BufferedImage image = new BufferedImage(3, 2, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < 2; y++) {
+			for (int x = 0; x < 3; x++) {
+				image.setRGB(x, y, rgb + x);
+			}
+		}
+		return new BufferedImageTexture(image);
+	}
+
+	private static ByteBuffer write(Texture texture, VRSession session, TextureRegistry registry) throws IOException {
+		Mesh<Vector> mesh = new Mesh<Vector>();
+		mesh.setTexture(TextureStage.DIFFUSE, texture);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		MeshTexturesOutputStream<Vector> out = new MeshTexturesOutputStream<Vector>(bytes, null, registry);
+		out.writeTextures(mesh, session);
+		out.close();
+		ByteBuffer written = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(1, written.get());
+		return written;
+	}
+
+	@Test
+	public void equalPixelsHaveOneCanonicalTexture() throws IOException {
+		TextureRegistry registry = new TextureRegistry();
+		Texture first = texture(0xFF000010);
+		Texture equal = texture(0xFF000010);
+		Texture other = texture(0xFF000020);
+		assertSame(first, registry.canonical(first));
+		assertSame(first, registry.canonical(equal));
+		assertSame(other, registry.canonical(other));
+		assertSame(first, registry.canonical(equal));
+		assertEquals(2, registry.size());
+	}
+
+	@Test
+	public void invalidatedCanonicalIsReplaced() throws IOException {
+		TextureRegistry registry = new TextureRegistry();
+		Texture first = texture(0xFF000010);
+		Texture equal = texture(0xFF000010);
+		registry.canonical(first);
+		registry.invalidate(first);
+		assertEquals(0, registry.size());
+		assertSame(equal, registry.canonical(equal));
+		assertSame(equal, registry.canonical(first));
+	}
+
+	@Test
+	public void knownNeverHashesWhileTheClientWaits() throws IOException {
+		TextureRegistry registry = new TextureRegistry();
+		Texture first = texture(0xFF000010);
+		Texture equal = texture(0xFF000010);
+		assertNull(registry.known(first));
+		assertEquals(0, registry.size());
+		registry.canonical(first);
+		assertSame(first, registry.known(first));
+		assertNull(registry.known(equal));
+	}
+
+	@Test
+	public void unknownTexturesAreHashedInBackgroundOnce() {
+		QueuedExecutor executor = new QueuedExecutor();
+		TextureRegistry registry = new TextureRegistry(executor);
+		Texture first = texture(0xFF000010);
+		Texture equal = texture(0xFF000010);
+		assertNull(registry.known(first));
+		assertNull(registry.known(first));
+		assertEquals(1, executor.tasks.size());
+		executor.runAll();
+		assertNull(registry.known(equal));
+		executor.runAll();
+		assertSame(first, registry.known(first));
+		assertSame(first, registry.known(equal));
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	public void clientReusesTheImageOfEqualPixels() throws IOException {
+		QueuedExecutor executor = new QueuedExecutor();
+		TextureRegistry registry = new TextureRegistry(executor);
+		VRSession session = VRSession.registerNewSession(InetAddress.getLoopbackAddress(), new VRSessionStorage());
+		Texture first = texture(0xFF000010);
+		Texture equal = texture(0xFF000010);
+		registry.known(first);
+		executor.runAll();
+		session.registerTexture(7, first);
+
+		// not hashed yet, sent although the client has equal pixels
+		ByteBuffer sent = write(equal, session, registry);
+		assertEquals(0, sent.get());
+		assertEquals(TextureStage.DIFFUSE.ordinal(), sent.get());
+		assertEquals(3, sent.getInt());
+		assertEquals(2, sent.getInt());
+
+		executor.runAll();
+		ByteBuffer reused = write(equal, session, registry);
+		assertEquals(1, reused.get());
+		assertEquals(TextureStage.DIFFUSE.ordinal(), reused.get());
+		assertEquals(7, reused.getInt());
+		assertEquals(0, reused.remaining());
+	}
+
+	@Test
+	public void imageOfTheClientIsRegisteredForTheCanonicalTexture() throws IOException {
+		QueuedExecutor executor = new QueuedExecutor();
+		TextureRegistry registry = new TextureRegistry(executor);
+		VRSession session = VRSession.registerNewSession(InetAddress.getLoopbackAddress(), new VRSessionStorage());
+		Texture first = texture(0xFF000010);
+		Texture equal = texture(0xFF000010);
+		registry.known(first);
+		registry.known(equal);
+		executor.runAll();
+		Mesh<Vector> mesh = new Mesh<Vector>();
+		mesh.setTexture(TextureStage.DIFFUSE, equal);
+		ByteBuffer reply = ByteBuffer.allocate(MeshTextureInfoInputStream.REPLY_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		reply.putInt(3).putInt(9);
+		while (reply.hasRemaining()) {
+			reply.putInt(-1);
+		}
+		reply.flip();
+		MeshTextureInfoInputStream.readTextureIndexes(reply, mesh, session, registry);
+		assertEquals(Integer.valueOf(9), session.getTexureId(equal));
+		assertEquals(Integer.valueOf(9), session.getTexureId(first));
+
+		// the client reuses the id for another image
+		Texture other = texture(0xFF000020);
+		session.registerTexture(9, other);
+		assertNull(session.getTexureId(equal));
+		assertNull(session.getTexureId(first));
+		assertEquals(Integer.valueOf(9), session.getTexureId(other));
+	}
+}
@@ -0,0 +1,100 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests how an {@link OutboundStream} is reused for the responses of the
+ * following steps of a connection.
+ */
+public class OutboundStreamTest {
+
+	@Test
+	public void frameStartsWithItsLength() {
+		OutboundStream out = new OutboundStream(true);
+		out.write(new byte[] { 1, 2, 3 }, 0, 3);
+		List<ByteBuffer> chunks = out.drain();
+		assertEquals(1, chunks.size());
+		ByteBuffer frame = chunks.get(0);
+		assertEquals(7, frame.remaining());
+		assertEquals(3, frame.getInt(0));
+		assertFalse(out.hasChunk());
+	}
+
+	@Test
+	public void emptyFrameIsNotSentAndItsChunkIsReused() {
+		OutboundStream out = new OutboundStream(true);
+		assertTrue(out.drain().isEmpty());
+		assertTrue(out.hasChunk());
+		out.reset(true, null);
+		out.write(9);
+		List<ByteBuffer> chunks = out.drain();
+		assertEquals(1, chunks.size());
+		assertEquals(1, chunks.get(0).getInt(0));
+		assertEquals(9, chunks.get(0).get(4));
+	}
+
+	@Test
+	public void resetKeepsTheSentChunksAndStartsWithTheSpareChunk() {
+		OutboundStream out = new OutboundStream(false);
+		out.write(new byte[] { 1, 2 }, 0, 2);
+		List<ByteBuffer> sent = new ArrayList<ByteBuffer>(out.drain());
+		ByteBuffer spare = ByteBuffer.allocate(OutboundStream.FIRST_CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+		out.reset(false, spare);
+		out.write(new byte[] { 3, 4, 5 }, 0, 3);
+		List<ByteBuffer> next = out.drain();
+		assertEquals(1, sent.size());
+		assertEquals(2, sent.get(0).remaining());
+		assertEquals(1, sent.get(0).get(0));
+		assertSame(spare, next.get(0));
+		assertEquals(3, next.get(0).remaining());
+		assertEquals(3, next.get(0).get(0));
+	}
+
+	@Test
+	public void largePayloadIsSharedAndSmallPayloadCopied() {
+		ByteBuffer large = ByteBuffer.allocateDirect(4096);
+		large.put(0, (byte) 7);
+		ByteBuffer small = ByteBuffer.allocateDirect(16);
+		small.put(0, (byte) 8);
+		OutboundStream out = new OutboundStream(false);
+		out.writeShared(small);
+		out.writeShared(large);
+		List<ByteBuffer> chunks = out.drain();
+		assertEquals(2, chunks.size());
+		assertFalse(chunks.get(0).isDirect());
+		assertEquals(8, chunks.get(0).get(0));
+		assertTrue(chunks.get(1).isDirect());
+		assertEquals(4096, chunks.get(1).remaining());
+		large.put(0, (byte) 9);
+		assertEquals(9, chunks.get(1).get(0));
+		assertEquals(0, large.position());
+	}
+
+	@Test
+	public void onlyFirstChunksAreReusable() {
+		OutboundStream out = new OutboundStream(false);
+		out.write(1);
+		ByteBuffer payload = ByteBuffer.allocate(4096);
+		out.writeShared(payload);
+		List<ByteBuffer> chunks = out.drain();
+		assertEquals(2, chunks.size());
+		assertTrue(OutboundStream.isReusable(chunks.get(0)));
+		assertFalse(OutboundStream.isReusable(chunks.get(1)));
+	}
+}
@@ -0,0 +1,113 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.junit.Test;
+
+import de.e_nexus.vr.server.net.PayloadCompression.Stream;
+
+/**
+ * Tests the blocks of the {@link PayloadCompression}.
+ */
+public class PayloadCompressionTest {
+
+	private final PayloadCompression compression = new PayloadCompression();
+
+	@Test
+	public void smallPayloadsAreStored() throws IOException {
+		byte[] raw = new byte[100];
+		ByteBuffer block = compression.compress(Stream.MESH, ByteBuffer.wrap(raw));
+		assertEquals(PayloadCompression.STORED, block.get(0));
+		assertArrayEquals(raw, decode(block));
+		assertEquals(1, compression.getStats(Stream.MESH).getStoredPayloads());
+	}
+
+	@Test
+	public void compressiblePayloadsAreDeflated() throws Exception {
+		byte[] raw = new byte[100000];
+		Arrays.fill(raw, (byte) 7);
+		ByteBuffer block = compression.compress(Stream.MESH, ByteBuffer.wrap(raw));
+		assertEquals(PayloadCompression.DEFLATE, block.get(0));
+		assertArrayEquals(raw, decode(block));
+		CompressionStats stats = compression.getStats(Stream.MESH);
+		assertEquals(0, stats.getStoredPayloads());
+		assertEquals(block.remaining() - PayloadCompression.BLOCK_HEADER_LENGTH, stats.getCompressedBytes());
+	}
+
+	@Test
+	public void incompressibleBuffersAreStored() throws Exception {
+		byte[] raw = random(200000);
+		ByteBuffer block = compression.compress(Stream.TEXTURE, ByteBuffer.wrap(raw));
+		assertEquals(PayloadCompression.STORED, block.get(0));
+		assertEquals(PayloadCompression.BLOCK_HEADER_LENGTH + raw.length, block.remaining());
+		assertArrayEquals(raw, decode(block));
+		CompressionStats stats = compression.getStats(Stream.TEXTURE);
+		assertEquals(1, stats.getStoredPayloads());
+		assertEquals(raw.length, stats.getCompressedBytes());
+	}
+
+	@Test
+	public void incompressibleStreamsAreStored() throws Exception {
+		byte[] raw = random(200000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		compression.compress(Stream.TEXTURE, new FilterInputStream(new ByteArrayInputStream(raw)) {
+			@Override
+			public boolean markSupported() {
+				return false;
+			}
+		}, raw.length, out);
+		ByteBuffer block = ByteBuffer.wrap(out.toByteArray());
+		assertEquals(PayloadCompression.STORED, block.get(0));
+		assertArrayEquals(raw, decode(block));
+		assertEquals(1, compression.getStats(Stream.TEXTURE).getStoredPayloads());
+	}
+
+	private static byte[] random(int length) {
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Decodes a block the way the VR client does.
+	 */
+	private static byte[] decode(ByteBuffer block) throws IOException {
+		block = block.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		byte method = block.get();
+		byte[] raw = new byte[block.getInt()];
+		byte[] data = new byte[block.getInt()];
+		block.get(data);
+		assertEquals(0, block.remaining());
+		if (method == PayloadCompression.STORED) {
+			return data;
+		}
+		Inflater inflater = new Inflater();
+		inflater.setInput(data);
+		try {
+			assertEquals(raw.length, inflater.inflate(raw));
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+		return raw;
+	}
+}
@@ -0,0 +1,103 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link RingBuffer} of a {@link SharedMemoryLink}: empty and full
+ * rings and copies wrapping around the end of the data.
+ */
+public class RingBufferTest {
+
+	private static final int CAPACITY = 4096;
+
+	private RingBuffer ring;
+
+	@Before
+	public void createRing() {
+		Assume.assumeTrue(SharedMemoryLink.isAvailable());
+		ring = new RingBuffer(ByteBuffer.allocateDirect(RingBuffer.CONTROL + CAPACITY), CAPACITY);
+	}
+
+	@Test
+	public void emptyRingReadsNothing() {
+		ByteBuffer dst = ByteBuffer.allocate(16);
+		assertEquals(0, ring.read(dst));
+		assertEquals(0, dst.position());
+		assertEquals(0, ring.head());
+		assertEquals(0, ring.tail());
+	}
+
+	@Test
+	public void fullRingWritesNothing() {
+		ByteBuffer src = bytes(CAPACITY + 100, 0);
+		assertEquals(CAPACITY, ring.write(src));
+		assertEquals(100, src.remaining());
+		assertEquals(0, ring.write(src));
+		assertEquals(100, src.remaining());
+
+		ByteBuffer dst = ByteBuffer.allocate(10);
+		assertEquals(10, ring.read(dst));
+		assertEquals(10, ring.write(src));
+		assertEquals(90, src.remaining());
+		assertEquals(CAPACITY + 10, ring.head());
+		assertEquals(10, ring.tail());
+	}
+
+	@Test
+	public void copiesWrapAroundTheEnd() {
+		ByteBuffer dst = ByteBuffer.allocate(3000);
+		assertEquals(3000, ring.write(bytes(3000, 0)));
+		assertEquals(3000, ring.read(dst));
+
+		ByteBuffer src = bytes(3000, 7);
+		assertEquals(3000, ring.write(src));
+		dst.clear();
+		assertEquals(3000, ring.read(dst));
+		assertArrayEquals(src.array(), dst.array());
+		assertEquals(6000, ring.head());
+		assertEquals(6000, ring.tail());
+	}
+
+	@Test
+	public void readsAreLimitedByTheDestination() {
+		ByteBuffer src = bytes(CAPACITY - 1, 3);
+		ring.write(src);
+		ByteBuffer all = ByteBuffer.allocate(CAPACITY);
+		for (int chunk = 0; ring.tail() < ring.head(); chunk++) {
+			ByteBuffer dst = ByteBuffer.allocate(1000);
+			int read = ring.read(dst);
+			assertEquals(Math.min(1000, CAPACITY - 1 - chunk * 1000), read);
+			dst.flip();
+			all.put(dst);
+		}
+		assertEquals(0, ring.read(ByteBuffer.allocate(1)));
+		all.flip();
+		src.flip();
+		assertEquals(src, all);
+	}
+
+	/**
+	 * Creates bytes of a recognizable pattern.
+	 */
+	private static ByteBuffer bytes(int length, int seed) {
+		ByteBuffer bytes = ByteBuffer.allocate(length);
+		for (int i = 0; i < length; i++) {
+			bytes.put((byte) (i * 31 + seed));
+		}
+		bytes.flip();
+		return bytes;
+	}
+}
@@ -0,0 +1,157 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.e_nexus.vr.server.VRServer;
+import de.e_nexus.vr.server.codes.Client2ServerCode;
+import de.e_nexus.vr.server.codes.SessionCapability;
+import de.e_nexus.vr.server.listeners.VRClientRequestAppInfo;
+
+/**
+ * Tests frames through a {@link SharedMemoryLink}, between the two sides of a
+ * link and to a {@link VRServer}.
+ */
+public class SharedMemoryLinkTest {
+
+	private Path file;
+
+	@Before
+	public void createFile() throws IOException {
+		Assume.assumeTrue(SharedMemoryLink.isAvailable());
+		file = Files.createTempFile("vrserver", ".shm");
+	}
+
+	@After
+	public void deleteFile() throws IOException {
+		if (file != null) {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void framesLargerThanTheRingArrive() throws Exception {
+		final SharedMemoryLink server = SharedMemoryLink.create(file, 4096);
+		SharedMemoryLink client = SharedMemoryLink.open(file);
+		final byte[] body = new byte[10000];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = (byte) (i * 13);
+		}
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					writeFrame(server, body);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		writer.start();
+		assertArrayEquals(body, readFrame(client).array());
+		writer.join();
+
+		writeFrame(client, new byte[] { 1, 2, 3 });
+		client.close();
+		assertFalse(server.isOpen());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, readFrame(server).array());
+		assertEquals(-1, server.read(ByteBuffer.allocate(1)));
+	}
+
+	@Test
+	public void serverAnswersRequestsOfTheLink() throws Exception {
+		try (VRServer server = new VRServer(0, null)) {
+			server.getListeners().addInfoListener(new VRClientRequestAppInfo() {
+				public String getLatin1Title() {
+					return "Link";
+				}
+			});
+			server.openSharedMemoryLink(file, 4096);
+			server.start();
+			SharedMemoryLink client = SharedMemoryLink.open(file);
+
+			ByteBuffer request = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN);
+			request.put((byte) Client2ServerCode.CREATE_PERSISTENT_SESSION.ordinal());
+			request.putInt(SessionCapability.IMPLICIT_SESSION.bit());
+			request.flip();
+			write(client, request);
+			assertEquals("Link", readString(client));
+			UUID.fromString(readString(client));
+			assertEquals(SessionCapability.IMPLICIT_SESSION.bit(), read(client, 4).getInt());
+
+			writeFrame(client, new byte[] { (byte) Client2ServerCode.GET_REMOVE_MESH.ordinal(), 0 });
+			assertArrayEquals(new byte[] { 0 }, readFrame(client).array());
+
+			// the poller backs off while the link is idle and still notices a request
+			Thread.sleep(100);
+			for (int i = 0; i < 100; i++) {
+				writeFrame(client, new byte[] { (byte) Client2ServerCode.GET_REMOVE_MESH.ordinal(), 0 });
+			}
+			for (int i = 0; i < 100; i++) {
+				assertArrayEquals(new byte[] { 0 }, readFrame(client).array());
+			}
+			client.close();
+		}
+	}
+
+	private static void writeFrame(SharedMemoryLink link, byte[] body) throws IOException {
+		ByteBuffer frame = ByteBuffer.allocate(4 + body.length).order(ByteOrder.LITTLE_ENDIAN);
+		frame.putInt(body.length).put(body).flip();
+		write(link, frame);
+	}
+
+	private static void write(SharedMemoryLink link, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (link.write(buffer) == 0) {
+				LockSupport.parkNanos(10000);
+			}
+		}
+	}
+
+	private static ByteBuffer readFrame(SharedMemoryLink link) throws IOException {
+		return read(link, read(link, 4).getInt());
+	}
+
+	private static String readString(SharedMemoryLink link) throws IOException {
+		return new String(read(link, read(link, 1).get() & 0xFF).array(), "latin1");
+	}
+
+	private static ByteBuffer read(SharedMemoryLink link, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		long deadline = System.currentTimeMillis() + 10000;
+		while (buffer.hasRemaining()) {
+			int read = link.read(buffer);
+			if (read == -1) {
+				throw new EOFException();
+			}
+			if (read == 0) {
+				if (System.currentTimeMillis() > deadline) {
+					throw new IOException("Nothing to read for 10 seconds.");
+				}
+				LockSupport.parkNanos(10000);
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
@@ -0,0 +1,159 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.e_nexus.vr.server.codes.Client2ServerCode;
+import de.e_nexus.vr.server.dispatch.InlineDispatcher;
+import de.e_nexus.vr.server.dispatch.WorkerPoolDispatcher;
+
+/**
+ * Tests how the {@link VRConnectionEngine} serves requests of connections
+ * without frames: one request per connection, collected without blocking.
+ */
+public class VRConnectionEngineTest {
+
+	/**
+	 * The size of the response to {@link Client2ServerCode#GET_INCOMING_MESH},
+	 * far more than the socket buffers hold.
+	 */
+	private static final int LARGE = 16 * 1024 * 1024;
+
+	private final TcpTransport transport = new TcpTransport(0);
+
+	private final List<Throwable> problems = Collections.synchronizedList(new ArrayList<Throwable>());
+
+	private VRConnectionEngine engine;
+
+	private Thread selector;
+
+	private volatile boolean running = true;
+
+	@Before
+	public void startEngine() throws IOException {
+		VRRequestHandler handler = new VRRequestHandler() {
+			public void handleRequest(VRConnection connection, Client2ServerCode code, ByteBuffer in, OutboundStream out) throws IOException {
+				if (code == Client2ServerCode.GET_INCOMING_MESH) {
+					byte[] chunk = new byte[4096];
+					for (int i = 0; i < LARGE; i += chunk.length) {
+						out.write(chunk);
+					}
+					return;
+				}
+				while (in.hasRemaining()) {
+					out.write(in.get());
+				}
+			}
+
+			public void handle(Throwable e) {
+				problems.add(e);
+			}
+		};
+		engine = new VRConnectionEngine(transport, handler, WorkerPoolDispatcher.createDefault("Test", null), new InlineDispatcher());
+		selector = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (running) {
+						engine.cycle(50);
+					}
+				} catch (IOException e) {
+					problems.add(e);
+				}
+			}
+		}, "Test selector");
+		selector.start();
+	}
+
+	@After
+	public void stopEngine() throws Exception {
+		running = false;
+		selector.join(10000);
+		engine.close();
+	}
+
+	private Socket connect() throws IOException {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), transport.getLocalPort());
+		socket.setTcpNoDelay(true);
+		socket.setSoTimeout(10000);
+		return socket;
+	}
+
+	@Test
+	public void requestArrivingByteByByteIsAnsweredAndClosed() throws Exception {
+		Socket socket = connect();
+		byte[] request = { (byte) Client2ServerCode.GET_REMOVE_MESH.ordinal(), 3, 7, 8, 9 };
+		for (byte b : request) {
+			socket.getOutputStream().write(b);
+			socket.getOutputStream().flush();
+			Thread.sleep(20);
+		}
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		byte[] response = new byte[4];
+		in.readFully(response);
+		assertArrayEquals(new byte[] { 3, 7, 8, 9 }, response);
+		assertEquals(-1, in.read());
+		socket.close();
+		assertEquals(Collections.emptyList(), problems);
+	}
+
+	@Test
+	public void slowClientDoesNotDelayOtherClients() throws Exception {
+		Socket slow = connect();
+		slow.getOutputStream().write(new byte[] { (byte) Client2ServerCode.GET_INCOMING_MESH.ordinal(), 0 });
+		// the slow client reads nothing, its response stays in the engine
+		for (int client = 0; client < 10; client++) {
+			Socket socket = connect();
+			socket.getOutputStream().write(new byte[] { (byte) Client2ServerCode.GET_REMOVE_MESH.ordinal(), 1, (byte) client });
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			assertEquals(1, in.read());
+			assertEquals(client, in.read());
+			assertEquals(-1, in.read());
+			socket.close();
+		}
+		InputStream in = slow.getInputStream();
+		byte[] buffer = new byte[65536];
+		long received = 0;
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			received += read;
+		}
+		assertEquals(LARGE, received);
+		slow.close();
+	}
+
+	@Test
+	public void unknownCodeClosesTheConnection() throws Exception {
+		Socket socket = connect();
+		socket.getOutputStream().write(99);
+		assertEquals(-1, socket.getInputStream().read());
+		socket.close();
+		long deadline = System.currentTimeMillis() + 10000;
+		while (problems.isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, problems.size());
+		assertTrue(problems.get(0) instanceof ProtocolException);
+	}
+}
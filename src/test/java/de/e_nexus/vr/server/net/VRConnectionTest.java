@@ -0,0 +1,207 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package de.e_nexus.vr.server.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.e_nexus.vr.server.VRSession;
+import de.e_nexus.vr.server.VRSessionStorage;
+import de.e_nexus.vr.server.codes.Client2ServerCode;
+import de.e_nexus.vr.server.dispatch.InlineDispatcher;
+import de.e_nexus.vr.server.dispatch.WorkerPoolDispatcher;
+
+/**
+ * Tests persistent connections: framed requests, pipelined requests, requests
+ * deferred while a conversation waits for the client and pose requests that
+ * overtake a request in progress.
+ */
+public class VRConnectionTest {
+
+	private final TcpTransport transport = new TcpTransport(0);
+
+	private final VRSessionStorage sessions = new VRSessionStorage();
+
+	private final List<Throwable> problems = Collections.synchronizedList(new ArrayList<Throwable>());
+
+	/**
+	 * Counted down by every pose request.
+	 */
+	private final CountDownLatch posed = new CountDownLatch(1);
+
+	private VRConnectionEngine engine;
+
+	private Thread selector;
+
+	private volatile boolean running = true;
+
+	private Socket socket;
+
+	private DataInputStream in;
+
+	@Before
+	public void startEngine() throws IOException {
+		VRRequestHandler handler = new VRRequestHandler() {
+			public void handleRequest(VRConnection connection, Client2ServerCode code, ByteBuffer in, OutboundStream out) throws IOException {
+				switch (code) {
+				case CREATE_PERSISTENT_SESSION:
+					connection.persist(VRSession.registerNewSession(InetAddress.getLoopbackAddress(), sessions));
+					out.write(1);
+					break;
+				case GET_INCOMING_MESH:
+					final byte value = in.get(in.position() + 1);
+					if (value == 0) {
+						await();
+					}
+					out.write(value);
+					connection.expectReply(4, new VRReplyHandler() {
+						public void handleReply(ByteBuffer in, OutboundStream out) {
+							out.writeLittleEndian(in.getInt() + value);
+						}
+					});
+					break;
+				case SEND_HELMET_AND_CONTROLLER_INFO:
+					posed.countDown();
+					break;
+				default:
+					while (in.hasRemaining()) {
+						out.write(in.get());
+					}
+				}
+			}
+
+			public void handle(Throwable e) {
+				problems.add(e);
+			}
+		};
+		engine = new VRConnectionEngine(transport, handler, WorkerPoolDispatcher.createDefault("Test", null), new InlineDispatcher());
+		selector = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (running) {
+						engine.cycle(50);
+					}
+				} catch (IOException e) {
+					problems.add(e);
+				}
+			}
+		}, "Test selector");
+		selector.start();
+
+		socket = new Socket(InetAddress.getLoopbackAddress(), transport.getLocalPort());
+		socket.setTcpNoDelay(true);
+		socket.setSoTimeout(10000);
+		in = new DataInputStream(socket.getInputStream());
+		socket.getOutputStream().write(new byte[] { (byte) Client2ServerCode.CREATE_PERSISTENT_SESSION.ordinal(), 0, 0, 0, 0 });
+		assertEquals(1, in.read());
+	}
+
+	@After
+	public void stopEngine() throws Exception {
+		socket.close();
+		running = false;
+		selector.join(10000);
+		engine.close();
+	}
+
+	private void await() {
+		try {
+			assertTrue("The pose did not overtake.", posed.await(10, TimeUnit.SECONDS));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static byte[] frame(Client2ServerCode code, byte... payload) {
+		ByteBuffer frame = ByteBuffer.allocate(5 + payload.length).order(ByteOrder.LITTLE_ENDIAN);
+		frame.putInt(1 + payload.length).put((byte) code.ordinal()).put(payload);
+		return frame.array();
+	}
+
+	private static byte[] answer(int answer) {
+		ByteBuffer payload = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		payload.putInt(answer);
+		return frame(Client2ServerCode.CONTINUE, payload.array());
+	}
+
+	private ByteBuffer readFrame() throws IOException {
+		byte[] length = new byte[4];
+		in.readFully(length);
+		byte[] body = new byte[ByteBuffer.wrap(length).order(ByteOrder.LITTLE_ENDIAN).getInt()];
+		in.readFully(body);
+		return ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	@Test
+	public void pipelinedRequestsAreAnsweredInOrder() throws IOException {
+		OutputStream out = socket.getOutputStream();
+		for (int i = 0; i < 50; i++) {
+			out.write(frame(Client2ServerCode.GET_REMOVE_MESH, (byte) 2, (byte) i, (byte) -i));
+		}
+		for (int i = 0; i < 50; i++) {
+			assertArrayEquals(new byte[] { 2, (byte) i, (byte) -i }, readFrame().array());
+		}
+		assertEquals(Collections.emptyList(), problems);
+	}
+
+	@Test
+	public void requestsWaitUntilTheConversationEnds() throws IOException {
+		OutputStream out = socket.getOutputStream();
+		out.write(frame(Client2ServerCode.GET_INCOMING_MESH, (byte) 1, (byte) 7));
+		out.write(frame(Client2ServerCode.GET_REMOVE_MESH, (byte) 1, (byte) 42));
+		out.write(answer(100));
+		assertArrayEquals(new byte[] { 7 }, readFrame().array());
+		assertEquals(107, readFrame().getInt());
+		assertArrayEquals(new byte[] { 1, 42 }, readFrame().array());
+		assertEquals(Collections.emptyList(), problems);
+	}
+
+	@Test
+	public void poseOvertakesTheRequestInProgress() throws IOException {
+		OutputStream out = socket.getOutputStream();
+		out.write(frame(Client2ServerCode.GET_INCOMING_MESH, (byte) 1, (byte) 0));
+		out.write(frame(Client2ServerCode.SEND_HELMET_AND_CONTROLLER_INFO, new byte[RequestDecoder.HELMET_AND_CONTROLLER_INFO_LENGTH]));
+		assertArrayEquals(new byte[] { 0 }, readFrame().array());
+		out.write(answer(5));
+		assertEquals(5, readFrame().getInt());
+		assertEquals(Collections.emptyList(), problems);
+	}
+
+	@Test
+	public void answerOfTheWrongLengthClosesTheConnection() throws Exception {
+		OutputStream out = socket.getOutputStream();
+		out.write(frame(Client2ServerCode.GET_INCOMING_MESH, (byte) 1, (byte) 3));
+		assertArrayEquals(new byte[] { 3 }, readFrame().array());
+		out.write(frame(Client2ServerCode.CONTINUE, (byte) 1));
+		assertEquals(-1, in.read());
+		long deadline = System.currentTimeMillis() + 10000;
+		while (problems.isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, problems.size());
+		assertTrue(problems.get(0) instanceof ProtocolException);
+	}
+}
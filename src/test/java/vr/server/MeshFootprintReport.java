@@ -0,0 +1,66 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package vr.server;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import de.e_nexus.vr.server.mesh.Triangle;
+import de.e_nexus.vr.server.mesh.TriangleIndices;
+
+/**
+ * Compares the heap a mesh needs for its triangles stored as set of
+ * {@link Triangle} objects and as {@link TriangleIndices}, and the time to
+ * append them.
+ */
+public class MeshFootprintReport {
+
+	private static final int[] TRIANGLES = { 100000, 1000000, 3000000 };
+
+	public static void main(String[] args) {
+		System.out.println("triangles\tset B/tri\tindices B/tri\tset ms\tindices ms");
+		for (int triangles : TRIANGLES) {
+			report(triangles);
+		}
+	}
+
+	private static void report(int count) {
+		long before = usedHeap();
+		long start = System.nanoTime();
+		Set<Triangle> set = new LinkedHashSet<Triangle>();
+		for (int i = 0; i < count; i++) {
+			set.add(new Triangle(i, i + 1, i + 2));
+		}
+		long setMillis = (System.nanoTime() - start) / 1000000;
+		long setBytes = usedHeap() - before;
+		if (set.size() != count) {
+			throw new IllegalStateException();
+		}
+		set = null;
+
+		before = usedHeap();
+		start = System.nanoTime();
+		TriangleIndices indices = new TriangleIndices();
+		for (int i = 0; i < count; i++) {
+			indices.add(i, i + 1, i + 2);
+		}
+		long indicesMillis = (System.nanoTime() - start) / 1000000;
+		long indicesBytes = usedHeap() - before;
+		if (indices.size() != count) {
+			throw new IllegalStateException();
+		}
+		System.out.println(count + "\t" + setBytes / count + "\t" + indicesBytes / count + " (" + indices.getFootprint() / count + " reserved)\t" + setMillis + "\t" + indicesMillis);
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,94 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package vr.server;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.e_nexus.vr.server.VRSession;
+import de.e_nexus.vr.server.VRSessionStorage;
+import de.e_nexus.vr.server.mesh.Mesh;
+import de.e_nexus.vr.server.mesh.Vector;
+
+/**
+ * Measures how adding and removing many meshes scales with the number of
+ * meshes the clients have.
+ * <p>
+ * Every session registers the ids of all meshes, then every mesh is marked for
+ * removal in every session, as <code>VRServer.removeMesh</code> does, and the
+ * marked meshes are removed. The time per mesh and session must not grow with
+ * the number of meshes.
+ */
+public class MeshIdBenchmark {
+
+	private static final int SESSIONS = 20;
+
+	private static final int[] MESHES = { 1250, 2500, 5000, 10000, 20000 };
+
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		MeshIdBenchmark benchmark = new MeshIdBenchmark();
+		benchmark.run(MESHES[MESHES.length - 1]);
+		System.out.println("meshes\tadd ns\tlookup ns\tremove ns");
+		for (int meshes : MESHES) {
+			benchmark.run(meshes);
+		}
+	}
+
+	public void run(int meshCount) throws Exception {
+		VRSessionStorage storage = new VRSessionStorage();
+		List<VRSession> sessions = new ArrayList<VRSession>(SESSIONS);
+		for (int i = 0; i < SESSIONS; i++) {
+			sessions.add(VRSession.registerNewSession(InetAddress.getLoopbackAddress(), storage));
+		}
+		List<Mesh<Vector>> meshes = new ArrayList<Mesh<Vector>>(meshCount);
+		for (int i = 0; i < meshCount; i++) {
+			meshes.add(new Mesh<Vector>());
+		}
+		long add = Long.MAX_VALUE;
+		long lookup = Long.MAX_VALUE;
+		long remove = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (VRSession session : sessions) {
+				for (int i = 0; i < meshCount; i++) {
+					session.registerMesh(i, meshes.get(i));
+				}
+			}
+			long added = System.nanoTime();
+			int found = 0;
+			for (VRSession session : sessions) {
+				for (Mesh<Vector> mesh : meshes) {
+					if (session.hasMesh(mesh) && session.getMeshId(mesh) != null) {
+						found++;
+					}
+				}
+			}
+			long looked = System.nanoTime();
+			for (Mesh<Vector> mesh : meshes) {
+				for (VRSession session : sessions) {
+					session.markRemoveMesh(mesh);
+				}
+			}
+			int removed = 0;
+			for (VRSession session : sessions) {
+				removed += session.removeMeshesMarkedForRemoval().size();
+			}
+			long end = System.nanoTime();
+			if (found != meshCount * SESSIONS || removed != meshCount * SESSIONS) {
+				throw new IllegalStateException("Found " + found + " and removed " + removed + " of " + meshCount * SESSIONS + " meshes.");
+			}
+			add = Math.min(add, added - start);
+			lookup = Math.min(lookup, looked - added);
+			remove = Math.min(remove, end - looked);
+		}
+		long operations = (long) meshCount * SESSIONS;
+		System.out.println(meshCount + "\t" + add / operations + "\t" + lookup / operations + "\t" + remove / operations);
+	}
+}
@@ -0,0 +1,63 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package vr.server;
+
+import de.e_nexus.vr.server.mesh.EncodedMesh;
+import de.e_nexus.vr.server.mesh.Mesh;
+import de.e_nexus.vr.server.mesh.MeshLod;
+import de.e_nexus.vr.server.mesh.MeshLodBuilder;
+import de.e_nexus.vr.server.mesh.NormalVector;
+import de.e_nexus.vr.server.mesh.PackedVertices;
+import de.e_nexus.vr.server.mesh.Vector;
+
+/**
+ * Reports the triangles and the encoded size of every level of detail built
+ * by the {@link MeshLodBuilder}, and the time the levels take.
+ */
+public class MeshLodReport {
+
+	private static final int[] GRIDS = { 64, 256, 512 };
+
+	public static void main(String[] args) {
+		for (int grid : GRIDS) {
+			report("terrain " + grid + "x" + grid, terrain(new Mesh<NormalVector>(), grid));
+			report("packed terrain " + grid + "x" + grid, terrain(new Mesh<NormalVector>(new PackedVertices(false)), grid));
+		}
+	}
+
+	/**
+	 * Creates a hilly terrain whose quads share their vertices.
+	 */
+	private static Mesh<NormalVector> terrain(Mesh<NormalVector> mesh, int grid) {
+		for (int z = 0; z <= grid; z++) {
+			for (int x = 0; x <= grid; x++) {
+				float height = (float) (Math.sin(x * 0.1) * Math.cos(z * 0.07)) * 2;
+				mesh.addVector(new NormalVector(new Vector(x, height, z), 0f, 1f, 0f));
+			}
+		}
+		for (int z = 0; z < grid; z++) {
+			for (int x = 0; x < grid; x++) {
+				int a = z * (grid + 1) + x;
+				mesh.addSquareClockwise(a, a + 1, a + grid + 2, a + grid + 1);
+			}
+		}
+		return mesh;
+	}
+
+	private static void report(String name, Mesh<?> mesh) {
+		long start = System.nanoTime();
+		MeshLod lod = new MeshLodBuilder(mesh).invoke();
+		long millis = (System.nanoTime() - start) / 1000000;
+		StringBuilder sb = new StringBuilder(name).append(":");
+		for (int i = 0; i < lod.size(); i++) {
+			Mesh<?> level = lod.getLevel(i);
+			sb.append(" [").append(level.getTriangles().size()).append(" triangles, ");
+			sb.append(EncodedMesh.encodedSize(level, false)).append(" bytes from ").append(lod.getDistance(i)).append(" m]");
+		}
+		System.out.println(sb.append(", ").append(millis).append(" ms"));
+	}
+}
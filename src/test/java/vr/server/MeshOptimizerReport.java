@@ -0,0 +1,88 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package vr.server;
+
+import java.util.Random;
+
+import de.e_nexus.vr.server.mesh.Mesh;
+import de.e_nexus.vr.server.mesh.MeshOptimizer;
+import de.e_nexus.vr.server.mesh.NormalVector;
+import de.e_nexus.vr.server.mesh.PackedVertices;
+import de.e_nexus.vr.server.mesh.UVNormalMeshBuilder;
+import de.e_nexus.vr.server.mesh.UVVector;
+import de.e_nexus.vr.server.mesh.Vector;
+
+/**
+ * Reports the vertices, indices and cache misses of meshes before and after
+ * the {@link MeshOptimizer}, and the time the optimization takes.
+ */
+public class MeshOptimizerReport {
+
+	private static final int[] GRIDS = { 64, 256, 1024 };
+
+	public static void main(String[] args) {
+		Mesh<UVVector> cube = new Mesh<UVVector>();
+		cube.addCube(0, 0, 0, 1, 1);
+		report("cube", cube);
+
+		UVNormalMeshBuilder builder = new UVNormalMeshBuilder();
+		for (int x = 0; x < 16; x++) {
+			for (int z = 0; z < 16; z++) {
+				builder.addSquare(x, 0, z, x + 1, 0, z, x + 1, 0, z + 1, x, 0, z + 1);
+			}
+		}
+		report("floor 16x16", builder.buildAndReset());
+
+		for (int grid : GRIDS) {
+			report("terrain " + grid + "x" + grid, terrain(new Mesh<NormalVector>(), grid));
+			report("packed terrain " + grid + "x" + grid, terrain(new Mesh<NormalVector>(new PackedVertices(false)), grid));
+		}
+	}
+
+	/**
+	 * Creates a terrain of quads, every quad having its own four vertices, the
+	 * quads in random order.
+	 */
+	private static Mesh<NormalVector> terrain(Mesh<NormalVector> mesh, int grid) {
+		Random random = new Random(grid);
+		float[] heights = new float[(grid + 1) * (grid + 1)];
+		for (int i = 0; i < heights.length; i++) {
+			heights[i] = random.nextInt(4) * 0.25f;
+		}
+		int[] quads = new int[grid * grid];
+		for (int i = 0; i < quads.length; i++) {
+			quads[i] = i;
+		}
+		for (int i = quads.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = quads[i];
+			quads[i] = quads[j];
+			quads[j] = swap;
+		}
+		for (int quad : quads) {
+			int x = quad % grid;
+			int z = quad / grid;
+			int a = mesh.addVector(corner(heights, grid, x, z));
+			int b = mesh.addVector(corner(heights, grid, x + 1, z));
+			int c = mesh.addVector(corner(heights, grid, x + 1, z + 1));
+			int d = mesh.addVector(corner(heights, grid, x, z + 1));
+			mesh.addSquareClockwise(a, b, c, d);
+		}
+		return mesh;
+	}
+
+	private static NormalVector corner(float[] heights, int grid, int x, int z) {
+		return new NormalVector(new Vector(x, heights[z * (grid + 1) + x], z), 0f, 1f, 0f);
+	}
+
+	private static void report(String name, Mesh<?> mesh) {
+		long start = System.nanoTime();
+		MeshOptimizer.Report report = new MeshOptimizer(mesh).invoke();
+		long millis = (System.nanoTime() - start) / 1000000;
+		System.out.println(name + ": " + report + ", " + millis + " ms");
+	}
+}
@@ -0,0 +1,168 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package vr.server;
+
+import java.awt.Color;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.locks.LockSupport;
+
+import de.e_nexus.vr.server.VRClientHelmetAndControllerListener;
+import de.e_nexus.vr.server.VRServer;
+import de.e_nexus.vr.server.codes.Client2ServerCode;
+import de.e_nexus.vr.server.codes.SessionCapability;
+import de.e_nexus.vr.server.listeners.VRClientRequestAppInfo;
+import de.e_nexus.vr.server.listeners.VRExceptionListener;
+import de.e_nexus.vr.server.listeners.interaction.HelmetAndControllerInfo;
+import de.e_nexus.vr.server.mesh.Mesh;
+import de.e_nexus.vr.server.mesh.UVVector;
+import de.e_nexus.vr.server.mesh.tex.MeshTextureInfoInputStream;
+import de.e_nexus.vr.server.mesh.tex.TextureStage;
+import de.e_nexus.vr.server.net.RequestDecoder;
+import de.e_nexus.vr.server.net.SharedMemoryLink;
+import de.e_nexus.vr.server.util.TextureTools;
+
+/**
+ * A stand-in for the VR client using a {@link SharedMemoryLink}.
+ * <p>
+ * Without arguments a server having some meshes is started in this JVM. With
+ * the path of a link file as argument the client maps the link of a server
+ * running in another process.
+ */
+public class SharedMemoryClient {
+
+	private final SharedMemoryLink link;
+
+	public SharedMemoryClient(SharedMemoryLink link) {
+		this.link = link;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 1) {
+			new SharedMemoryClient(SharedMemoryLink.open(Paths.get(args[0]))).run();
+			return;
+		}
+		VRServer server = new VRServer(0, null);
+		server.getListeners().addInfoListener(new VRClientRequestAppInfo() {
+			public String getLatin1Title() {
+				return "Shared Memory Client";
+			}
+		});
+		server.getListeners().addInteractionListener(new VRClientHelmetAndControllerListener() {
+			public void notify(HelmetAndControllerInfo haci) {
+				System.out.println("Pose received: " + haci);
+			}
+		});
+		server.getListeners().addVRExceptionListener(new VRExceptionListener() {
+			public void handle(Throwable e) {
+				e.printStackTrace();
+			}
+		});
+		for (int i = 0; i < 3; i++) {
+			Mesh<UVVector> cube = new Mesh<UVVector>();
+			cube.setTexture(TextureStage.DIFFUSE, TextureTools.fromColor(Color.GREEN));
+			cube.addCube(i, 0, 0, 1, 1);
+			server.addMesh(cube);
+		}
+		Path file = Files.createTempFile("vrserver", ".shm");
+		server.openSharedMemoryLink(file, 1 << 20);
+		server.start();
+		try {
+			new SharedMemoryClient(SharedMemoryLink.open(file)).run();
+		} finally {
+			server.stop();
+			while (server.getThread() != null) {
+				Thread.sleep(10);
+			}
+			Files.delete(file);
+		}
+	}
+
+	public void run() throws IOException {
+		ByteBuffer request = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN);
+		request.put((byte) Client2ServerCode.CREATE_PERSISTENT_SESSION.ordinal());
+		request.putInt(SessionCapability.IMPLICIT_SESSION.bit());
+		request.flip();
+		write(request);
+		String title = readString();
+		String uuid = readString();
+		int capabilities = read(4).getInt();
+		System.out.println("Session " + uuid + " of \"" + title + "\", capabilities " + capabilities);
+
+		ByteBuffer pose = ByteBuffer.allocate(1 + RequestDecoder.HELMET_AND_CONTROLLER_INFO_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		pose.put((byte) Client2ServerCode.SEND_HELMET_AND_CONTROLLER_INFO.ordinal());
+		pose.putFloat(0).putFloat(1.7f).putFloat(0);
+		writeFrame(pose.array());
+
+		long start = System.nanoTime();
+		writeFrame(new byte[] { (byte) Client2ServerCode.GET_INCOMING_MESH.ordinal(), 0 });
+		ByteBuffer frame = readFrame();
+		int meshes = frame.get() & 0xFF;
+		long bytes = frame.capacity();
+		for (int i = 0; i < meshes; i++) {
+			ByteBuffer answer = ByteBuffer.allocate(1 + MeshTextureInfoInputStream.REPLY_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+			answer.put((byte) Client2ServerCode.CONTINUE.ordinal());
+			answer.putInt(100 + i);
+			while (answer.hasRemaining()) {
+				answer.putInt(-1);
+			}
+			writeFrame(answer.array());
+			if (i < meshes - 1) {
+				bytes += readFrame().capacity();
+			}
+		}
+		long nanos = System.nanoTime() - start;
+		System.out.println(meshes + " meshes of " + bytes + " bytes received in " + nanos / 1000 + " us");
+
+		writeFrame(new byte[] { (byte) Client2ServerCode.GET_REMOVE_MESH.ordinal(), 0 });
+		System.out.println((readFrame().get() & 0xFF) + " meshes to remove");
+		link.close();
+	}
+
+	private void writeFrame(byte[] body) throws IOException {
+		ByteBuffer frame = ByteBuffer.allocate(4 + body.length).order(ByteOrder.LITTLE_ENDIAN);
+		frame.putInt(body.length).put(body).flip();
+		write(frame);
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (link.write(buffer) == 0) {
+				LockSupport.parkNanos(10000);
+			}
+		}
+	}
+
+	private ByteBuffer readFrame() throws IOException {
+		return read(read(4).getInt());
+	}
+
+	private String readString() throws IOException {
+		ByteBuffer bytes = read(read(1).get() & 0xFF);
+		return new String(bytes.array(), "latin1");
+	}
+
+	private ByteBuffer read(int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			int read = link.read(buffer);
+			if (read == -1) {
+				throw new EOFException();
+			}
+			if (read == 0) {
+				LockSupport.parkNanos(10000);
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
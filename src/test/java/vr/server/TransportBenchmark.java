@@ -0,0 +1,142 @@
+/*  _    ______   _____ Copyright GPL by Peter Rader 2019                          
+ * | |  / / __ \ / ___/___  ______   _____  _____
+ * | | / / /_/ / \__ \/ _ \/ ___/ | / / _ \/ ___/
+ * | |/ / _, _/ ___/ /  __/ /   | |/ /  __/ /    
+ * |___/_/ |_| /____/\___/_/    |___/\___/_/     
+ */
+package vr.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import de.e_nexus.vr.server.VRServer;
+import de.e_nexus.vr.server.codes.Client2ServerCode;
+import de.e_nexus.vr.server.codes.SessionCapability;
+import de.e_nexus.vr.server.listeners.VRClientRequestAppInfo;
+import de.e_nexus.vr.server.listeners.VRExceptionListener;
+import de.e_nexus.vr.server.net.TcpTransport;
+import de.e_nexus.vr.server.net.UnixDomainTransport;
+import de.e_nexus.vr.server.net.VRTransport;
+
+/**
+ * Compares the latency and the throughput of TCP loopback and Unix domain
+ * sockets using a persistent connection.
+ * <p>
+ * The latency is the round trip of an empty
+ * {@link Client2ServerCode#GET_REMOVE_MESH}, the throughput is measured by
+ * pipelining such requests.
+ */
+public class TransportBenchmark {
+
+	private static final int ROUND_TRIPS = 20000;
+
+	private static final int PIPELINED = 500000;
+
+	/**
+	 * The number of requests sent before the responses are read.
+	 */
+	private static final int WINDOW = 100;
+
+	public static void main(String[] args) throws Exception {
+		TransportBenchmark benchmark = new TransportBenchmark();
+		benchmark.run(new TcpTransport(0));
+		if (UnixDomainTransport.isAvailable()) {
+			Path dir = Files.createTempDirectory("vrserver");
+			benchmark.run(new UnixDomainTransport(dir.resolve("vr.sock")));
+			Files.deleteIfExists(dir);
+		} else {
+			System.out.println("Unix domain sockets are not available on this JDK.");
+		}
+	}
+
+	public void run(VRTransport transport) throws IOException, InterruptedException {
+		VRServer server = new VRServer(transport, null, null);
+		server.getListeners().addInfoListener(new VRClientRequestAppInfo() {
+			public String getLatin1Title() {
+				return "Transport Benchmark";
+			}
+		});
+		server.getListeners().addVRExceptionListener(new VRExceptionListener() {
+			public void handle(Throwable e) {
+				e.printStackTrace();
+			}
+		});
+		server.start();
+		SocketChannel channel = transport.connect();
+		try {
+			createPersistentSession(channel);
+			measureLatency(transport, channel);
+			measureThroughput(transport, channel);
+		} finally {
+			channel.close();
+			server.stop();
+			while (server.getThread() != null) {
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	private void createPersistentSession(SocketChannel channel) throws IOException {
+		ByteBuffer request = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN);
+		request.put((byte) Client2ServerCode.CREATE_PERSISTENT_SESSION.ordinal());
+		request.putInt(SessionCapability.IMPLICIT_SESSION.bit());
+		request.flip();
+		write(channel, request);
+		read(channel, read(channel, 1).get() & 0xFF);
+		read(channel, read(channel, 1).get() & 0xFF);
+		read(channel, 4);
+	}
+
+	private void measureLatency(VRTransport transport, SocketChannel channel) throws IOException {
+		ByteBuffer request = ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN);
+		request.putInt(2).put((byte) Client2ServerCode.GET_REMOVE_MESH.ordinal()).put((byte) 0);
+		long[] nanos = new long[ROUND_TRIPS];
+		for (int i = 0; i < ROUND_TRIPS; i++) {
+			request.flip();
+			long start = System.nanoTime();
+			write(channel, request);
+			read(channel, 5);
+			nanos[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		System.out.println(transport + ": round trip median " + nanos[ROUND_TRIPS / 2] / 1000 + " us, 99% " + nanos[ROUND_TRIPS * 99 / 100] / 1000 + " us");
+	}
+
+	private void measureThroughput(VRTransport transport, SocketChannel channel) throws IOException {
+		ByteBuffer requests = ByteBuffer.allocateDirect(6 * WINDOW).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < WINDOW; i++) {
+			requests.putInt(2).put((byte) Client2ServerCode.GET_REMOVE_MESH.ordinal()).put((byte) 0);
+		}
+		long start = System.nanoTime();
+		for (int sent = 0; sent < PIPELINED; sent += WINDOW) {
+			requests.flip();
+			write(channel, requests);
+			read(channel, 5 * WINDOW);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(transport + ": " + Math.round(PIPELINED / seconds) + " pipelined requests/s, " + Math.round(PIPELINED * 11 / seconds / 1024) + " KB/s");
+	}
+
+	private static void write(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static ByteBuffer read(SocketChannel channel, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) == -1) {
+				throw new EOFException();
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
@@ -11,6 +11,8 @@ import java.io.File;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 
+import org.junit.Test;
+
 import de.e_nexus.vr.server.VRServer;
 import de.e_nexus.vr.server.listeners.VRClientRequestAppInfo;
 import de.e_nexus.vr.server.listeners.VRClientStatusListener;
@@ -67,6 +69,7 @@ public class VRTest {
 		r.stop();
 	}
 
+	@Test
 	public void testBoxesNormalsAndTexture() throws IOException, InterruptedException {
 		System.out.println("Test Boxes");
 		VRServer r = new VRServer();